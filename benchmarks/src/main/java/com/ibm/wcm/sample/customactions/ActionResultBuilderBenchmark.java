@@ -0,0 +1,99 @@
+/*
+ * Copyright 2014  IBM Corp.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.ibm.wcm.sample.customactions;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ibm.workplace.wcm.api.custom.CustomWorkflowActionResult;
+import com.ibm.workplace.wcm.api.custom.Directives;
+
+/**
+ * Benchmarks building action results. The custom workflow service is a local stand-in.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ActionResultBuilderBenchmark
+{
+   /**
+    * Install the stand-in custom workflow service
+    */
+   @Setup
+   public void setUp()
+   {
+      WorkflowServiceLocator.setProvider(StandIns.workflowServiceProvider());
+   }
+
+   /**
+    * The common success result without a message
+    * @return the result
+    */
+   @Benchmark
+   public CustomWorkflowActionResult continueResult()
+   {
+      return ActionResultBuilder.with(Directives.CONTINUE).toResult();
+   }
+
+   /**
+    * The shared success result, returned without a builder
+    * @return the result
+    */
+   @Benchmark
+   public CustomWorkflowActionResult sharedContinueResult()
+   {
+      return ActionResultBuilder.result(Directives.CONTINUE);
+   }
+
+   /**
+    * A success result with a message, created without a builder
+    * @return the result
+    */
+   @Benchmark
+   public CustomWorkflowActionResult continueWithMessageShortcut()
+   {
+      return ActionResultBuilder.result(Directives.CONTINUE, "Email sent successfully");
+   }
+
+   /**
+    * A success result with a message
+    * @return the result
+    */
+   @Benchmark
+   public CustomWorkflowActionResult continueWithMessage()
+   {
+      return ActionResultBuilder.with(Directives.CONTINUE).message("Email sent successfully").toResult();
+   }
+
+   /**
+    * A rollback result with a custom error message
+    * @return the result
+    */
+   @Benchmark
+   public CustomWorkflowActionResult rollback()
+   {
+      return ActionResultBuilder.with(Directives.CONTINUE).rollback("Benchmark failure").toResult();
+   }
+}
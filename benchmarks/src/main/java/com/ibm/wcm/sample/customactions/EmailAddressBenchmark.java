@@ -0,0 +1,107 @@
+/*
+ * Copyright 2014  IBM Corp.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.ibm.wcm.sample.customactions;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.Message;
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks setting the recipients of a workflow email sent to a group mailing list: parsing
+ * each address and adding it on its own, against cached addresses set in one call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EmailAddressBenchmark
+{
+   /** Mail host, only used to select the shared mail session */
+   private static final String MAIL_HOST = "localhost";
+
+   /** Number of to recipients */
+   @Param({"10", "100", "500"})
+   public int recipients;
+
+   /** The to recipients, with a null entry as group members without an email address produce */
+   private List<String> m_to;
+
+   /** The mail session */
+   private Session m_session;
+
+   /**
+    * Create the recipients
+    */
+   @Setup
+   public void setUp()
+   {
+      m_to = new ArrayList<String>(recipients + 1);
+      for (int i = 0; i < recipients; i++)
+      {
+         m_to.add("approver" + i + "@example.com");
+      }
+      m_to.add(null);
+      m_session = EmailDelivery.getInstance().getSession(MAIL_HOST);
+   }
+
+   /**
+    * Baseline: parse every address and add the recipients one at a time
+    * @return the message
+    * @throws Exception if an address cannot be parsed
+    */
+   @Benchmark
+   public MimeMessage addRecipient() throws Exception
+   {
+      MimeMessage msg = new MimeMessage(m_session);
+      for (String address : m_to)
+      {
+         if (address != null)
+         {
+            msg.addRecipient(Message.RecipientType.TO, new InternetAddress(address));
+         }
+      }
+      return msg;
+   }
+
+   /**
+    * Look the addresses up in the cache and set the recipients in one call
+    * @return the message
+    * @throws Exception if the recipients cannot be set
+    */
+   @Benchmark
+   public MimeMessage cachedSetRecipients() throws Exception
+   {
+      MimeMessage msg = new MimeMessage(m_session);
+      List<String> invalid = new ArrayList<String>();
+      msg.setRecipients(Message.RecipientType.TO, EmailAddressCache.getInstance().parse(m_to, invalid));
+      return msg;
+   }
+}
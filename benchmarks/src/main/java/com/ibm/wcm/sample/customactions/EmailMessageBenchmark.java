@@ -0,0 +1,132 @@
+/*
+ * Copyright 2014  IBM Corp.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.ibm.wcm.sample.customactions;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.internet.MimeMessage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ibm.workplace.wcm.api.Document;
+import com.ibm.workplace.wcm.api.Editable;
+
+/**
+ * Benchmarks composing the workflow email: rendering the templates and building the MimeMessage.
+ * No connection to a mail server is made.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EmailMessageBenchmark
+{
+   /** Mail host, only used to select the shared mail session */
+   private static final String MAIL_HOST = "localhost";
+
+   /** Number of to recipients */
+   @Param({"1", "10", "100"})
+   public int recipients;
+
+   /** The to recipients */
+   private List<String> m_to;
+
+   /** The document */
+   private Document m_document;
+
+   /** Subject template */
+   private static final String SUBJECT = "Workflow notification: ${title}";
+
+   /** Body template */
+   private static final String BODY = "The document ${title} (${id}) by ${authors} is ready for review.";
+
+   /** Compiled subject template */
+   private static final EmailTemplate COMPILED_SUBJECT = EmailTemplate.compile(SUBJECT);
+
+   /** Compiled body template */
+   private static final EmailTemplate COMPILED_BODY = EmailTemplate.compile(BODY);
+
+   /**
+    * Create the recipients and document
+    */
+   @Setup
+   public void setUp()
+   {
+      m_to = new ArrayList<String>(recipients);
+      for (int i = 0; i < recipients; i++)
+      {
+         m_to.add("approver" + i + "@example.com");
+      }
+      m_document = StandIns.document("benchmark-1", "Benchmark Document");
+   }
+
+   /**
+    * Build the MimeMessage as sendEmail does before delivering it
+    * @return the message
+    * @throws Exception if the message cannot be built
+    */
+   @Benchmark
+   public MimeMessage createMessage() throws Exception
+   {
+      return EmailWorkflowAction.createMessage(MAIL_HOST, "workflow@example.com", new ArrayList<String>(m_to),
+         new ArrayList<String>(), new ArrayList<String>(), "Benchmark subject", "Benchmark content", EmailWorkflowAction.UTF8);
+   }
+
+   /**
+    * Render the subject and body with compiled templates
+    * @return the rendered body
+    */
+   @Benchmark
+   public String compiledTemplates()
+   {
+      DocumentFields fields = new DocumentFields(m_document);
+      return COMPILED_SUBJECT.render(fields) + COMPILED_BODY.render(fields);
+   }
+
+   /**
+    * Baseline: substitute the placeholders with String.replace on every call, rendering the same
+    * values as the compiled templates
+    * @return the rendered body
+    */
+   @Benchmark
+   public String naiveReplace()
+   {
+      StringBuilder authors = new StringBuilder();
+      for (String author : ((Editable) m_document).getAuthors())
+      {
+         if (authors.length() > 0)
+         {
+            authors.append(", ");
+         }
+         authors.append(author);
+      }
+      String title = m_document.getTitle();
+      String subject = SUBJECT.replace("${title}", title);
+      String body = BODY.replace("${title}", title).replace("${id}", m_document.getId().getId())
+         .replace("${authors}", authors.toString());
+      return subject + body;
+   }
+}
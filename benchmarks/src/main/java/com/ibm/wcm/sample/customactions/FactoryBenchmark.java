@@ -0,0 +1,108 @@
+/*
+ * Copyright 2014  IBM Corp.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.ibm.wcm.sample.customactions;
+
+import java.text.MessageFormat;
+import java.util.Locale;
+import java.util.ResourceBundle;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ibm.workplace.wcm.api.Document;
+import com.ibm.workplace.wcm.api.custom.CustomWorkflowAction;
+
+/**
+ * Benchmarks the action lookup and the action title lookup of the factory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FactoryBenchmark
+{
+   /** The action looked up */
+   private static final String ACTION_NAME = ChangeAuthor.class.getName();
+
+   /** The factory */
+   private CustomWorkflowActionFactoryImpl m_factory;
+
+   /** The document passed to getAction */
+   private Document m_document;
+
+   /**
+    * Create the factory and document
+    */
+   @Setup
+   public void setUp()
+   {
+      m_factory = new CustomWorkflowActionFactoryImpl();
+      m_document = StandIns.document("benchmark-1", "Benchmark Document");
+   }
+
+   /**
+    * Look up a registered action
+    * @return the action
+    */
+   @Benchmark
+   public CustomWorkflowAction getAction()
+   {
+      return m_factory.getAction(ACTION_NAME, m_document);
+   }
+
+   /**
+    * Baseline: create the action with a reflective lookup on every call
+    * @return the action
+    * @throws Exception if the action cannot be created
+    */
+   @Benchmark
+   public Object reflectiveLookup() throws Exception
+   {
+      return Class.forName(ACTION_NAME).getConstructor(new Class[] {}).newInstance(new Object[] {});
+   }
+
+   /**
+    * Look up an action title as the authoring UI does when it renders the action list
+    * @return the title
+    */
+   @Benchmark
+   public String getActionTitle()
+   {
+      return m_factory.getActionTitle(Locale.ENGLISH, ACTION_NAME);
+   }
+
+   /**
+    * Baseline: look up the title in the resource bundle and format it on every call, as the
+    * factory did before the titles were cached
+    * @return the title
+    */
+   @Benchmark
+   public String perCallTitleLookup()
+   {
+      String pattern = ResourceBundle.getBundle(CustomActionResources.BUNDLE_NAME, Locale.ENGLISH)
+         .getString(CustomActionResources.PROPERTY_PREFIX_TITLE + ACTION_NAME);
+      MessageFormat formatter = new MessageFormat(pattern);
+      formatter.setLocale(Locale.ENGLISH);
+      return formatter.format(new Object[] {});
+   }
+}
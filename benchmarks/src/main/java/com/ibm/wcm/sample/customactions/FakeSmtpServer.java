@@ -0,0 +1,193 @@
+/*
+ * Copyright 2014  IBM Corp.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.ibm.wcm.sample.customactions;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Minimal in-process SMTP server for the benchmarks. It accepts every command and email, reads
+ * and discards the message data, and serves each connection on its own daemon thread, so the
+ * cost measured is the client side of the protocol and the connection handling.
+ */
+public class FakeSmtpServer
+{
+   /** The listening socket */
+   private final ServerSocket m_server;
+
+   /** Number of connections accepted */
+   private final AtomicLong m_connections = new AtomicLong();
+
+   /** Number of emails received */
+   private final AtomicLong m_messages = new AtomicLong();
+
+   /**
+    * Start the server on a free local port
+    * @throws IOException if the server socket cannot be opened
+    */
+   public FakeSmtpServer() throws IOException
+   {
+      m_server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+      Thread acceptor = new Thread("Fake SMTP acceptor")
+      {
+         public void run()
+         {
+            accept();
+         }
+      };
+      acceptor.setDaemon(true);
+      acceptor.start();
+   }
+
+   /**
+    * @return the port the server listens on
+    */
+   public int getPort()
+   {
+      return m_server.getLocalPort();
+   }
+
+   /**
+    * @return the number of connections accepted
+    */
+   public long getConnectionCount()
+   {
+      return m_connections.get();
+   }
+
+   /**
+    * @return the number of emails received
+    */
+   public long getMessageCount()
+   {
+      return m_messages.get();
+   }
+
+   /**
+    * Stop accepting connections
+    */
+   public void close()
+   {
+      try
+      {
+         m_server.close();
+      }
+      catch (IOException e)
+      {
+         // Closing anyway
+      }
+   }
+
+   /**
+    * Accept connections until the server is closed
+    */
+   private void accept()
+   {
+      while (!m_server.isClosed())
+      {
+         try
+         {
+            final Socket socket = m_server.accept();
+            m_connections.incrementAndGet();
+            Thread session = new Thread("Fake SMTP session")
+            {
+               public void run()
+               {
+                  serve(socket);
+               }
+            };
+            session.setDaemon(true);
+            session.start();
+         }
+         catch (IOException e)
+         {
+            // The server was closed
+         }
+      }
+   }
+
+   /**
+    * Answer the commands of one connection
+    * @param socket the connection
+    */
+   private void serve(Socket socket)
+   {
+      try
+      {
+         socket.setTcpNoDelay(true);
+         BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+         OutputStream out = socket.getOutputStream();
+         reply(out, "220 localhost fake SMTP ready");
+         String line;
+         while ((line = in.readLine()) != null)
+         {
+            String command = line.length() >= 4 ? line.substring(0, 4).toUpperCase() : line.toUpperCase();
+            if ("EHLO".equals(command))
+            {
+               reply(out, "250-localhost\r\n250 8BITMIME");
+            }
+            else if ("DATA".equals(command))
+            {
+               reply(out, "354 End data with <CR><LF>.<CR><LF>");
+               while ((line = in.readLine()) != null && !".".equals(line))
+               {
+                  // Discard the message
+               }
+               m_messages.incrementAndGet();
+               reply(out, "250 OK");
+            }
+            else if ("QUIT".equals(command))
+            {
+               reply(out, "221 Bye");
+               break;
+            }
+            else
+            {
+               reply(out, "250 OK");
+            }
+         }
+      }
+      catch (IOException e)
+      {
+         // The client went away
+      }
+      finally
+      {
+         try
+         {
+            socket.close();
+         }
+         catch (IOException e)
+         {
+            // Closing anyway
+         }
+      }
+   }
+
+   /**
+    * Send a reply
+    * @param out the connection output
+    * @param reply the reply lines, without the last line end
+    * @throws IOException if the reply cannot be sent
+    */
+   private static void reply(OutputStream out, String reply) throws IOException
+   {
+      out.write((reply + "\r\n").getBytes("US-ASCII"));
+      out.flush();
+   }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2014  IBM Corp.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.ibm.wcm.sample.customactions;
+
+import java.text.MessageFormat;
+import java.util.Locale;
+import java.util.ResourceBundle;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks formatting messages from the CustomActionResources bundle.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResourceBundleBenchmark
+{
+   /** Argument substituted into the message */
+   private static final Object[] ARGUMENTS = new Object[] {"com.example.MissingAction"};
+
+   /**
+    * A message with one argument
+    * @return the message
+    */
+   @Benchmark
+   public String formattedString()
+   {
+      return ResourceBundleUtility.getFormattedString(CustomActionResources.BUNDLE_NAME,
+         CustomActionResources.UNKNOWN_ACTION_NAME_1, Locale.ENGLISH, ARGUMENTS);
+   }
+
+   /**
+    * A message without arguments
+    * @return the message
+    */
+   @Benchmark
+   public String string()
+   {
+      return ResourceBundleUtility.getString(CustomActionResources.BUNDLE_NAME, CustomActionResources.FACTORY_TITLE, Locale.ENGLISH);
+   }
+
+   /**
+    * Baseline: look up the bundle and parse the pattern on every call
+    * @return the message
+    */
+   @Benchmark
+   public String uncachedFormattedString()
+   {
+      ResourceBundle bundle = ResourceBundle.getBundle(CustomActionResources.BUNDLE_NAME, Locale.ENGLISH);
+      MessageFormat formatter = new MessageFormat(bundle.getString(CustomActionResources.UNKNOWN_ACTION_NAME_1));
+      formatter.setLocale(Locale.ENGLISH);
+      return formatter.format(ARGUMENTS);
+   }
+}
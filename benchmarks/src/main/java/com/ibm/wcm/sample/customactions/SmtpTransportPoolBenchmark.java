@@ -0,0 +1,160 @@
+/*
+ * Copyright 2014  IBM Corp.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.ibm.wcm.sample.customactions;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.MessagingException;
+import javax.mail.Transport;
+import javax.mail.internet.MimeMessage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks sending workflow emails to an in-process fake SMTP server: the static Transport.send,
+ * which opens and closes a connection per email, against the pooled connections of
+ * {@link SmtpTransportPool}. Rate limiting is turned off.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SmtpTransportPoolBenchmark
+{
+   /** Mail host the fake server listens on */
+   private static final String MAIL_HOST = "127.0.0.1";
+
+   /** Number of emails sent by one sendAll call */
+   private static final int BATCH_SIZE = 10;
+
+   /** The fake mail server */
+   private FakeSmtpServer m_server;
+
+   /** The connection pool */
+   private SmtpTransportPool m_pool;
+
+   /** The email sent */
+   private MimeMessage m_message;
+
+   /** The batch of emails sent by sendAll */
+   private List<MimeMessage> m_batch;
+
+   /**
+    * Start the fake server and create the pool and the email
+    * @throws Exception if the server cannot be started or the email cannot be built
+    */
+   @Setup
+   public void setUp() throws Exception
+   {
+      m_server = new FakeSmtpServer();
+      final int port = m_server.getPort();
+      EmailSettings settings = new EmailSettings(EmailSettings.PROPERTIES)
+      {
+         public Properties getSessionProperties()
+         {
+            Properties properties = super.getSessionProperties();
+            properties.setProperty("mail.smtp.port", String.valueOf(port));
+            return properties;
+         }
+
+         public int getRateLimitGlobal()
+         {
+            return 0;
+         }
+
+         public int getRateLimitDomain()
+         {
+            return 0;
+         }
+      };
+      m_pool = new SmtpTransportPool(MAIL_HOST, settings, new EmailRateLimiter(settings));
+
+      List<String> to = new ArrayList<String>();
+      to.add("approver@example.com");
+      m_message = EmailWorkflowAction.createMessage(MAIL_HOST, "workflow@example.com", to, new ArrayList<String>(),
+         new ArrayList<String>(), "Benchmark subject", "Benchmark content", EmailWorkflowAction.UTF8);
+      m_message.saveChanges();
+      m_batch = new ArrayList<MimeMessage>(BATCH_SIZE);
+      for (int i = 0; i < BATCH_SIZE; i++)
+      {
+         m_batch.add(m_message);
+      }
+   }
+
+   /**
+    * Close the pool and stop the fake server
+    */
+   @TearDown
+   public void tearDown()
+   {
+      m_pool.close();
+      m_server.close();
+      EmailDelivery.shutdown();
+   }
+
+   /**
+    * Baseline: send as the static Transport.send does, connecting and closing a transport for
+    * every email
+    * @throws MessagingException if the email cannot be sent
+    */
+   @Benchmark
+   public void transportSend() throws MessagingException
+   {
+      Transport transport = m_pool.getSession().getTransport("smtp");
+      transport.connect();
+      try
+      {
+         transport.sendMessage(m_message, m_message.getAllRecipients());
+      }
+      finally
+      {
+         transport.close();
+      }
+   }
+
+   /**
+    * Send one email on a pooled connection
+    * @throws MessagingException if the email cannot be sent
+    */
+   @Benchmark
+   public void poolSend() throws MessagingException
+   {
+      m_pool.send(m_message);
+   }
+
+   /**
+    * Send a batch of emails on one pooled connection
+    * @return the failures, all null
+    */
+   @Benchmark
+   @OperationsPerInvocation(BATCH_SIZE)
+   public MessagingException[] poolSendAll()
+   {
+      return m_pool.sendAll(m_batch);
+   }
+}
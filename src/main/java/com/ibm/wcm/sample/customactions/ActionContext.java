@@ -0,0 +1,173 @@
+/*
+ * Copyright 2014  IBM Corp.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.ibm.wcm.sample.customactions;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.ibm.workplace.wcm.api.Document;
+import com.ibm.workplace.wcm.api.UserProfile;
+import com.ibm.workplace.wcm.api.WCM_API;
+import com.ibm.workplace.wcm.api.Workspace;
+import com.ibm.workplace.wcm.api.exceptions.OperationFailedException;
+import com.ibm.workplace.wcm.api.exceptions.ServiceNotAvailableException;
+
+/**
+ * State shared by the steps of one pipeline invocation, see {@link PipelineAction}. <br />
+ * The context is attached to the thread running the pipeline, so any action can look it up with
+ * {@link #current()} without changing the CustomWorkflowAction interface. The workspace and the
+ * current user are resolved once, on first use, for all the steps. Steps can pass values to later
+ * steps as attributes. <br />
+ * Steps run in parallel share the context of the invocation, so the context is thread-safe. The
+ * pipeline resolves the workspace and the current user on the workflow thread before starting them,
+ * so they are never looked up from a thread the portal does not manage.
+ */
+public class ActionContext
+{
+   /** The context attached to the current thread */
+   private static final ThreadLocal<ActionContext> CURRENT = new ThreadLocal<ActionContext>();
+
+   /** The document the pipeline runs against */
+   private final Document m_document;
+
+   /** The workspace, resolved on first use */
+   private Workspace m_workspace;
+
+   /** The current user, resolved on first use */
+   private UserProfile m_userProfile;
+
+   /** Values passed between the steps */
+   private final ConcurrentMap<String, Object> m_attributes = new ConcurrentHashMap<String, Object>();
+
+   /**
+    * Constructor
+    * @param document the document the pipeline runs against
+    */
+   public ActionContext(Document document)
+   {
+      m_document = document;
+   }
+
+   /**
+    * Returns the context attached to the current thread
+    *
+    * @return the context, or null if the thread is not running a pipeline
+    */
+   public static ActionContext current()
+   {
+      return CURRENT.get();
+   }
+
+   /**
+    * Attach a context to the current thread
+    *
+    * @param context the context, or null to detach the current context
+    *
+    * @return the context attached before, to restore when the invocation ends
+    */
+   static ActionContext attach(ActionContext context)
+   {
+      ActionContext previous = CURRENT.get();
+      if (context != null)
+      {
+         CURRENT.set(context);
+      }
+      else
+      {
+         CURRENT.remove();
+      }
+      return previous;
+   }
+
+   /**
+    * @return the document the pipeline runs against
+    */
+   public Document getDocument()
+   {
+      return m_document;
+   }
+
+   /**
+    * Returns the workspace of the current user, resolving it on first use
+    *
+    * @return the workspace
+    *
+    * @throws ServiceNotAvailableException If the repository is not available
+    * @throws OperationFailedException If the workspace cannot be retrieved
+    */
+   public synchronized Workspace getWorkspace() throws ServiceNotAvailableException, OperationFailedException
+   {
+      if (m_workspace == null)
+      {
+         m_workspace = WCM_API.getRepository().getWorkspace();
+      }
+      return m_workspace;
+   }
+
+   /**
+    * Returns the current user, resolving it on first use
+    *
+    * @return the current user's profile
+    *
+    * @throws ServiceNotAvailableException If the repository is not available
+    * @throws OperationFailedException If the workspace cannot be retrieved
+    */
+   public synchronized UserProfile getUserProfile() throws ServiceNotAvailableException, OperationFailedException
+   {
+      if (m_userProfile == null)
+      {
+         m_userProfile = getWorkspace().getUserProfile();
+      }
+      return m_userProfile;
+   }
+
+   /**
+    * Resolve the workspace and the current user now if they have not been resolved yet
+    *
+    * @throws ServiceNotAvailableException If the repository is not available
+    * @throws OperationFailedException If the workspace cannot be retrieved
+    */
+   void resolve() throws ServiceNotAvailableException, OperationFailedException
+   {
+      getUserProfile();
+   }
+
+   /**
+    * Returns a value set by an earlier step
+    *
+    * @param name the attribute name
+    *
+    * @return the value, or null if it has not been set
+    */
+   public Object getAttribute(String name)
+   {
+      return m_attributes.get(name);
+   }
+
+   /**
+    * Set a value for the later steps
+    *
+    * @param name the attribute name
+    * @param value the value, null to remove the attribute
+    */
+   public void setAttribute(String name, Object value)
+   {
+      if (value != null)
+      {
+         m_attributes.put(name, value);
+      }
+      else
+      {
+         m_attributes.remove(name);
+      }
+   }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2014  IBM Corp.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.ibm.wcm.sample.customactions;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Immutable table of the display titles and descriptions of the registered actions for one locale.
+ */
+public class ActionLabels
+{
+   /** Index of the title in a label pair */
+   private static final int TITLE = 0;
+
+   /** Index of the description in a label pair */
+   private static final int DESCRIPTION = 1;
+
+   /** Title and description pairs keyed by action name */
+   private final Map<String, String[]> m_labels;
+
+   /**
+    * Build the labels of the actions for a locale
+    * @param actionNames the registered action names
+    * @param locale the display locale
+    */
+   public ActionLabels(String[] actionNames, Locale locale)
+   {
+      Map<String, String[]> labels = new HashMap<String, String[]>(actionNames.length * 2);
+      for (String actionName : actionNames)
+      {
+         labels.put(actionName, new String[] {
+            CustomActionResources.getActionTitle(actionName, locale),
+            CustomActionResources.getActionDescription(actionName, locale)
+         });
+      }
+      m_labels = labels;
+   }
+
+   /**
+    * Returns the title of an action
+    *
+    * @param actionName the action name
+    *
+    * @return the title, or null if the action is not in the table
+    */
+   public String getTitle(String actionName)
+   {
+      String[] label = m_labels.get(actionName);
+      return (label != null) ? label[TITLE] : null;
+   }
+
+   /**
+    * Returns the description of an action
+    *
+    * @param actionName the action name
+    *
+    * @return the description, or null if the action is not in the table
+    */
+   public String getDescription(String actionName)
+   {
+      String[] label = m_labels.get(actionName);
+      return (label != null) ? label[DESCRIPTION] : null;
+   }
+}
@@ -0,0 +1,343 @@
+/*
+ * Copyright 2014  IBM Corp.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.ibm.wcm.sample.customactions;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.ibm.workplace.wcm.api.custom.CustomWorkflowActionResult;
+import com.ibm.workplace.wcm.api.custom.Directive;
+import com.ibm.workplace.wcm.api.custom.Directives;
+
+/**
+ * Execution metrics of a single custom workflow action: the number of executions, the directive
+ * each execution returned and a latency histogram. <br />
+ * One instance exists per action name and is registered with the platform MBean server under
+ * "com.ibm.wcm.sample.customactions:type=ActionMetrics,name=&lt;action name&gt;". Recording is
+ * lock-free so that it can be done on every execution.
+ */
+public class ActionMetrics implements ActionMetricsMBean
+{
+   /** class name for the logger */
+   private static final String LOG_CLASS = ActionMetrics.class.getName();
+
+   /** class logger */
+   private static final Logger LOGGER = Logger.getLogger(LOG_CLASS);
+
+   /** JMX object name prefix the action metrics are registered under */
+   public static final String OBJECT_NAME_PREFIX = "com.ibm.wcm.sample.customactions:type=ActionMetrics,name=";
+
+   /** Nanoseconds in a millisecond */
+   private static final double NANOS_PER_MILLI = 1000000d;
+
+   /**
+    * Execution outcomes that are counted separately
+    */
+   public static enum Outcome
+   {
+      /** The action returned the CONTINUE directive */
+      CONTINUE,
+      /** The action returned the PUBLISH_DOCUMENT directive */
+      PUBLISH_DOCUMENT,
+      /** The action returned the ROLLBACK_DOCUMENT directive */
+      ROLLBACK_DOCUMENT,
+      /** The action returned another directive or no result */
+      OTHER,
+      /** The action threw an exception */
+      FAILED;
+   }
+
+   /** Metrics keyed by action name */
+   private static final ConcurrentMap<String, ActionMetrics> s_metrics = new ConcurrentHashMap<String, ActionMetrics>();
+
+   /** The action name */
+   private final String m_actionName;
+
+   /** Execution counts indexed by outcome ordinal */
+   private final AtomicLongArray m_outcomes = new AtomicLongArray(Outcome.values().length);
+
+   /** Execution times in nanoseconds */
+   private final LatencyHistogram m_latency = new LatencyHistogram();
+
+   /**
+    * Constructor
+    * @param actionName the action name
+    */
+   private ActionMetrics(String actionName)
+   {
+      m_actionName = actionName;
+   }
+
+   /**
+    * Returns the metrics of an action, creating and registering them on first use
+    * @param actionName the action name
+    * @return the action metrics
+    */
+   public static ActionMetrics forAction(String actionName)
+   {
+      ActionMetrics metrics = s_metrics.get(actionName);
+      if (metrics == null)
+      {
+         ActionMetrics newMetrics = new ActionMetrics(actionName);
+         metrics = s_metrics.putIfAbsent(actionName, newMetrics);
+         if (metrics == null)
+         {
+            metrics = newMetrics;
+            metrics.registerMBean();
+         }
+      }
+      return metrics;
+   }
+
+   /**
+    * Returns the metrics of every action that has been registered
+    * @return the metrics sorted by action name
+    */
+   public static List<ActionMetrics> getAll()
+   {
+      List<ActionMetrics> all = new ArrayList<ActionMetrics>(s_metrics.values());
+      Collections.sort(all, new Comparator<ActionMetrics>()
+      {
+         public int compare(ActionMetrics m1, ActionMetrics m2)
+         {
+            return m1.m_actionName.compareTo(m2.m_actionName);
+         }
+      });
+      return all;
+   }
+
+   /**
+    * Remove every action's metrics from the platform MBean server
+    */
+   public static void shutdown()
+   {
+      for (ActionMetrics metrics : s_metrics.values())
+      {
+         metrics.unregisterMBean();
+      }
+      s_metrics.clear();
+   }
+
+   /**
+    * Record an execution that returned a result
+    * @param result the action result, may be null
+    * @param elapsedNanos the execution time in nanoseconds
+    */
+   public void record(CustomWorkflowActionResult result, long elapsedNanos)
+   {
+      m_outcomes.incrementAndGet(outcomeOf(result).ordinal());
+      m_latency.record(elapsedNanos);
+   }
+
+   /**
+    * Record an execution that threw an exception
+    * @param elapsedNanos the execution time in nanoseconds
+    */
+   public void recordFailure(long elapsedNanos)
+   {
+      m_outcomes.incrementAndGet(Outcome.FAILED.ordinal());
+      m_latency.record(elapsedNanos);
+   }
+
+   /**
+    * Returns the outcome for an action result
+    * @param result the action result, may be null
+    * @return the outcome
+    */
+   static Outcome outcomeOf(CustomWorkflowActionResult result)
+   {
+      Directive directive = (result != null) ? result.getDirective() : null;
+      if (directive == null)
+      {
+         return Outcome.OTHER;
+      }
+      else if (directive.equals(Directives.CONTINUE))
+      {
+         return Outcome.CONTINUE;
+      }
+      else if (directive.equals(Directives.ROLLBACK_DOCUMENT))
+      {
+         return Outcome.ROLLBACK_DOCUMENT;
+      }
+      else if (directive.equals(Directives.PUBLISH_DOCUMENT))
+      {
+         return Outcome.PUBLISH_DOCUMENT;
+      }
+      return Outcome.OTHER;
+   }
+
+   /**
+    * Returns the number of executions with an outcome
+    * @param outcome the outcome
+    * @return the execution count
+    */
+   public long getCount(Outcome outcome)
+   {
+      return m_outcomes.get(outcome.ordinal());
+   }
+
+   /**
+    * @return the execution time histogram in nanoseconds
+    */
+   public LatencyHistogram getLatency()
+   {
+      return m_latency;
+   }
+
+   /**
+    * Register the metrics with the platform MBean server
+    */
+   private void registerMBean()
+   {
+      try
+      {
+         MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+         ObjectName name = new ObjectName(OBJECT_NAME_PREFIX + ObjectName.quote(m_actionName));
+         if (server.isRegistered(name))
+         {
+            server.unregisterMBean(name);
+         }
+         server.registerMBean(this, name);
+      }
+      catch (Exception e)
+      {
+         LOGGER.log(Level.WARNING, "Unable to register metrics for action " + m_actionName + ", " + e.getMessage(), e);
+      }
+   }
+
+   /**
+    * Remove the metrics from the platform MBean server
+    */
+   private void unregisterMBean()
+   {
+      try
+      {
+         MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+         ObjectName name = new ObjectName(OBJECT_NAME_PREFIX + ObjectName.quote(m_actionName));
+         if (server.isRegistered(name))
+         {
+            server.unregisterMBean(name);
+         }
+      }
+      catch (Exception e)
+      {
+         LOGGER.log(Level.FINE, "Unable to unregister metrics for action " + m_actionName, e);
+      }
+   }
+
+   /**
+    * @see com.ibm.wcm.sample.customactions.ActionMetricsMBean#getActionName()
+    */
+   public String getActionName()
+   {
+      return m_actionName;
+   }
+
+   /**
+    * @see com.ibm.wcm.sample.customactions.ActionMetricsMBean#getInvocationCount()
+    */
+   public long getInvocationCount()
+   {
+      return m_latency.getCount();
+   }
+
+   /**
+    * @see com.ibm.wcm.sample.customactions.ActionMetricsMBean#getContinueCount()
+    */
+   public long getContinueCount()
+   {
+      return getCount(Outcome.CONTINUE);
+   }
+
+   /**
+    * @see com.ibm.wcm.sample.customactions.ActionMetricsMBean#getPublishDocumentCount()
+    */
+   public long getPublishDocumentCount()
+   {
+      return getCount(Outcome.PUBLISH_DOCUMENT);
+   }
+
+   /**
+    * @see com.ibm.wcm.sample.customactions.ActionMetricsMBean#getRollbackDocumentCount()
+    */
+   public long getRollbackDocumentCount()
+   {
+      return getCount(Outcome.ROLLBACK_DOCUMENT);
+   }
+
+   /**
+    * @see com.ibm.wcm.sample.customactions.ActionMetricsMBean#getOtherDirectiveCount()
+    */
+   public long getOtherDirectiveCount()
+   {
+      return getCount(Outcome.OTHER);
+   }
+
+   /**
+    * @see com.ibm.wcm.sample.customactions.ActionMetricsMBean#getFailedCount()
+    */
+   public long getFailedCount()
+   {
+      return getCount(Outcome.FAILED);
+   }
+
+   /**
+    * @see com.ibm.wcm.sample.customactions.ActionMetricsMBean#getMeanMillis()
+    */
+   public double getMeanMillis()
+   {
+      return m_latency.getMean() / NANOS_PER_MILLI;
+   }
+
+   /**
+    * @see com.ibm.wcm.sample.customactions.ActionMetricsMBean#getMedianMillis()
+    */
+   public double getMedianMillis()
+   {
+      return m_latency.getPercentile(50) / NANOS_PER_MILLI;
+   }
+
+   /**
+    * @see com.ibm.wcm.sample.customactions.ActionMetricsMBean#get90thPercentileMillis()
+    */
+   public double get90thPercentileMillis()
+   {
+      return m_latency.getPercentile(90) / NANOS_PER_MILLI;
+   }
+
+   /**
+    * @see com.ibm.wcm.sample.customactions.ActionMetricsMBean#get99thPercentileMillis()
+    */
+   public double get99thPercentileMillis()
+   {
+      return m_latency.getPercentile(99) / NANOS_PER_MILLI;
+   }
+
+   /**
+    * @see com.ibm.wcm.sample.customactions.ActionMetricsMBean#getMaxMillis()
+    */
+   public double getMaxMillis()
+   {
+      return m_latency.getMax() / NANOS_PER_MILLI;
+   }
+}
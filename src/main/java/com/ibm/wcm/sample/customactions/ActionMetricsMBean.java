@@ -0,0 +1,78 @@
+/*
+ * Copyright 2014  IBM Corp.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.ibm.wcm.sample.customactions;
+
+/**
+ * Management interface exposing the execution metrics of a single custom workflow action.
+ */
+public interface ActionMetricsMBean
+{
+   /**
+    * @return the action name
+    */
+   String getActionName();
+
+   /**
+    * @return the number of times the action has been executed
+    */
+   long getInvocationCount();
+
+   /**
+    * @return the number of executions that returned the CONTINUE directive
+    */
+   long getContinueCount();
+
+   /**
+    * @return the number of executions that returned the PUBLISH_DOCUMENT directive
+    */
+   long getPublishDocumentCount();
+
+   /**
+    * @return the number of executions that returned the ROLLBACK_DOCUMENT directive
+    */
+   long getRollbackDocumentCount();
+
+   /**
+    * @return the number of executions that returned any other directive or no result
+    */
+   long getOtherDirectiveCount();
+
+   /**
+    * @return the number of executions that threw an exception
+    */
+   long getFailedCount();
+
+   /**
+    * @return the mean execution time in milliseconds
+    */
+   double getMeanMillis();
+
+   /**
+    * @return the median execution time in milliseconds
+    */
+   double getMedianMillis();
+
+   /**
+    * @return the 90th percentile execution time in milliseconds
+    */
+   double get90thPercentileMillis();
+
+   /**
+    * @return the 99th percentile execution time in milliseconds
+    */
+   double get99thPercentileMillis();
+
+   /**
+    * @return the longest execution time in milliseconds
+    */
+   double getMaxMillis();
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2014  IBM Corp.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.ibm.wcm.sample.customactions;
+
+import java.lang.reflect.InvocationTargetException;
+
+import com.ibm.workplace.wcm.api.custom.CustomWorkflowAction;
+
+/**
+ * Supplies the custom workflow action instances for a single registered action name.
+ * Providers are resolved once when the factory properties are loaded so that handing
+ * out an action does not require any class or constructor lookup.
+ */
+public interface ActionProvider
+{
+   /**
+    * Returns an action instance
+    *
+    * @return the action instance, never null
+    *
+    * @throws InstantiationException if the action class cannot be instantiated
+    * @throws IllegalAccessException if the action constructor is not accessible
+    * @throws InvocationTargetException if the action constructor throws an exception
+    */
+   CustomWorkflowAction getAction() throws InstantiationException, IllegalAccessException, InvocationTargetException;
+}
@@ -0,0 +1,720 @@
+/*
+ * Copyright 2014  IBM Corp.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.ibm.wcm.sample.customactions;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.ibm.workplace.wcm.api.custom.CustomWorkflowAction;
+
+/**
+ * Immutable lookup table of the actions registered with the factory. <br />
+ * Every configured action class is resolved and validated when the registry is created:
+ * <ul>
+ * <li>the class must exist</li>
+ * <li>the class must implement the CustomWorkflowAction interface</li>
+ * <li>the class must be concrete and have a public no-argument constructor</li>
+ * </ul>
+ * The classes are validated concurrently with a time limit, the outcome for every class is kept
+ * in an {@link ActionValidationReport}, and classes that fail validation are logged and left out
+ * of the registry. <br />
+ * Action classes that implement {@link ThreadSafeAction}, or that are listed as shared in the
+ * factory properties, are instantiated once and the single instance is shared by all callers. <br />
+ * Every action handed out is wrapped in an {@link InstrumentedAction} that records its execution metrics,
+ * and actions with a {@link DocumentCondition} are wrapped in a {@link ConditionalAction} that skips the
+ * documents not meeting the condition, built once for a shared action. <br />
+ * When repeated executions are skipped, every registered action is wrapped in an {@link IdempotentAction}
+ * built along with the shared instance, or along with each new instance of an action that is not shared. <br />
+ * Pipelines are registered after the action classes; a pipeline whose steps are not all registered
+ * actions is left out.
+ */
+public class ActionRegistry
+{
+   /** class name for the logger */
+   private static final String LOG_CLASS = ActionRegistry.class.getName();
+
+   /** logging level */
+   private static final Level LOG_LEVEL = Level.FINER;
+
+   /** class logger */
+   private static final Logger LOGGER = Logger.getLogger(LOG_CLASS);
+
+   /** Maximum number of threads validating action classes */
+   private static final int MAX_VALIDATION_THREADS = 4;
+
+   /** Action providers keyed by action name */
+   private final Map<String, ActionProvider> m_providers;
+
+   /** Registered action names in configuration order */
+   private final String[] m_actionNames;
+
+   /** The result of validating the configured action classes */
+   private final ActionValidationReport m_report;
+
+   /** Action titles and descriptions keyed by locale, built on first use of each locale */
+   private final ConcurrentMap<Locale, ActionLabels> m_labels = new ConcurrentHashMap<Locale, ActionLabels>();
+
+   /**
+    * Construct a registry
+    * @param providers the action providers keyed by action name
+    * @param actionNames the action names in configuration order
+    * @param report the validation report
+    */
+   private ActionRegistry(Map<String, ActionProvider> providers, List<String> actionNames, ActionValidationReport report)
+   {
+      m_providers = Collections.unmodifiableMap(providers);
+      m_actionNames = actionNames.toArray(new String[actionNames.size()]);
+      m_report = report;
+   }
+
+   /**
+    * Create a registry for the supplied action class names. The classes are resolved and validated
+    * concurrently on a small pool of threads, and misconfigured classes are reported immediately.
+    *
+    * @param actionClassNames fully qualified action class names in configuration order
+    * @param sharedClassNames class names of actions that are thread-safe even though they do
+    * not implement {@link ThreadSafeAction}
+    * @param timeoutMillis time allowed for validating every class; classes that have not been
+    * validated by then are left out
+    * @param conditions conditions keyed by action class name, for the actions that only run
+    * against some documents
+    * @param pipelines the pipeline actions, running registered actions as steps
+    * @param guard remembers the executions of the registered actions, null if repeated executions are not skipped
+    *
+    * @return the registry holding every valid action
+    */
+   public static ActionRegistry create(List<String> actionClassNames, Set<String> sharedClassNames, long timeoutMillis,
+      Map<String, DocumentCondition> conditions, List<PipelineDefinition> pipelines, ExecutionGuard guard)
+   {
+      final String LOG_METHOD = "create(actionClassNames, sharedClassNames, timeoutMillis, conditions, pipelines, guard)";
+      boolean isFiner = LOGGER.isLoggable(LOG_LEVEL);
+      if (isFiner)
+      {
+         LOGGER.entering(LOG_CLASS, LOG_METHOD, new Object[] {actionClassNames, sharedClassNames, Long.valueOf(timeoutMillis)});
+      }
+
+      long start = System.currentTimeMillis();
+      List<String> classNames = new ArrayList<String>(new LinkedHashSet<String>(actionClassNames));
+      List<Resolution> resolutions = resolveAll(classNames, sharedClassNames, timeoutMillis);
+
+      Map<String, ActionProvider> providers = new HashMap<String, ActionProvider>();
+      List<String> actionNames = new ArrayList<String>();
+      List<ActionValidationReport.Entry> entries = new ArrayList<ActionValidationReport.Entry>();
+      for (Resolution resolution : resolutions)
+      {
+         entries.add(resolution.m_entry);
+         if (resolution.m_provider != null)
+         {
+            String className = resolution.m_entry.getClassName();
+            DocumentCondition condition = conditions.get(className);
+            providers.put(className, (condition != null) ? ConditionalActionProvider.create(resolution.m_provider, condition) : resolution.m_provider);
+            actionNames.add(className);
+         }
+      }
+
+      // Pipeline steps must be action classes, a pipeline cannot run another pipeline
+      Set<String> classActions = new HashSet<String>(providers.keySet());
+      for (PipelineDefinition pipeline : pipelines)
+      {
+         List<String> unknown = new ArrayList<String>();
+         for (String step : pipeline.getAllSteps())
+         {
+            if (!classActions.contains(step))
+            {
+               unknown.add(step);
+            }
+         }
+         String msg = null;
+         if (providers.containsKey(pipeline.getName()))
+         {
+            msg = "The pipeline name is already registered";
+         }
+         else if (pipeline.getAllSteps().isEmpty())
+         {
+            msg = "The pipeline has no steps";
+         }
+         else if (!unknown.isEmpty())
+         {
+            msg = "The pipeline steps " + unknown + " are not registered actions";
+         }
+
+         if (msg != null)
+         {
+            LOGGER.log(Level.WARNING, pipeline.getName() + ": " + msg);
+            entries.add(new ActionValidationReport.Entry(pipeline.getName(), ActionValidationReport.Status.INVALID_PIPELINE, msg));
+         }
+         else
+         {
+            providers.put(pipeline.getName(), new PipelineActionProvider(pipeline, providers));
+            actionNames.add(pipeline.getName());
+            entries.add(new ActionValidationReport.Entry(pipeline.getName(), ActionValidationReport.Status.VALID, null));
+         }
+      }
+
+      // Only the registered actions skip repeated executions, the steps of a pipeline always run
+      if (guard != null)
+      {
+         for (Map.Entry<String, ActionProvider> entry : providers.entrySet())
+         {
+            entry.setValue(IdempotentActionProvider.create(entry.getKey(), entry.getValue(), guard));
+         }
+      }
+
+      ActionValidationReport report = new ActionValidationReport(entries, System.currentTimeMillis() - start);
+      ActionRegistry registry = new ActionRegistry(providers, actionNames, report);
+      LOGGER.log(report.isValid() ? Level.FINE : Level.WARNING, report.toString());
+
+      if (isFiner)
+      {
+         LOGGER.exiting(LOG_CLASS, LOG_METHOD, actionNames);
+      }
+      return registry;
+   }
+
+   /**
+    * Resolve every class concurrently
+    *
+    * @param classNames the distinct action class names in configuration order
+    * @param sharedClassNames class names of actions configured as shareable
+    * @param timeoutMillis time allowed for resolving every class
+    *
+    * @return the resolution of each class, in configuration order
+    */
+   private static List<Resolution> resolveAll(List<String> classNames, final Set<String> sharedClassNames, long timeoutMillis)
+   {
+      List<Resolution> resolutions = new ArrayList<Resolution>(classNames.size());
+      if (classNames.isEmpty())
+      {
+         return resolutions;
+      }
+
+      List<Callable<Resolution>> tasks = new ArrayList<Callable<Resolution>>(classNames.size());
+      for (final String className : classNames)
+      {
+         tasks.add(new Callable<Resolution>()
+         {
+            public Resolution call()
+            {
+               return resolve(className, sharedClassNames.contains(className));
+            }
+         });
+      }
+
+      ExecutorService executor = Executors.newFixedThreadPool(Math.min(classNames.size(), MAX_VALIDATION_THREADS), new ThreadFactory()
+      {
+         public Thread newThread(Runnable runnable)
+         {
+            Thread thread = new Thread(runnable, "WCM Custom Action Validation");
+            thread.setDaemon(true);
+            return thread;
+         }
+      });
+      try
+      {
+         List<Future<Resolution>> futures = executor.invokeAll(tasks, timeoutMillis, TimeUnit.MILLISECONDS);
+         for (int i = 0; i < futures.size(); i++)
+         {
+            resolutions.add(getResolution(classNames.get(i), futures.get(i), timeoutMillis));
+         }
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+         for (int i = resolutions.size(); i < classNames.size(); i++)
+         {
+            resolutions.add(new Resolution(null, new ActionValidationReport.Entry(classNames.get(i),
+               ActionValidationReport.Status.TIMED_OUT, "Validation was interrupted")));
+         }
+      }
+      finally
+      {
+         executor.shutdownNow();
+      }
+      return resolutions;
+   }
+
+   /**
+    * Returns the resolution computed by a validation task
+    *
+    * @param className the action class name
+    * @param future the finished or cancelled task
+    * @param timeoutMillis time allowed for resolving every class
+    *
+    * @return the resolution
+    *
+    * @throws InterruptedException if the calling thread was interrupted
+    */
+   private static Resolution getResolution(String className, Future<Resolution> future, long timeoutMillis) throws InterruptedException
+   {
+      if (future.isCancelled())
+      {
+         String msg = "Validation did not finish within " + timeoutMillis + " ms";
+         LOGGER.log(Level.WARNING, className + ": " + msg);
+         return new Resolution(null, new ActionValidationReport.Entry(className, ActionValidationReport.Status.TIMED_OUT, msg));
+      }
+      try
+      {
+         return future.get();
+      }
+      catch (ExecutionException e)
+      {
+         // Errors such as a failing static initializer are not caught while resolving
+         Throwable cause = (e.getCause() != null) ? e.getCause() : e;
+         String msg = logInstantiationFailure(className, cause);
+         return new Resolution(null, new ActionValidationReport.Entry(className, ActionValidationReport.Status.INSTANTIATION_FAILED, msg));
+      }
+   }
+
+   /**
+    * Resolve the provider for the supplied action class name.
+    *
+    * @param className the fully qualified action class name
+    * @param shared true if the action has been configured as shareable
+    *
+    * @return the resolution, holding the provider or null if the class is not a valid action
+    */
+   private static Resolution resolve(String className, boolean shared)
+   {
+      ActionProvider provider = null;
+      ActionValidationReport.Status status = ActionValidationReport.Status.VALID;
+      String msg = null;
+      try
+      {
+         Class<?> actionClass = Class.forName(className);
+         if (!CustomWorkflowAction.class.isAssignableFrom(actionClass))
+         {
+            // Action class does not implement CustomWorkflowAction interface
+            status = ActionValidationReport.Status.NOT_AN_ACTION;
+            msg = CustomActionResources.getFormattedString(
+               CustomActionResources.ACTION_DOES_NOT_IMPLEMENT_INTERFACE_1,
+               Locale.getDefault(),
+               new Object[] {className});
+            LOGGER.log(Level.WARNING, msg);
+         }
+         else if (Modifier.isAbstract(actionClass.getModifiers()))
+         {
+            status = ActionValidationReport.Status.ABSTRACT_CLASS;
+            msg = CustomActionResources.getFormattedString(
+               CustomActionResources.UNABLE_TO_INSTANTIATE_ACTION_2,
+               Locale.getDefault(),
+               new Object[] {className, "abstract class"});
+            LOGGER.log(Level.WARNING, msg);
+         }
+         else
+         {
+            Constructor<? extends CustomWorkflowAction> constructor =
+               actionClass.asSubclass(CustomWorkflowAction.class).getConstructor(new Class[] {});
+            ActionMetrics metrics = ActionMetrics.forAction(className);
+            if (shared || ThreadSafeAction.class.isAssignableFrom(actionClass))
+            {
+               // Create the shared instance now so that constructor failures are reported at load time
+               provider = new SharedActionProvider(new InstrumentedAction(constructor.newInstance(new Object[] {}), metrics));
+            }
+            else
+            {
+               provider = new ConstructorActionProvider(constructor, metrics);
+            }
+         }
+      }
+      catch (ClassNotFoundException e)
+      {
+         status = ActionValidationReport.Status.CLASS_NOT_FOUND;
+         msg = CustomActionResources.getFormattedString(
+            CustomActionResources.ACTION_CLASS_NOT_FOUND_1,
+            Locale.getDefault(),
+            new Object[] {className});
+         LOGGER.log(Level.WARNING, msg, e);
+      }
+      catch (NoSuchMethodException e)
+      {
+         status = ActionValidationReport.Status.NO_CONSTRUCTOR;
+         msg = CustomActionResources.getFormattedString(
+            CustomActionResources.ACTION_CONSTRUCTOR_NOT_FOUND_1,
+            Locale.getDefault(),
+            new Object[] {className});
+         LOGGER.log(Level.WARNING, msg, e);
+      }
+      catch (InstantiationException e)
+      {
+         status = ActionValidationReport.Status.INSTANTIATION_FAILED;
+         msg = logInstantiationFailure(className, e);
+      }
+      catch (IllegalAccessException e)
+      {
+         status = ActionValidationReport.Status.INSTANTIATION_FAILED;
+         msg = logInstantiationFailure(className, e);
+      }
+      catch (InvocationTargetException e)
+      {
+         status = ActionValidationReport.Status.INSTANTIATION_FAILED;
+         msg = logInstantiationFailure(className, e);
+      }
+      return new Resolution(provider, new ActionValidationReport.Entry(className, status, msg));
+   }
+
+   /**
+    * Log that an action could not be loaded or its shared instance could not be created
+    *
+    * @param className the action class name
+    * @param e the exception thrown while creating the instance
+    *
+    * @return the logged message
+    */
+   private static String logInstantiationFailure(String className, Throwable e)
+   {
+      String msg = CustomActionResources.getFormattedString(
+         CustomActionResources.UNABLE_TO_INSTANTIATE_ACTION_2,
+         Locale.getDefault(),
+         new Object[] {className, e.getMessage()});
+      LOGGER.log(Level.WARNING, msg, e);
+      return msg;
+   }
+
+   /**
+    * Returns the provider registered for the action name
+    *
+    * @param actionName the action name
+    *
+    * @return the provider or null if the action name is not registered
+    */
+   public ActionProvider getProvider(String actionName)
+   {
+      return (actionName != null) ? m_providers.get(actionName) : null;
+   }
+
+   /**
+    * Returns the registered action names in configuration order
+    *
+    * @return array of action names
+    */
+   public String[] getActionNames()
+   {
+      return m_actionNames;
+   }
+
+   /**
+    * Returns the result of validating the configured action classes
+    *
+    * @return the validation report
+    */
+   public ActionValidationReport getValidationReport()
+   {
+      return m_report;
+   }
+
+   /**
+    * Returns the titles and descriptions of the registered actions for a locale
+    *
+    * @param locale the display locale, null for the default locale
+    *
+    * @return the action labels
+    */
+   public ActionLabels getLabels(Locale locale)
+   {
+      Locale key = (locale != null) ? locale : Locale.getDefault();
+      ActionLabels labels = m_labels.get(key);
+      if (labels == null)
+      {
+         ActionLabels newLabels = new ActionLabels(m_actionNames, key);
+         labels = m_labels.putIfAbsent(key, newLabels);
+         if (labels == null)
+         {
+            labels = newLabels;
+         }
+      }
+      return labels;
+   }
+
+   /**
+    * Provider that creates a new action instance for every request using the
+    * resolved no-argument constructor.
+    */
+   private static final class ConstructorActionProvider implements ActionProvider
+   {
+      /** The resolved no-argument constructor */
+      private final Constructor<? extends CustomWorkflowAction> m_constructor;
+
+      /** The metrics recorded for the action */
+      private final ActionMetrics m_metrics;
+
+      /**
+       * Constructor
+       * @param constructor the resolved no-argument constructor
+       * @param metrics the metrics recorded for the action
+       */
+      ConstructorActionProvider(Constructor<? extends CustomWorkflowAction> constructor, ActionMetrics metrics)
+      {
+         m_constructor = constructor;
+         m_metrics = metrics;
+      }
+
+      /**
+       * @see com.ibm.wcm.sample.customactions.ActionProvider#getAction()
+       */
+      public CustomWorkflowAction getAction() throws InstantiationException, IllegalAccessException, InvocationTargetException
+      {
+         return new InstrumentedAction(m_constructor.newInstance(new Object[] {}), m_metrics);
+      }
+   }
+
+   /**
+    * Provider that hands out a single shared instance of a thread-safe action.
+    */
+   private static final class SharedActionProvider implements ActionProvider
+   {
+      /** The shared action instance */
+      private final CustomWorkflowAction m_action;
+
+      /**
+       * Constructor
+       * @param action the shared action instance
+       */
+      SharedActionProvider(CustomWorkflowAction action)
+      {
+         m_action = action;
+      }
+
+      /**
+       * @see com.ibm.wcm.sample.customactions.ActionProvider#getAction()
+       */
+      public CustomWorkflowAction getAction()
+      {
+         return m_action;
+      }
+   }
+
+   /**
+    * Provider that wraps the actions of another provider so that they only run against the
+    * documents meeting a condition.
+    */
+   private static final class ConditionalActionProvider implements ActionProvider
+   {
+      /** The provider of the actions */
+      private final ActionProvider m_provider;
+
+      /** The condition a document must meet */
+      private final DocumentCondition m_condition;
+
+      /**
+       * Constructor
+       * @param provider the provider of the actions
+       * @param condition the condition a document must meet
+       */
+      ConditionalActionProvider(ActionProvider provider, DocumentCondition condition)
+      {
+         m_provider = provider;
+         m_condition = condition;
+      }
+
+      /**
+       * Returns a provider of the actions of another provider wrapped so that they only run against
+       * the documents meeting a condition. The shared instance of a shared action is wrapped once.
+       * @param provider the provider of the actions
+       * @param condition the condition a document must meet
+       * @return the provider
+       */
+      static ActionProvider create(ActionProvider provider, DocumentCondition condition)
+      {
+         if (provider instanceof SharedActionProvider)
+         {
+            return new SharedActionProvider(new ConditionalAction(((SharedActionProvider) provider).getAction(), condition));
+         }
+         return new ConditionalActionProvider(provider, condition);
+      }
+
+      /**
+       * @see com.ibm.wcm.sample.customactions.ActionProvider#getAction()
+       */
+      public CustomWorkflowAction getAction() throws InstantiationException, IllegalAccessException, InvocationTargetException
+      {
+         return new ConditionalAction(m_provider.getAction(), m_condition);
+      }
+   }
+
+   /**
+    * Provider that wraps the actions of another provider so that they skip repeated executions.
+    */
+   private static final class IdempotentActionProvider implements ActionProvider
+   {
+      /** The provider of the actions */
+      private final ActionProvider m_provider;
+
+      /** The action name */
+      private final String m_actionName;
+
+      /** Remembers the executions */
+      private final ExecutionGuard m_guard;
+
+      /** The metrics recorded for the action */
+      private final ActionMetrics m_metrics;
+
+      /**
+       * Constructor
+       * @param provider the provider of the actions
+       * @param actionName the action name
+       * @param guard remembers the executions
+       * @param metrics the metrics recorded for the action
+       */
+      IdempotentActionProvider(ActionProvider provider, String actionName, ExecutionGuard guard, ActionMetrics metrics)
+      {
+         m_provider = provider;
+         m_actionName = actionName;
+         m_guard = guard;
+         m_metrics = metrics;
+      }
+
+      /**
+       * Returns a provider of the actions of another provider wrapped so that they skip repeated
+       * executions. The shared instance of a shared action is wrapped once.
+       * @param actionName the action name
+       * @param provider the provider of the actions
+       * @param guard remembers the executions
+       * @return the provider
+       */
+      static ActionProvider create(String actionName, ActionProvider provider, ExecutionGuard guard)
+      {
+         ActionMetrics metrics = ActionMetrics.forAction(actionName);
+         if (provider instanceof SharedActionProvider)
+         {
+            return new SharedActionProvider(new IdempotentAction(((SharedActionProvider) provider).getAction(), actionName, guard, metrics));
+         }
+         return new IdempotentActionProvider(provider, actionName, guard, metrics);
+      }
+
+      /**
+       * @see com.ibm.wcm.sample.customactions.ActionProvider#getAction()
+       */
+      public CustomWorkflowAction getAction() throws InstantiationException, IllegalAccessException, InvocationTargetException
+      {
+         return new IdempotentAction(m_provider.getAction(), m_actionName, m_guard, m_metrics);
+      }
+   }
+
+   /**
+    * Provider of a pipeline action, getting its steps from the providers of the registered actions.
+    */
+   private static final class PipelineActionProvider implements ActionProvider
+   {
+      /** The pipeline */
+      private final PipelineDefinition m_pipeline;
+
+      /** The providers of the steps run one after the other */
+      private final ActionProvider[] m_steps;
+
+      /** The providers of the steps run in parallel */
+      private final ActionProvider[] m_parallelSteps;
+
+      /** The metrics recorded for the pipeline */
+      private final ActionMetrics m_metrics;
+
+      /**
+       * Constructor
+       * @param pipeline the pipeline
+       * @param providers the providers of the registered actions
+       */
+      PipelineActionProvider(PipelineDefinition pipeline, Map<String, ActionProvider> providers)
+      {
+         m_pipeline = pipeline;
+         m_steps = getProviders(pipeline.getSteps(), providers);
+         m_parallelSteps = getProviders(pipeline.getParallelSteps(), providers);
+         m_metrics = ActionMetrics.forAction(pipeline.getName());
+      }
+
+      /**
+       * @see com.ibm.wcm.sample.customactions.ActionProvider#getAction()
+       */
+      public CustomWorkflowAction getAction() throws InstantiationException, IllegalAccessException, InvocationTargetException
+      {
+         List<String> stepNames = m_pipeline.getSteps();
+         List<String> parallelNames = m_pipeline.getParallelSteps();
+         return new InstrumentedAction(new PipelineAction(m_pipeline.getName(),
+            stepNames.toArray(new String[stepNames.size()]), getActions(m_steps),
+            parallelNames.toArray(new String[parallelNames.size()]), getActions(m_parallelSteps)), m_metrics);
+      }
+
+      /**
+       * @param names the step names
+       * @param providers the providers of the registered actions
+       * @return the providers of the steps
+       */
+      private static ActionProvider[] getProviders(List<String> names, Map<String, ActionProvider> providers)
+      {
+         ActionProvider[] steps = new ActionProvider[names.size()];
+         for (int i = 0; i < steps.length; i++)
+         {
+            steps[i] = providers.get(names.get(i));
+         }
+         return steps;
+      }
+
+      /**
+       * @param providers the providers of the steps
+       * @return an action for each step
+       * @throws InstantiationException if a step cannot be instantiated
+       * @throws IllegalAccessException if a step constructor is not accessible
+       * @throws InvocationTargetException if a step constructor throws an exception
+       */
+      private static CustomWorkflowAction[] getActions(ActionProvider[] providers) throws InstantiationException, IllegalAccessException, InvocationTargetException
+      {
+         CustomWorkflowAction[] actions = new CustomWorkflowAction[providers.length];
+         for (int i = 0; i < actions.length; i++)
+         {
+            actions[i] = providers[i].getAction();
+         }
+         return actions;
+      }
+   }
+
+   /**
+    * The outcome of resolving one action class
+    */
+   private static final class Resolution
+   {
+      /** The provider, null if the class is not a valid action */
+      final ActionProvider m_provider;
+
+      /** The validation result */
+      final ActionValidationReport.Entry m_entry;
+
+      /**
+       * Constructor
+       * @param provider the provider, null if the class is not a valid action
+       * @param entry the validation result
+       */
+      Resolution(ActionProvider provider, ActionValidationReport.Entry entry)
+      {
+         m_provider = provider;
+         m_entry = entry;
+      }
+   }
+}
@@ -11,11 +11,9 @@
  */
 package com.ibm.wcm.sample.customactions;
 
-import java.util.logging.Level;
-import java.util.logging.Logger;
-
-import javax.naming.InitialContext;
-import javax.naming.NamingException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
 
 import com.ibm.workplace.wcm.api.WebContentCustomWorkflowService;
 import com.ibm.workplace.wcm.api.custom.CustomWorkflowActionResult;
@@ -26,16 +24,24 @@ import com.ibm.workplace.wcm.api.custom.RollbackDirectiveParams;
 
 /**
  * Builder to help generate the CustomWorkflowActionResult that are returned to WCM
- * after executing the custom workflow actions.
+ * after executing the custom workflow actions. The results are created by the custom
+ * workflow service found by the {@link WorkflowServiceLocator}.
+ * 
+ * <p>Results without a message or directive params are created once per directive and shared.
+ * Actions can return them with {@link #result(Directive)}, and a result with only a message
+ * with {@link #result(Directive, String)}, without creating a builder.
  */
 public class ActionResultBuilder
 {
-   /** Class name for the logger */
-   private static final String LOG_CLASS = ActionResultBuilder.class.getName();
+   /** Marks a directive that does not create directive params */
+   private static final Class<?> NO_PARAMS = Void.class;
+
+   /** Directive params class created by each directive, NO_PARAMS if the directive has none */
+   private static final ConcurrentMap<Directive, Class<?>> s_paramsTypes = new ConcurrentHashMap<Directive, Class<?>>();
+
+   /** Shared results without a message or params, created by the current custom workflow service */
+   private static final AtomicReference<SharedResults> s_sharedResults = new AtomicReference<SharedResults>();
 
-   /** Class logger */
-   private static final Logger LOGGER = Logger.getLogger(LOG_CLASS);
-   
    /** The message to return to WCM */
    String message;
    
@@ -45,30 +51,6 @@ public class ActionResultBuilder
    /** The directive params that match the directive passed in. */
    DirectiveParams params;
    
-   /** Custom Workflow Service JNDI name */
-   private static final String WCM_CUSTOM_WORKFLOW_SERVICE = "portal:service/wcm/WebContentCustomWorkflowService";
-   
-   /** Reference to the WebContentCustomWorkflowService */
-   private static WebContentCustomWorkflowService CUSTOM_WF_SERVICE;
-   
-   static
-   {
-      try
-      {
-         // Construct and inital Context
-         InitialContext ctx = new InitialContext();
-                  
-         // Retrieve Custom Workflow Service
-         CUSTOM_WF_SERVICE = (WebContentCustomWorkflowService) ctx.lookup(WCM_CUSTOM_WORKFLOW_SERVICE);
-
-      }
-      catch (NamingException ne)
-      {
-         // Exception retrieving Service
-         LOGGER.log(Level.SEVERE, ne.getMessage(), ne);
-      }
-   }
-   
    /**
     * Constructor
     * @param directive the initial directive. If none supplied defaults to CONTINUE
@@ -81,7 +63,7 @@ public class ActionResultBuilder
       }
       else
       {
-         directive = Directives.CONTINUE;
+         this.directive = Directives.CONTINUE;
       }
    }
    
@@ -96,6 +78,48 @@ public class ActionResultBuilder
    {
       return new ActionResultBuilder(directive);
    }
+
+   /**
+    * Returns the shared result for a directive without a message or directive params
+    * 
+    * @param directive the directive. If none supplied defaults to CONTINUE
+    * 
+    * @return the result
+    * 
+    * @throws IllegalStateException if the custom workflow service is not available yet
+    */
+   public static CustomWorkflowActionResult result(Directive directive)
+   {
+      WebContentCustomWorkflowService service = WorkflowServiceLocator.getService();
+      SharedResults shared = s_sharedResults.get();
+      if (shared == null || shared.m_service != service)
+      {
+         // The service has been replaced, results from the previous service are not reused
+         shared = new SharedResults(service);
+         s_sharedResults.set(shared);
+      }
+      return shared.get((directive != null) ? directive : Directives.CONTINUE);
+   }
+
+   /**
+    * Returns a result for a directive with a message and without directive params
+    * 
+    * @param directive the directive. If none supplied defaults to CONTINUE
+    * @param message the message, may be null
+    * 
+    * @return the result
+    * 
+    * @throws IllegalStateException if the custom workflow service is not available yet
+    */
+   public static CustomWorkflowActionResult result(Directive directive, String message)
+   {
+      if (message == null)
+      {
+         return result(directive);
+      }
+      Directive resultDirective = (directive != null) ? directive : Directives.CONTINUE;
+      return WorkflowServiceLocator.getService().createResult(resultDirective, message, null);
+   }
    
    /**
     * Set the directive to return to WCM. Null values will be ignored.
@@ -125,13 +149,33 @@ public class ActionResultBuilder
    {
       if (params != null && directive != null)
       {
-         DirectiveParams mockParams = directive.createDirectiveParams();
-         if (mockParams != null && !mockParams.getClass().isAssignableFrom(this.params.getClass()))
+         Class<?> paramsType = paramsTypeOf(directive);
+         if (paramsType != NO_PARAMS && !paramsType.isAssignableFrom(this.params.getClass()))
          {           
             this.params = null;
          }
       }
    }
+
+   /**
+    * Returns the directive params class created by a directive. The class is found by creating
+    * params once per directive.
+    * 
+    * @param directive the directive
+    * 
+    * @return the params class, or NO_PARAMS if the directive does not create params
+    */
+   private static Class<?> paramsTypeOf(Directive directive)
+   {
+      Class<?> paramsType = s_paramsTypes.get(directive);
+      if (paramsType == null)
+      {
+         DirectiveParams mockParams = directive.createDirectiveParams();
+         paramsType = (mockParams != null) ? mockParams.getClass() : NO_PARAMS;
+         s_paramsTypes.putIfAbsent(directive, paramsType);
+      }
+      return paramsType;
+   }
    
    /**
     * 
@@ -163,9 +207,9 @@ public class ActionResultBuilder
    }
    
    /**
-    * Set the message to return to WCM
+    * Roll back the document, showing a custom error message
     * 
-    * @param message the message
+    * @param message the custom error message
     * 
     * @return this builder
     */
@@ -174,6 +218,7 @@ public class ActionResultBuilder
       this.directive = Directives.ROLLBACK_DOCUMENT;
       RollbackDirectiveParams params = (RollbackDirectiveParams) Directives.ROLLBACK_DOCUMENT.createDirectiveParams();
       params.setCustomErrorMsg(message);     
+      this.params = params;
       return this;
    }
    
@@ -181,11 +226,57 @@ public class ActionResultBuilder
     * Returns the CustomWorkflowActionResult with the values set on this builder
     * 
     * @return CustomWorkflowActionResult with the values set on this builder
+    * 
+    * @throws IllegalStateException if the custom workflow service is not available yet
     */
    public CustomWorkflowActionResult toResult()
    {      
+      if (this.message == null && this.params == null)
+      {
+         return result(this.directive);
+      }
       // Create a result object
-      return CUSTOM_WF_SERVICE.createResult(this.directive, this.message, this.params); 
+      return WorkflowServiceLocator.getService().createResult(this.directive, this.message, this.params); 
    }
-}
 
+   /**
+    * Results without a message or directive params created by one custom workflow service
+    */
+   private static final class SharedResults
+   {
+      /** The service that created the results */
+      final WebContentCustomWorkflowService m_service;
+
+      /** Results keyed by directive */
+      private final ConcurrentMap<Directive, CustomWorkflowActionResult> m_results = new ConcurrentHashMap<Directive, CustomWorkflowActionResult>();
+
+      /**
+       * Constructor
+       * @param service the service that creates the results
+       */
+      SharedResults(WebContentCustomWorkflowService service)
+      {
+         m_service = service;
+      }
+
+      /**
+       * Returns the result for a directive, creating it on first use
+       * @param directive the directive
+       * @return the result
+       */
+      CustomWorkflowActionResult get(Directive directive)
+      {
+         CustomWorkflowActionResult result = m_results.get(directive);
+         if (result == null)
+         {
+            result = m_service.createResult(directive, null, null);
+            CustomWorkflowActionResult existing = m_results.putIfAbsent(directive, result);
+            if (existing != null)
+            {
+               result = existing;
+            }
+         }
+         return result;
+      }
+   }
+}
@@ -0,0 +1,556 @@
+/*
+ * Copyright 2014  IBM Corp.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.ibm.wcm.sample.customactions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.ibm.workplace.wcm.api.Document;
+import com.ibm.workplace.wcm.api.Repository;
+import com.ibm.workplace.wcm.api.WCM_API;
+import com.ibm.workplace.wcm.api.Workspace;
+import com.ibm.workplace.wcm.api.custom.CustomWorkflowAction;
+import com.ibm.workplace.wcm.api.custom.CustomWorkflowActionResult;
+import com.ibm.workplace.wcm.api.custom.Directives;
+import com.ibm.workplace.wcm.api.exceptions.OperationFailedException;
+import com.ibm.workplace.wcm.api.exceptions.ServiceNotAvailableException;
+import com.ibm.workplace.wcm.api.exceptions.WCMException;
+
+/**
+ * Runs actions against documents at the execute date the action returns, for automation that
+ * runs actions outside the WCM workflow engine. <br />
+ * Pending entries are kept in memory in a heap ordered by due date, so scheduling and taking the
+ * next entry are O(log n) and hundreds of thousands of entries can be held. A dispatcher thread
+ * waits for the earliest entry to fall due, takes every entry that is due, groups them by action
+ * and runs them in batches on a bounded pool of worker threads. Documents are read and saved with
+ * the system workspace; a document is saved unless the action rolled it back. <br />
+ * Scheduling the same action for the same document again replaces the pending entry. Pending
+ * entries are not persisted and are lost when the application stops.
+ */
+public class ActionScheduler
+{
+   /** class name for the logger */
+   private static final String LOG_CLASS = ActionScheduler.class.getName();
+
+   /** logging level */
+   private static final Level LOG_LEVEL = Level.FINER;
+
+   /** class logger */
+   private static final Logger LOGGER = Logger.getLogger(LOG_CLASS);
+
+   /** Every running scheduler, stopped when the application stops */
+   private static final Set<ActionScheduler> s_schedulers = new CopyOnWriteArraySet<ActionScheduler>();
+
+   /** The factory used to create and run the actions */
+   private final CustomWorkflowActionFactoryImpl m_factory;
+
+   /** Maximum number of documents passed to an action at once */
+   private final int m_batchSize;
+
+   /** Guards the pending entries */
+   private final ReentrantLock m_lock = new ReentrantLock();
+
+   /** Signalled when an entry is due earlier than the dispatcher is waiting for, or on close */
+   private final Condition m_changed = m_lock.newCondition();
+
+   /** Pending entries ordered by due date, may hold replaced entries that are skipped when taken */
+   private final PriorityQueue<Entry> m_queue = new PriorityQueue<Entry>();
+
+   /** The current entry for each document and action */
+   private final Map<Key, Entry> m_entries = new HashMap<Key, Entry>();
+
+   /** Runs the batches */
+   private final ThreadPoolExecutor m_workers;
+
+   /** Takes due entries and hands them to the workers */
+   private final Thread m_dispatcher;
+
+   /** False once the scheduler is closed */
+   private volatile boolean m_running = true;
+
+   /** Order in which entries were scheduled, keeps entries with the same due date in order */
+   private long m_sequence;
+
+   /**
+    * Create and start a scheduler
+    * @param factory the factory used to create and run the actions
+    * @param threads number of worker threads
+    * @param batchSize maximum number of documents passed to an action at once
+    */
+   public ActionScheduler(CustomWorkflowActionFactoryImpl factory, int threads, int batchSize)
+   {
+      m_factory = factory;
+      m_batchSize = Math.max(1, batchSize);
+      ThreadFactory threadFactory = new ThreadFactory()
+      {
+         public Thread newThread(Runnable runnable)
+         {
+            Thread thread = new Thread(runnable, "WCM Custom Action Scheduler Worker");
+            thread.setDaemon(true);
+            return thread;
+         }
+      };
+      // The dispatcher runs a batch itself when every worker is busy and the hand-over queue is
+      // full, so a backlog of due entries slows down taking more rather than piling up batches
+      m_workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+         new ArrayBlockingQueue<Runnable>(threads * 2), threadFactory, new ThreadPoolExecutor.CallerRunsPolicy());
+
+      m_dispatcher = new Thread(new Runnable()
+      {
+         public void run()
+         {
+            dispatch();
+         }
+      }, "WCM Custom Action Scheduler");
+      m_dispatcher.setDaemon(true);
+      m_dispatcher.start();
+      s_schedulers.add(this);
+   }
+
+   /**
+    * Schedule an action for a document at the execute date returned by the action
+    *
+    * @param actionName the action name
+    * @param document the target document
+    *
+    * @return the execute date, or null if the action is not registered
+    */
+   public Date schedule(String actionName, Document document)
+   {
+      CustomWorkflowAction action = m_factory.getAction(actionName, document);
+      if (action == null)
+      {
+         return null;
+      }
+      Date executeDate = action.getExecuteDate(document);
+      schedule(actionName, document.getId().getId(), executeDate);
+      return executeDate;
+   }
+
+   /**
+    * Schedule an action for a document at a date, replacing any pending entry for the same
+    * action and document
+    *
+    * @param actionName the action name
+    * @param documentId the id of the target document
+    * @param executeDate when to run the action, dates in the past run as soon as possible
+    */
+   public void schedule(String actionName, String documentId, Date executeDate)
+   {
+      if (!m_running)
+      {
+         throw new IllegalStateException("The action scheduler has been closed");
+      }
+      Key key = new Key(documentId, actionName);
+      long due = (executeDate != null) ? executeDate.getTime() : 0;
+      m_lock.lock();
+      try
+      {
+         Entry entry = new Entry(key, due, m_sequence++);
+         Entry replaced = m_entries.put(key, entry);
+         if (replaced != null)
+         {
+            replaced.m_cancelled = true;
+         }
+         m_queue.add(entry);
+         if (m_queue.peek() == entry)
+         {
+            m_changed.signal();
+         }
+      }
+      finally
+      {
+         m_lock.unlock();
+      }
+   }
+
+   /**
+    * Cancel the pending entry for an action and document
+    *
+    * @param actionName the action name
+    * @param documentId the id of the target document
+    *
+    * @return true if an entry was pending
+    */
+   public boolean cancel(String actionName, String documentId)
+   {
+      m_lock.lock();
+      try
+      {
+         // The entry stays in the heap and is skipped when it falls due
+         Entry entry = m_entries.remove(new Key(documentId, actionName));
+         if (entry != null)
+         {
+            entry.m_cancelled = true;
+         }
+         return entry != null;
+      }
+      finally
+      {
+         m_lock.unlock();
+      }
+   }
+
+   /**
+    * @return the number of pending entries
+    */
+   public int getPendingCount()
+   {
+      m_lock.lock();
+      try
+      {
+         return m_entries.size();
+      }
+      finally
+      {
+         m_lock.unlock();
+      }
+   }
+
+   /**
+    * Stop dispatching. Pending entries are discarded and running batches are allowed to finish.
+    */
+   public void close()
+   {
+      m_running = false;
+      s_schedulers.remove(this);
+      m_lock.lock();
+      try
+      {
+         m_changed.signalAll();
+      }
+      finally
+      {
+         m_lock.unlock();
+      }
+      m_workers.shutdown();
+   }
+
+   /**
+    * Stop every running scheduler
+    */
+   public static void shutdown()
+   {
+      for (ActionScheduler scheduler : s_schedulers)
+      {
+         scheduler.close();
+      }
+   }
+
+   /**
+    * Dispatcher loop: wait for due entries and hand them to the workers in batches per action
+    */
+   private void dispatch()
+   {
+      while (m_running)
+      {
+         try
+         {
+            List<Entry> due = takeDue();
+
+            // Group the due documents by action, keeping the due order within each action
+            Map<String, List<String>> byAction = new LinkedHashMap<String, List<String>>();
+            for (Entry entry : due)
+            {
+               List<String> documentIds = byAction.get(entry.m_key.m_actionName);
+               if (documentIds == null)
+               {
+                  documentIds = new ArrayList<String>();
+                  byAction.put(entry.m_key.m_actionName, documentIds);
+               }
+               documentIds.add(entry.m_key.m_documentId);
+            }
+
+            for (Map.Entry<String, List<String>> action : byAction.entrySet())
+            {
+               List<String> documentIds = action.getValue();
+               for (int start = 0; start < documentIds.size(); start += m_batchSize)
+               {
+                  final String actionName = action.getKey();
+                  final List<String> batch = new ArrayList<String>(
+                     documentIds.subList(start, Math.min(start + m_batchSize, documentIds.size())));
+                  m_workers.execute(new Runnable()
+                  {
+                     public void run()
+                     {
+                        runBatch(actionName, batch);
+                     }
+                  });
+               }
+            }
+         }
+         catch (InterruptedException e)
+         {
+            Thread.currentThread().interrupt();
+            return;
+         }
+         catch (RuntimeException e)
+         {
+            // Includes rejection once the workers have been shut down
+            if (m_running)
+            {
+               LOGGER.log(Level.WARNING, "Error dispatching scheduled actions, " + e.getMessage(), e);
+            }
+         }
+      }
+   }
+
+   /**
+    * Wait until at least one entry is due and take every due entry
+    *
+    * @return the due entries in due order, empty if the scheduler was closed
+    *
+    * @throws InterruptedException if the dispatcher was interrupted
+    */
+   private List<Entry> takeDue() throws InterruptedException
+   {
+      List<Entry> due = new ArrayList<Entry>();
+      m_lock.lock();
+      try
+      {
+         while (m_running)
+         {
+            Entry head = m_queue.peek();
+            if (head == null)
+            {
+               m_changed.await();
+            }
+            else if (head.m_cancelled)
+            {
+               m_queue.poll();
+            }
+            else
+            {
+               long wait = head.m_due - System.currentTimeMillis();
+               if (wait > 0)
+               {
+                  m_changed.await(wait, TimeUnit.MILLISECONDS);
+               }
+               else
+               {
+                  break;
+               }
+            }
+         }
+
+         long now = System.currentTimeMillis();
+         Entry head;
+         while (m_running && (head = m_queue.peek()) != null && head.m_due <= now)
+         {
+            m_queue.poll();
+            if (!head.m_cancelled)
+            {
+               m_entries.remove(head.m_key);
+               due.add(head);
+            }
+         }
+      }
+      finally
+      {
+         m_lock.unlock();
+      }
+      return due;
+   }
+
+   /**
+    * Run an action against a batch of documents read from the system workspace and save the
+    * documents the action did not roll back
+    *
+    * @param actionName the action name
+    * @param documentIds the ids of the target documents
+    */
+   private void runBatch(String actionName, List<String> documentIds)
+   {
+      final String LOG_METHOD = "runBatch(actionName, documentIds)";
+      boolean isFiner = LOGGER.isLoggable(LOG_LEVEL);
+      if (isFiner)
+      {
+         LOGGER.entering(LOG_CLASS, LOG_METHOD, new Object[] {actionName, Integer.valueOf(documentIds.size())});
+      }
+
+      Repository repository = WCM_API.getRepository();
+      try
+      {
+         Workspace workspace = repository.getSystemWorkspace();
+         List<Document> documents = new ArrayList<Document>(documentIds.size());
+         for (String documentId : documentIds)
+         {
+            try
+            {
+               documents.add(workspace.getById(workspace.createDocumentId(documentId)));
+            }
+            catch (WCMException e)
+            {
+               // The document may have been deleted since it was scheduled
+               LOGGER.log(Level.WARNING, "Unable to read document " + documentId + " for scheduled action " + actionName + ", " + e.getMessage(), e);
+            }
+         }
+
+         List<CustomWorkflowActionResult> results = m_factory.executeAll(actionName, documents);
+         for (int i = 0; results != null && i < results.size(); i++)
+         {
+            CustomWorkflowActionResult result = results.get(i);
+            if (result != null && !Directives.ROLLBACK_DOCUMENT.equals(result.getDirective()))
+            {
+               save(workspace, documents.get(i), actionName);
+            }
+         }
+      }
+      catch (ServiceNotAvailableException e)
+      {
+         LOGGER.log(Level.WARNING, "Unable to run scheduled action " + actionName + ", " + e.getMessage(), e);
+      }
+      catch (OperationFailedException e)
+      {
+         LOGGER.log(Level.WARNING, "Unable to run scheduled action " + actionName + ", " + e.getMessage(), e);
+      }
+      catch (RuntimeException e)
+      {
+         LOGGER.log(Level.WARNING, "Scheduled action " + actionName + " failed, " + e.getMessage(), e);
+      }
+      finally
+      {
+         repository.endWorkspace();
+      }
+
+      if (isFiner)
+      {
+         LOGGER.exiting(LOG_CLASS, LOG_METHOD);
+      }
+   }
+
+   /**
+    * Save a document changed by a scheduled action
+    *
+    * @param workspace the system workspace
+    * @param document the document
+    * @param actionName the action name, for logging
+    */
+   private static void save(Workspace workspace, Document document, String actionName)
+   {
+      try
+      {
+         String[] errors = workspace.save(document);
+         if (errors != null && errors.length > 0)
+         {
+            LOGGER.log(Level.WARNING, "Unable to save document " + document.getId().getId() + " after scheduled action " + actionName + ", " + Arrays.asList(errors));
+         }
+      }
+      catch (WCMException e)
+      {
+         LOGGER.log(Level.WARNING, "Unable to save document " + document.getId().getId() + " after scheduled action " + actionName + ", " + e.getMessage(), e);
+      }
+   }
+
+   /**
+    * Identifies the pending entry for a document and action
+    */
+   private static final class Key
+   {
+      /** The document id */
+      final String m_documentId;
+
+      /** The action name */
+      final String m_actionName;
+
+      /**
+       * Constructor
+       * @param documentId the document id
+       * @param actionName the action name
+       */
+      Key(String documentId, String actionName)
+      {
+         m_documentId = documentId;
+         m_actionName = actionName;
+      }
+
+      /**
+       * @see java.lang.Object#equals(java.lang.Object)
+       */
+      public boolean equals(Object obj)
+      {
+         if (!(obj instanceof Key))
+         {
+            return false;
+         }
+         Key other = (Key) obj;
+         return m_documentId.equals(other.m_documentId) && m_actionName.equals(other.m_actionName);
+      }
+
+      /**
+       * @see java.lang.Object#hashCode()
+       */
+      public int hashCode()
+      {
+         return 31 * m_documentId.hashCode() + m_actionName.hashCode();
+      }
+   }
+
+   /**
+    * A pending action for a document
+    */
+   private static final class Entry implements Comparable<Entry>
+   {
+      /** The document and action */
+      final Key m_key;
+
+      /** When the action is due, in milliseconds since the epoch */
+      final long m_due;
+
+      /** Order in which the entry was scheduled */
+      final long m_sequence;
+
+      /** True once the entry has been replaced or cancelled, guarded by the scheduler lock */
+      boolean m_cancelled;
+
+      /**
+       * Constructor
+       * @param key the document and action
+       * @param due when the action is due
+       * @param sequence order in which the entry was scheduled
+       */
+      Entry(Key key, long due, long sequence)
+      {
+         m_key = key;
+         m_due = due;
+         m_sequence = sequence;
+      }
+
+      /**
+       * @see java.lang.Comparable#compareTo(java.lang.Object)
+       */
+      public int compareTo(Entry other)
+      {
+         if (m_due != other.m_due)
+         {
+            return (m_due < other.m_due) ? -1 : 1;
+         }
+         return (m_sequence < other.m_sequence) ? -1 : ((m_sequence == other.m_sequence) ? 0 : 1);
+      }
+   }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2014  IBM Corp.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.ibm.wcm.sample.customactions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Result of validating the configured action classes when the factory properties are loaded.
+ * Lists every configured class with its validation status, in configuration order.
+ */
+public class ActionValidationReport
+{
+   /**
+    * Validation status of an action class
+    */
+   public static enum Status
+   {
+      /** The class is a valid action and has been registered */
+      VALID,
+      /** The class was not found */
+      CLASS_NOT_FOUND,
+      /** The class does not implement the CustomWorkflowAction interface */
+      NOT_AN_ACTION,
+      /** The class is abstract */
+      ABSTRACT_CLASS,
+      /** The class has no public no-argument constructor */
+      NO_CONSTRUCTOR,
+      /** The class could not be loaded or instantiated */
+      INSTANTIATION_FAILED,
+      /** Validating the class did not finish within the validation timeout */
+      TIMED_OUT,
+      /** The pipeline name is already registered, the pipeline has no steps, or a step is not a registered action */
+      INVALID_PIPELINE
+   }
+
+   /**
+    * Validation result of one action class
+    */
+   public static final class Entry
+   {
+      /** The action class name */
+      private final String m_className;
+
+      /** The validation status */
+      private final Status m_status;
+
+      /** Description of the problem, null for valid classes */
+      private final String m_message;
+
+      /**
+       * Constructor
+       * @param className the action class name
+       * @param status the validation status
+       * @param message description of the problem, null for valid classes
+       */
+      public Entry(String className, Status status, String message)
+      {
+         m_className = className;
+         m_status = status;
+         m_message = message;
+      }
+
+      /**
+       * @return the action class name
+       */
+      public String getClassName()
+      {
+         return m_className;
+      }
+
+      /**
+       * @return the validation status
+       */
+      public Status getStatus()
+      {
+         return m_status;
+      }
+
+      /**
+       * @return description of the problem, null for valid classes
+       */
+      public String getMessage()
+      {
+         return m_message;
+      }
+
+      /**
+       * @return true if the class is a valid action
+       */
+      public boolean isValid()
+      {
+         return m_status == Status.VALID;
+      }
+
+      /**
+       * @see java.lang.Object#toString()
+       */
+      public String toString()
+      {
+         return m_className + ": " + m_status + ((m_message != null) ? " - " + m_message : "");
+      }
+   }
+
+   /** Results in configuration order */
+   private final List<Entry> m_entries;
+
+   /** Time taken to validate every class */
+   private final long m_elapsedMillis;
+
+   /**
+    * Constructor
+    * @param entries the results in configuration order
+    * @param elapsedMillis time taken to validate every class
+    */
+   public ActionValidationReport(List<Entry> entries, long elapsedMillis)
+   {
+      m_entries = Collections.unmodifiableList(new ArrayList<Entry>(entries));
+      m_elapsedMillis = elapsedMillis;
+   }
+
+   /**
+    * @return the result for every configured class, in configuration order
+    */
+   public List<Entry> getEntries()
+   {
+      return m_entries;
+   }
+
+   /**
+    * @return the results of the classes that failed validation
+    */
+   public List<Entry> getFailures()
+   {
+      List<Entry> failures = new ArrayList<Entry>();
+      for (Entry entry : m_entries)
+      {
+         if (!entry.isValid())
+         {
+            failures.add(entry);
+         }
+      }
+      return failures;
+   }
+
+   /**
+    * @return true if every configured class is a valid action
+    */
+   public boolean isValid()
+   {
+      for (Entry entry : m_entries)
+      {
+         if (!entry.isValid())
+         {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   /**
+    * @return time taken to validate every class in milliseconds
+    */
+   public long getElapsedMillis()
+   {
+      return m_elapsedMillis;
+   }
+
+   /**
+    * @see java.lang.Object#toString()
+    */
+   public String toString()
+   {
+      StringBuilder report = new StringBuilder();
+      report.append("Validated ").append(m_entries.size()).append(" action classes in ").append(m_elapsedMillis).append(" ms");
+      for (Entry entry : m_entries)
+      {
+         report.append("\n  ").append(entry);
+      }
+      return report.toString();
+   }
+}
@@ -0,0 +1,780 @@
+/*
+ * Copyright 2014  IBM Corp.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.ibm.wcm.sample.customactions;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.ibm.workplace.wcm.api.Document;
+import com.ibm.workplace.wcm.api.DocumentId;
+import com.ibm.workplace.wcm.api.custom.CustomWorkflowActionResult;
+
+/**
+ * Asynchronous audit log of custom workflow action executions. <br />
+ * Each execution is recorded with its time, document id, action name, outcome, duration and
+ * message into a bounded ring buffer, without locking, and a background writer appends the
+ * records in batches to a JSON lines file per day through a file channel:
+ * <pre>
+ * {"ts":1760688000123,"doc":"...","action":"...","outcome":"CONTINUE","us":1250,"msg":"..."}
+ * </pre>
+ * The time is in milliseconds since the epoch and the duration in microseconds. Files are named
+ * audit-yyyy-MM-dd.jsonl after the local date and can be searched with the AuditLogQuery tool.
+ * When the buffer is full, because the disk cannot keep up, the record is dropped and counted
+ * rather than holding up the workflow. The counts are registered with the platform MBean server
+ * under "com.ibm.wcm.sample.customactions:type=AuditLog".
+ */
+public class AuditLog implements AuditLogMBean
+{
+   /** class name for the logger */
+   private static final String LOG_CLASS = AuditLog.class.getName();
+
+   /** class logger */
+   private static final Logger LOGGER = Logger.getLogger(LOG_CLASS);
+
+   /** JMX object name the audit log counts are registered under */
+   public static final String OBJECT_NAME = "com.ibm.wcm.sample.customactions:type=AuditLog";
+
+   /** Log file name prefix */
+   public static final String FILE_PREFIX = "audit-";
+
+   /** Log file name suffix */
+   public static final String FILE_SUFFIX = ".jsonl";
+
+   /** Date format of the log file names */
+   public static final String FILE_DATE_PATTERN = "yyyy-MM-dd";
+
+   /** Maximum number of records written at once */
+   private static final int BATCH_SIZE = 1024;
+
+   /** Size of the buffer records are encoded into before they are written */
+   private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+   /** How long shutdown waits for the writer to write the buffered records */
+   private static final long SHUTDOWN_MILLIS = 10000;
+
+   /** Nanoseconds in a microsecond */
+   private static final long NANOS_PER_MICRO = 1000;
+
+   /** The audit log being written, null if executions are not audited */
+   private static volatile AuditLog s_log;
+
+   /** The log directory */
+   private final File m_directory;
+
+   /** Number of days of log files kept, 0 to keep every file */
+   private final int m_retentionDays;
+
+   /** Time in nanoseconds the writer waits for more records before writing a partial batch */
+   private final long m_flushIntervalNanos;
+
+   /** Ring buffer slots, a power of two in size */
+   private final Record[] m_records;
+
+   /**
+    * Sequence of each slot. A slot can be claimed for position p when its sequence is p and
+    * can be read once its sequence is p + 1; reading it sets the sequence to p + capacity.
+    */
+   private final AtomicLongArray m_sequences;
+
+   /** Mask turning a position into a slot index */
+   private final int m_mask;
+
+   /** Next position claimed by a recording thread */
+   private final AtomicLong m_tail = new AtomicLong();
+
+   /** Next position read by the writer, published after each batch */
+   private volatile long m_head;
+
+   /** Number of records buffered */
+   private final AtomicLong m_recorded = new AtomicLong();
+
+   /** Number of records dropped because the buffer was full */
+   private final AtomicLong m_dropped = new AtomicLong();
+
+   /** Number of records lost because the log file could not be written */
+   private final AtomicLong m_failed = new AtomicLong();
+
+   /** Number of records written */
+   private volatile long m_written;
+
+   /** The writer thread */
+   private final Thread m_writer;
+
+   /** True while the writer is waiting for records */
+   private volatile boolean m_waiting;
+
+   /** False once shutdown has been requested */
+   private volatile boolean m_running = true;
+
+   /** The file being written, accessed by the writer only */
+   private FileChannel m_channel;
+
+   /** Name of the file being written */
+   private volatile String m_fileName;
+
+   /** Start of the day of the file being written, accessed by the writer only */
+   private long m_dayStart;
+
+   /** End of the day of the file being written, accessed by the writer only */
+   private long m_dayEnd;
+
+   /** Records of the current batch as text, accessed by the writer only */
+   private final StringBuilder m_text = new StringBuilder(BATCH_SIZE * 160);
+
+   /** Number of records in the text, accessed by the writer only */
+   private int m_textRecords;
+
+   /** UTF-8 encoder of the text, accessed by the writer only */
+   private final CharsetEncoder m_encoder = Charset.forName("UTF-8").newEncoder()
+      .onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+   /** Buffer the text is encoded into, accessed by the writer only */
+   private final ByteBuffer m_buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+
+   /** Formats log file dates, accessed by the writer only */
+   private final SimpleDateFormat m_dateFormat = new SimpleDateFormat(FILE_DATE_PATTERN);
+
+   /**
+    * Construct the audit log and start the writer
+    * @param directory the log directory
+    * @param capacity the number of records buffered, rounded up to a power of two
+    * @param flushInterval time in milliseconds records may wait before they are written
+    * @param retentionDays number of days of log files kept, 0 to keep every file
+    * @throws IOException If the log directory cannot be created
+    */
+   public AuditLog(File directory, int capacity, long flushInterval, int retentionDays) throws IOException
+   {
+      if (!directory.isDirectory() && !directory.mkdirs())
+      {
+         throw new IOException("Unable to create audit log directory " + directory);
+      }
+      m_directory = directory;
+      m_retentionDays = retentionDays;
+      m_flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, flushInterval));
+
+      int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+      m_records = new Record[size];
+      m_sequences = new AtomicLongArray(size);
+      for (int i = 0; i < size; i++)
+      {
+         m_sequences.set(i, i);
+      }
+      m_mask = size - 1;
+
+      m_writer = new Thread(new Writer(), "WCM Audit Log");
+      m_writer.setDaemon(true);
+      m_writer.start();
+      registerMBean();
+   }
+
+   /**
+    * Returns the audit log executions are recorded in
+    * @return the audit log, null if executions are not audited
+    */
+   public static AuditLog getInstance()
+   {
+      return s_log;
+   }
+
+   /**
+    * Start auditing executions, replacing the audit log being written
+    * @param directory the log directory
+    * @param capacity the number of records buffered
+    * @param flushInterval time in milliseconds records may wait before they are written
+    * @param retentionDays number of days of log files kept, 0 to keep every file
+    * @throws IOException If the log directory cannot be created
+    */
+   public static synchronized void start(File directory, int capacity, long flushInterval, int retentionDays) throws IOException
+   {
+      AuditLog log = new AuditLog(directory, capacity, flushInterval, retentionDays);
+      AuditLog previous = s_log;
+      s_log = log;
+      if (previous != null)
+      {
+         previous.close();
+      }
+   }
+
+   /**
+    * Stop auditing executions and write the buffered records
+    */
+   public static synchronized void shutdown()
+   {
+      AuditLog log = s_log;
+      s_log = null;
+      if (log != null)
+      {
+         log.close();
+      }
+   }
+
+   /**
+    * Record an execution that returned a result
+    * @param document the document the action ran against
+    * @param actionName the action name
+    * @param result the action result, may be null
+    * @param elapsedNanos the execution time in nanoseconds
+    */
+   public void record(Document document, String actionName, CustomWorkflowActionResult result, long elapsedNanos)
+   {
+      offer(new Record(System.currentTimeMillis(), getDocumentId(document), actionName,
+         ActionMetrics.outcomeOf(result), elapsedNanos, (result != null) ? result.getMessage() : null));
+   }
+
+   /**
+    * Record an execution that threw an exception
+    * @param document the document the action ran against
+    * @param actionName the action name
+    * @param elapsedNanos the execution time in nanoseconds
+    */
+   public void recordFailure(Document document, String actionName, long elapsedNanos)
+   {
+      offer(new Record(System.currentTimeMillis(), getDocumentId(document), actionName,
+         ActionMetrics.Outcome.FAILED, elapsedNanos, null));
+   }
+
+   /**
+    * Returns the id of a document
+    * @param document the document, may be null
+    * @return the document id, null if unknown
+    */
+   private static String getDocumentId(Document document)
+   {
+      DocumentId id = (document != null) ? document.getId() : null;
+      return (id != null) ? id.getId() : null;
+   }
+
+   /**
+    * Add a record to the ring buffer, or drop it if the buffer is full
+    * @param record the record
+    */
+   private void offer(Record record)
+   {
+      long position;
+      while (true)
+      {
+         position = m_tail.get();
+         long available = m_sequences.get((int) position & m_mask) - position;
+         if (available == 0)
+         {
+            if (m_tail.compareAndSet(position, position + 1))
+            {
+               break;
+            }
+         }
+         else if (available < 0)
+         {
+            // The writer has not read this slot yet, the buffer is full
+            m_dropped.incrementAndGet();
+            return;
+         }
+      }
+      int index = (int) position & m_mask;
+      m_records[index] = record;
+      m_sequences.set(index, position + 1);
+      m_recorded.incrementAndGet();
+
+      // Wake the writer early once the buffer is half full
+      if (m_waiting && position - m_head >= m_records.length / 2)
+      {
+         LockSupport.unpark(m_writer);
+      }
+   }
+
+   /**
+    * Stop the writer once it has written the buffered records, and close the log file
+    */
+   public void close()
+   {
+      m_running = false;
+      LockSupport.unpark(m_writer);
+      try
+      {
+         m_writer.join(SHUTDOWN_MILLIS);
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+      }
+      unregisterMBean();
+   }
+
+   /**
+    * Write the records in the buffer, at most one batch
+    * @return the number of records written
+    */
+   private int writeBatch()
+   {
+      long head = m_head;
+      int count = 0;
+      try
+      {
+         while (count < BATCH_SIZE)
+         {
+            int index = (int) head & m_mask;
+            if (m_sequences.get(index) != head + 1)
+            {
+               break;
+            }
+            Record record = m_records[index];
+            m_records[index] = null;
+            m_sequences.set(index, head + m_records.length);
+            head++;
+            count++;
+
+            int length = m_text.length();
+            try
+            {
+               if (record.m_time >= m_dayEnd || record.m_time < m_dayStart)
+               {
+                  flushText();
+                  roll(record.m_time);
+               }
+               record.appendTo(m_text);
+               m_textRecords++;
+            }
+            catch (RuntimeException e)
+            {
+               // Skip the record rather than lose the batch
+               m_text.setLength(Math.min(length, m_text.length()));
+               m_failed.incrementAndGet();
+               LOGGER.log(Level.SEVERE, "Unable to write the audit record of " + record.m_actionName, e);
+            }
+         }
+      }
+      finally
+      {
+         // The slots taken are free again whatever happened
+         m_head = head;
+      }
+      flushText();
+      return count;
+   }
+
+   /**
+    * Encode the batch text and write it to the log file
+    */
+   private void flushText()
+   {
+      if (m_textRecords == 0)
+      {
+         return;
+      }
+      try
+      {
+         if (m_channel == null)
+         {
+            throw new IOException("Audit log file " + m_fileName + " is not open");
+         }
+         CharBuffer chars = CharBuffer.wrap(m_text);
+         m_encoder.reset();
+         CoderResult result;
+         do
+         {
+            result = m_encoder.encode(chars, m_buffer, true);
+            if (result.isOverflow())
+            {
+               writeBuffer();
+            }
+         }
+         while (result.isOverflow());
+         m_encoder.flush(m_buffer);
+         writeBuffer();
+         m_written += m_textRecords;
+      }
+      catch (IOException e)
+      {
+         m_failed.addAndGet(m_textRecords);
+         LOGGER.log(Level.WARNING, "Unable to write " + m_textRecords + " audit records to " + m_fileName, e);
+         // Reopen the file with the next batch
+         closeChannel();
+         m_dayStart = 0;
+         m_dayEnd = 0;
+      }
+      finally
+      {
+         m_buffer.clear();
+         m_text.setLength(0);
+         m_textRecords = 0;
+      }
+   }
+
+   /**
+    * Write the encoded bytes to the log file
+    * @throws IOException If the bytes cannot be written
+    */
+   private void writeBuffer() throws IOException
+   {
+      m_buffer.flip();
+      while (m_buffer.hasRemaining())
+      {
+         m_channel.write(m_buffer);
+      }
+      m_buffer.clear();
+   }
+
+   /**
+    * Open the log file of the day a record belongs to, and delete the files past the retention period
+    * @param time the record time
+    */
+   private void roll(long time)
+   {
+      closeChannel();
+
+      Calendar calendar = Calendar.getInstance();
+      calendar.setTimeInMillis(time);
+      calendar.set(Calendar.HOUR_OF_DAY, 0);
+      calendar.set(Calendar.MINUTE, 0);
+      calendar.set(Calendar.SECOND, 0);
+      calendar.set(Calendar.MILLISECOND, 0);
+      m_dayStart = calendar.getTimeInMillis();
+      calendar.add(Calendar.DAY_OF_MONTH, 1);
+      m_dayEnd = calendar.getTimeInMillis();
+
+      File file = new File(m_directory, FILE_PREFIX + m_dateFormat.format(new Date(time)) + FILE_SUFFIX);
+      m_fileName = file.getPath();
+      try
+      {
+         m_channel = new FileOutputStream(file, true).getChannel();
+      }
+      catch (IOException e)
+      {
+         LOGGER.log(Level.WARNING, "Unable to open audit log file " + file, e);
+      }
+
+      if (m_retentionDays > 0)
+      {
+         calendar.setTimeInMillis(m_dayStart);
+         calendar.add(Calendar.DAY_OF_MONTH, -m_retentionDays);
+         deleteBefore(FILE_PREFIX + m_dateFormat.format(calendar.getTime()) + FILE_SUFFIX);
+      }
+   }
+
+   /**
+    * Delete the log files older than a log file. The names sort in date order.
+    * @param oldestKept name of the oldest log file kept
+    */
+   private void deleteBefore(final String oldestKept)
+   {
+      File[] files = m_directory.listFiles(new FilenameFilter()
+      {
+         public boolean accept(File dir, String name)
+         {
+            return name.startsWith(FILE_PREFIX) && name.endsWith(FILE_SUFFIX) && name.compareTo(oldestKept) < 0;
+         }
+      });
+      if (files != null)
+      {
+         for (File file : files)
+         {
+            if (!file.delete())
+            {
+               LOGGER.log(Level.WARNING, "Unable to delete audit log file " + file);
+            }
+         }
+      }
+   }
+
+   /**
+    * Close the log file being written
+    */
+   private void closeChannel()
+   {
+      if (m_channel != null)
+      {
+         try
+         {
+            m_channel.close();
+         }
+         catch (IOException e)
+         {
+            LOGGER.log(Level.FINE, "Unable to close audit log file " + m_fileName, e);
+         }
+         m_channel = null;
+      }
+   }
+
+   /**
+    * @see com.ibm.wcm.sample.customactions.AuditLogMBean#getRecordedCount()
+    */
+   public long getRecordedCount()
+   {
+      return m_recorded.get();
+   }
+
+   /**
+    * @see com.ibm.wcm.sample.customactions.AuditLogMBean#getWrittenCount()
+    */
+   public long getWrittenCount()
+   {
+      return m_written;
+   }
+
+   /**
+    * @see com.ibm.wcm.sample.customactions.AuditLogMBean#getDroppedCount()
+    */
+   public long getDroppedCount()
+   {
+      return m_dropped.get();
+   }
+
+   /**
+    * @see com.ibm.wcm.sample.customactions.AuditLogMBean#getFailedCount()
+    */
+   public long getFailedCount()
+   {
+      return m_failed.get();
+   }
+
+   /**
+    * @see com.ibm.wcm.sample.customactions.AuditLogMBean#getPendingCount()
+    */
+   public long getPendingCount()
+   {
+      return Math.max(0, m_tail.get() - m_head);
+   }
+
+   /**
+    * @see com.ibm.wcm.sample.customactions.AuditLogMBean#getFileName()
+    */
+   public String getFileName()
+   {
+      return m_fileName;
+   }
+
+   /**
+    * Register the counts with the platform MBean server
+    */
+   private void registerMBean()
+   {
+      try
+      {
+         MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+         ObjectName name = new ObjectName(OBJECT_NAME);
+         if (server.isRegistered(name))
+         {
+            server.unregisterMBean(name);
+         }
+         server.registerMBean(this, name);
+      }
+      catch (JMException e)
+      {
+         LOGGER.log(Level.WARNING, "Unable to register audit log metrics", e);
+      }
+   }
+
+   /**
+    * Remove the counts from the platform MBean server
+    */
+   private void unregisterMBean()
+   {
+      try
+      {
+         MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+         ObjectName name = new ObjectName(OBJECT_NAME);
+         if (server.isRegistered(name))
+         {
+            server.unregisterMBean(name);
+         }
+      }
+      catch (JMException e)
+      {
+         LOGGER.log(Level.FINE, "Unable to unregister audit log metrics", e);
+      }
+   }
+
+   /**
+    * Background writer draining the ring buffer into the log file
+    */
+   private final class Writer implements Runnable
+   {
+      /**
+       * @see java.lang.Runnable#run()
+       */
+      public void run()
+      {
+         try
+         {
+            while (m_running)
+            {
+               if (write() < BATCH_SIZE)
+               {
+                  // Wait for a full batch, or for the flush interval to pass
+                  m_waiting = true;
+                  if (m_running && getPendingCount() < m_records.length / 2)
+                  {
+                     LockSupport.parkNanos(this, m_flushIntervalNanos);
+                  }
+                  m_waiting = false;
+               }
+            }
+            while (write() > 0)
+            {
+               // Write the records buffered before shutdown
+            }
+         }
+         finally
+         {
+            closeChannel();
+         }
+      }
+
+      /**
+       * Write a batch, logging an unexpected error instead of ending the writer
+       * @return the number of records taken from the buffer
+       */
+      private int write()
+      {
+         try
+         {
+            return writeBatch();
+         }
+         catch (RuntimeException e)
+         {
+            LOGGER.log(Level.SEVERE, "Unexpected error writing the audit log " + m_fileName, e);
+            return 0;
+         }
+      }
+   }
+
+   /**
+    * A recorded execution
+    */
+   private static final class Record
+   {
+      /** Time of the execution in milliseconds since the epoch */
+      final long m_time;
+
+      /** The document id, may be null */
+      final String m_documentId;
+
+      /** The action name */
+      final String m_actionName;
+
+      /** The execution outcome */
+      final ActionMetrics.Outcome m_outcome;
+
+      /** The execution time in nanoseconds */
+      final long m_elapsedNanos;
+
+      /** The result message, may be null */
+      final String m_message;
+
+      /**
+       * Constructor
+       * @param time time of the execution in milliseconds since the epoch
+       * @param documentId the document id, may be null
+       * @param actionName the action name
+       * @param outcome the execution outcome
+       * @param elapsedNanos the execution time in nanoseconds
+       * @param message the result message, may be null
+       */
+      Record(long time, String documentId, String actionName, ActionMetrics.Outcome outcome, long elapsedNanos, String message)
+      {
+         m_time = time;
+         m_documentId = documentId;
+         m_actionName = actionName;
+         m_outcome = outcome;
+         m_elapsedNanos = elapsedNanos;
+         m_message = message;
+      }
+
+      /**
+       * Append the record as a line of JSON
+       * @param text the text to append to
+       */
+      void appendTo(StringBuilder text)
+      {
+         text.append("{\"ts\":").append(m_time);
+         text.append(",\"doc\":");
+         appendString(text, m_documentId);
+         text.append(",\"action\":");
+         appendString(text, m_actionName);
+         text.append(",\"outcome\":\"").append(m_outcome.name());
+         text.append("\",\"us\":").append(m_elapsedNanos / NANOS_PER_MICRO);
+         if (m_message != null)
+         {
+            text.append(",\"msg\":");
+            appendString(text, m_message);
+         }
+         text.append("}\n");
+      }
+
+   }
+
+   /**
+    * Append a JSON string the way the records are written
+    * @param text the text to append to
+    * @param value the string, may be null
+    */
+   static void appendString(StringBuilder text, String value)
+   {
+      if (value == null)
+      {
+         text.append("null");
+         return;
+      }
+      text.append('"');
+      for (int i = 0; i < value.length(); i++)
+      {
+         char c = value.charAt(i);
+         if (c == '"' || c == '\\')
+         {
+            text.append('\\').append(c);
+         }
+         else if (c == '\n')
+         {
+            text.append("\\n");
+         }
+         else if (c == '\r')
+         {
+            text.append("\\r");
+         }
+         else if (c == '\t')
+         {
+            text.append("\\t");
+         }
+         else if (c < 0x20)
+         {
+            text.append("\\u00").append(Character.forDigit(c >> 4, 16)).append(Character.forDigit(c & 0xf, 16));
+         }
+         else
+         {
+            text.append(c);
+         }
+      }
+      text.append('"');
+   }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2014  IBM Corp.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.ibm.wcm.sample.customactions;
+
+/**
+ * Management interface exposing the audit log counts.
+ */
+public interface AuditLogMBean
+{
+   /**
+    * @return the number of executions recorded in the buffer
+    */
+   long getRecordedCount();
+
+   /**
+    * @return the number of records written to the log file
+    */
+   long getWrittenCount();
+
+   /**
+    * @return the number of records dropped because the buffer was full
+    */
+   long getDroppedCount();
+
+   /**
+    * @return the number of records lost because the log file could not be written
+    */
+   long getFailedCount();
+
+   /**
+    * @return the number of records waiting to be written
+    */
+   long getPendingCount();
+
+   /**
+    * @return the path of the log file being written, null before the first record is written
+    */
+   String getFileName();
+}
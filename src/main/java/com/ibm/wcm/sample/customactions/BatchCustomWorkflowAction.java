@@ -0,0 +1,37 @@
+/*
+ * Copyright 2014  IBM Corp.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.ibm.wcm.sample.customactions;
+
+import java.util.List;
+
+import com.ibm.workplace.wcm.api.Document;
+import com.ibm.workplace.wcm.api.custom.CustomWorkflowAction;
+import com.ibm.workplace.wcm.api.custom.CustomWorkflowActionResult;
+
+/**
+ * A custom workflow action that can run against many documents at once. WCM itself executes
+ * actions one document at a time; batches are run by automation that moves whole sites through
+ * workflow, see {@link CustomWorkflowActionFactoryImpl#executeAll(String, List)}. Implementations
+ * do the work shared by every document, such as resolving the current user or connecting to
+ * the mail server, once per batch.
+ */
+public interface BatchCustomWorkflowAction extends CustomWorkflowAction
+{
+   /**
+    * Execute the action against each document
+    *
+    * @param documents the target documents
+    *
+    * @return the result for each document, in the order of the documents
+    */
+   List<CustomWorkflowActionResult> executeAll(List<Document> documents);
+}
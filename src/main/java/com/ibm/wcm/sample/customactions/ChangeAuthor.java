@@ -11,24 +11,28 @@
  */
 package com.ibm.wcm.sample.customactions;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.ibm.workplace.wcm.api.Document;
 import com.ibm.workplace.wcm.api.Editable;
+import com.ibm.workplace.wcm.api.UserProfile;
 import com.ibm.workplace.wcm.api.WCM_API;
 import com.ibm.workplace.wcm.api.Workspace;
-import com.ibm.workplace.wcm.api.custom.CustomWorkflowAction;
 import com.ibm.workplace.wcm.api.custom.CustomWorkflowActionResult;
 import com.ibm.workplace.wcm.api.custom.Directives;
 import com.ibm.workplace.wcm.api.exceptions.OperationFailedException;
 import com.ibm.workplace.wcm.api.exceptions.ServiceNotAvailableException;
 
 /**
- * Replace all authors of the workflowed document with the current user.
+ * Replace all authors of the workflowed document with the current user. <br />
+ * The current user's common name is cached in the {@link UserNameCache}, and a document whose
+ * only author is already the current user is left unchanged.
  */
-public class ChangeAuthor implements CustomWorkflowAction
+public class ChangeAuthor implements BatchCustomWorkflowAction, ThreadSafeAction
 {
    /** class name for the logger */
    private static final String LOG_CLASS = ChangeAuthor.class.getName();
@@ -59,27 +63,25 @@ public class ChangeAuthor implements CustomWorkflowAction
          LOGGER.entering(LOG_CLASS, LOG_METHOD, new Object[] {});
       }
       
-      ActionResultBuilder builder = ActionResultBuilder.with(Directives.CONTINUE);
+      // Only a failure needs a builder, success returns the shared CONTINUE result
+      CustomWorkflowActionResult result = null;
 
       if (aDocument instanceof Editable)
       {           
          try
          {
-            // Preparations
-            Workspace workspace = WCM_API.getRepository().getWorkspace();
-            Editable editable = (Editable) aDocument;
-            
-            // Remove all other authors and set the current user as the author
-            editable.removeAuthors(editable.getAuthors());
-            editable.addAuthors(new String[]{workspace.getUserProfile().getCommonName()});    
+            // Preparations, shared with the other steps when running in a pipeline
+            ActionContext context = ActionContext.current();
+            UserProfile profile = (context != null) ? context.getUserProfile() : WCM_API.getRepository().getWorkspace().getUserProfile();
+            changeAuthor((Editable) aDocument, getCommonName(profile));
          }
          catch (ServiceNotAvailableException snae)
          {
-            builder.rollback(snae.getMessage());
+            result = ActionResultBuilder.with(Directives.CONTINUE).rollback(snae.getMessage()).toResult();
          }
          catch (OperationFailedException ofe)
          {
-            builder.rollback(ofe.getMessage());
+            result = ActionResultBuilder.with(Directives.CONTINUE).rollback(ofe.getMessage()).toResult();
          }        
       }
 
@@ -88,6 +90,95 @@ public class ChangeAuthor implements CustomWorkflowAction
          LOGGER.exiting(LOG_CLASS, LOG_METHOD);
       }
       
-      return builder.toResult();
+      return (result != null) ? result : ActionResultBuilder.result(Directives.CONTINUE);
+   }
+
+   /**
+    * Changes documents, resolving the current user once for the whole batch
+    * @see com.ibm.wcm.sample.customactions.BatchCustomWorkflowAction#executeAll(java.util.List)
+    */
+   public List<CustomWorkflowActionResult> executeAll(List<Document> documents)
+   {
+      final String LOG_METHOD = "executeAll(documents)";      
+      boolean isLogging = LOGGER.isLoggable(LOG_LEVEL);
+      if (isLogging)
+      {
+         LOGGER.entering(LOG_CLASS, LOG_METHOD, new Object[] {Integer.valueOf(documents.size())});
+      }
+
+      // Preparations shared by every document
+      String commonName = null;
+      CustomWorkflowActionResult failure = null;
+      try
+      {
+         Workspace workspace = WCM_API.getRepository().getWorkspace();
+         commonName = getCommonName(workspace.getUserProfile());
+      }
+      catch (ServiceNotAvailableException snae)
+      {
+         failure = ActionResultBuilder.with(Directives.CONTINUE).rollback(snae.getMessage()).toResult();
+      }
+      catch (OperationFailedException ofe)
+      {
+         failure = ActionResultBuilder.with(Directives.CONTINUE).rollback(ofe.getMessage()).toResult();
+      }
+
+      List<CustomWorkflowActionResult> results = new ArrayList<CustomWorkflowActionResult>(documents.size());
+      for (Document document : documents)
+      {
+         if (!(document instanceof Editable))
+         {
+            results.add(ActionResultBuilder.result(Directives.CONTINUE));
+         }
+         else if (failure != null)
+         {
+            results.add(failure);
+         }
+         else
+         {
+            changeAuthor((Editable) document, commonName);
+            results.add(ActionResultBuilder.result(Directives.CONTINUE));
+         }
+      }
+
+      if (isLogging)
+      {
+         LOGGER.exiting(LOG_CLASS, LOG_METHOD);
+      }
+      return results;
+   }
+
+   /**
+    * Remove all other authors and set the current user as the author, unless that is already the case
+    * @param editable the document
+    * @param commonName the common name of the current user
+    */
+   private static void changeAuthor(Editable editable, String commonName)
+   {
+      String[] authors = editable.getAuthors();
+      boolean isOnlyAuthor = authors != null && authors.length == 1 && authors[0] != null && authors[0].equals(commonName);
+      if (!isOnlyAuthor)
+      {
+         editable.removeAuthors(authors);
+         editable.addAuthors(new String[]{commonName});
+      }
+   }
+
+   /**
+    * Returns the common name of a user, from the cache if it has been resolved recently
+    * @param profile the user profile
+    * @return the common name
+    */
+   private static String getCommonName(UserProfile profile)
+   {
+      UserNameCache cache = UserNameCache.getInstance();
+      String userName = profile.getUsername();
+      String commonName = cache.get(userName);
+      if (commonName == null)
+      {
+         commonName = profile.getCommonName();
+         cache.put(userName, commonName);
+      }
+      return commonName;
    }
 }
@@ -11,13 +11,14 @@
  */
 package com.ibm.wcm.sample.customactions;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.ibm.workplace.wcm.api.Document;
 import com.ibm.workplace.wcm.api.WorkflowedDocument;
-import com.ibm.workplace.wcm.api.custom.CustomWorkflowAction;
 import com.ibm.workplace.wcm.api.custom.CustomWorkflowActionResult;
 import com.ibm.workplace.wcm.api.custom.Directives;
 import com.ibm.workplace.wcm.api.exceptions.WorkflowNotFoundException;
@@ -25,10 +26,10 @@ import com.ibm.workplace.wcm.api.exceptions.WorkflowNotFoundException;
 /**
  * Clears the workflowed items Expire date when executed. 
  */
-public class ClearExpireWorkflowDate implements CustomWorkflowAction
+public class ClearExpireWorkflowDate implements BatchCustomWorkflowAction, ThreadSafeAction
 {
    /** class name for the logger */
-   private static final String LOG_CLASS = ChangeAuthor.class.getName();
+   private static final String LOG_CLASS = ClearExpireWorkflowDate.class.getName();
 
    /** logging level */
    private static final Level LOG_LEVEL = Level.FINER;
@@ -49,6 +50,12 @@ public class ClearExpireWorkflowDate implements CustomWorkflowAction
     */
    public CustomWorkflowActionResult execute(Document p_document)
    {
+      // Only workflowed documents have an expire date, skip everything else before any other work
+      if (!(p_document instanceof WorkflowedDocument))
+      {
+         return ActionResultBuilder.result(Directives.CONTINUE);
+      }
+
       final String LOG_METHOD = "execute(p_document)";      
       boolean isLogging = LOGGER.isLoggable(LOG_LEVEL);
       if (isLogging)
@@ -56,22 +63,22 @@ public class ClearExpireWorkflowDate implements CustomWorkflowAction
          LOGGER.entering(LOG_CLASS, LOG_METHOD, new Object[] {});
       }
       
-      ActionResultBuilder builder = ActionResultBuilder.with(Directives.CONTINUE);
+      // Only a failure needs a builder, success returns the shared CONTINUE result
+      CustomWorkflowActionResult result = null;
 
       try 
       {
-         // Modify title of this content
-         if (p_document instanceof WorkflowedDocument)
+         WorkflowedDocument workflowedDocument = (WorkflowedDocument) p_document;
+
+         // Reset the expire date, a document without one is left unchanged
+         if (workflowedDocument.getExpiryDate() != null)
          {
-            WorkflowedDocument workflowedDocument = (WorkflowedDocument) p_document;
-            
-            // Reset the expire date
             workflowedDocument.setExpiryDate(null);
          }
       }
       catch (WorkflowNotFoundException fnfe)
       {
-         builder.rollback(fnfe.getMessage()).message(fnfe.getMessage());
+         result = ActionResultBuilder.with(Directives.CONTINUE).rollback(fnfe.getMessage()).message(fnfe.getMessage()).toResult();
       }
       
       if (isLogging)
@@ -79,6 +86,20 @@ public class ClearExpireWorkflowDate implements CustomWorkflowAction
          LOGGER.exiting(LOG_CLASS, LOG_METHOD);
       }
       
-      return builder.toResult();
+      return (result != null) ? result : ActionResultBuilder.result(Directives.CONTINUE);
+   }
+
+   /**
+    * Clears the expire date of each document. There is no work to share between the documents.
+    * @see com.ibm.wcm.sample.customactions.BatchCustomWorkflowAction#executeAll(java.util.List)
+    */
+   public List<CustomWorkflowActionResult> executeAll(List<Document> p_documents)
+   {
+      List<CustomWorkflowActionResult> results = new ArrayList<CustomWorkflowActionResult>(p_documents.size());
+      for (Document document : p_documents)
+      {
+         results.add(execute(document));
+      }
+      return results;
    }
 }
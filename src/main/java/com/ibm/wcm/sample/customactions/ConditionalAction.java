@@ -0,0 +1,132 @@
+/*
+ * Copyright 2014  IBM Corp.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.ibm.wcm.sample.customactions;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import com.ibm.workplace.wcm.api.Document;
+import com.ibm.workplace.wcm.api.custom.CustomWorkflowAction;
+import com.ibm.workplace.wcm.api.custom.CustomWorkflowActionResult;
+import com.ibm.workplace.wcm.api.custom.Directives;
+
+/**
+ * Decorator that runs an action only against the documents meeting its {@link DocumentCondition}.
+ * Other documents are left unchanged and get the shared CONTINUE result. <br />
+ * The decorator holds no state of its own, so wrapping a shared action produces a shared action.
+ */
+public class ConditionalAction implements BatchCustomWorkflowAction
+{
+   /** The decorated action */
+   private final CustomWorkflowAction m_action;
+
+   /** The condition a document must meet */
+   private final DocumentCondition m_condition;
+
+   /**
+    * Constructor
+    * @param action the action to decorate
+    * @param condition the condition a document must meet
+    */
+   public ConditionalAction(CustomWorkflowAction action, DocumentCondition condition)
+   {
+      m_action = action;
+      m_condition = condition;
+   }
+
+   /**
+    * @return the decorated action
+    */
+   public CustomWorkflowAction getAction()
+   {
+      return m_action;
+   }
+
+   /**
+    * @return the condition a document must meet
+    */
+   public DocumentCondition getCondition()
+   {
+      return m_condition;
+   }
+
+   /**
+    * @see com.ibm.workplace.wcm.api.custom.CustomWorkflowAction#execute(com.ibm.workplace.wcm.api.Document)
+    */
+   public CustomWorkflowActionResult execute(Document p_document)
+   {
+      if (!m_condition.matches(p_document))
+      {
+         return ActionResultBuilder.result(Directives.CONTINUE);
+      }
+      return m_action.execute(p_document);
+   }
+
+   /**
+    * @see com.ibm.wcm.sample.customactions.BatchCustomWorkflowAction#executeAll(java.util.List)
+    */
+   public List<CustomWorkflowActionResult> executeAll(List<Document> p_documents)
+   {
+      int count = p_documents.size();
+      List<CustomWorkflowActionResult> results = new ArrayList<CustomWorkflowActionResult>(count);
+      List<Document> matching = new ArrayList<Document>(count);
+      for (Document document : p_documents)
+      {
+         if (m_condition.matches(document))
+         {
+            matching.add(document);
+            results.add(null);
+         }
+         else
+         {
+            results.add(ActionResultBuilder.result(Directives.CONTINUE));
+         }
+      }
+      if (matching.isEmpty())
+      {
+         return results;
+      }
+
+      List<CustomWorkflowActionResult> matchingResults;
+      if (m_action instanceof BatchCustomWorkflowAction)
+      {
+         matchingResults = ((BatchCustomWorkflowAction) m_action).executeAll(matching);
+      }
+      else
+      {
+         matchingResults = new ArrayList<CustomWorkflowActionResult>(matching.size());
+         for (Document document : matching)
+         {
+            matchingResults.add(m_action.execute(document));
+         }
+      }
+
+      int next = 0;
+      for (int i = 0; i < count; i++)
+      {
+         if (results.get(i) == null)
+         {
+            results.set(i, matchingResults.get(next++));
+         }
+      }
+      return results;
+   }
+
+   /**
+    * @see com.ibm.workplace.wcm.api.custom.CustomWorkflowAction#getExecuteDate(com.ibm.workplace.wcm.api.Document)
+    */
+   public Date getExecuteDate(Document p_document)
+   {
+      return m_action.getExecuteDate(p_document);
+   }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2014  IBM Corp.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.ibm.wcm.sample.customactions;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+/**
+ * Releases the background resources used by the custom workflow actions when the
+ * web application is stopped.
+ */
+public class CustomActionsContextListener implements ServletContextListener
+{
+   /**
+    * @see javax.servlet.ServletContextListener#contextInitialized(javax.servlet.ServletContextEvent)
+    */
+   public void contextInitialized(ServletContextEvent event)
+   {
+      // Resources are created on first use
+   }
+
+   /**
+    * @see javax.servlet.ServletContextListener#contextDestroyed(javax.servlet.ServletContextEvent)
+    */
+   public void contextDestroyed(ServletContextEvent event)
+   {
+      // Stop running scheduled actions and pipeline steps, send the digests being collected, then any
+      // queued emails, and stop the delivery workers. The audit log is closed last so that it records
+      // the executions finishing during shutdown.
+      ActionScheduler.shutdown();
+      PipelineAction.shutdown();
+      EmailDigest.shutdown();
+      EmailDelivery.shutdown();
+      AuditLog.shutdown();
+      ActionMetrics.shutdown();
+      FactoryConfigWatcher.shutdown();
+   }
+}
@@ -11,14 +11,17 @@
  */
 package com.ibm.wcm.sample.customactions;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.StringTokenizer;
@@ -28,6 +31,7 @@ import java.util.logging.Logger;
 import com.ibm.workplace.wcm.api.Document;
 import com.ibm.workplace.wcm.api.custom.CustomWorkflowAction;
 import com.ibm.workplace.wcm.api.custom.CustomWorkflowActionFactory;
+import com.ibm.workplace.wcm.api.custom.CustomWorkflowActionResult;
 
 /**
  * Simple implementation of a custom workflow action factory. <br />
@@ -36,8 +40,20 @@ import com.ibm.workplace.wcm.api.custom.CustomWorkflowActionFactory;
  * <li>factory name will be SampleCustomWorkflowActionFactory</li>
  * <li>factory title will be Sample Custom Workflow Action Factory</li>
  * <li>read a property file that stores a list of classnames for the actions</li>
- * <li>Action titles and descriptions will come from the CustomActionResources bundle
- * <li>getAction will use a no-argument constructor to create the action if it is in the list of classes</li>
+ * <li>Action titles and descriptions will come from the CustomActionResources bundle and are
+ * kept in a table per locale once first requested</li>
+ * <li>action classes are resolved and validated concurrently once when the properties are loaded, and
+ * the validation policy decides whether invalid classes are left out or fail the factory</li>
+ * <li>an optional config file on the file system replaces the packaged properties and is reloaded when it changes</li>
+ * <li>getAction will use the resolved no-argument constructor to create the action if it is in the list of classes</li>
+ * <li>actions that implement ThreadSafeAction or are listed as shared are created once and shared</li>
+ * <li>every action is wrapped so that its execution counts and times are recorded, see ActionMetrics</li>
+ * <li>an action with condition properties only runs against the documents meeting them, see DocumentCondition</li>
+ * <li>pipeline actions run several registered actions against a document with one result, see PipelineAction</li>
+ * <li>an action run again on an unchanged document within the idempotency window, when one is configured, is skipped, see ExecutionGuard</li>
+ * <li>every execution is written to a daily audit file when an audit directory is configured, see AuditLog</li>
+ * <li>executeAll runs an action against a batch of documents for automation outside the WCM workflow engine</li>
+ * <li>getScheduler runs actions against documents at the execute dates the actions return</li>
  * </ul>
  */
 public class CustomWorkflowActionFactoryImpl implements CustomWorkflowActionFactory
@@ -60,14 +76,116 @@ public class CustomWorkflowActionFactoryImpl implements CustomWorkflowActionFact
    /** Actions property.  Holds a comma-separated list of action class names. */
    public static final String PROPERTY_ACTIONS = "actions";
 
+   /**
+    * Shared actions property.  Holds a comma-separated list of action class names whose instances
+    * can be shared between workflow threads even though they do not implement ThreadSafeAction.
+    */
+   public static final String PROPERTY_SHARED_ACTIONS = "shared.actions";
+
+   /**
+    * Config file property.  Optional path of a properties file on the file system whose actions,
+    * shared.actions, condition and pipeline properties replace the ones in factory.properties.  The file is
+    * checked for changes while the portal is running.
+    */
+   public static final String PROPERTY_CONFIG_FILE = "config.file";
+
+   /** Config file check interval property.  Milliseconds between checks of the config file for changes. */
+   public static final String PROPERTY_CONFIG_FILE_CHECK_INTERVAL = "config.file.check.interval";
+
+   /** Default milliseconds between checks of the config file for changes */
+   public static final long DEFAULT_CONFIG_FILE_CHECK_INTERVAL = 10000;
+
+   /**
+    * Validation policy property.  What to do when a configured action class is not a valid action:
+    * skip to leave the class out and register the valid actions, fail to refuse the configuration.
+    */
+   public static final String PROPERTY_VALIDATION_POLICY = "validation.policy";
+
+   /** Validation timeout property.  Milliseconds allowed for validating every configured action class. */
+   public static final String PROPERTY_VALIDATION_TIMEOUT = "validation.timeout";
+
+   /** Default milliseconds allowed for validating every configured action class */
+   public static final long DEFAULT_VALIDATION_TIMEOUT = 30000;
+
+   /**
+    * What to do when a configured action class fails validation
+    */
+   public static enum ValidationPolicy
+   {
+      /** Leave the invalid classes out and register the valid actions */
+      SKIP,
+      /** Refuse the configuration: fail the factory when it is created, keep the current actions when reloading */
+      FAIL
+   }
+
+   /** Scheduler threads property.  Number of threads running scheduled actions. */
+   public static final String PROPERTY_SCHEDULER_THREADS = "scheduler.threads";
+
+   /** Scheduler batch size property.  Maximum number of documents a scheduled action runs against at once. */
+   public static final String PROPERTY_SCHEDULER_BATCH_SIZE = "scheduler.batch.size";
+
+   /** Default number of threads running scheduled actions */
+   public static final int DEFAULT_SCHEDULER_THREADS = 2;
+
+   /** Default maximum number of documents a scheduled action runs against at once */
+   public static final int DEFAULT_SCHEDULER_BATCH_SIZE = 50;
+
+   /**
+    * Idempotency window property.  Milliseconds during which an action run again on the same version
+    * of a document is skipped and returns CONTINUE.  0 runs the action every time.
+    */
+   public static final String PROPERTY_IDEMPOTENCY_WINDOW = "idempotency.window";
+
+   /** Idempotency max entries property.  Maximum number of action executions remembered. */
+   public static final String PROPERTY_IDEMPOTENCY_MAX_ENTRIES = "idempotency.max.entries";
+
+   /** Default milliseconds during which an action run again on the same version of a document is skipped, off */
+   public static final long DEFAULT_IDEMPOTENCY_WINDOW = 0;
+
+   /** Default maximum number of action executions remembered */
+   public static final int DEFAULT_IDEMPOTENCY_MAX_ENTRIES = 10000;
+
+   /** Audit directory property.  Directory the audit log files are written to, executions are not audited if empty. */
+   public static final String PROPERTY_AUDIT_DIRECTORY = "audit.directory";
+
+   /** Audit buffer size property.  Number of executions buffered before they are written. */
+   public static final String PROPERTY_AUDIT_BUFFER_SIZE = "audit.buffer.size";
+
+   /** Audit flush interval property.  Milliseconds an execution may wait before it is written. */
+   public static final String PROPERTY_AUDIT_FLUSH_INTERVAL = "audit.flush.interval";
+
+   /** Audit retention property.  Number of days of audit log files kept, 0 keeps every file. */
+   public static final String PROPERTY_AUDIT_RETENTION_DAYS = "audit.retention.days";
+
+   /** Default number of executions buffered before they are written */
+   public static final int DEFAULT_AUDIT_BUFFER_SIZE = 16384;
+
+   /** Default milliseconds an execution may wait before it is written */
+   public static final int DEFAULT_AUDIT_FLUSH_INTERVAL = 1000;
+
    /** Delimiter used to separate class names in the actions property. */
    public static final String ACTIONS_DELIMITER = ",";
 
-   /** Set of fully qualified class names for the registered actions for easy lookup */
-   private Set<String> m_actionClassNames = new HashSet<String>();
+   /**
+    * Registered actions keyed by fully qualified class name.  The registry is immutable and is
+    * replaced as a whole when the config file changes, so readers never need a lock.
+    */
+   private volatile ActionRegistry m_registry;
+
+   /** Watches the config file, null if no config file is configured */
+   private FactoryConfigWatcher m_watcher;
+
+   /** Number of threads running scheduled actions */
+   private int m_schedulerThreads = DEFAULT_SCHEDULER_THREADS;
 
-   /** Array of fully qualified class names for the registered actions for the API */
-   private String[] m_actionClassNamesArray;
+   /** Maximum number of documents a scheduled action runs against at once */
+   private int m_schedulerBatchSize = DEFAULT_SCHEDULER_BATCH_SIZE;
+
+   /** Remembers recent action executions, null if repeated executions are not skipped */
+   private ExecutionGuard m_guard;
+
+   /** Runs actions at their execute date, created on first use */
+   private ActionScheduler m_scheduler;
    
    /**
     * Construct a simple custom workflow action factory using default properties.
@@ -87,7 +205,8 @@ public class CustomWorkflowActionFactoryImpl implements CustomWorkflowActionFact
    }
 
    /**
-    * Load the action class names, titles and descriptions from the default properties file.
+    * Load the action class names from the properties file and resolve the registered actions.
+    * Misconfigured action classes are reported here rather than on the first call to getAction.
     */
    protected void loadProperties(String p_propertiesPath)
    {
@@ -110,6 +229,95 @@ public class CustomWorkflowActionFactoryImpl implements CustomWorkflowActionFact
          LOGGER.log(Level.WARNING, msg, e);
       }
 
+      m_schedulerThreads = getInt(properties, PROPERTY_SCHEDULER_THREADS, DEFAULT_SCHEDULER_THREADS);
+      m_schedulerBatchSize = getInt(properties, PROPERTY_SCHEDULER_BATCH_SIZE, DEFAULT_SCHEDULER_BATCH_SIZE);
+
+      long window = DEFAULT_IDEMPOTENCY_WINDOW;
+      try
+      {
+         window = Long.parseLong(properties.getProperty(PROPERTY_IDEMPOTENCY_WINDOW, String.valueOf(window)).trim());
+      }
+      catch (NumberFormatException e)
+      {
+         LOGGER.log(Level.WARNING, "Invalid " + PROPERTY_IDEMPOTENCY_WINDOW + ", using " + window, e);
+      }
+      if (window > 0)
+      {
+         m_guard = new ExecutionGuard(getInt(properties, PROPERTY_IDEMPOTENCY_MAX_ENTRIES, DEFAULT_IDEMPOTENCY_MAX_ENTRIES), window);
+      }
+
+      String auditDirectory = properties.getProperty(PROPERTY_AUDIT_DIRECTORY, "").trim();
+      if (auditDirectory.length() > 0)
+      {
+         int retentionDays = 0;
+         try
+         {
+            retentionDays = Integer.parseInt(properties.getProperty(PROPERTY_AUDIT_RETENTION_DAYS, "0").trim());
+         }
+         catch (NumberFormatException e)
+         {
+            LOGGER.log(Level.WARNING, "Invalid " + PROPERTY_AUDIT_RETENTION_DAYS + ", keeping every audit log file", e);
+         }
+         try
+         {
+            AuditLog.start(new File(auditDirectory),
+               getInt(properties, PROPERTY_AUDIT_BUFFER_SIZE, DEFAULT_AUDIT_BUFFER_SIZE),
+               getInt(properties, PROPERTY_AUDIT_FLUSH_INTERVAL, DEFAULT_AUDIT_FLUSH_INTERVAL),
+               retentionDays);
+         }
+         catch (IOException e)
+         {
+            LOGGER.log(Level.WARNING, "Unable to start the audit log, executions are not audited", e);
+         }
+      }
+
+      // A config file on the file system replaces the packaged properties
+      String configFile = properties.getProperty(PROPERTY_CONFIG_FILE, "").trim();
+      if (configFile.length() > 0)
+      {
+         long interval = DEFAULT_CONFIG_FILE_CHECK_INTERVAL;
+         try
+         {
+            interval = Long.parseLong(properties.getProperty(PROPERTY_CONFIG_FILE_CHECK_INTERVAL, String.valueOf(interval)).trim());
+         }
+         catch (NumberFormatException e)
+         {
+            LOGGER.log(Level.WARNING, "Invalid " + PROPERTY_CONFIG_FILE_CHECK_INTERVAL + ", using " + interval, e);
+         }
+         m_watcher = new FactoryConfigWatcher(this, new File(configFile), interval);
+         Properties fileProperties = m_watcher.load();
+         if (fileProperties != null)
+         {
+            properties = fileProperties;
+         }
+      }
+
+      ActionRegistry registry = createRegistry(properties, m_guard);
+      if (!registry.getValidationReport().isValid() && getValidationPolicy(properties) == ValidationPolicy.FAIL)
+      {
+         // Fail the factory so that the broken configuration is noticed when it is deployed
+         throw new IllegalStateException("Invalid custom workflow actions configured, " + registry.getValidationReport());
+      }
+      m_registry = registry;
+      if (m_watcher != null)
+      {
+         m_watcher.start();
+      }
+      
+      if (isFiner)
+      {
+         LOGGER.exiting(LOG_CLASS, LOG_METHOD);
+      }
+   }
+
+   /**
+    * Resolve the actions listed in the properties
+    * @param properties the factory properties
+    * @param guard remembers the action executions, null if repeated executions are not skipped
+    * @return the registry holding every valid action
+    */
+   private static ActionRegistry createRegistry(Properties properties, ExecutionGuard guard)
+   {
       String actionsProperty = properties.getProperty(PROPERTY_ACTIONS, "");
       StringTokenizer tokenizer = new StringTokenizer(actionsProperty, ACTIONS_DELIMITER);
       List<String> actions = new ArrayList<String>();
@@ -118,16 +326,132 @@ public class CustomWorkflowActionFactoryImpl implements CustomWorkflowActionFact
          String className = tokenizer.nextToken();
 
          // Add to list of action class names
-         actions.add(className);
-         m_actionClassNames.add(className);
+         actions.add(className.trim());
+      }
+
+      Set<String> sharedActions = new HashSet<String>();
+      tokenizer = new StringTokenizer(properties.getProperty(PROPERTY_SHARED_ACTIONS, ""), ACTIONS_DELIMITER);
+      while (tokenizer.hasMoreTokens())
+      {
+         sharedActions.add(tokenizer.nextToken().trim());
       }
       
-      m_actionClassNamesArray = actions.toArray(new String[actions.size()]);
-      
-      if (isFiner)
+      long timeout = DEFAULT_VALIDATION_TIMEOUT;
+      try
       {
-         LOGGER.exiting(LOG_CLASS, LOG_METHOD);
+         timeout = Long.parseLong(properties.getProperty(PROPERTY_VALIDATION_TIMEOUT, String.valueOf(timeout)).trim());
+      }
+      catch (NumberFormatException e)
+      {
+         LOGGER.log(Level.WARNING, "Invalid " + PROPERTY_VALIDATION_TIMEOUT + ", using " + timeout, e);
       }
+
+      Map<String, DocumentCondition> conditions = new HashMap<String, DocumentCondition>();
+      for (String action : actions)
+      {
+         DocumentCondition condition = DocumentCondition.compile(properties, action);
+         if (condition != null)
+         {
+            conditions.put(action, condition);
+            LOGGER.log(Level.FINE, "Action " + action + " runs against documents meeting " + condition);
+         }
+      }
+      return ActionRegistry.create(actions, sharedActions, timeout, conditions, PipelineDefinition.parse(properties), guard);
+   }
+
+   /**
+    * Returns a positive integer property
+    * @param properties the factory properties
+    * @param name the property name
+    * @param defaultValue value to use if the property is not set or not a positive integer
+    * @return the property value
+    */
+   private static int getInt(Properties properties, String name, int defaultValue)
+   {
+      String value = properties.getProperty(name, "").trim();
+      if (value.length() > 0)
+      {
+         try
+         {
+            int intValue = Integer.parseInt(value);
+            if (intValue > 0)
+            {
+               return intValue;
+            }
+         }
+         catch (NumberFormatException e)
+         {
+            // Reported below
+         }
+         LOGGER.log(Level.WARNING, "Invalid " + name + " " + value + ", using " + defaultValue);
+      }
+      return defaultValue;
+   }
+
+   /**
+    * Returns the configured validation policy
+    * @param properties the factory properties
+    * @return the validation policy, SKIP if none or an unknown policy is configured
+    */
+   private static ValidationPolicy getValidationPolicy(Properties properties)
+   {
+      String policy = properties.getProperty(PROPERTY_VALIDATION_POLICY, "").trim();
+      if (policy.length() > 0)
+      {
+         try
+         {
+            return ValidationPolicy.valueOf(policy.toUpperCase(Locale.ENGLISH));
+         }
+         catch (IllegalArgumentException e)
+         {
+            LOGGER.log(Level.WARNING, "Unknown " + PROPERTY_VALIDATION_POLICY + " " + policy + ", using " + ValidationPolicy.SKIP);
+         }
+      }
+      return ValidationPolicy.SKIP;
+   }
+
+   /**
+    * Replace the registered actions with the ones listed in changed properties.  The new registry is
+    * built and validated on the calling thread and then swapped in, callers of getAction see either
+    * the old or the new actions.  If none of the listed actions is valid, or any is invalid and the
+    * validation policy is fail, the current actions are kept.
+    * @param properties the changed properties
+    * @param source where the properties were read from, for logging
+    */
+   void reload(Properties properties, String source)
+   {
+      ActionRegistry registry = createRegistry(properties, m_guard);
+      if (!registry.getValidationReport().isValid() && getValidationPolicy(properties) == ValidationPolicy.FAIL)
+      {
+         LOGGER.log(Level.WARNING, "Invalid actions in " + source + ", keeping the registered actions " + Arrays.asList(m_registry.getActionNames()));
+      }
+      else if (registry.getActionNames().length == 0 && m_registry.getActionNames().length > 0)
+      {
+         LOGGER.log(Level.WARNING, "No valid actions in " + source + ", keeping the registered actions " + Arrays.asList(m_registry.getActionNames()));
+      }
+      else
+      {
+         m_registry = registry;
+         LOGGER.log(Level.INFO, "Reloaded " + source + ", registered actions " + Arrays.asList(registry.getActionNames()));
+      }
+   }
+
+   /**
+    * Returns the result of validating the configured action classes when the properties were last loaded
+    * @return the validation report
+    */
+   public ActionValidationReport getValidationReport()
+   {
+      return m_registry.getValidationReport();
+   }
+
+   /**
+    * Returns the record of recent action executions used to skip repeated executions
+    * @return the execution guard, or null if repeated executions are not skipped
+    */
+   public ExecutionGuard getExecutionGuard()
+   {
+      return m_guard;
    }
 
    /**
@@ -156,7 +480,7 @@ public class CustomWorkflowActionFactoryImpl implements CustomWorkflowActionFact
     */
    public String[] getActionNames()
    {
-      return m_actionClassNamesArray;
+      return m_registry.getActionNames();
    }
 
    /**
@@ -167,7 +491,8 @@ public class CustomWorkflowActionFactoryImpl implements CustomWorkflowActionFact
     */
    public String getActionTitle(Locale locale, String actionName)
    {
-      return CustomActionResources.getActionTitle(actionName, locale);
+      String title = m_registry.getLabels(locale).getTitle(actionName);
+      return (title != null) ? title : CustomActionResources.getActionTitle(actionName, locale);
    }
 
    /**
@@ -178,13 +503,14 @@ public class CustomWorkflowActionFactoryImpl implements CustomWorkflowActionFact
     */
    public String getActionDescription(Locale locale, String actionName)
    {
-      return CustomActionResources.getActionDescription(actionName, locale);
+      String description = m_registry.getLabels(locale).getDescription(actionName);
+      return (description != null) ? description : CustomActionResources.getActionDescription(actionName, locale);
    }
 
    /**
     * Get the custom workflow action for the supplied action name.
-    * Assumes that the supplied action name is the action class which
-    * has a no-argument constructor.
+    * The action name is the action class whose no-argument constructor
+    * was resolved when the properties were loaded.
     * @param actionName Assumed to be the class name
     * @param document Target document.  Ignored by this implementation.
     * @return Custom workflow action.  Null if the action could not be retrieved
@@ -201,47 +527,13 @@ public class CustomWorkflowActionFactoryImpl implements CustomWorkflowActionFact
       CustomWorkflowAction action = null;
 
       // Determine if the action name is a registered action class name
-      if (m_actionClassNames.contains(actionName))
+      ActionProvider provider = m_registry.getProvider(actionName);
+      if (provider != null)
       {
-         // Use reflection to create a new instance of the action class
-         // using the no-argument constructor
-         Object actionObject = null;
+         // Create the action using the constructor resolved at load time
          try
          {
-            Class actionClass = Class.forName(actionName);
-            Constructor constructor = actionClass.getConstructor(new Class[]{});
-            actionObject = constructor.newInstance(new Object[]{});
-
-            if (actionObject instanceof CustomWorkflowAction)
-            {
-               action = (CustomWorkflowAction) actionObject;
-            }
-            else
-            {
-               // Action object does not implement CustomWorkflowAction interface
-               System.err.println(ResourceBundleUtility.getFormattedString(
-                  CustomActionResources.BUNDLE_NAME,
-                  CustomActionResources.ACTION_DOES_NOT_IMPLEMENT_INTERFACE_1,
-                  Locale.getDefault(),
-                  new Object[] {actionName}
-               ));
-            }
-         }
-         catch (ClassNotFoundException e)
-         {
-            String msg = CustomActionResources.getFormattedString(
-               CustomActionResources.ACTION_CLASS_NOT_FOUND_1, 
-               Locale.getDefault(), 
-               new Object[]{actionName});              
-            LOGGER.log(Level.WARNING, msg, e);
-         }
-         catch (NoSuchMethodException e)
-         {
-            String msg = CustomActionResources.getFormattedString(
-               CustomActionResources.ACTION_CONSTRUCTOR_NOT_FOUND_1, 
-               Locale.getDefault(), 
-               new Object[]{actionName});              
-            LOGGER.log(Level.WARNING, msg, e);
+            action = provider.getAction();
          }
          catch (InstantiationException e)
          {
@@ -284,4 +576,73 @@ public class CustomWorkflowActionFactoryImpl implements CustomWorkflowActionFact
 
       return action;
    }
+
+   /**
+    * Execute an action against a batch of documents, for automation that moves many documents
+    * through workflow at once. Actions that implement BatchCustomWorkflowAction do the work shared
+    * by the documents once for the whole batch; other actions are executed one document at a time.
+    * The execute dates of the documents are not checked, every document is processed immediately.
+    * <p>
+    * The action is resolved once, from the first document, and that action runs against every
+    * document in the batch. A conditional action is therefore chosen by the first document only,
+    * so a caller mixing documents that meet different conditions should call executeAll once per
+    * group of documents, or use getAction for each document.
+    * @param actionName the action name
+    * @param documents the target documents, may be null or empty
+    * @return the result for each document, in the order of the documents.  An empty list if there are
+    * no documents, null if the action could not be retrieved
+    */
+   public List<CustomWorkflowActionResult> executeAll(String actionName, List<Document> documents)
+   {
+      final String LOG_METHOD = "executeAll(actionName, documents)";
+      boolean isFiner = LOGGER.isLoggable(LOG_LEVEL);
+      if (isFiner)
+      {
+         LOGGER.entering(LOG_CLASS, LOG_METHOD, new Object[] {actionName, Integer.valueOf(documents == null ? 0 : documents.size())});
+      }
+
+      if (documents == null || documents.isEmpty())
+      {
+         if (isFiner)
+         {
+            LOGGER.exiting(LOG_CLASS, LOG_METHOD);
+         }
+         return new ArrayList<CustomWorkflowActionResult>(0);
+      }
+
+      List<CustomWorkflowActionResult> results = null;
+      CustomWorkflowAction action = getAction(actionName, documents.get(0));
+      if (action instanceof BatchCustomWorkflowAction)
+      {
+         results = ((BatchCustomWorkflowAction) action).executeAll(documents);
+      }
+      else if (action != null)
+      {
+         results = new ArrayList<CustomWorkflowActionResult>(documents.size());
+         for (Document document : documents)
+         {
+            results.add(action.execute(document));
+         }
+      }
+
+      if (isFiner)
+      {
+         LOGGER.exiting(LOG_CLASS, LOG_METHOD);
+      }
+      return results;
+   }
+
+   /**
+    * Returns the scheduler that runs actions against documents at the execute date the actions
+    * return, for automation outside the WCM workflow engine.  The scheduler is started on first use.
+    * @return the scheduler
+    */
+   public synchronized ActionScheduler getScheduler()
+   {
+      if (m_scheduler == null)
+      {
+         m_scheduler = new ActionScheduler(this, m_schedulerThreads, m_schedulerBatchSize);
+      }
+      return m_scheduler;
+   }
 }
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2014  IBM Corp.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.ibm.wcm.sample.customactions;
+
+import java.util.Date;
+
+import com.ibm.workplace.wcm.api.Document;
+import com.ibm.workplace.wcm.api.custom.CustomWorkflowAction;
+
+/**
+ * Base class for actions that run some time after a document reaches the workflow stage, such
+ * as a reminder email or clearing a date once it has passed. <br />
+ * WCM requires the execute date to be the same on every server the document is syndicated to,
+ * otherwise the action runs at different times on different servers. The execute date is therefore
+ * computed only from the document: a reference date read from the document plus a fixed delay,
+ * truncated to whole seconds. The local clock is never used.
+ */
+public abstract class DeferredWorkflowAction implements CustomWorkflowAction
+{
+   /** Milliseconds in a second */
+   private static final long MILLIS_PER_SECOND = 1000;
+
+   /**
+    * Returns the delay between the reference date and the execute date
+    *
+    * @param p_document Target document.
+    *
+    * @return the delay in milliseconds
+    */
+   protected abstract long getDelayMillis(Document p_document);
+
+   /**
+    * Returns the date the delay is added to. Must only depend on values that are the same on every
+    * syndicated server. The default is the last modified date of the document.
+    *
+    * @param p_document Target document.
+    *
+    * @return the reference date, or null to execute immediately
+    */
+   protected Date getReferenceDate(Document p_document)
+   {
+      return (p_document != null) ? p_document.getLastModified() : null;
+   }
+
+   /**
+    * Returns the reference date plus the delay, truncated to whole seconds.
+    * @see com.ibm.workplace.wcm.api.custom.CustomWorkflowAction#getExecuteDate(com.ibm.workplace.wcm.api.Document)
+    */
+   public Date getExecuteDate(Document p_document)
+   {
+      Date reference = getReferenceDate(p_document);
+      if (reference == null)
+      {
+         return DATE_EXECUTE_NOW;
+      }
+      long executeTime = reference.getTime() + getDelayMillis(p_document);
+      return new Date(executeTime - (executeTime % MILLIS_PER_SECOND));
+   }
+}
@@ -0,0 +1,425 @@
+/*
+ * Copyright 2014  IBM Corp.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.ibm.wcm.sample.customactions;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Set;
+import java.util.StringTokenizer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.ibm.workplace.wcm.api.Content;
+import com.ibm.workplace.wcm.api.Document;
+import com.ibm.workplace.wcm.api.DocumentId;
+import com.ibm.workplace.wcm.api.Library;
+import com.ibm.workplace.wcm.api.WCM_API;
+import com.ibm.workplace.wcm.api.WorkflowedDocument;
+
+/**
+ * Decides whether an action runs against a document, from the condition properties of the action
+ * in factory.properties:
+ * <ul>
+ * <li>condition.&lt;action&gt;.type - document types, the name of a com.ibm.workplace.wcm.api
+ * interface such as Content or SiteArea, or a fully qualified interface name</li>
+ * <li>condition.&lt;action&gt;.library - library names, ignoring case</li>
+ * <li>condition.&lt;action&gt;.template - authoring template names, for content</li>
+ * <li>condition.&lt;action&gt;.expiry - set or unset, whether the document has an expiry date</li>
+ * <li>condition.&lt;action&gt;.path - path prefixes, ignoring case</li>
+ * </ul>
+ * Each property holds comma-separated values and is met if any value matches. The document must meet
+ * every configured property. <br />
+ * The properties are compiled once into a list of tests ordered from the cheapest to the most
+ * expensive, so a document that fails a type check never reads its expiry date or path.
+ */
+public class DocumentCondition
+{
+   /** class name for the logger */
+   private static final String LOG_CLASS = DocumentCondition.class.getName();
+
+   /** class logger */
+   private static final Logger LOGGER = Logger.getLogger(LOG_CLASS);
+
+   /** Prefix of the condition properties */
+   public static final String PROPERTY_PREFIX = "condition.";
+
+   /** Document type property suffix */
+   public static final String TYPE = "type";
+
+   /** Library property suffix */
+   public static final String LIBRARY = "library";
+
+   /** Authoring template property suffix */
+   public static final String TEMPLATE = "template";
+
+   /** Expiry date property suffix */
+   public static final String EXPIRY = "expiry";
+
+   /** Path prefix property suffix */
+   public static final String PATH = "path";
+
+   /** Package of the WCM API interfaces named in the type property */
+   private static final String API_PACKAGE = "com.ibm.workplace.wcm.api.";
+
+   /** Delimiter used to separate values */
+   private static final String DELIMITER = ",";
+
+   /** The tests, cheapest first */
+   private final Test[] m_tests;
+
+   /** The configured properties, for logging */
+   private final String m_description;
+
+   /**
+    * Constructor
+    * @param tests the tests, cheapest first
+    * @param description the configured properties
+    */
+   private DocumentCondition(List<Test> tests, String description)
+   {
+      m_tests = tests.toArray(new Test[tests.size()]);
+      m_description = description;
+   }
+
+   /**
+    * Compile the condition of an action
+    *
+    * @param properties the factory properties
+    * @param actionName the action name
+    *
+    * @return the condition, or null if no condition is configured for the action
+    */
+   public static DocumentCondition compile(Properties properties, String actionName)
+   {
+      String prefix = PROPERTY_PREFIX + actionName + ".";
+      List<Test> tests = new ArrayList<Test>();
+      StringBuilder description = new StringBuilder();
+
+      List<String> types = getValues(properties, prefix + TYPE, description);
+      if (types != null)
+      {
+         List<Class<?>> classes = new ArrayList<Class<?>>();
+         for (String type : types)
+         {
+            String className = (type.indexOf('.') < 0) ? API_PACKAGE + type : type;
+            try
+            {
+               classes.add(Class.forName(className));
+            }
+            catch (ClassNotFoundException e)
+            {
+               // The value can never match, documents are still checked against the other types
+               LOGGER.log(Level.WARNING, "Unknown document type " + type + " in " + prefix + TYPE);
+            }
+         }
+         tests.add(new TypeTest(classes.toArray(new Class<?>[classes.size()])));
+      }
+
+      List<String> libraries = getValues(properties, prefix + LIBRARY, description);
+      if (libraries != null)
+      {
+         tests.add(new LibraryTest(toLowerCase(libraries)));
+      }
+
+      List<String> templates = getValues(properties, prefix + TEMPLATE, description);
+      if (templates != null)
+      {
+         tests.add(new TemplateTest(new HashSet<String>(templates)));
+      }
+
+      List<String> expiry = getValues(properties, prefix + EXPIRY, description);
+      if (expiry != null)
+      {
+         Set<String> values = toLowerCase(expiry);
+         boolean set = values.contains("set");
+         boolean unset = values.contains("unset");
+         if (set != unset)
+         {
+            tests.add(new ExpiryTest(set));
+         }
+         else if (!set)
+         {
+            LOGGER.log(Level.WARNING, "Invalid value " + expiry + " for " + prefix + EXPIRY + ", use set or unset");
+         }
+      }
+
+      List<String> paths = getValues(properties, prefix + PATH, description);
+      if (paths != null)
+      {
+         tests.add(new PathTest(toLowerCase(paths).toArray(new String[0])));
+      }
+
+      return tests.isEmpty() ? null : new DocumentCondition(tests, description.toString());
+   }
+
+   /**
+    * Returns true if the document meets the condition
+    *
+    * @param document the document
+    *
+    * @return true if the action should run against the document
+    */
+   public boolean matches(Document document)
+   {
+      for (Test test : m_tests)
+      {
+         boolean matches;
+         try
+         {
+            matches = test.matches(document);
+         }
+         catch (Exception e)
+         {
+            // A value that cannot be read does not match
+            LOGGER.log(Level.FINE, "Unable to check " + test.getClass().getSimpleName() + " of " + document, e);
+            matches = false;
+         }
+         if (!matches)
+         {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   /**
+    * @see java.lang.Object#toString()
+    */
+   public String toString()
+   {
+      return m_description;
+   }
+
+   /**
+    * Returns the comma-separated values of a property
+    *
+    * @param properties the properties
+    * @param name the property name
+    * @param description receives the property, if it is set
+    *
+    * @return the trimmed values, or null if the property is not set
+    */
+   private static List<String> getValues(Properties properties, String name, StringBuilder description)
+   {
+      String value = properties.getProperty(name, "").trim();
+      if (value.length() == 0)
+      {
+         return null;
+      }
+      if (description.length() > 0)
+      {
+         description.append(", ");
+      }
+      description.append(name).append('=').append(value);
+
+      List<String> values = new ArrayList<String>();
+      StringTokenizer tokenizer = new StringTokenizer(value, DELIMITER);
+      while (tokenizer.hasMoreTokens())
+      {
+         String token = tokenizer.nextToken().trim();
+         if (token.length() > 0)
+         {
+            values.add(token);
+         }
+      }
+      return values;
+   }
+
+   /**
+    * @param values the values
+    * @return the values in lower case
+    */
+   private static Set<String> toLowerCase(List<String> values)
+   {
+      Set<String> lowerCase = new HashSet<String>();
+      for (String value : values)
+      {
+         lowerCase.add(value.toLowerCase(Locale.ENGLISH));
+      }
+      return lowerCase;
+   }
+
+   /**
+    * A test of one document property
+    */
+   private abstract static class Test
+   {
+      /**
+       * @param document the document
+       * @return true if the document passes the test
+       * @throws Exception If the document property cannot be read
+       */
+      abstract boolean matches(Document document) throws Exception;
+   }
+
+   /**
+    * The document implements one of the types
+    */
+   private static final class TypeTest extends Test
+   {
+      /** The types */
+      private final Class<?>[] m_types;
+
+      /**
+       * Constructor
+       * @param types the types
+       */
+      TypeTest(Class<?>[] types)
+      {
+         m_types = types;
+      }
+
+      /**
+       * @see com.ibm.wcm.sample.customactions.DocumentCondition.Test#matches(com.ibm.workplace.wcm.api.Document)
+       */
+      boolean matches(Document document)
+      {
+         for (Class<?> type : m_types)
+         {
+            if (type.isInstance(document))
+            {
+               return true;
+            }
+         }
+         return false;
+      }
+   }
+
+   /**
+    * The document is in one of the libraries
+    */
+   private static final class LibraryTest extends Test
+   {
+      /** The library names in lower case */
+      private final Set<String> m_libraries;
+
+      /**
+       * Constructor
+       * @param libraries the library names in lower case
+       */
+      LibraryTest(Set<String> libraries)
+      {
+         m_libraries = libraries;
+      }
+
+      /**
+       * @see com.ibm.wcm.sample.customactions.DocumentCondition.Test#matches(com.ibm.workplace.wcm.api.Document)
+       */
+      boolean matches(Document document)
+      {
+         Library library = document.getOwnerLibrary();
+         return library != null && library.getName() != null && m_libraries.contains(library.getName().toLowerCase(Locale.ENGLISH));
+      }
+   }
+
+   /**
+    * The document is content created from one of the authoring templates
+    */
+   private static final class TemplateTest extends Test
+   {
+      /** The authoring template names */
+      private final Set<String> m_templates;
+
+      /**
+       * Constructor
+       * @param templates the authoring template names
+       */
+      TemplateTest(Set<String> templates)
+      {
+         m_templates = templates;
+      }
+
+      /**
+       * @see com.ibm.wcm.sample.customactions.DocumentCondition.Test#matches(com.ibm.workplace.wcm.api.Document)
+       */
+      boolean matches(Document document)
+      {
+         if (!(document instanceof Content))
+         {
+            return false;
+         }
+         DocumentId template = ((Content) document).getAuthoringTemplateID();
+         return template != null && m_templates.contains(template.getName());
+      }
+   }
+
+   /**
+    * The document has, or does not have, an expiry date
+    */
+   private static final class ExpiryTest extends Test
+   {
+      /** True if the document must have an expiry date */
+      private final boolean m_set;
+
+      /**
+       * Constructor
+       * @param set true if the document must have an expiry date
+       */
+      ExpiryTest(boolean set)
+      {
+         m_set = set;
+      }
+
+      /**
+       * @see com.ibm.wcm.sample.customactions.DocumentCondition.Test#matches(com.ibm.workplace.wcm.api.Document)
+       */
+      boolean matches(Document document) throws Exception
+      {
+         Date expiry = (document instanceof WorkflowedDocument) ? ((WorkflowedDocument) document).getExpiryDate() : null;
+         return (expiry != null) == m_set;
+      }
+   }
+
+   /**
+    * The path of the document starts with one of the prefixes. Reading the path is a repository
+    * lookup, so this test runs last.
+    */
+   private static final class PathTest extends Test
+   {
+      /** The path prefixes in lower case */
+      private final String[] m_prefixes;
+
+      /**
+       * Constructor
+       * @param prefixes the path prefixes in lower case
+       */
+      PathTest(String[] prefixes)
+      {
+         m_prefixes = prefixes;
+      }
+
+      /**
+       * @see com.ibm.wcm.sample.customactions.DocumentCondition.Test#matches(com.ibm.workplace.wcm.api.Document)
+       */
+      boolean matches(Document document) throws Exception
+      {
+         String path = WCM_API.getRepository().getWorkspace().getPathById(document.getId(), true, true);
+         if (path == null)
+         {
+            return false;
+         }
+         path = path.toLowerCase(Locale.ENGLISH);
+         for (String prefix : m_prefixes)
+         {
+            if (path.startsWith(prefix))
+            {
+               return true;
+            }
+         }
+         return false;
+      }
+   }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2014  IBM Corp.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.ibm.wcm.sample.customactions;
+
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.ibm.workplace.wcm.api.Document;
+import com.ibm.workplace.wcm.api.Editable;
+import com.ibm.workplace.wcm.api.WCM_API;
+import com.ibm.workplace.wcm.api.WorkflowedDocument;
+
+/**
+ * Resolves the document values that can be substituted into email templates. Each value is
+ * resolved at most once and only when a template asks for it, so fields such as the path that
+ * need a repository lookup cost nothing unless they are used.
+ */
+public class DocumentFields
+{
+   /** class name for the logger */
+   private static final String LOG_CLASS = DocumentFields.class.getName();
+
+   /** class logger */
+   private static final Logger LOGGER = Logger.getLogger(LOG_CLASS);
+
+   /**
+    * The document values available to templates. Template placeholders use the lower case name,
+    * for example ${title}.
+    */
+   public static enum Field
+   {
+      /** The document title */
+      TITLE,
+      /** The document name */
+      NAME,
+      /** The document id */
+      ID,
+      /** The document authors, comma separated */
+      AUTHORS,
+      /** The name of the library that owns the document */
+      LIBRARY,
+      /** The document path */
+      PATH,
+      /** The name of the current workflow stage */
+      STAGE;
+
+      /**
+       * Returns the field for a placeholder name
+       * @param name the placeholder name, ignoring case
+       * @return the field, or null if there is no field with the name
+       */
+      public static Field forName(String name)
+      {
+         try
+         {
+            return valueOf(name.trim().toUpperCase(Locale.ENGLISH));
+         }
+         catch (IllegalArgumentException e)
+         {
+            return null;
+         }
+      }
+   }
+
+   /** Shared empty value */
+   private static final String EMPTY = "";
+
+   /** The document */
+   private final Document m_document;
+
+   /** Resolved values indexed by field ordinal */
+   private final String[] m_values = new String[Field.values().length];
+
+   /**
+    * Constructor
+    * @param document the document, may be null
+    */
+   public DocumentFields(Document document)
+   {
+      m_document = document;
+   }
+
+   /**
+    * Returns the value of a field, resolving it on first use
+    *
+    * @param field the field
+    *
+    * @return the value, never null
+    */
+   public String get(Field field)
+   {
+      String value = m_values[field.ordinal()];
+      if (value == null)
+      {
+         value = resolve(field);
+         m_values[field.ordinal()] = (value != null) ? value : EMPTY;
+      }
+      return value != null ? value : EMPTY;
+   }
+
+   /**
+    * Resolve the value of a field from the document
+    *
+    * @param field the field
+    *
+    * @return the value, or null if the document does not have a value
+    */
+   private String resolve(Field field)
+   {
+      if (m_document == null)
+      {
+         return null;
+      }
+
+      String value = null;
+      try
+      {
+         switch (field)
+         {
+            case TITLE:
+               value = m_document.getTitle();
+               break;
+            case NAME:
+               value = m_document.getName();
+               break;
+            case ID:
+               value = m_document.getId().getId();
+               break;
+            case AUTHORS:
+               if (m_document instanceof Editable)
+               {
+                  value = join(((Editable) m_document).getAuthors());
+               }
+               break;
+            case LIBRARY:
+               value = m_document.getOwnerLibrary().getName();
+               break;
+            case PATH:
+               value = WCM_API.getRepository().getWorkspace().getPathById(m_document.getId(), true, true);
+               break;
+            case STAGE:
+               if (m_document instanceof WorkflowedDocument)
+               {
+                  value = ((WorkflowedDocument) m_document).getWorkflowStageId().getName();
+               }
+               break;
+         }
+      }
+      catch (Exception e)
+      {
+         // Values are informational, a value that cannot be resolved is left empty
+         LOGGER.log(Level.FINE, "Unable to resolve document field " + field, e);
+      }
+      return value;
+   }
+
+   /**
+    * Join values with a comma
+    *
+    * @param values the values, may be null
+    *
+    * @return the joined values
+    */
+   private static String join(String[] values)
+   {
+      if (values == null || values.length == 0)
+      {
+         return null;
+      }
+      StringBuilder joined = new StringBuilder(values[0]);
+      for (int i = 1; i < values.length; i++)
+      {
+         joined.append(", ").append(values[i]);
+      }
+      return joined.toString();
+   }
+}
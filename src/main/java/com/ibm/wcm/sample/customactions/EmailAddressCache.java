@@ -0,0 +1,173 @@
+/*
+ * Copyright 2014  IBM Corp.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.ibm.wcm.sample.customactions;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.mail.internet.AddressException;
+import javax.mail.internet.InternetAddress;
+
+/**
+ * Cache of parsed email addresses, keyed by the address as it was written. <br />
+ * Group mailing lists put the same hundreds of approvers on every workflow email, so each
+ * address is parsed and checked once rather than for every email. Addresses that cannot be
+ * parsed are cached too, with the reason. The cache is bounded to {@link #DEFAULT_MAX_ENTRIES}
+ * addresses, dropping the least recently used address when full. <br />
+ * The cached addresses are shared and must not be modified.
+ */
+public class EmailAddressCache
+{
+   /** Maximum number of cached addresses */
+   public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+   /** The shared instance */
+   private static final EmailAddressCache INSTANCE = new EmailAddressCache(DEFAULT_MAX_ENTRIES);
+
+   /** Cached addresses keyed by the address as it was written. Guarded by this. */
+   private final Map<String, Entry> m_entries;
+
+   /**
+    * Constructor
+    * @param maxEntries maximum number of cached addresses
+    */
+   public EmailAddressCache(int maxEntries)
+   {
+      m_entries = new LruMap<String, Entry>(maxEntries);
+   }
+
+   /**
+    * @return the shared instance
+    */
+   public static EmailAddressCache getInstance()
+   {
+      return INSTANCE;
+   }
+
+   /**
+    * Returns the parsed address
+    *
+    * @param address the address as it was written
+    *
+    * @return the parsed address
+    *
+    * @throws AddressException If the address cannot be parsed
+    */
+   public InternetAddress get(String address) throws AddressException
+   {
+      Entry entry = getEntry(address);
+      if (entry.m_address == null)
+      {
+         throw new AddressException(entry.m_error, address);
+      }
+      return entry.m_address;
+   }
+
+   /**
+    * Parse a list of addresses in one pass, skipping null entries. Addresses that cannot be
+    * parsed are left out and described in the list of invalid addresses.
+    *
+    * @param addresses the addresses as they were written, may be null
+    * @param invalid receives a description of each address that cannot be parsed
+    *
+    * @return the parsed addresses, in the order of the list
+    */
+   public InternetAddress[] parse(List<String> addresses, List<String> invalid)
+   {
+      if (addresses == null || addresses.isEmpty())
+      {
+         return new InternetAddress[0];
+      }
+      List<InternetAddress> parsed = new ArrayList<InternetAddress>(addresses.size());
+      for (String address : addresses)
+      {
+         if (address != null)
+         {
+            Entry entry = getEntry(address);
+            if (entry.m_address != null)
+            {
+               parsed.add(entry.m_address);
+            }
+            else
+            {
+               invalid.add(address + " (" + entry.m_error + ")");
+            }
+         }
+      }
+      return parsed.toArray(new InternetAddress[parsed.size()]);
+   }
+
+   /**
+    * Drop every cached address
+    */
+   public synchronized void clear()
+   {
+      m_entries.clear();
+   }
+
+   /**
+    * Returns the cached entry for an address, parsing the address if it is not cached
+    *
+    * @param address the address as it was written
+    *
+    * @return the entry
+    */
+   private Entry getEntry(String address)
+   {
+      Entry entry;
+      synchronized (this)
+      {
+         entry = m_entries.get(address);
+      }
+      if (entry == null)
+      {
+         // Parsed outside the lock, an entry added meanwhile by another thread is equivalent
+         try
+         {
+            entry = new Entry(new InternetAddress(address), null);
+         }
+         catch (AddressException e)
+         {
+            entry = new Entry(null, e.getMessage());
+         }
+         synchronized (this)
+         {
+            m_entries.put(address, entry);
+         }
+      }
+      return entry;
+   }
+
+   /**
+    * A parsed address, or the reason the address cannot be parsed
+    */
+   private static final class Entry
+   {
+      /** The parsed address, null if the address cannot be parsed */
+      final InternetAddress m_address;
+
+      /** The reason the address cannot be parsed */
+      final String m_error;
+
+      /**
+       * Constructor
+       * @param address the parsed address, null if the address cannot be parsed
+       * @param error the reason the address cannot be parsed
+       */
+      Entry(InternetAddress address, String error)
+      {
+         m_address = address;
+         m_error = error;
+      }
+   }
+}
@@ -0,0 +1,350 @@
+/*
+ * Copyright 2014  IBM Corp.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.ibm.wcm.sample.customactions;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+
+/**
+ * Delivers the emails built by the email workflow action using the delivery mode
+ * configured in email.properties.
+ * <ul>
+ * <li>sync - the email is sent on the calling workflow thread</li>
+ * <li>async - the email is placed on a bounded queue and sent by background workers</li>
+ * <li>outbox - the email is written to a durable journal and sent by a background sender</li>
+ * </ul>
+ * Emails are sent through the {@link MailTransport} configured with mail.transport, one per mail host,
+ * by default over pooled SMTP connections that share one mail session.
+ */
+public class EmailDelivery
+{
+   /** class name for the logger */
+   private static final String LOG_CLASS = EmailDelivery.class.getName();
+
+   /** logging level */
+   private static final Level LOG_LEVEL = Level.FINER;
+
+   /** class logger */
+   private static final Logger LOGGER = Logger.getLogger(LOG_CLASS);
+
+   /**
+    * Outcome of delivering an email
+    */
+   public static enum Status
+   {
+      /** The email was sent */
+      SENT,
+      /** The email was accepted for background delivery or written to the outbox */
+      QUEUED,
+      /** The email was discarded because the delivery queue was full */
+      DROPPED,
+      /** The email was refused because the delivery queue was full */
+      REJECTED
+   }
+
+   /** The shared delivery, created on first use */
+   private static volatile EmailDelivery s_instance;
+
+   /** The settings */
+   private final EmailSettings m_settings;
+
+   /** The asynchronous delivery queue, null in sync mode */
+   private final EmailDeliveryQueue m_queue;
+
+   /** The durable outbox, null unless the outbox mode is configured */
+   private final EmailOutbox m_outbox;
+
+   /** Limits the rate emails are sent at */
+   private final EmailRateLimiter m_rateLimiter;
+
+   /** Mail transports keyed by mail host */
+   private final ConcurrentMap<String, MailTransport> m_transports = new ConcurrentHashMap<String, MailTransport>();
+
+   /**
+    * Construct the delivery
+    * @param settings the email settings
+    */
+   EmailDelivery(EmailSettings settings)
+   {
+      m_settings = settings;
+      m_rateLimiter = new EmailRateLimiter(settings);
+      m_queue = (settings.getDeliveryMode() == EmailSettings.DeliveryMode.ASYNC) ? new EmailDeliveryQueue(this, settings) : null;
+
+      EmailOutbox outbox = null;
+      if (settings.getDeliveryMode() == EmailSettings.DeliveryMode.OUTBOX)
+      {
+         try
+         {
+            outbox = new EmailOutbox(this, settings);
+         }
+         catch (IOException e)
+         {
+            LOGGER.log(Level.SEVERE, "Unable to open the email outbox, sending emails synchronously, " + e.getMessage(), e);
+         }
+      }
+      m_outbox = outbox;
+   }
+
+   /**
+    * Returns the shared delivery, creating it on first use
+    *
+    * @return the shared delivery
+    */
+   public static EmailDelivery getInstance()
+   {
+      EmailDelivery delivery = s_instance;
+      if (delivery == null)
+      {
+         synchronized (EmailDelivery.class)
+         {
+            delivery = s_instance;
+            if (delivery == null)
+            {
+               delivery = new EmailDelivery(EmailSettings.getInstance());
+               s_instance = delivery;
+            }
+         }
+      }
+      return delivery;
+   }
+
+   /**
+    * Stop the shared delivery, sending any queued emails first. A new delivery is
+    * created if an email is delivered afterwards.
+    */
+   public static void shutdown()
+   {
+      EmailDelivery delivery;
+      synchronized (EmailDelivery.class)
+      {
+         delivery = s_instance;
+         s_instance = null;
+      }
+      if (delivery != null)
+      {
+         delivery.close();
+      }
+   }
+
+   /**
+    * Stop this delivery, sending any queued emails first, and close its transports
+    */
+   void close()
+   {
+      if (m_queue != null)
+      {
+         m_queue.shutdown();
+      }
+      if (m_outbox != null)
+      {
+         m_outbox.shutdown();
+      }
+      for (MailTransport transport : m_transports.values())
+      {
+         transport.close();
+      }
+      m_rateLimiter.close();
+   }
+
+   /**
+    * Returns the mail session shared by every email sent to the mail host
+    *
+    * @param mailHost the mail host
+    *
+    * @return the mail session
+    */
+   public Session getSession(String mailHost)
+   {
+      return getTransport(mailHost).getSession();
+   }
+
+   /**
+    * Returns the mail transport for the mail host, creating it on first use
+    *
+    * @param mailHost the mail host
+    *
+    * @return the mail transport
+    */
+   public MailTransport getTransport(String mailHost)
+   {
+      MailTransport transport = m_transports.get(mailHost);
+      if (transport == null)
+      {
+         MailTransport newTransport = createTransport(mailHost);
+         transport = m_transports.putIfAbsent(mailHost, newTransport);
+         if (transport == null)
+         {
+            transport = newTransport;
+         }
+         else
+         {
+            newTransport.close();
+         }
+      }
+      return transport;
+   }
+
+   /**
+    * Create the configured mail transport for a mail host
+    *
+    * @param mailHost the mail host
+    *
+    * @return the mail transport, an SMTP transport if the configured transport cannot be created
+    */
+   private MailTransport createTransport(String mailHost)
+   {
+      String type = m_settings.getMailTransport();
+      if (EmailSettings.TRANSPORT_SMTP.equalsIgnoreCase(type))
+      {
+         return new SmtpTransportPool(mailHost, m_settings, m_rateLimiter);
+      }
+      else if (EmailSettings.TRANSPORT_MEMORY.equalsIgnoreCase(type))
+      {
+         return new InMemoryMailTransport(mailHost, m_settings);
+      }
+      else if (EmailSettings.TRANSPORT_SPOOL.equalsIgnoreCase(type))
+      {
+         return new SpoolMailTransport(mailHost, m_settings);
+      }
+
+      try
+      {
+         Class<? extends MailTransport> transportClass = Class.forName(type).asSubclass(MailTransport.class);
+         Constructor<? extends MailTransport> constructor = transportClass.getConstructor(new Class[] {String.class, EmailSettings.class});
+         return constructor.newInstance(new Object[] {mailHost, m_settings});
+      }
+      catch (Exception e)
+      {
+         LOGGER.log(Level.SEVERE, "Unable to create mail transport " + type + ", sending emails over SMTP, " + e, e);
+         return new SmtpTransportPool(mailHost, m_settings, m_rateLimiter);
+      }
+   }
+
+   /**
+    * Deliver an email using the configured delivery mode
+    *
+    * @param mailHost the mail host
+    * @param message the email, ready to send
+    *
+    * @return the delivery status
+    *
+    * @throws MessagingException If the email was sent synchronously and sending failed
+    */
+   public Status deliver(String mailHost, MimeMessage message) throws MessagingException
+   {
+      final String LOG_METHOD = "deliver(message)";
+      boolean isFiner = LOGGER.isLoggable(LOG_LEVEL);
+      if (isFiner)
+      {
+         LOGGER.entering(LOG_CLASS, LOG_METHOD, new Object[] {m_settings.getDeliveryMode()});
+      }
+
+      Status status;
+      if (m_queue != null)
+      {
+         status = m_queue.enqueue(mailHost, message);
+      }
+      else if (m_outbox != null)
+      {
+         m_outbox.append(mailHost, message);
+         status = Status.QUEUED;
+      }
+      else
+      {
+         send(mailHost, message);
+         status = Status.SENT;
+      }
+
+      if (isFiner)
+      {
+         LOGGER.exiting(LOG_CLASS, LOG_METHOD, status);
+      }
+      return status;
+   }
+
+   /**
+    * Send an email on the calling thread through the mail transport
+    *
+    * @param mailHost the mail host
+    * @param message the email, ready to send
+    *
+    * @throws MessagingException If there is an exception sending the email
+    */
+   void send(String mailHost, MimeMessage message) throws MessagingException
+   {
+      getTransport(mailHost).send(message);
+   }
+
+   /**
+    * Send several emails on the calling thread through the mail transport, over a single
+    * connection for SMTP
+    *
+    * @param mailHost the mail host
+    * @param messages the emails, ready to send
+    *
+    * @return the exception thrown sending each email, in the order of the emails, null for
+    * the emails that were sent
+    */
+   MessagingException[] sendAll(String mailHost, List<MimeMessage> messages)
+   {
+      return getTransport(mailHost).sendAll(messages);
+   }
+
+   /**
+    * Returns true if emails are sent on the calling thread
+    *
+    * @return true in sync delivery mode
+    */
+   public boolean isSynchronous()
+   {
+      return m_queue == null && m_outbox == null;
+   }
+
+   /**
+    * Returns the durable outbox
+    *
+    * @return the outbox, or null if the outbox mode is not configured
+    */
+   public EmailOutbox getOutbox()
+   {
+      return m_outbox;
+   }
+
+   /**
+    * Returns the rate limiter shared by every mail host
+    *
+    * @return the rate limiter
+    */
+   public EmailRateLimiter getRateLimiter()
+   {
+      return m_rateLimiter;
+   }
+
+   /**
+    * Returns the asynchronous delivery queue
+    *
+    * @return the queue, or null if emails are sent synchronously
+    */
+   public EmailDeliveryQueue getQueue()
+   {
+      return m_queue;
+   }
+}
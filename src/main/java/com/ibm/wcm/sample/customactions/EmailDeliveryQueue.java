@@ -0,0 +1,380 @@
+/*
+ * Copyright 2014  IBM Corp.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.ibm.wcm.sample.customactions;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Bounded in-memory queue of emails drained by a fixed set of worker threads. <br />
+ * Emails are handed to the supplied {@link EmailDelivery} for sending so a slow mail
+ * server holds up the workers instead of the workflow threads. When the queue is full
+ * the configured overflow policy decides whether the caller waits, the email is dropped
+ * or the email is rejected.
+ */
+public class EmailDeliveryQueue implements EmailDeliveryQueueMBean
+{
+   /** class name for the logger */
+   private static final String LOG_CLASS = EmailDeliveryQueue.class.getName();
+
+   /** class logger */
+   private static final Logger LOGGER = Logger.getLogger(LOG_CLASS);
+
+   /** JMX object name the queue metrics are registered under */
+   public static final String OBJECT_NAME = "com.ibm.wcm.sample.customactions:type=EmailDeliveryQueue";
+
+   /** How long a worker waits for an email before checking for shutdown */
+   private static final long POLL_MILLIS = 500;
+
+   /** How long shutdown waits for the workers to drain the queue */
+   private static final long SHUTDOWN_MILLIS = 10000;
+
+   /** Delivery used to send the queued emails */
+   private final EmailDelivery m_delivery;
+
+   /** The queued emails */
+   private final BlockingQueue<QueuedEmail> m_queue;
+
+   /** The queue capacity */
+   private final int m_capacity;
+
+   /** The overflow policy */
+   private final EmailSettings.OverflowPolicy m_overflowPolicy;
+
+   /** Maximum time in milliseconds to wait for queue space with the block policy */
+   private final long m_blockTimeout;
+
+   /** The worker threads */
+   private final Thread[] m_workers;
+
+   /** False once shutdown has been requested */
+   private volatile boolean m_running = true;
+
+   /** Metrics */
+   private final AtomicLong m_queued = new AtomicLong();
+   private final AtomicLong m_sent = new AtomicLong();
+   private final AtomicLong m_failed = new AtomicLong();
+   private final AtomicLong m_overflow = new AtomicLong();
+   private final AtomicLong m_totalSendNanos = new AtomicLong();
+   private final AtomicLong m_maxSendNanos = new AtomicLong();
+   private final AtomicLong m_totalWaitNanos = new AtomicLong();
+
+   /**
+    * Construct and start the queue
+    * @param delivery delivery used to send the queued emails
+    * @param settings the email settings
+    */
+   public EmailDeliveryQueue(EmailDelivery delivery, EmailSettings settings)
+   {
+      m_delivery = delivery;
+      m_capacity = settings.getAsyncQueueCapacity();
+      m_queue = new ArrayBlockingQueue<QueuedEmail>(m_capacity);
+      m_overflowPolicy = settings.getOverflowPolicy();
+      m_blockTimeout = settings.getAsyncBlockTimeout();
+
+      m_workers = new Thread[settings.getAsyncWorkers()];
+      for (int i = 0; i < m_workers.length; i++)
+      {
+         m_workers[i] = new Thread(new Worker(), "WCM Email Delivery " + (i + 1));
+         m_workers[i].setDaemon(true);
+         m_workers[i].start();
+      }
+
+      registerMBean();
+   }
+
+   /**
+    * Add an email to the queue, applying the overflow policy if the queue is full.
+    *
+    * @param mailHost the mail host
+    * @param message the email to send
+    *
+    * @return QUEUED if the email was accepted, DROPPED or REJECTED if the queue was full
+    */
+   public EmailDelivery.Status enqueue(String mailHost, MimeMessage message)
+   {
+      QueuedEmail email = new QueuedEmail(mailHost, message);
+      boolean accepted = false;
+      if (m_running)
+      {
+         if (m_overflowPolicy == EmailSettings.OverflowPolicy.BLOCK)
+         {
+            try
+            {
+               accepted = m_queue.offer(email, m_blockTimeout, TimeUnit.MILLISECONDS);
+            }
+            catch (InterruptedException e)
+            {
+               Thread.currentThread().interrupt();
+            }
+         }
+         else
+         {
+            accepted = m_queue.offer(email);
+         }
+      }
+
+      EmailDelivery.Status status;
+      if (accepted)
+      {
+         m_queued.incrementAndGet();
+         status = EmailDelivery.Status.QUEUED;
+      }
+      else
+      {
+         m_overflow.incrementAndGet();
+         status = (m_overflowPolicy == EmailSettings.OverflowPolicy.DROP) ? EmailDelivery.Status.DROPPED : EmailDelivery.Status.REJECTED;
+         LOGGER.log(Level.WARNING, "Email delivery queue is full, email " + status.toString().toLowerCase());
+      }
+      return status;
+   }
+
+   /**
+    * Stop accepting emails and wait for the workers to send what is left on the queue.
+    */
+   public void shutdown()
+   {
+      m_running = false;
+      long deadline = System.currentTimeMillis() + SHUTDOWN_MILLIS;
+      for (Thread worker : m_workers)
+      {
+         try
+         {
+            worker.join(Math.max(1, deadline - System.currentTimeMillis()));
+         }
+         catch (InterruptedException e)
+         {
+            Thread.currentThread().interrupt();
+            break;
+         }
+      }
+      if (!m_queue.isEmpty())
+      {
+         LOGGER.log(Level.WARNING, m_queue.size() + " queued emails were not sent before shutdown");
+      }
+      unregisterMBean();
+   }
+
+   /**
+    * Send a single queued email and record its metrics
+    * @param email the queued email
+    */
+   private void send(QueuedEmail email)
+   {
+      long start = System.nanoTime();
+      m_totalWaitNanos.addAndGet(start - email.m_enqueued);
+      try
+      {
+         m_delivery.send(email.m_mailHost, email.m_message);
+         m_sent.incrementAndGet();
+      }
+      catch (MessagingException e)
+      {
+         m_failed.incrementAndGet();
+         LOGGER.log(Level.WARNING, "Error sending queued email, " + e.getMessage(), e);
+      }
+      catch (Throwable e)
+      {
+         // Anything else, including errors, fails this email only so the worker keeps draining the queue
+         m_failed.incrementAndGet();
+         LOGGER.log(Level.SEVERE, "Unexpected error sending queued email, " + e.getMessage(), e);
+      }
+      long elapsed = System.nanoTime() - start;
+      m_totalSendNanos.addAndGet(elapsed);
+      long max = m_maxSendNanos.get();
+      while (elapsed > max && !m_maxSendNanos.compareAndSet(max, elapsed))
+      {
+         max = m_maxSendNanos.get();
+      }
+   }
+
+   /**
+    * Register the metrics with the platform MBean server
+    */
+   private void registerMBean()
+   {
+      try
+      {
+         MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+         ObjectName name = new ObjectName(OBJECT_NAME);
+         if (server.isRegistered(name))
+         {
+            server.unregisterMBean(name);
+         }
+         server.registerMBean(this, name);
+      }
+      catch (JMException e)
+      {
+         LOGGER.log(Level.WARNING, "Unable to register email delivery queue metrics, " + e.getMessage(), e);
+      }
+   }
+
+   /**
+    * Remove the metrics from the platform MBean server
+    */
+   private void unregisterMBean()
+   {
+      try
+      {
+         MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+         ObjectName name = new ObjectName(OBJECT_NAME);
+         if (server.isRegistered(name))
+         {
+            server.unregisterMBean(name);
+         }
+      }
+      catch (JMException e)
+      {
+         LOGGER.log(Level.FINE, "Unable to unregister email delivery queue metrics", e);
+      }
+   }
+
+   /**
+    * @see com.ibm.wcm.sample.customactions.EmailDeliveryQueueMBean#getQueueDepth()
+    */
+   public int getQueueDepth()
+   {
+      return m_queue.size();
+   }
+
+   /**
+    * @see com.ibm.wcm.sample.customactions.EmailDeliveryQueueMBean#getQueueCapacity()
+    */
+   public int getQueueCapacity()
+   {
+      return m_capacity;
+   }
+
+   /**
+    * @see com.ibm.wcm.sample.customactions.EmailDeliveryQueueMBean#getQueuedCount()
+    */
+   public long getQueuedCount()
+   {
+      return m_queued.get();
+   }
+
+   /**
+    * @see com.ibm.wcm.sample.customactions.EmailDeliveryQueueMBean#getSentCount()
+    */
+   public long getSentCount()
+   {
+      return m_sent.get();
+   }
+
+   /**
+    * @see com.ibm.wcm.sample.customactions.EmailDeliveryQueueMBean#getFailedCount()
+    */
+   public long getFailedCount()
+   {
+      return m_failed.get();
+   }
+
+   /**
+    * @see com.ibm.wcm.sample.customactions.EmailDeliveryQueueMBean#getOverflowCount()
+    */
+   public long getOverflowCount()
+   {
+      return m_overflow.get();
+   }
+
+   /**
+    * @see com.ibm.wcm.sample.customactions.EmailDeliveryQueueMBean#getMeanSendMillis()
+    */
+   public double getMeanSendMillis()
+   {
+      long count = m_sent.get() + m_failed.get();
+      return (count == 0) ? 0 : m_totalSendNanos.get() / (count * 1000000.0);
+   }
+
+   /**
+    * @see com.ibm.wcm.sample.customactions.EmailDeliveryQueueMBean#getMaxSendMillis()
+    */
+   public double getMaxSendMillis()
+   {
+      return m_maxSendNanos.get() / 1000000.0;
+   }
+
+   /**
+    * @see com.ibm.wcm.sample.customactions.EmailDeliveryQueueMBean#getMeanQueueWaitMillis()
+    */
+   public double getMeanQueueWaitMillis()
+   {
+      long count = m_sent.get() + m_failed.get();
+      return (count == 0) ? 0 : m_totalWaitNanos.get() / (count * 1000000.0);
+   }
+
+   /**
+    * An email waiting on the queue
+    */
+   private static final class QueuedEmail
+   {
+      /** The mail host */
+      final String m_mailHost;
+
+      /** The email */
+      final MimeMessage m_message;
+
+      /** System.nanoTime when the email was queued */
+      final long m_enqueued = System.nanoTime();
+
+      /**
+       * Constructor
+       * @param mailHost the mail host
+       * @param message the email
+       */
+      QueuedEmail(String mailHost, MimeMessage message)
+      {
+         m_mailHost = mailHost;
+         m_message = message;
+      }
+   }
+
+   /**
+    * Worker that sends queued emails until shutdown has been requested and the queue is empty.
+    */
+   private final class Worker implements Runnable
+   {
+      /**
+       * @see java.lang.Runnable#run()
+       */
+      public void run()
+      {
+         while (m_running || !m_queue.isEmpty())
+         {
+            try
+            {
+               QueuedEmail email = m_queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+               if (email != null)
+               {
+                  send(email);
+               }
+            }
+            catch (InterruptedException e)
+            {
+               Thread.currentThread().interrupt();
+               break;
+            }
+         }
+      }
+   }
+}
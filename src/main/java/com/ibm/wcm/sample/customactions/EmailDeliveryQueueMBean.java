@@ -0,0 +1,63 @@
+/*
+ * Copyright 2014  IBM Corp.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.ibm.wcm.sample.customactions;
+
+/**
+ * Management interface exposing the asynchronous email delivery queue metrics.
+ */
+public interface EmailDeliveryQueueMBean
+{
+   /**
+    * @return the number of emails waiting to be sent
+    */
+   int getQueueDepth();
+
+   /**
+    * @return the maximum number of emails the queue can hold
+    */
+   int getQueueCapacity();
+
+   /**
+    * @return the number of emails accepted onto the queue
+    */
+   long getQueuedCount();
+
+   /**
+    * @return the number of emails sent successfully
+    */
+   long getSentCount();
+
+   /**
+    * @return the number of emails that could not be sent
+    */
+   long getFailedCount();
+
+   /**
+    * @return the number of emails that were discarded or rejected because the queue was full
+    */
+   long getOverflowCount();
+
+   /**
+    * @return the mean time in milliseconds spent sending an email
+    */
+   double getMeanSendMillis();
+
+   /**
+    * @return the longest time in milliseconds spent sending an email
+    */
+   double getMaxSendMillis();
+
+   /**
+    * @return the mean time in milliseconds an email waited on the queue before it was sent
+    */
+   double getMeanQueueWaitMillis();
+}
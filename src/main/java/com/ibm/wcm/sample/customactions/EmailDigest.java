@@ -0,0 +1,449 @@
+/*
+ * Copyright 2014  IBM Corp.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.ibm.wcm.sample.customactions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeBodyPart;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMultipart;
+
+/**
+ * Collects the emails for many documents into digests so that bulk workflow transitions send
+ * one email per recipient set instead of one email per document. <br />
+ * Emails with the same mail host, sender, recipients and charset are collected into the same
+ * digest, whatever their subjects. A digest is sent when it reaches the configured number of
+ * documents or when the digest window has passed since its first document was added, whichever
+ * comes first. It is sent as one multipart email, a list of the documents followed by one part
+ * holding the message for each document.
+ */
+public class EmailDigest
+{
+   /** class name for the logger */
+   private static final String LOG_CLASS = EmailDigest.class.getName();
+
+   /** class logger */
+   private static final Logger LOGGER = Logger.getLogger(LOG_CLASS);
+
+   /** Line separator used in the digest content */
+   private static final String NEWLINE = "\r\n";
+
+   /** The shared digest collector, created on first use */
+   private static volatile EmailDigest s_instance;
+
+   /** Digests being collected keyed by mail host, sender, recipients and charset */
+   private final ConcurrentMap<Key, Digest> m_digests = new ConcurrentHashMap<Key, Digest>();
+
+   /** Sends digests when their window has passed or they are full */
+   private final ScheduledExecutorService m_scheduler;
+
+   /** Time in milliseconds a digest collects documents */
+   private final long m_window;
+
+   /** Number of documents after which a digest is sent */
+   private final int m_maxDocuments;
+
+   /** Delivery used to send the digests, null to use the shared delivery */
+   private final EmailDelivery m_delivery;
+
+   /**
+    * Construct the collector
+    * @param settings the email settings
+    * @param delivery delivery used to send the digests, null to use the shared delivery
+    */
+   EmailDigest(EmailSettings settings, EmailDelivery delivery)
+   {
+      m_delivery = delivery;
+      m_window = settings.getDigestWindow();
+      m_maxDocuments = settings.getDigestMaxDocuments();
+      m_scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+      {
+         public Thread newThread(Runnable runnable)
+         {
+            Thread thread = new Thread(runnable, "WCM Email Digest");
+            thread.setDaemon(true);
+            return thread;
+         }
+      });
+   }
+
+   /**
+    * Returns the shared digest collector, creating it on first use
+    *
+    * @return the shared digest collector
+    */
+   public static EmailDigest getInstance()
+   {
+      EmailDigest digest = s_instance;
+      if (digest == null)
+      {
+         synchronized (EmailDigest.class)
+         {
+            digest = s_instance;
+            if (digest == null)
+            {
+               digest = new EmailDigest(EmailSettings.getInstance(), null);
+               s_instance = digest;
+            }
+         }
+      }
+      return digest;
+   }
+
+   /**
+    * Send every digest being collected and stop the collector.
+    */
+   public static void shutdown()
+   {
+      EmailDigest digest;
+      synchronized (EmailDigest.class)
+      {
+         digest = s_instance;
+         s_instance = null;
+      }
+      if (digest != null)
+      {
+         digest.close();
+      }
+   }
+
+   /**
+    * Send every digest being collected and stop this collector
+    */
+   void close()
+   {
+      m_scheduler.shutdownNow();
+      for (Digest pending : m_digests.values())
+      {
+         send(pending);
+      }
+   }
+
+   /**
+    * Add the email for a document to the matching digest
+    *
+    * @param p_mailHost The name of the email server
+    * @param p_from The from address of the email
+    * @param p_to The list of people to send the email to
+    * @param p_cc The list of people to cc the email to
+    * @param p_bcc The list of people to bcc the email to
+    * @param p_subject The subject of the email
+    * @param p_content The message for the document
+    * @param p_charset The charset of the subject and message
+    * @param p_document A label identifying the document
+    */
+   public void add(String p_mailHost, String p_from, List<String> p_to, List<String> p_cc, List<String> p_bcc,
+      String p_subject, String p_content, String p_charset, String p_document)
+   {
+      Key key = new Key(p_mailHost, p_from, copy(p_to), copy(p_cc), copy(p_bcc), p_charset);
+      String[] entry = new String[] {p_document, p_subject, p_content};
+
+      while (true)
+      {
+         Digest digest = m_digests.get(key);
+         if (digest == null)
+         {
+            Digest newDigest = new Digest(key);
+            digest = m_digests.putIfAbsent(key, newDigest);
+            if (digest == null)
+            {
+               digest = newDigest;
+               schedule(digest, m_window);
+            }
+         }
+
+         int size = digest.add(entry);
+         if (size >= 0)
+         {
+            if (size == m_maxDocuments)
+            {
+               // Full, send it now without holding up the workflow thread
+               schedule(digest, 0);
+            }
+            break;
+         }
+         // The digest was sent while we were adding to it, start a new one
+      }
+   }
+
+   /**
+    * Schedule a digest to be sent
+    *
+    * @param digest the digest
+    * @param delay the delay in milliseconds
+    */
+   private void schedule(final Digest digest, long delay)
+   {
+      m_scheduler.schedule(new Runnable()
+      {
+         public void run()
+         {
+            send(digest);
+         }
+      }, delay, TimeUnit.MILLISECONDS);
+   }
+
+   /**
+    * Close a digest and send it as a single email
+    *
+    * @param digest the digest
+    */
+   private void send(Digest digest)
+   {
+      m_digests.remove(digest.m_key, digest);
+      List<String[]> entries = digest.close();
+      if (entries == null || entries.isEmpty())
+      {
+         return;
+      }
+
+      Key key = digest.m_key;
+      EmailDelivery delivery = (m_delivery != null) ? m_delivery : EmailDelivery.getInstance();
+      try
+      {
+         MimeMessage message;
+         if (entries.size() == 1)
+         {
+            // A single document is sent as its own email
+            String[] entry = entries.get(0);
+            message = EmailWorkflowAction.createMessage(delivery, key.m_mailHost, key.m_from,
+               new ArrayList<String>(key.m_to), new ArrayList<String>(key.m_cc), new ArrayList<String>(key.m_bcc),
+               entry[1], entry[2], key.m_charset);
+         }
+         else
+         {
+            message = EmailWorkflowAction.createMessage(delivery, key.m_mailHost, key.m_from,
+               new ArrayList<String>(key.m_to), new ArrayList<String>(key.m_cc), new ArrayList<String>(key.m_bcc),
+               getSubject(entries), null, key.m_charset);
+            message.setContent(createContent(entries, key.m_charset));
+            message.saveChanges();
+         }
+
+         EmailDelivery.Status status = delivery.deliver(key.m_mailHost, message);
+         if (status != EmailDelivery.Status.SENT && status != EmailDelivery.Status.QUEUED)
+         {
+            LOGGER.log(Level.WARNING, "Email digest for " + entries.size() + " documents was not delivered, " + status);
+         }
+      }
+      catch (Exception e)
+      {
+         LOGGER.log(Level.WARNING, "Error sending email digest for " + entries.size() + " documents, " + e, e);
+      }
+   }
+
+   /**
+    * Returns the subject of a digest, the subject of its documents when they all have the same one
+    * followed by the number of documents
+    *
+    * @param entries the documents in the digest
+    *
+    * @return the digest subject
+    */
+   private static String getSubject(List<String[]> entries)
+   {
+      String subject = entries.get(0)[1];
+      for (String[] entry : entries)
+      {
+         if (subject == null || !subject.equals(entry[1]))
+         {
+            return entries.size() + " documents";
+         }
+      }
+      return subject + " (" + entries.size() + " documents)";
+   }
+
+   /**
+    * Create the content of a digest, a list of its documents followed by one part per document
+    *
+    * @param entries the documents in the digest
+    * @param charset the charset of the messages
+    *
+    * @return the digest content
+    *
+    * @throws MessagingException If a part cannot be created
+    */
+   private static MimeMultipart createContent(List<String[]> entries, String charset) throws MessagingException
+   {
+      MimeMultipart multipart = new MimeMultipart();
+      StringBuilder list = new StringBuilder(entries.size() * 64);
+      list.append(entries.size()).append(" documents:").append(NEWLINE).append(NEWLINE);
+      for (int i = 0; i < entries.size(); i++)
+      {
+         list.append(i + 1).append(". ").append(entries.get(i)[0]).append(NEWLINE);
+      }
+      multipart.addBodyPart(createPart(list.toString(), null, charset));
+
+      for (String[] entry : entries)
+      {
+         multipart.addBodyPart(createPart(entry[2] != null ? entry[2] : "", entry[0], charset));
+      }
+      return multipart;
+   }
+
+   /**
+    * Create a text part of a digest
+    *
+    * @param text the text
+    * @param description the document the part is for, null for none
+    * @param charset the charset of the text
+    *
+    * @return the part
+    *
+    * @throws MessagingException If the part cannot be created
+    */
+   private static MimeBodyPart createPart(String text, String description, String charset) throws MessagingException
+   {
+      MimeBodyPart part = new MimeBodyPart();
+      part.setText(text, charset);
+      part.setHeader("Content-Transfer-Encoding", "quoted-printable");
+      if (description != null)
+      {
+         part.setDescription(description, charset);
+      }
+      return part;
+   }
+
+   /**
+    * Returns an unmodifiable copy of a recipient list, used as part of the digest key
+    *
+    * @param list the recipient list, may be null
+    *
+    * @return the copy
+    */
+   private static List<String> copy(List<String> list)
+   {
+      return (list == null) ? Collections.<String>emptyList() : Collections.unmodifiableList(new ArrayList<String>(list));
+   }
+
+   /**
+    * Identifies the emails that are collected into the same digest
+    */
+   private static final class Key
+   {
+      /** The mail host */
+      final String m_mailHost;
+
+      /** The from address */
+      final String m_from;
+
+      /** The to, cc and bcc recipients */
+      final List<String> m_to;
+      final List<String> m_cc;
+      final List<String> m_bcc;
+
+      /** The charset of the subject and message */
+      final String m_charset;
+
+      /** Precomputed hash code */
+      private final int m_hash;
+
+      /**
+       * Constructor, the recipient lists must not be modified afterwards
+       */
+      Key(String mailHost, String from, List<String> to, List<String> cc, List<String> bcc, String charset)
+      {
+         m_mailHost = mailHost;
+         m_from = from;
+         m_to = to;
+         m_cc = cc;
+         m_bcc = bcc;
+         m_charset = charset;
+         m_hash = Arrays.hashCode(new Object[] {mailHost, from, to, cc, bcc, charset});
+      }
+
+      /**
+       * @see java.lang.Object#hashCode()
+       */
+      public int hashCode()
+      {
+         return m_hash;
+      }
+
+      /**
+       * @see java.lang.Object#equals(java.lang.Object)
+       */
+      public boolean equals(Object obj)
+      {
+         if (this == obj)
+         {
+            return true;
+         }
+         if (!(obj instanceof Key))
+         {
+            return false;
+         }
+         Key other = (Key) obj;
+         return m_hash == other.m_hash
+            && Arrays.equals(new Object[] {m_mailHost, m_from, m_to, m_cc, m_bcc, m_charset},
+               new Object[] {other.m_mailHost, other.m_from, other.m_to, other.m_cc, other.m_bcc, other.m_charset});
+      }
+   }
+
+   /**
+    * The documents collected for one recipient set
+    */
+   private static final class Digest
+   {
+      /** The digest key */
+      final Key m_key;
+
+      /** The collected document labels, subjects and contents, null once the digest has been closed. Guarded by this. */
+      private List<String[]> m_entries = new ArrayList<String[]>();
+
+      /**
+       * Constructor
+       * @param key the digest key
+       */
+      Digest(Key key)
+      {
+         m_key = key;
+      }
+
+      /**
+       * Add a document
+       * @param entry the document label, subject and content
+       * @return the number of documents in the digest, or -1 if the digest has been closed
+       */
+      synchronized int add(String[] entry)
+      {
+         if (m_entries == null)
+         {
+            return -1;
+         }
+         m_entries.add(entry);
+         return m_entries.size();
+      }
+
+      /**
+       * Close the digest so that no more documents can be added
+       * @return the collected documents, or null if the digest was already closed
+       */
+      synchronized List<String[]> close()
+      {
+         List<String[]> entries = m_entries;
+         m_entries = null;
+         return entries;
+      }
+   }
+}
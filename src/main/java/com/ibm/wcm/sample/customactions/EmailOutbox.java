@@ -0,0 +1,756 @@
+/*
+ * Copyright 2014  IBM Corp.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.ibm.wcm.sample.customactions;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.mail.Address;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.internet.MimeMessage;
+
+import com.sun.mail.smtp.SMTPSendFailedException;
+
+/**
+ * Durable outbox for workflow emails, kept as an append-only journal split into segment files. <br />
+ * Each email is written to the journal before the workflow action returns and a background sender
+ * sends the journalled emails in order, writing an acknowledgement record once an email has been sent.
+ * On startup the journal is scanned and every email without an acknowledgement is sent again, so
+ * emails survive a JVM restart or a mail server outage. An email that fails is retried after the
+ * retry delay without holding up the emails behind it.
+ * <p>
+ * Records are framed as <code>[int length][int crc32][payload]</code>. A segment is deleted once it is
+ * no longer being written to, every email in it has been acknowledged and every older segment has
+ * been deleted, so the acknowledgements needed to recover the remaining segments are always kept.
+ */
+public class EmailOutbox
+{
+   /** class name for the logger */
+   private static final String LOG_CLASS = EmailOutbox.class.getName();
+
+   /** class logger */
+   private static final Logger LOGGER = Logger.getLogger(LOG_CLASS);
+
+   /** Segment file name prefix */
+   private static final String SEGMENT_PREFIX = "outbox-";
+
+   /** Segment file name suffix */
+   private static final String SEGMENT_SUFFIX = ".log";
+
+   /** Record type for a journalled email */
+   private static final byte TYPE_EMAIL = 1;
+
+   /** Record type for an acknowledgement */
+   private static final byte TYPE_ACK = 2;
+
+   /** Size of the record header, length and checksum */
+   private static final int HEADER_SIZE = 8;
+
+   /** Quarantined email file name prefix */
+   private static final String QUARANTINE_PREFIX = "quarantine-";
+
+   /** Quarantined email file name suffix */
+   private static final String QUARANTINE_SUFFIX = ".eml";
+
+   /** Number of unexpected errors after which an email is quarantined instead of retried */
+   private static final int MAX_ERRORS = 5;
+
+   /** How long shutdown waits for the sender to finish the current email */
+   private static final long SHUTDOWN_MILLIS = 10000;
+
+   /** Longest time in milliseconds the sender waits for an email before checking for shutdown */
+   private static final long POLL_MILLIS = 1000;
+
+   /** Delivery used to send the journalled emails */
+   private final EmailDelivery m_delivery;
+
+   /** The outbox directory */
+   private final File m_directory;
+
+   /** Size in bytes after which a new segment is started */
+   private final long m_segmentSize;
+
+   /** True to force every record to disk before returning */
+   private final boolean m_sync;
+
+   /** Time in milliseconds to wait before retrying a failed email */
+   private final long m_retryDelay;
+
+   /** Emails waiting to be sent, oldest first */
+   private final LinkedBlockingDeque<Entry> m_pending = new LinkedBlockingDeque<Entry>();
+
+   /** Emails that failed, waiting for their next attempt */
+   private final DelayQueue<Entry> m_retries = new DelayQueue<Entry>();
+
+   /** Number of unacknowledged emails in each segment, keyed by segment number. Guarded by this. */
+   private final TreeMap<Long, Integer> m_segmentPending = new TreeMap<Long, Integer>();
+
+   /** The segment being written. Guarded by this. */
+   private FileChannel m_channel;
+
+   /** Number of the segment being written. Guarded by this. */
+   private long m_segment;
+
+   /** Id of the next journalled email. Guarded by this. */
+   private long m_nextId;
+
+   /** The sender thread */
+   private final Thread m_sender;
+
+   /** False once shutdown has been requested */
+   private volatile boolean m_running = true;
+
+   /**
+    * Construct the outbox, recover the unsent emails from the journal and start the sender
+    * @param delivery delivery used to send the journalled emails
+    * @param settings the email settings
+    * @throws IOException If the journal cannot be read or created
+    */
+   public EmailOutbox(EmailDelivery delivery, EmailSettings settings) throws IOException
+   {
+      if (settings.getOutboxDirectory() == null)
+      {
+         throw new IOException("No outbox directory is configured, set " + EmailSettings.PROPERTY_OUTBOX_DIRECTORY);
+      }
+      m_delivery = delivery;
+      m_directory = new File(settings.getOutboxDirectory());
+      m_segmentSize = settings.getOutboxSegmentSize();
+      m_sync = settings.isOutboxSync();
+      m_retryDelay = settings.getOutboxRetryDelay();
+
+      if (!m_directory.isDirectory() && !m_directory.mkdirs())
+      {
+         throw new IOException("Unable to create outbox directory " + m_directory);
+      }
+
+      recover();
+
+      m_sender = new Thread(new Sender(), "WCM Email Outbox");
+      m_sender.setDaemon(true);
+      m_sender.start();
+   }
+
+   /**
+    * Write an email to the journal for background delivery
+    *
+    * @param mailHost the mail host
+    * @param message the email, ready to send
+    *
+    * @throws MessagingException If the email cannot be written to the journal
+    */
+   public void append(String mailHost, MimeMessage message) throws MessagingException
+   {
+      ByteArrayOutputStream content = new ByteArrayOutputStream(4096);
+      try
+      {
+         message.writeTo(content);
+      }
+      catch (IOException e)
+      {
+         throw new MessagingException("Unable to write email to the outbox", e);
+      }
+      byte[] bytes = content.toByteArray();
+
+      Entry entry;
+      synchronized (this)
+      {
+         long id = m_nextId++;
+         try
+         {
+            writeRecord(encode(TYPE_EMAIL, id, mailHost, bytes));
+         }
+         catch (IOException e)
+         {
+            throw new MessagingException("Unable to write email to the outbox", e);
+         }
+         entry = new Entry(id, m_segment, mailHost, bytes);
+         Integer count = m_segmentPending.get(Long.valueOf(m_segment));
+         m_segmentPending.put(Long.valueOf(m_segment), Integer.valueOf(count == null ? 1 : count.intValue() + 1));
+      }
+      m_pending.offerLast(entry);
+   }
+
+   /**
+    * Returns the number of emails waiting to be sent, including the ones waiting to be retried
+    *
+    * @return the number of emails waiting to be sent
+    */
+   public int getPendingCount()
+   {
+      return m_pending.size() + m_retries.size();
+   }
+
+   /**
+    * Stop the sender and close the journal. Unsent emails are sent when the outbox is next opened.
+    */
+   public void shutdown()
+   {
+      // The sender checks for shutdown between emails, interrupting it could close the journal mid-write
+      m_running = false;
+      try
+      {
+         m_sender.join(SHUTDOWN_MILLIS);
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+      }
+      synchronized (this)
+      {
+         closeChannel();
+      }
+   }
+
+   /**
+    * Mark an email as sent and delete the segments that are no longer needed
+    *
+    * @param entry the sent email
+    */
+   private synchronized void acknowledge(Entry entry)
+   {
+      try
+      {
+         writeRecord(encode(TYPE_ACK, entry.m_id, null, null));
+      }
+      catch (IOException e)
+      {
+         // The email will be sent again after a restart
+         LOGGER.log(Level.WARNING, "Unable to acknowledge outbox email " + entry.m_id, e);
+      }
+
+      Long segment = Long.valueOf(entry.m_segment);
+      Integer count = m_segmentPending.get(segment);
+      if (count != null)
+      {
+         m_segmentPending.put(segment, Integer.valueOf(count.intValue() - 1));
+      }
+      compact();
+   }
+
+   /**
+    * Delete the oldest segments while they are fully acknowledged and not being written to.
+    */
+   private void compact()
+   {
+      Iterator<Map.Entry<Long, Integer>> segments = m_segmentPending.entrySet().iterator();
+      while (segments.hasNext())
+      {
+         Map.Entry<Long, Integer> segment = segments.next();
+         long number = segment.getKey().longValue();
+         if (number == m_segment || segment.getValue().intValue() > 0)
+         {
+            break;
+         }
+         File file = segmentFile(number);
+         if (file.delete() || !file.exists())
+         {
+            segments.remove();
+         }
+         else
+         {
+            LOGGER.log(Level.WARNING, "Unable to delete outbox segment " + file);
+            break;
+         }
+      }
+   }
+
+   /**
+    * Append a record to the current segment, starting a new segment when the current one is full
+    *
+    * @param payload the record payload
+    *
+    * @throws IOException If the record cannot be written
+    */
+   private void writeRecord(byte[] payload) throws IOException
+   {
+      if (m_channel == null || m_channel.size() >= m_segmentSize)
+      {
+         closeChannel();
+         m_segment++;
+         m_channel = new FileOutputStream(segmentFile(m_segment), true).getChannel();
+         if (!m_segmentPending.containsKey(Long.valueOf(m_segment)))
+         {
+            m_segmentPending.put(Long.valueOf(m_segment), Integer.valueOf(0));
+         }
+      }
+
+      CRC32 crc = new CRC32();
+      crc.update(payload);
+      ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+      buffer.putInt(payload.length).putInt((int) crc.getValue()).put(payload);
+      buffer.flip();
+      while (buffer.hasRemaining())
+      {
+         m_channel.write(buffer);
+      }
+      if (m_sync)
+      {
+         m_channel.force(false);
+      }
+   }
+
+   /**
+    * Close the current segment
+    */
+   private void closeChannel()
+   {
+      if (m_channel != null)
+      {
+         try
+         {
+            m_channel.close();
+         }
+         catch (IOException e)
+         {
+            LOGGER.log(Level.FINE, "Error closing outbox segment " + m_segment, e);
+         }
+         m_channel = null;
+      }
+   }
+
+   /**
+    * Scan the journal and queue every email that has not been acknowledged.
+    *
+    * @throws IOException If a segment cannot be read
+    */
+   private synchronized void recover() throws IOException
+   {
+      String[] names = m_directory.list(new FilenameFilter()
+      {
+         public boolean accept(File dir, String name)
+         {
+            return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+         }
+      });
+      Arrays.sort(names);
+
+      Map<Long, Entry> unsent = new LinkedHashMap<Long, Entry>();
+      Map<Long, Integer> counts = new HashMap<Long, Integer>();
+      for (String name : names)
+      {
+         long segment = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+         counts.put(Long.valueOf(segment), Integer.valueOf(0));
+         readSegment(segment, unsent);
+         m_segment = segment;
+      }
+
+      for (Entry entry : unsent.values())
+      {
+         Long segment = Long.valueOf(entry.m_segment);
+         counts.put(segment, Integer.valueOf(counts.get(segment).intValue() + 1));
+         m_pending.offerLast(entry);
+      }
+      m_segmentPending.putAll(counts);
+      compact();
+
+      if (!unsent.isEmpty())
+      {
+         LOGGER.log(Level.INFO, "Recovered " + unsent.size() + " unsent emails from outbox " + m_directory);
+      }
+   }
+
+   /**
+    * Read the records of one segment. A damaged record at the end of a segment, left by a crash
+    * while it was being written, is cut off.
+    *
+    * @param segment the segment number
+    * @param unsent the unacknowledged emails, updated with the records read
+    *
+    * @throws IOException If the segment cannot be read
+    */
+   private void readSegment(long segment, Map<Long, Entry> unsent) throws IOException
+   {
+      File file = segmentFile(segment);
+      long valid = 0;
+      FileChannel channel = new FileInputStream(file).getChannel();
+      try
+      {
+         long size = channel.size();
+         ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+         while (valid + HEADER_SIZE <= size)
+         {
+            header.clear();
+            readFully(channel, header, valid);
+            header.flip();
+            int length = header.getInt();
+            int checksum = header.getInt();
+            if (length < 0 || valid + HEADER_SIZE + length > size)
+            {
+               break;
+            }
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(channel, payload, valid + HEADER_SIZE);
+            CRC32 crc = new CRC32();
+            crc.update(payload.array());
+            if ((int) crc.getValue() != checksum)
+            {
+               break;
+            }
+            decode(segment, payload.array(), unsent);
+            valid += HEADER_SIZE + length;
+         }
+         if (valid < size)
+         {
+            LOGGER.log(Level.WARNING, "Discarding " + (size - valid) + " damaged bytes at the end of outbox segment " + file);
+         }
+      }
+      finally
+      {
+         channel.close();
+      }
+
+      if (valid < file.length())
+      {
+         RandomAccessFile raf = new RandomAccessFile(file, "rw");
+         try
+         {
+            raf.setLength(valid);
+         }
+         finally
+         {
+            raf.close();
+         }
+      }
+   }
+
+   /**
+    * Fill a buffer from a channel
+    *
+    * @param channel the channel
+    * @param buffer the buffer to fill
+    * @param position the channel position to read from
+    *
+    * @throws IOException If the channel ends before the buffer is full
+    */
+   private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+   {
+      long offset = position;
+      while (buffer.hasRemaining())
+      {
+         int read = channel.read(buffer, offset);
+         if (read < 0)
+         {
+            throw new IOException("Unexpected end of outbox segment");
+         }
+         offset += read;
+      }
+   }
+
+   /**
+    * Encode a record payload
+    *
+    * @param type the record type
+    * @param id the email id
+    * @param mailHost the mail host, only for email records
+    * @param content the email content, only for email records
+    *
+    * @return the payload
+    *
+    * @throws IOException If the payload cannot be encoded
+    */
+   private static byte[] encode(byte type, long id, String mailHost, byte[] content) throws IOException
+   {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream(content == null ? 9 : content.length + 64);
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeByte(type);
+      out.writeLong(id);
+      if (type == TYPE_EMAIL)
+      {
+         out.writeUTF(mailHost);
+         out.writeInt(content.length);
+         out.write(content);
+      }
+      out.flush();
+      return bytes.toByteArray();
+   }
+
+   /**
+    * Decode a record payload and apply it to the unacknowledged emails
+    *
+    * @param segment the segment the record was read from
+    * @param payload the payload
+    * @param unsent the unacknowledged emails
+    *
+    * @throws IOException If the payload cannot be decoded
+    */
+   private void decode(long segment, byte[] payload, Map<Long, Entry> unsent) throws IOException
+   {
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+      byte type = in.readByte();
+      long id = in.readLong();
+      m_nextId = Math.max(m_nextId, id + 1);
+      if (type == TYPE_EMAIL)
+      {
+         String mailHost = in.readUTF();
+         byte[] content = new byte[in.readInt()];
+         in.readFully(content);
+         unsent.put(Long.valueOf(id), new Entry(id, segment, mailHost, content));
+      }
+      else if (type == TYPE_ACK)
+      {
+         unsent.remove(Long.valueOf(id));
+      }
+   }
+
+   /**
+    * Returns the file for a segment
+    *
+    * @param segment the segment number
+    *
+    * @return the segment file
+    */
+   private File segmentFile(long segment)
+   {
+      String number = Long.toString(segment);
+      StringBuilder name = new StringBuilder(SEGMENT_PREFIX);
+      for (int i = number.length(); i < 16; i++)
+      {
+         name.append('0');
+      }
+      return new File(m_directory, name.append(number).append(SEGMENT_SUFFIX).toString());
+   }
+
+   /**
+    * Send a journalled email
+    *
+    * @param entry the journalled email
+    *
+    * @return true if the email was sent or cannot ever be sent, false to retry it later
+    */
+   private boolean send(Entry entry)
+   {
+      boolean done = false;
+      try
+      {
+         MimeMessage message = new MimeMessage(m_delivery.getSession(entry.m_mailHost), new ByteArrayInputStream(entry.m_content));
+         m_delivery.send(entry.m_mailHost, message);
+         done = true;
+      }
+      catch (SendFailedException e)
+      {
+         if (isPermanent(e))
+         {
+            // The addresses were refused, sending again will not help
+            LOGGER.log(Level.WARNING, "Outbox email " + entry.m_id + " was refused, " + e.getMessage(), e);
+            done = true;
+         }
+         else
+         {
+            LOGGER.log(Level.WARNING, "Outbox email " + entry.m_id + " was deferred, retrying in " + m_retryDelay + "ms, " + e.getMessage(), e);
+         }
+      }
+      catch (MessagingException e)
+      {
+         LOGGER.log(Level.WARNING, "Error sending outbox email " + entry.m_id + ", retrying in " + m_retryDelay + "ms, " + e.getMessage(), e);
+      }
+      catch (RuntimeException e)
+      {
+         // An unexpected error, most likely the email itself, retry a few times before giving up on it
+         entry.m_errors++;
+         if (entry.m_errors < MAX_ERRORS)
+         {
+            LOGGER.log(Level.WARNING, "Unexpected error sending outbox email " + entry.m_id + ", retrying in " + m_retryDelay + "ms", e);
+         }
+         else
+         {
+            LOGGER.log(Level.SEVERE, "Unexpected error sending outbox email " + entry.m_id + ", quarantining it after " + entry.m_errors + " attempts", e);
+            quarantine(entry);
+            done = true;
+         }
+      }
+      return done;
+   }
+
+   /**
+    * Returns true if a refused email cannot ever be sent. A temporary (4xx) reply from the server, such
+    * as 421, 450 or 452, is retried, as is a refusal that leaves valid addresses the email was not sent to.
+    *
+    * @param failure the exception thrown sending the email
+    *
+    * @return true for a permanent (5xx) reply, or when no valid addresses are left unsent
+    */
+   static boolean isPermanent(SendFailedException failure)
+   {
+      if (failure instanceof SMTPSendFailedException)
+      {
+         int returnCode = ((SMTPSendFailedException) failure).getReturnCode();
+         if (returnCode >= 400 && returnCode < 600)
+         {
+            return returnCode >= 500;
+         }
+      }
+      Address[] unsent = failure.getValidUnsentAddresses();
+      return unsent == null || unsent.length == 0;
+   }
+
+   /**
+    * Copy an email that cannot be sent out of the journal into its own file in the outbox directory,
+    * so it can be inspected and resent by hand
+    *
+    * @param entry the journalled email
+    */
+   private void quarantine(Entry entry)
+   {
+      File file = new File(m_directory, QUARANTINE_PREFIX + entry.m_id + QUARANTINE_SUFFIX);
+      try
+      {
+         FileOutputStream out = new FileOutputStream(file);
+         try
+         {
+            out.write(entry.m_content);
+         }
+         finally
+         {
+            out.close();
+         }
+         LOGGER.log(Level.WARNING, "Outbox email " + entry.m_id + " quarantined to " + file);
+      }
+      catch (IOException e)
+      {
+         LOGGER.log(Level.SEVERE, "Unable to quarantine outbox email " + entry.m_id + " to " + file + ", the email is lost", e);
+      }
+   }
+
+   /**
+    * A journalled email
+    */
+   private static final class Entry implements Delayed
+   {
+      /** The email id */
+      final long m_id;
+
+      /** The segment holding the email */
+      final long m_segment;
+
+      /** The mail host */
+      final String m_mailHost;
+
+      /** The email content */
+      final byte[] m_content;
+
+      /** Number of unexpected errors sending the email, only used by the sender thread */
+      int m_errors;
+
+      /** System.nanoTime of the next attempt to send the email, set by the sender thread before a retry */
+      long m_nextAttempt;
+
+      /**
+       * Constructor
+       * @param id the email id
+       * @param segment the segment holding the email
+       * @param mailHost the mail host
+       * @param content the email content
+       */
+      Entry(long id, long segment, String mailHost, byte[] content)
+      {
+         m_id = id;
+         m_segment = segment;
+         m_mailHost = mailHost;
+         m_content = content;
+      }
+
+      /**
+       * @see java.util.concurrent.Delayed#getDelay(java.util.concurrent.TimeUnit)
+       */
+      public long getDelay(TimeUnit unit)
+      {
+         return unit.convert(m_nextAttempt - System.nanoTime(), TimeUnit.NANOSECONDS);
+      }
+
+      /**
+       * @see java.lang.Comparable#compareTo(java.lang.Object)
+       */
+      public int compareTo(Delayed other)
+      {
+         long difference = m_nextAttempt - ((Entry) other).m_nextAttempt;
+         return (difference < 0) ? -1 : (difference > 0) ? 1 : 0;
+      }
+   }
+
+   /**
+    * Sends the journalled emails in order. A failed email is put aside until the retry delay has
+    * passed and the emails behind it are sent meanwhile. An unexpected error is logged and does not
+    * stop the sender.
+    */
+   private final class Sender implements Runnable
+   {
+      /**
+       * @see java.lang.Runnable#run()
+       */
+      public void run()
+      {
+         while (m_running)
+         {
+            try
+            {
+               // Retries that are due go first, otherwise wait for a new email until the next retry is due
+               Entry entry = m_retries.poll();
+               if (entry == null)
+               {
+                  long wait = POLL_MILLIS;
+                  Entry retry = m_retries.peek();
+                  if (retry != null)
+                  {
+                     wait = Math.max(1, Math.min(wait, retry.getDelay(TimeUnit.MILLISECONDS)));
+                  }
+                  entry = m_pending.pollFirst(wait, TimeUnit.MILLISECONDS);
+               }
+               if (entry != null)
+               {
+                  if (send(entry))
+                  {
+                     acknowledge(entry);
+                  }
+                  else
+                  {
+                     entry.m_nextAttempt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(m_retryDelay);
+                     m_retries.offer(entry);
+                  }
+               }
+            }
+            catch (InterruptedException e)
+            {
+               // Carry on until shutdown has been requested
+            }
+            catch (RuntimeException e)
+            {
+               // Keep sending, the email is still journalled and will be sent again after a restart
+               LOGGER.log(Level.SEVERE, "Unexpected error in the outbox sender", e);
+            }
+         }
+      }
+   }
+}
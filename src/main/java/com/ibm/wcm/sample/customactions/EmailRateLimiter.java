@@ -0,0 +1,602 @@
+/*
+ * Copyright 2014  IBM Corp.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.ibm.wcm.sample.customactions;
+
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.mail.Address;
+import javax.mail.MessagingException;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+
+import com.sun.mail.smtp.SMTPAddressFailedException;
+import com.sun.mail.smtp.SMTPSendFailedException;
+
+/**
+ * Limits the rate at which emails are sent to the mail host, across every email and per
+ * recipient domain, so that a large workflow run does not get the sender throttled by the
+ * mail relay. <br />
+ * Each limit is a token bucket allowing a burst of emails followed by a steady rate. The
+ * bucket is kept as the time the next email is due, updated with compare and set, so that an
+ * email within the limits is sent without locking or waiting.
+ * <ul>
+ * <li>an email over a limit waits for its turn, up to the maximum wait (shaped)</li>
+ * <li>an email that would wait longer than the maximum wait is not sent (dropped)</li>
+ * <li>a temporary (4xx) failure from the mail host halves the rate of the limit it applies to,
+ * down to the minimum rate; each email sent afterwards restores some of the configured rate</li>
+ * </ul>
+ */
+public class EmailRateLimiter implements EmailRateLimiterMBean
+{
+   /** class name for the logger */
+   private static final String LOG_CLASS = EmailRateLimiter.class.getName();
+
+   /** class logger */
+   private static final Logger LOGGER = Logger.getLogger(LOG_CLASS);
+
+   /** JMX object name the rate limiter metrics are registered under */
+   public static final String OBJECT_NAME = "com.ibm.wcm.sample.customactions:type=EmailRateLimiter";
+
+   /** Nanoseconds in a second */
+   private static final long NANOS_PER_SECOND = 1000000000L;
+
+   /** Number of emails sent after which a slowed down limit is back to the configured rate */
+   private static final int RECOVERY_STEPS = 16;
+
+   /** Number of domains tracked before idle domains are forgotten */
+   private static final int MAX_DOMAINS = 1000;
+
+   /** Maximum depth followed along a chain of nested exceptions */
+   private static final int MAX_EXCEPTION_DEPTH = 16;
+
+   /** The limit on every email, null if not limited */
+   private final Bucket m_global;
+
+   /** Emails per second allowed to each recipient domain, 0 if not limited */
+   private final int m_domainRate;
+
+   /** Emails sent to a recipient domain without waiting */
+   private final int m_domainBurst;
+
+   /** Lowest rate a limit is slowed down to, as a fraction of the configured rate */
+   private final int m_maxSlowdown;
+
+   /** Maximum time in nanoseconds an email waits for its turn */
+   private final long m_maxWaitNanos;
+
+   /** Limits on each recipient domain */
+   private final ConcurrentMap<String, Bucket> m_domains = new ConcurrentHashMap<String, Bucket>();
+
+   /** Metrics */
+   private final AtomicLong m_permitted = new AtomicLong();
+   private final AtomicLong m_shaped = new AtomicLong();
+   private final AtomicLong m_dropped = new AtomicLong();
+   private final AtomicLong m_throttled = new AtomicLong();
+   private final AtomicLong m_totalWaitNanos = new AtomicLong();
+
+   /**
+    * Construct the rate limiter and register its metrics
+    * @param settings the email settings
+    */
+   public EmailRateLimiter(EmailSettings settings)
+   {
+      m_maxSlowdown = settings.getRateLimitMaxSlowdown();
+      m_maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(settings.getRateLimitMaxWait());
+      m_global = (settings.getRateLimitGlobal() > 0) ? new Bucket(settings.getRateLimitGlobal(), settings.getRateLimitGlobalBurst(), m_maxSlowdown) : null;
+      m_domainRate = settings.getRateLimitDomain();
+      m_domainBurst = settings.getRateLimitDomainBurst();
+      registerMBean();
+   }
+
+   /**
+    * Returns the distinct recipient domains of an email, in lower case
+    *
+    * @param message the email
+    *
+    * @return the recipient domains
+    *
+    * @throws MessagingException If the recipients cannot be read
+    */
+   static Set<String> getDomains(MimeMessage message) throws MessagingException
+   {
+      Set<String> domains = new LinkedHashSet<String>();
+      Address[] recipients = message.getAllRecipients();
+      if (recipients != null)
+      {
+         for (Address recipient : recipients)
+         {
+            String domain = getDomain(recipient);
+            if (domain != null)
+            {
+               domains.add(domain);
+            }
+         }
+      }
+      return domains;
+   }
+
+   /**
+    * Reserve the turn of an email to be sent to the recipient domains
+    *
+    * @param domains the recipient domains of the email
+    *
+    * @return the time in nanoseconds to wait, with {@link #await(long)}, before the email may be sent
+    *
+    * @throws MessagingException If the email would wait longer than the maximum wait
+    */
+   long reserve(Set<String> domains) throws MessagingException
+   {
+      long now = System.nanoTime();
+      long wait = 0;
+      if (m_global != null)
+      {
+         wait = m_global.reserve(now, m_maxWaitNanos);
+         if (wait < 0)
+         {
+            throw drop("Rate limit exceeded sending email");
+         }
+      }
+      if (m_domainRate > 0)
+      {
+         for (String domain : domains)
+         {
+            // A reservation already made on another limit is not returned, the limits err on the slow side
+            long domainWait = getBucket(domain).reserve(now, m_maxWaitNanos);
+            if (domainWait < 0)
+            {
+               throw drop("Rate limit exceeded sending email to " + domain);
+            }
+            wait = Math.max(wait, domainWait);
+         }
+      }
+
+      if (wait == 0)
+      {
+         m_permitted.incrementAndGet();
+      }
+      return wait;
+   }
+
+   /**
+    * Wait for the turn reserved for an email
+    *
+    * @param wait the time in nanoseconds returned by {@link #reserve(Set)}
+    *
+    * @throws MessagingException If the thread was interrupted while waiting
+    */
+   void await(long wait) throws MessagingException
+   {
+      if (wait <= 0)
+      {
+         return;
+      }
+      try
+      {
+         TimeUnit.NANOSECONDS.sleep(wait);
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+         throw drop("Interrupted waiting to send email");
+      }
+      m_shaped.incrementAndGet();
+      m_totalWaitNanos.addAndGet(wait);
+   }
+
+   /**
+    * Record that an email was sent, restoring some of the rate of slowed down limits
+    *
+    * @param domains the recipient domains of the email
+    */
+   void sent(Set<String> domains)
+   {
+      if (m_global != null)
+      {
+         m_global.recover();
+      }
+      if (m_domainRate > 0)
+      {
+         for (String domain : domains)
+         {
+            Bucket bucket = m_domains.get(domain);
+            if (bucket != null)
+            {
+               bucket.recover();
+            }
+         }
+      }
+   }
+
+   /**
+    * Record that sending an email failed. A temporary (4xx) failure for a recipient slows down
+    * the limit on the recipient domain, a temporary failure for the email slows down the
+    * global limit.
+    *
+    * @param failure the exception thrown sending the email
+    */
+   void failed(MessagingException failure)
+   {
+      boolean throttled = false;
+      Exception next = failure;
+      for (int depth = 0; next != null && depth < MAX_EXCEPTION_DEPTH; depth++)
+      {
+         if (next instanceof SMTPAddressFailedException)
+         {
+            SMTPAddressFailedException addressFailure = (SMTPAddressFailedException) next;
+            String domain = getDomain(addressFailure.getAddress());
+            if (isTemporary(addressFailure.getReturnCode()) && domain != null)
+            {
+               throttled = true;
+               if (m_domainRate > 0)
+               {
+                  getBucket(domain).slowDown();
+               }
+            }
+         }
+         else if (next instanceof SMTPSendFailedException)
+         {
+            if (isTemporary(((SMTPSendFailedException) next).getReturnCode()))
+            {
+               throttled = true;
+               if (m_global != null)
+               {
+                  m_global.slowDown();
+               }
+            }
+         }
+         else if (next.getMessage() != null && next.getMessage().matches("4\\d\\d[ -].*"))
+         {
+            // Replies to commands other than the ones sending the email, such as 421 closing the connection
+            throttled = true;
+            if (m_global != null)
+            {
+               m_global.slowDown();
+            }
+         }
+         next = (next instanceof MessagingException) ? ((MessagingException) next).getNextException() : null;
+      }
+
+      if (throttled)
+      {
+         m_throttled.incrementAndGet();
+         if (LOGGER.isLoggable(Level.FINE))
+         {
+            LOGGER.log(Level.FINE, "Mail host is throttling emails, global rate now " + getGlobalRate() + " per second", failure);
+         }
+      }
+   }
+
+   /**
+    * Unregister the metrics
+    */
+   public void close()
+   {
+      try
+      {
+         MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+         ObjectName name = new ObjectName(OBJECT_NAME);
+         if (server.isRegistered(name))
+         {
+            server.unregisterMBean(name);
+         }
+      }
+      catch (JMException e)
+      {
+         LOGGER.log(Level.FINE, "Unable to unregister email rate limiter metrics", e);
+      }
+   }
+
+   /**
+    * @see com.ibm.wcm.sample.customactions.EmailRateLimiterMBean#getPermittedCount()
+    */
+   public long getPermittedCount()
+   {
+      return m_permitted.get();
+   }
+
+   /**
+    * @see com.ibm.wcm.sample.customactions.EmailRateLimiterMBean#getShapedCount()
+    */
+   public long getShapedCount()
+   {
+      return m_shaped.get();
+   }
+
+   /**
+    * @see com.ibm.wcm.sample.customactions.EmailRateLimiterMBean#getDroppedCount()
+    */
+   public long getDroppedCount()
+   {
+      return m_dropped.get();
+   }
+
+   /**
+    * @see com.ibm.wcm.sample.customactions.EmailRateLimiterMBean#getThrottledCount()
+    */
+   public long getThrottledCount()
+   {
+      return m_throttled.get();
+   }
+
+   /**
+    * @see com.ibm.wcm.sample.customactions.EmailRateLimiterMBean#getTotalWaitMillis()
+    */
+   public long getTotalWaitMillis()
+   {
+      return TimeUnit.NANOSECONDS.toMillis(m_totalWaitNanos.get());
+   }
+
+   /**
+    * @see com.ibm.wcm.sample.customactions.EmailRateLimiterMBean#getGlobalRate()
+    */
+   public double getGlobalRate()
+   {
+      return (m_global == null) ? 0 : m_global.getRate();
+   }
+
+   /**
+    * @see com.ibm.wcm.sample.customactions.EmailRateLimiterMBean#getDomainCount()
+    */
+   public int getDomainCount()
+   {
+      return m_domains.size();
+   }
+
+   /**
+    * Count a dropped email
+    *
+    * @param message the reason the email was dropped
+    *
+    * @return the exception to throw
+    */
+   private MessagingException drop(String message)
+   {
+      m_dropped.incrementAndGet();
+      return new MessagingException(message);
+   }
+
+   /**
+    * Returns the limit on a recipient domain, creating it on first use
+    *
+    * @param domain the recipient domain
+    *
+    * @return the limit
+    */
+   private Bucket getBucket(String domain)
+   {
+      Bucket bucket = m_domains.get(domain);
+      if (bucket == null)
+      {
+         if (m_domains.size() >= MAX_DOMAINS)
+         {
+            forgetIdleDomains();
+         }
+         Bucket newBucket = new Bucket(m_domainRate, m_domainBurst, m_maxSlowdown);
+         bucket = m_domains.putIfAbsent(domain, newBucket);
+         if (bucket == null)
+         {
+            bucket = newBucket;
+         }
+      }
+      return bucket;
+   }
+
+   /**
+    * Remove the limits on domains that have no emails due and are not slowed down, a new
+    * limit for such a domain behaves the same
+    */
+   private void forgetIdleDomains()
+   {
+      long now = System.nanoTime();
+      Iterator<Bucket> buckets = m_domains.values().iterator();
+      while (buckets.hasNext())
+      {
+         if (buckets.next().isIdle(now))
+         {
+            buckets.remove();
+         }
+      }
+   }
+
+   /**
+    * Returns the domain of an email address, in lower case
+    *
+    * @param address the address
+    *
+    * @return the domain, or null if the address is not an internet address with a domain
+    */
+   private static String getDomain(Address address)
+   {
+      String domain = null;
+      if (address instanceof InternetAddress)
+      {
+         String email = ((InternetAddress) address).getAddress();
+         int at = (email == null) ? -1 : email.lastIndexOf('@');
+         if (at >= 0 && at < email.length() - 1)
+         {
+            domain = email.substring(at + 1).toLowerCase(Locale.ENGLISH);
+         }
+      }
+      return domain;
+   }
+
+   /**
+    * Returns true for a temporary failure reply code
+    *
+    * @param returnCode the SMTP reply code
+    *
+    * @return true for a 4xx reply code
+    */
+   private static boolean isTemporary(int returnCode)
+   {
+      return returnCode >= 400 && returnCode < 500;
+   }
+
+   /**
+    * Register the metrics with the platform MBean server
+    */
+   private void registerMBean()
+   {
+      try
+      {
+         MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+         ObjectName name = new ObjectName(OBJECT_NAME);
+         if (server.isRegistered(name))
+         {
+            server.unregisterMBean(name);
+         }
+         server.registerMBean(this, name);
+      }
+      catch (JMException e)
+      {
+         LOGGER.log(Level.WARNING, "Unable to register email rate limiter metrics, " + e.getMessage(), e);
+      }
+   }
+
+   /**
+    * A token bucket, kept as the time the next email is due and the current interval
+    * between emails
+    */
+   private static final class Bucket
+   {
+      /** Interval in nanoseconds between emails at the configured rate */
+      private final long m_baseInterval;
+
+      /** Longest interval in nanoseconds between emails when slowed down */
+      private final long m_maxInterval;
+
+      /** Number of emails sent without waiting after the bucket has been idle */
+      private final int m_burst;
+
+      /** Current interval in nanoseconds between emails */
+      private final AtomicLong m_interval;
+
+      /** System.nanoTime when the next email is due if no burst were allowed */
+      private final AtomicLong m_due;
+
+      /**
+       * Constructor
+       * @param rate emails per second
+       * @param burst emails sent without waiting
+       * @param maxSlowdown lowest rate as a fraction of the configured rate
+       */
+      Bucket(int rate, int burst, int maxSlowdown)
+      {
+         m_baseInterval = Math.max(1, NANOS_PER_SECOND / rate);
+         m_maxInterval = m_baseInterval * maxSlowdown;
+         m_burst = Math.max(1, burst);
+         m_interval = new AtomicLong(m_baseInterval);
+         m_due = new AtomicLong(System.nanoTime());
+      }
+
+      /**
+       * Reserve the next turn to send an email
+       *
+       * @param now System.nanoTime
+       * @param maxWait maximum time in nanoseconds to wait for the turn
+       *
+       * @return the time in nanoseconds to wait before sending, 0 to send now, or -1 if
+       * the turn is further away than the maximum wait, in which case nothing is reserved
+       */
+      long reserve(long now, long maxWait)
+      {
+         while (true)
+         {
+            long due = m_due.get();
+            long interval = m_interval.get();
+            long start = (due - now > 0) ? due : now;
+            long wait = start - now - interval * (m_burst - 1);
+            if (wait > maxWait)
+            {
+               return -1;
+            }
+            if (m_due.compareAndSet(due, start + interval))
+            {
+               return Math.max(0, wait);
+            }
+         }
+      }
+
+      /**
+       * Halve the rate, down to the lowest rate
+       */
+      void slowDown()
+      {
+         while (true)
+         {
+            long interval = m_interval.get();
+            long slower = Math.min(m_maxInterval, interval * 2);
+            if (slower == interval || m_interval.compareAndSet(interval, slower))
+            {
+               return;
+            }
+         }
+      }
+
+      /**
+       * Add back a share of the configured rate after a slow down
+       */
+      void recover()
+      {
+         while (true)
+         {
+            long interval = m_interval.get();
+            if (interval <= m_baseInterval)
+            {
+               return;
+            }
+            // rate + base rate / RECOVERY_STEPS, as an interval
+            double rate = 1d / interval + 1d / ((double) m_baseInterval * RECOVERY_STEPS);
+            long faster = Math.max(m_baseInterval, (long) (1d / rate));
+            if (m_interval.compareAndSet(interval, faster))
+            {
+               return;
+            }
+         }
+      }
+
+      /**
+       * Returns the current rate
+       *
+       * @return emails per second
+       */
+      double getRate()
+      {
+         return (double) NANOS_PER_SECOND / m_interval.get();
+      }
+
+      /**
+       * Returns true if no email is due and the rate is not slowed down
+       *
+       * @param now System.nanoTime
+       *
+       * @return true if the bucket is idle
+       */
+      boolean isIdle(long now)
+      {
+         return m_due.get() - now <= 0 && m_interval.get() == m_baseInterval;
+      }
+   }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2014  IBM Corp.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.ibm.wcm.sample.customactions;
+
+/**
+ * Management interface exposing the outbound email rate limiter metrics.
+ */
+public interface EmailRateLimiterMBean
+{
+   /**
+    * @return the number of emails sent without waiting
+    */
+   long getPermittedCount();
+
+   /**
+    * @return the number of emails that waited for their turn before they were sent
+    */
+   long getShapedCount();
+
+   /**
+    * @return the number of emails that were not sent because they would have waited too long
+    */
+   long getDroppedCount();
+
+   /**
+    * @return the number of temporary (4xx) failures reported by the mail host
+    */
+   long getThrottledCount();
+
+   /**
+    * @return the total time in milliseconds emails waited for their turn
+    */
+   long getTotalWaitMillis();
+
+   /**
+    * @return the current global rate in emails per second, 0 if the global rate is not limited
+    */
+   double getGlobalRate();
+
+   /**
+    * @return the number of recipient domains being tracked
+    */
+   int getDomainCount();
+}
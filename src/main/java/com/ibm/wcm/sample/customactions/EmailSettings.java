@@ -0,0 +1,668 @@
+/*
+ * Copyright 2014  IBM Corp.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.ibm.wcm.sample.customactions;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Settings used by the email workflow action, read once from the email.properties file.
+ */
+public class EmailSettings
+{
+   /** class name for the logger */
+   private static final String LOG_CLASS = EmailSettings.class.getName();
+
+   /** class logger */
+   private static final Logger LOGGER = Logger.getLogger(LOG_CLASS);
+
+   /** Properties file path */
+   public static final String PROPERTIES = "email.properties";
+
+   /** Mail server host name property. */
+   public static final String PROPERTY_MAIL_HOST = "mail.host";
+
+   /** Mail 'from' address property. */
+   public static final String PROPERTY_MAIL_FROM = "mail.from";
+
+   /** Mail transport property, smtp, memory, spool or the class name of a MailTransport. */
+   public static final String PROPERTY_MAIL_TRANSPORT = "mail.transport";
+
+   /** Directory the spool transport writes emails to property. */
+   public static final String PROPERTY_MAIL_SPOOL_DIRECTORY = "mail.spool.directory";
+
+   /** Number of emails kept by the memory transport property. */
+   public static final String PROPERTY_MAIL_MEMORY_CAPACITY = "mail.memory.capacity";
+
+   /** Prefix of the properties passed on to the mail session. */
+   public static final String SESSION_PROPERTY_PREFIX = "mail.smtp.";
+
+   /** Mail transport sending over pooled SMTP connections */
+   public static final String TRANSPORT_SMTP = "smtp";
+
+   /** Mail transport keeping the emails in memory */
+   public static final String TRANSPORT_MEMORY = "memory";
+
+   /** Mail transport writing the emails to .eml files */
+   public static final String TRANSPORT_SPOOL = "spool";
+
+   /** Delivery mode property. */
+   public static final String PROPERTY_DELIVERY_MODE = "delivery.mode";
+
+   /** Number of asynchronous delivery worker threads property. */
+   public static final String PROPERTY_ASYNC_WORKERS = "async.workers";
+
+   /** Asynchronous delivery queue capacity property. */
+   public static final String PROPERTY_ASYNC_QUEUE_CAPACITY = "async.queue.capacity";
+
+   /** Asynchronous delivery overflow policy property. */
+   public static final String PROPERTY_ASYNC_OVERFLOW_POLICY = "async.overflow.policy";
+
+   /** Maximum time in milliseconds to wait for queue space with the block policy property. */
+   public static final String PROPERTY_ASYNC_BLOCK_TIMEOUT = "async.block.timeout";
+
+   /** Maximum number of connections to the mail host property. */
+   public static final String PROPERTY_SMTP_POOL_SIZE = "smtp.pool.size";
+
+   /** Time in milliseconds after which an idle mail host connection is closed property. */
+   public static final String PROPERTY_SMTP_POOL_IDLE_TIMEOUT = "smtp.pool.idle.timeout";
+
+   /** Time in milliseconds after which an idle mail host connection is checked before reuse property. */
+   public static final String PROPERTY_SMTP_POOL_VALIDATE_AFTER = "smtp.pool.validate.after";
+
+   /** Maximum time in milliseconds to wait for a free mail host connection property. */
+   public static final String PROPERTY_SMTP_POOL_BORROW_TIMEOUT = "smtp.pool.borrow.timeout";
+
+   /** Outbox journal directory property. */
+   public static final String PROPERTY_OUTBOX_DIRECTORY = "outbox.directory";
+
+   /** Outbox journal segment size in bytes property. */
+   public static final String PROPERTY_OUTBOX_SEGMENT_SIZE = "outbox.segment.size";
+
+   /** Force every outbox record to disk property. */
+   public static final String PROPERTY_OUTBOX_SYNC = "outbox.sync";
+
+   /** Time in milliseconds to wait before retrying a failed outbox email property. */
+   public static final String PROPERTY_OUTBOX_RETRY_DELAY = "outbox.retry.delay";
+
+   /** Collect emails into digests property. */
+   public static final String PROPERTY_DIGEST_ENABLED = "digest.enabled";
+
+   /** Time in milliseconds a digest collects documents property. */
+   public static final String PROPERTY_DIGEST_WINDOW = "digest.window";
+
+   /** Number of documents after which a digest is sent property. */
+   public static final String PROPERTY_DIGEST_MAX_DOCUMENTS = "digest.max.documents";
+
+   /** Emails per second sent to the mail host property. */
+   public static final String PROPERTY_RATE_LIMIT_GLOBAL = "rate.limit.global";
+
+   /** Emails sent to the mail host without waiting property. */
+   public static final String PROPERTY_RATE_LIMIT_GLOBAL_BURST = "rate.limit.global.burst";
+
+   /** Emails per second sent to each recipient domain property. */
+   public static final String PROPERTY_RATE_LIMIT_DOMAIN = "rate.limit.domain";
+
+   /** Emails sent to a recipient domain without waiting property. */
+   public static final String PROPERTY_RATE_LIMIT_DOMAIN_BURST = "rate.limit.domain.burst";
+
+   /** Maximum time in milliseconds an email waits for its turn property. */
+   public static final String PROPERTY_RATE_LIMIT_MAX_WAIT = "rate.limit.max.wait";
+
+   /** Lowest rate a throttled limit is slowed down to, as a fraction of the configured rate property. */
+   public static final String PROPERTY_RATE_LIMIT_MAX_SLOWDOWN = "rate.limit.max.slowdown";
+
+   /** Name of the email template property. */
+   public static final String PROPERTY_TEMPLATE_NAME = "template.name";
+
+   /** Locale of the email template property. */
+   public static final String PROPERTY_TEMPLATE_LOCALE = "template.locale";
+
+   /**
+    * How email is delivered
+    */
+   public static enum DeliveryMode
+   {
+      /** Send the email on the workflow thread */
+      SYNC,
+      /** Queue the email and send it on a background worker thread */
+      ASYNC,
+      /** Write the email to a durable outbox journal and send it on a background thread */
+      OUTBOX
+   }
+
+   /**
+    * What to do with an email when the asynchronous delivery queue is full
+    */
+   public static enum OverflowPolicy
+   {
+      /** Wait for queue space, up to the block timeout, then fail the action */
+      BLOCK,
+      /** Discard the email and let the workflow continue */
+      DROP,
+      /** Fail the action so that the document is rolled back */
+      FAIL
+   }
+
+   /** The settings loaded from the default properties file */
+   private static final EmailSettings INSTANCE = new EmailSettings(PROPERTIES);
+
+   /** The mail server host name */
+   private final String m_mailHost;
+
+   /** The mail 'from' address */
+   private final String m_mailFrom;
+
+   /** The mail transport, smtp, memory, spool or a class name */
+   private final String m_mailTransport;
+
+   /** Directory the spool transport writes emails to */
+   private final String m_mailSpoolDirectory;
+
+   /** Number of emails kept by the memory transport */
+   private final int m_mailMemoryCapacity;
+
+   /** Properties passed on to the mail session */
+   private final Properties m_sessionProperties = new Properties();
+
+   /** The delivery mode */
+   private final DeliveryMode m_deliveryMode;
+
+   /** Number of asynchronous delivery worker threads */
+   private final int m_asyncWorkers;
+
+   /** Asynchronous delivery queue capacity */
+   private final int m_asyncQueueCapacity;
+
+   /** Asynchronous delivery overflow policy */
+   private final OverflowPolicy m_overflowPolicy;
+
+   /** Maximum time in milliseconds to wait for queue space with the block policy */
+   private final long m_asyncBlockTimeout;
+
+   /** Maximum number of connections to the mail host */
+   private final int m_smtpPoolSize;
+
+   /** Time in milliseconds after which an idle mail host connection is closed */
+   private final long m_smtpPoolIdleTimeout;
+
+   /** Time in milliseconds after which an idle mail host connection is checked before reuse */
+   private final long m_smtpPoolValidateAfter;
+
+   /** Maximum time in milliseconds to wait for a free mail host connection */
+   private final long m_smtpPoolBorrowTimeout;
+
+   /** Outbox journal directory */
+   private final String m_outboxDirectory;
+
+   /** Outbox journal segment size in bytes */
+   private final long m_outboxSegmentSize;
+
+   /** True to force every outbox record to disk */
+   private final boolean m_outboxSync;
+
+   /** Time in milliseconds to wait before retrying a failed outbox email */
+   private final long m_outboxRetryDelay;
+
+   /** True to collect emails into digests */
+   private final boolean m_digestEnabled;
+
+   /** Time in milliseconds a digest collects documents */
+   private final long m_digestWindow;
+
+   /** Number of documents after which a digest is sent */
+   private final int m_digestMaxDocuments;
+
+   /** Emails per second sent to the mail host, 0 if not limited */
+   private final int m_rateLimitGlobal;
+
+   /** Emails sent to the mail host without waiting */
+   private final int m_rateLimitGlobalBurst;
+
+   /** Emails per second sent to each recipient domain, 0 if not limited */
+   private final int m_rateLimitDomain;
+
+   /** Emails sent to a recipient domain without waiting */
+   private final int m_rateLimitDomainBurst;
+
+   /** Maximum time in milliseconds an email waits for its turn */
+   private final long m_rateLimitMaxWait;
+
+   /** Lowest rate a throttled limit is slowed down to, as a fraction of the configured rate */
+   private final int m_rateLimitMaxSlowdown;
+
+   /** Name of the email template */
+   private final String m_templateName;
+
+   /** Locale of the email template */
+   private final Locale m_templateLocale;
+
+   /**
+    * Construct the settings from a properties file
+    * @param p_propertiesPath Properties file to read
+    */
+   EmailSettings(String p_propertiesPath)
+   {
+      Properties properties = new Properties();
+      InputStream stream = EmailSettings.class.getResourceAsStream(p_propertiesPath);
+      if (stream != null)
+      {
+         try
+         {
+            properties.load(stream);
+         }
+         catch (IOException e)
+         {
+            String msg = CustomActionResources.getFormattedString(CustomActionResources.UNABLE_TO_LOAD_PROPERTIES_1, Locale.getDefault(), new Object[]{e.getMessage()});
+            LOGGER.log(Level.WARNING, msg, e);
+         }
+         finally
+         {
+            try
+            {
+               stream.close();
+            }
+            catch (IOException e)
+            {
+               // Ignore failure to close the properties file
+            }
+         }
+      }
+
+      m_mailHost = getString(properties, PROPERTY_MAIL_HOST, "[YOUR_MAIL_SERVER]");
+      m_mailFrom = getString(properties, PROPERTY_MAIL_FROM, "[YOUR_FROM_ADDRESS]");
+      m_mailTransport = getString(properties, PROPERTY_MAIL_TRANSPORT, TRANSPORT_SMTP);
+      m_mailSpoolDirectory = getString(properties, PROPERTY_MAIL_SPOOL_DIRECTORY,
+         new File(System.getProperty("java.io.tmpdir"), "wcm-workflow-mail-spool").getPath());
+      m_mailMemoryCapacity = Math.max(1, getInt(properties, PROPERTY_MAIL_MEMORY_CAPACITY, 1000));
+      for (String name : properties.stringPropertyNames())
+      {
+         if (name.startsWith(SESSION_PROPERTY_PREFIX))
+         {
+            m_sessionProperties.setProperty(name, properties.getProperty(name).trim());
+         }
+      }
+      m_deliveryMode = getEnum(properties, PROPERTY_DELIVERY_MODE, DeliveryMode.class, DeliveryMode.SYNC);
+      m_asyncWorkers = Math.max(1, getInt(properties, PROPERTY_ASYNC_WORKERS, 2));
+      m_asyncQueueCapacity = Math.max(1, getInt(properties, PROPERTY_ASYNC_QUEUE_CAPACITY, 1000));
+      m_overflowPolicy = getEnum(properties, PROPERTY_ASYNC_OVERFLOW_POLICY, OverflowPolicy.class, OverflowPolicy.BLOCK);
+      m_asyncBlockTimeout = Math.max(0, getInt(properties, PROPERTY_ASYNC_BLOCK_TIMEOUT, 5000));
+      m_smtpPoolSize = Math.max(1, getInt(properties, PROPERTY_SMTP_POOL_SIZE, 4));
+      m_smtpPoolIdleTimeout = Math.max(0, getInt(properties, PROPERTY_SMTP_POOL_IDLE_TIMEOUT, 60000));
+      m_smtpPoolValidateAfter = Math.max(0, getInt(properties, PROPERTY_SMTP_POOL_VALIDATE_AFTER, 5000));
+      m_smtpPoolBorrowTimeout = Math.max(0, getInt(properties, PROPERTY_SMTP_POOL_BORROW_TIMEOUT, 30000));
+      m_outboxDirectory = getString(properties, PROPERTY_OUTBOX_DIRECTORY, null);
+      m_outboxSegmentSize = Math.max(4096, getInt(properties, PROPERTY_OUTBOX_SEGMENT_SIZE, 8 * 1024 * 1024));
+      m_outboxSync = Boolean.valueOf(getString(properties, PROPERTY_OUTBOX_SYNC, "true")).booleanValue();
+      m_outboxRetryDelay = Math.max(0, getInt(properties, PROPERTY_OUTBOX_RETRY_DELAY, 30000));
+      m_templateName = getString(properties, PROPERTY_TEMPLATE_NAME, "default");
+      m_templateLocale = getLocale(properties, PROPERTY_TEMPLATE_LOCALE, Locale.getDefault());
+      m_digestEnabled = Boolean.valueOf(getString(properties, PROPERTY_DIGEST_ENABLED, "false")).booleanValue();
+      m_digestWindow = Math.max(0, getInt(properties, PROPERTY_DIGEST_WINDOW, 60000));
+      m_digestMaxDocuments = Math.max(1, getInt(properties, PROPERTY_DIGEST_MAX_DOCUMENTS, 200));
+      m_rateLimitGlobal = Math.max(0, getInt(properties, PROPERTY_RATE_LIMIT_GLOBAL, 0));
+      m_rateLimitGlobalBurst = Math.max(1, getInt(properties, PROPERTY_RATE_LIMIT_GLOBAL_BURST, Math.max(1, m_rateLimitGlobal)));
+      m_rateLimitDomain = Math.max(0, getInt(properties, PROPERTY_RATE_LIMIT_DOMAIN, 0));
+      m_rateLimitDomainBurst = Math.max(1, getInt(properties, PROPERTY_RATE_LIMIT_DOMAIN_BURST, Math.max(1, m_rateLimitDomain)));
+      m_rateLimitMaxWait = Math.max(0, getInt(properties, PROPERTY_RATE_LIMIT_MAX_WAIT, 30000));
+      m_rateLimitMaxSlowdown = Math.max(1, getInt(properties, PROPERTY_RATE_LIMIT_MAX_SLOWDOWN, 16));
+   }
+
+   /**
+    * Returns the settings loaded from the default properties file
+    *
+    * @return the email settings
+    */
+   public static EmailSettings getInstance()
+   {
+      return INSTANCE;
+   }
+
+   /**
+    * Returns a trimmed string property
+    *
+    * @param properties the properties
+    * @param name the property name
+    * @param defaultValue value to use if the property is not set
+    *
+    * @return the property value
+    */
+   static String getString(Properties properties, String name, String defaultValue)
+   {
+      String value = properties.getProperty(name);
+      return (value == null || value.trim().length() == 0) ? defaultValue : value.trim();
+   }
+
+   /**
+    * Returns an integer property
+    *
+    * @param properties the properties
+    * @param name the property name
+    * @param defaultValue value to use if the property is not set or is not a number
+    *
+    * @return the property value
+    */
+   static int getInt(Properties properties, String name, int defaultValue)
+   {
+      String value = getString(properties, name, null);
+      int result = defaultValue;
+      if (value != null)
+      {
+         try
+         {
+            result = Integer.parseInt(value);
+         }
+         catch (NumberFormatException e)
+         {
+            LOGGER.log(Level.WARNING, "Invalid value " + value + " for email property " + name + ", using " + defaultValue);
+         }
+      }
+      return result;
+   }
+
+   /**
+    * Returns an enumerated property. Values are matched ignoring case.
+    *
+    * @param properties the properties
+    * @param name the property name
+    * @param type the enumeration type
+    * @param defaultValue value to use if the property is not set or is not a valid constant
+    *
+    * @return the property value
+    */
+   static <E extends Enum<E>> E getEnum(Properties properties, String name, Class<E> type, E defaultValue)
+   {
+      String value = getString(properties, name, null);
+      E result = defaultValue;
+      if (value != null)
+      {
+         try
+         {
+            result = Enum.valueOf(type, value.toUpperCase(Locale.ENGLISH));
+         }
+         catch (IllegalArgumentException e)
+         {
+            LOGGER.log(Level.WARNING, "Invalid value " + value + " for email property " + name + ", using " + defaultValue);
+         }
+      }
+      return result;
+   }
+
+   /**
+    * Returns a locale property, written as language[_country[_variant]]
+    *
+    * @param properties the properties
+    * @param name the property name
+    * @param defaultValue value to use if the property is not set
+    *
+    * @return the property value
+    */
+   static Locale getLocale(Properties properties, String name, Locale defaultValue)
+   {
+      String value = getString(properties, name, null);
+      if (value == null)
+      {
+         return defaultValue;
+      }
+      String[] parts = value.replace('-', '_').split("_", 3);
+      return new Locale(parts[0], (parts.length > 1) ? parts[1] : "", (parts.length > 2) ? parts[2] : "");
+   }
+
+   /**
+    * @return the mail server host name
+    */
+   public String getMailHost()
+   {
+      return m_mailHost;
+   }
+
+   /**
+    * @return the mail 'from' address
+    */
+   public String getMailFrom()
+   {
+      return m_mailFrom;
+   }
+
+   /**
+    * @return the mail transport, smtp, memory, spool or the class name of a MailTransport
+    */
+   public String getMailTransport()
+   {
+      return m_mailTransport;
+   }
+
+   /**
+    * @return the directory the spool transport writes emails to
+    */
+   public String getMailSpoolDirectory()
+   {
+      return m_mailSpoolDirectory;
+   }
+
+   /**
+    * @return the number of emails kept by the memory transport
+    */
+   public int getMailMemoryCapacity()
+   {
+      return m_mailMemoryCapacity;
+   }
+
+   /**
+    * Returns the mail.smtp properties to pass on to the mail session, such as the port
+    *
+    * @return a copy of the session properties
+    */
+   public Properties getSessionProperties()
+   {
+      Properties properties = new Properties();
+      properties.putAll(m_sessionProperties);
+      return properties;
+   }
+
+   /**
+    * @return the delivery mode
+    */
+   public DeliveryMode getDeliveryMode()
+   {
+      return m_deliveryMode;
+   }
+
+   /**
+    * @return the number of asynchronous delivery worker threads
+    */
+   public int getAsyncWorkers()
+   {
+      return m_asyncWorkers;
+   }
+
+   /**
+    * @return the asynchronous delivery queue capacity
+    */
+   public int getAsyncQueueCapacity()
+   {
+      return m_asyncQueueCapacity;
+   }
+
+   /**
+    * @return the asynchronous delivery overflow policy
+    */
+   public OverflowPolicy getOverflowPolicy()
+   {
+      return m_overflowPolicy;
+   }
+
+   /**
+    * @return the maximum time in milliseconds to wait for queue space with the block policy
+    */
+   public long getAsyncBlockTimeout()
+   {
+      return m_asyncBlockTimeout;
+   }
+
+   /**
+    * @return the maximum number of connections to the mail host
+    */
+   public int getSmtpPoolSize()
+   {
+      return m_smtpPoolSize;
+   }
+
+   /**
+    * @return the time in milliseconds after which an idle mail host connection is closed
+    */
+   public long getSmtpPoolIdleTimeout()
+   {
+      return m_smtpPoolIdleTimeout;
+   }
+
+   /**
+    * @return the time in milliseconds after which an idle mail host connection is checked before reuse
+    */
+   public long getSmtpPoolValidateAfter()
+   {
+      return m_smtpPoolValidateAfter;
+   }
+
+   /**
+    * @return the maximum time in milliseconds to wait for a free mail host connection
+    */
+   public long getSmtpPoolBorrowTimeout()
+   {
+      return m_smtpPoolBorrowTimeout;
+   }
+
+   /**
+    * @return the outbox journal directory, null if it is not configured
+    */
+   public String getOutboxDirectory()
+   {
+      return m_outboxDirectory;
+   }
+
+   /**
+    * @return the outbox journal segment size in bytes
+    */
+   public long getOutboxSegmentSize()
+   {
+      return m_outboxSegmentSize;
+   }
+
+   /**
+    * @return true to force every outbox record to disk
+    */
+   public boolean isOutboxSync()
+   {
+      return m_outboxSync;
+   }
+
+   /**
+    * @return the time in milliseconds to wait before retrying a failed outbox email
+    */
+   public long getOutboxRetryDelay()
+   {
+      return m_outboxRetryDelay;
+   }
+
+   /**
+    * @return true to collect emails into digests
+    */
+   public boolean isDigestEnabled()
+   {
+      return m_digestEnabled;
+   }
+
+   /**
+    * @return the time in milliseconds a digest collects documents
+    */
+   public long getDigestWindow()
+   {
+      return m_digestWindow;
+   }
+
+   /**
+    * @return the number of documents after which a digest is sent
+    */
+   public int getDigestMaxDocuments()
+   {
+      return m_digestMaxDocuments;
+   }
+
+   /**
+    * @return the emails per second sent to the mail host, 0 if not limited
+    */
+   public int getRateLimitGlobal()
+   {
+      return m_rateLimitGlobal;
+   }
+
+   /**
+    * @return the number of emails sent to the mail host without waiting
+    */
+   public int getRateLimitGlobalBurst()
+   {
+      return m_rateLimitGlobalBurst;
+   }
+
+   /**
+    * @return the emails per second sent to each recipient domain, 0 if not limited
+    */
+   public int getRateLimitDomain()
+   {
+      return m_rateLimitDomain;
+   }
+
+   /**
+    * @return the number of emails sent to a recipient domain without waiting
+    */
+   public int getRateLimitDomainBurst()
+   {
+      return m_rateLimitDomainBurst;
+   }
+
+   /**
+    * @return the maximum time in milliseconds an email waits for its turn
+    */
+   public long getRateLimitMaxWait()
+   {
+      return m_rateLimitMaxWait;
+   }
+
+   /**
+    * @return the lowest rate a throttled limit is slowed down to, as a fraction of the configured rate
+    */
+   public int getRateLimitMaxSlowdown()
+   {
+      return m_rateLimitMaxSlowdown;
+   }
+
+   /**
+    * @return the name of the email template in the EmailTemplates bundle
+    */
+   public String getTemplateName()
+   {
+      return m_templateName;
+   }
+
+   /**
+    * @return the locale the email template is rendered in
+    */
+   public Locale getTemplateLocale()
+   {
+      return m_templateLocale;
+   }
+}
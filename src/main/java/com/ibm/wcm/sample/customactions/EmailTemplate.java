@@ -0,0 +1,135 @@
+/*
+ * Copyright 2014  IBM Corp.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.ibm.wcm.sample.customactions;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An email subject or body template compiled into literal text and document field placeholders. <br />
+ * Placeholders have the form <code>${field}</code> where field is one of the {@link DocumentFields.Field}
+ * names, for example <code>${title}</code>. Use <code>$${</code> for a literal <code>${</code>.
+ * Placeholders with an unknown field name are kept as literal text.
+ * <p>
+ * Templates are immutable and parsed once, rendering is a single pass that appends the literal
+ * text and the field values to one StringBuilder.
+ */
+public final class EmailTemplate
+{
+   /** class name for the logger */
+   private static final String LOG_CLASS = EmailTemplate.class.getName();
+
+   /** class logger */
+   private static final Logger LOGGER = Logger.getLogger(LOG_CLASS);
+
+   /** The literal text around the placeholders, one more than the number of placeholders */
+   private final String[] m_literals;
+
+   /** The placeholder fields */
+   private final DocumentFields.Field[] m_fields;
+
+   /** Total length of the literal text */
+   private final int m_literalLength;
+
+   /**
+    * Constructor
+    * @param literals the literal text around the placeholders
+    * @param fields the placeholder fields
+    */
+   private EmailTemplate(List<String> literals, List<DocumentFields.Field> fields)
+   {
+      m_literals = literals.toArray(new String[literals.size()]);
+      m_fields = fields.toArray(new DocumentFields.Field[fields.size()]);
+      int length = 0;
+      for (String literal : m_literals)
+      {
+         length += literal.length();
+      }
+      m_literalLength = length;
+   }
+
+   /**
+    * Compile a template
+    *
+    * @param pattern the template text, null is treated as empty
+    *
+    * @return the compiled template
+    */
+   public static EmailTemplate compile(String pattern)
+   {
+      List<String> literals = new ArrayList<String>();
+      List<DocumentFields.Field> fields = new ArrayList<DocumentFields.Field>();
+      StringBuilder literal = new StringBuilder();
+      String text = (pattern != null) ? pattern : "";
+      int length = text.length();
+      int i = 0;
+      while (i < length)
+      {
+         char c = text.charAt(i);
+         if (c == '$' && text.startsWith("$${", i))
+         {
+            // Escaped placeholder start
+            literal.append("${");
+            i += 3;
+         }
+         else if (c == '$' && text.startsWith("${", i))
+         {
+            int end = text.indexOf('}', i + 2);
+            DocumentFields.Field field = (end > 0) ? DocumentFields.Field.forName(text.substring(i + 2, end)) : null;
+            if (field != null)
+            {
+               literals.add(literal.toString());
+               literal.setLength(0);
+               fields.add(field);
+               i = end + 1;
+            }
+            else
+            {
+               LOGGER.log(Level.WARNING, "Unknown placeholder at position " + i + " in email template: " + text);
+               literal.append(c);
+               i++;
+            }
+         }
+         else
+         {
+            literal.append(c);
+            i++;
+         }
+      }
+      literals.add(literal.toString());
+      return new EmailTemplate(literals, fields);
+   }
+
+   /**
+    * Render the template for a document
+    *
+    * @param values the document field values
+    *
+    * @return the rendered text
+    */
+   public String render(DocumentFields values)
+   {
+      if (m_fields.length == 0)
+      {
+         return m_literals[0];
+      }
+      StringBuilder text = new StringBuilder(m_literalLength + 32 * m_fields.length);
+      text.append(m_literals[0]);
+      for (int i = 0; i < m_fields.length; i++)
+      {
+         text.append(values.get(m_fields[i])).append(m_literals[i + 1]);
+      }
+      return text.toString();
+   }
+}
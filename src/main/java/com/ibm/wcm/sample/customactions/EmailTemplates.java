@@ -0,0 +1,151 @@
+/*
+ * Copyright 2014  IBM Corp.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.ibm.wcm.sample.customactions;
+
+import java.util.Locale;
+import java.util.MissingResourceException;
+import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Cache of compiled email templates keyed by template name and locale. <br />
+ * Template text comes from the EmailTemplates resource bundle, using the keys
+ * <code>&lt;name&gt;.subject</code> and <code>&lt;name&gt;.body</code>. Each template is compiled
+ * the first time it is requested for a locale.
+ */
+public class EmailTemplates
+{
+   /** The template resource bundle */
+   public static final String BUNDLE_NAME = "com.ibm.wcm.sample.customactions.EmailTemplates";
+
+   /** Suffix of the subject template key */
+   public static final String SUBJECT_SUFFIX = ".subject";
+
+   /** Suffix of the body template key */
+   public static final String BODY_SUFFIX = ".body";
+
+   /** Compiled templates keyed by template key and locale */
+   private static final ConcurrentMap<TemplateKey, EmailTemplate> s_templates = new ConcurrentHashMap<TemplateKey, EmailTemplate>();
+
+   /**
+    * Returns the compiled subject template
+    *
+    * @param name the template name
+    * @param locale the locale, null for the default locale
+    *
+    * @return the compiled template
+    */
+   public static EmailTemplate getSubject(String name, Locale locale)
+   {
+      return get(name + SUBJECT_SUFFIX, locale);
+   }
+
+   /**
+    * Returns the compiled body template
+    *
+    * @param name the template name
+    * @param locale the locale, null for the default locale
+    *
+    * @return the compiled template
+    */
+   public static EmailTemplate getBody(String name, Locale locale)
+   {
+      return get(name + BODY_SUFFIX, locale);
+   }
+
+   /**
+    * Discard every compiled template so that templates are read again on next use.
+    */
+   public static void clear()
+   {
+      s_templates.clear();
+      ResourceBundle.clearCache(EmailTemplates.class.getClassLoader());
+   }
+
+   /**
+    * Returns a compiled template, compiling it on first use
+    *
+    * @param key the template key in the resource bundle
+    * @param locale the locale, null for the default locale
+    *
+    * @return the compiled template, an empty template if the key is not defined
+    */
+   private static EmailTemplate get(String key, Locale locale)
+   {
+      TemplateKey cacheKey = new TemplateKey(key, (locale != null) ? locale : Locale.getDefault());
+      EmailTemplate template = s_templates.get(cacheKey);
+      if (template == null)
+      {
+         String pattern = null;
+         try
+         {
+            pattern = ResourceBundle.getBundle(BUNDLE_NAME, cacheKey.m_locale).getString(key);
+         }
+         catch (MissingResourceException e)
+         {
+            // Missing templates render as empty text
+         }
+         template = EmailTemplate.compile(pattern);
+         EmailTemplate existing = s_templates.putIfAbsent(cacheKey, template);
+         if (existing != null)
+         {
+            template = existing;
+         }
+      }
+      return template;
+   }
+
+   /**
+    * Cache key of a template
+    */
+   private static final class TemplateKey
+   {
+      /** The template key in the resource bundle */
+      final String m_key;
+
+      /** The locale */
+      final Locale m_locale;
+
+      /**
+       * Constructor
+       * @param key the template key in the resource bundle
+       * @param locale the locale
+       */
+      TemplateKey(String key, Locale locale)
+      {
+         m_key = key;
+         m_locale = locale;
+      }
+
+      /**
+       * @see java.lang.Object#hashCode()
+       */
+      public int hashCode()
+      {
+         return 31 * m_key.hashCode() + m_locale.hashCode();
+      }
+
+      /**
+       * @see java.lang.Object#equals(java.lang.Object)
+       */
+      public boolean equals(Object obj)
+      {
+         if (!(obj instanceof TemplateKey))
+         {
+            return false;
+         }
+         TemplateKey other = (TemplateKey) obj;
+         return m_key.equals(other.m_key) && m_locale.equals(other.m_locale);
+      }
+   }
+}
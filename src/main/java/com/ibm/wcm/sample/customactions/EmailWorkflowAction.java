@@ -14,22 +14,19 @@ package com.ibm.wcm.sample.customactions;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Properties;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.mail.Address;
 import javax.mail.MessagingException;
-import javax.mail.Transport;
+import javax.mail.internet.AddressException;
 import javax.mail.internet.InternetAddress;
 import javax.mail.internet.MimeBodyPart;
 import javax.mail.internet.MimeMessage;
 import javax.mail.internet.MimeMultipart;
 
 import com.ibm.workplace.wcm.api.Document;
-import com.ibm.workplace.wcm.api.custom.CustomWorkflowAction;
 import com.ibm.workplace.wcm.api.custom.CustomWorkflowActionResult;
 import com.ibm.workplace.wcm.api.custom.Directives;
 
@@ -37,7 +34,7 @@ import com.ibm.workplace.wcm.api.custom.Directives;
  * Sample Email Custom Workflow Action
  * @author David de Vos
  */
-public class EmailWorkflowAction implements CustomWorkflowAction
+public class EmailWorkflowAction implements BatchCustomWorkflowAction, ThreadSafeAction
 {
    /** The name of this class */
    private static final String s_CLASSNAME = EmailWorkflowAction.class.getName();
@@ -46,11 +43,6 @@ public class EmailWorkflowAction implements CustomWorkflowAction
    
    /** The UTF-8 Encoding */
    public static final String UTF8 = "UTF-8";
-   
-   /** The mail server host name */
-   private static final String s_MAIL_HOST = "[YOUR_MAIL_SERVER]";
-   /** The mail 'from' address to use */   
-   private static final String s_MAIL_FROM = "[YOUR_FROM_ADDRESS]";
 	
    /**
     * Get the Date that this action should execute.  This method is always called prior to running the execute method.
@@ -84,38 +76,155 @@ public class EmailWorkflowAction implements CustomWorkflowAction
          s_log.entering(s_CLASSNAME, "execute");
       }
       
-      ActionResultBuilder builder = ActionResultBuilder.with(Directives.CONTINUE);
       String message = "";
+      boolean rollback = false;
       
-      // Setup email properties
-      String subject = "[YOUR EMAIL SUBJECT]";
-      String content = "[YOUR EMAIL CONTENT]";
+      // Setup email properties, the subject and content are rendered from the configured template
+      EmailSettings settings = EmailSettings.getInstance();
+      DocumentFields fields = new DocumentFields(p_document);
+      String subject = EmailTemplates.getSubject(settings.getTemplateName(), settings.getTemplateLocale()).render(fields);
+      String content = EmailTemplates.getBody(settings.getTemplateName(), settings.getTemplateLocale()).render(fields);
       List<String> to = new ArrayList<String>();
       List<String> cc = new ArrayList<String>();
       List<String> bcc = new ArrayList<String>();
       
+      // Collect the email into a digest when bulk transitions should send one email per recipient set
+      if (settings.isDigestEnabled())
+      {
+         EmailDigest.getInstance().add(settings.getMailHost(), settings.getMailFrom(), to, cc, bcc, subject, content, UTF8, getDocumentLabel(p_document));
+         if (isLoggingFiner)
+         {
+            s_log.exiting(s_CLASSNAME, "execute");
+         }
+         return ActionResultBuilder.result(Directives.CONTINUE, "Email added to digest");
+      }
+
       // Send email
       try
       {
-         sendEmail (s_MAIL_HOST, s_MAIL_FROM, to, cc, bcc, subject, content, UTF8);
-         message = "Email sent successfully";
+         EmailDelivery.Status status = sendEmail (settings.getMailHost(), settings.getMailFrom(), to, cc, bcc, subject, content, UTF8);
+         switch (status)
+         {
+            case SENT:
+               message = "Email sent successfully";
+               break;
+            case QUEUED:
+               message = "Email queued for delivery";
+               break;
+            case DROPPED:
+               message = "Email dropped, the delivery queue is full";
+               break;
+            default:
+               message = "Error sending email, the delivery queue is full";
+               rollback = true;
+               break;
+         }
       }
       catch (Exception e)
       {
          message = "Error sending email, " + e;
       }
 
-      builder.message(message);
-      
       if (isLoggingFiner)
       {
          s_log.exiting(s_CLASSNAME, "execute");
       }
-      return builder.toResult();
+      if (rollback)
+      {
+         // The email could not be queued, so roll the document back rather than continue without it
+         return ActionResultBuilder.with(Directives.ROLLBACK_DOCUMENT).rollback(message).toResult();
+      }
+      return ActionResultBuilder.result(Directives.CONTINUE, message);
    }
    
    /**
-    * Sends the specified message to the indicated people
+    * Execute the action against each document. In sync delivery mode the emails for the whole batch
+    * are sent one after the other over a single connection to the mail server.
+    * @param p_documents Target documents.
+    * @return Result for each document, in the order of the documents.
+    */
+   public List<CustomWorkflowActionResult> executeAll(List<Document> p_documents)
+   {
+      boolean isLoggingFiner = s_log.isLoggable(Level.FINER);
+      if (isLoggingFiner)
+      {
+         s_log.entering(s_CLASSNAME, "executeAll", Integer.valueOf(p_documents.size()));
+      }
+
+      List<CustomWorkflowActionResult> results = new ArrayList<CustomWorkflowActionResult>(p_documents.size());
+      EmailSettings settings = EmailSettings.getInstance();
+      EmailDelivery delivery = EmailDelivery.getInstance();
+      if (settings.isDigestEnabled() || !delivery.isSynchronous())
+      {
+         // Nothing is sent on this thread, so there is no connection to share
+         for (Document document : p_documents)
+         {
+            results.add(execute(document));
+         }
+      }
+      else
+      {
+         // Create every email first, then send them together
+         List<MimeMessage> messages = new ArrayList<MimeMessage>(p_documents.size());
+         List<Integer> messageIndexes = new ArrayList<Integer>(p_documents.size());
+         for (Document document : p_documents)
+         {
+            DocumentFields fields = new DocumentFields(document);
+            String subject = EmailTemplates.getSubject(settings.getTemplateName(), settings.getTemplateLocale()).render(fields);
+            String content = EmailTemplates.getBody(settings.getTemplateName(), settings.getTemplateLocale()).render(fields);
+            List<String> to = new ArrayList<String>();
+            List<String> cc = new ArrayList<String>();
+            List<String> bcc = new ArrayList<String>();
+            try
+            {
+               messages.add(createMessage(settings.getMailHost(), settings.getMailFrom(), to, cc, bcc, subject, content, UTF8));
+               messageIndexes.add(Integer.valueOf(results.size()));
+               results.add(null);
+            }
+            catch (Exception e)
+            {
+               results.add(ActionResultBuilder.result(Directives.CONTINUE, "Error sending email, " + e));
+            }
+         }
+
+         MessagingException[] failures = delivery.sendAll(settings.getMailHost(), messages);
+         for (int i = 0; i < failures.length; i++)
+         {
+            String message = (failures[i] == null) ? "Email sent successfully" : "Error sending email, " + failures[i];
+            results.set(messageIndexes.get(i).intValue(), ActionResultBuilder.result(Directives.CONTINUE, message));
+         }
+      }
+
+      if (isLoggingFiner)
+      {
+         s_log.exiting(s_CLASSNAME, "executeAll");
+      }
+      return results;
+   }
+
+   /**
+    * Returns the label identifying a document in a digest email
+    *
+    * @param p_document the document
+    * @return the document title, or name if it has no title
+    */
+   private static String getDocumentLabel(Document p_document)
+   {
+      String label = null;
+      if (p_document != null)
+      {
+         label = p_document.getTitle();
+         if (label == null || label.length() == 0)
+         {
+            label = p_document.getName();
+         }
+      }
+      return label;
+   }
+
+   /**
+    * Sends the specified message to the indicated people using the delivery mode configured
+    * in email.properties
     *
     * @param p_mailHost The name of the email server
     * @param p_from The from address of the email
@@ -125,10 +234,11 @@ public class EmailWorkflowAction implements CustomWorkflowAction
     * @param p_subject The subject of the email
     * @param p_content The message to send
     * @param p_charset The charset of the subject and message
+    * @return The delivery status of the email
     * @throws MessagingException If there is an exception creating or sending the email
     * @throws UnsupportedEncodingException If there is an exception processing the supplied charset
     */
-   private static void sendEmail (String p_mailHost, String p_from, List<String> p_to, List<String> p_cc, List<String> p_bcc, String p_subject, String p_content, String p_charset)
+   static EmailDelivery.Status sendEmail (String p_mailHost, String p_from, List<String> p_to, List<String> p_cc, List<String> p_bcc, String p_subject, String p_content, String p_charset)
       throws MessagingException, UnsupportedEncodingException
    {
       boolean isLoggingFiner = s_log.isLoggable(Level.FINER);
@@ -138,6 +248,64 @@ public class EmailWorkflowAction implements CustomWorkflowAction
          s_log.entering(s_CLASSNAME, "sendEmail", new Object[] {p_mailHost, p_from, p_to, p_cc, p_bcc, p_subject, p_content, p_charset});
       }
 
+      MimeMessage msg = createMessage(p_mailHost, p_from, p_to, p_cc, p_bcc, p_subject, p_content, p_charset);
+
+      // Send Email
+      if (isLoggingFinest)
+      {
+         s_log.log(Level.FINEST, "Send Email: Actually send email");
+      }
+      EmailDelivery.Status status = EmailDelivery.getInstance().deliver(p_mailHost, msg);
+
+      if (isLoggingFiner)
+      {
+         s_log.exiting(s_CLASSNAME, "sendEmail", status);
+      }
+      return status;
+   }
+
+   /**
+    * Creates the email for the specified message and people, ready to send
+    *
+    * @param p_mailHost The name of the email server
+    * @param p_from The from address of the email
+    * @param p_to The list of people to send the email to
+    * @param p_cc The list of people to cc the email to
+    * @param p_bcc The list of people to bcc the email to
+    * @param p_subject The subject of the email
+    * @param p_content The message to send
+    * @param p_charset The charset of the subject and message
+    * @return The email
+    * @throws MessagingException If there is an exception creating the email
+    * @throws UnsupportedEncodingException If there is an exception processing the supplied charset
+    */
+   static MimeMessage createMessage (String p_mailHost, String p_from, List<String> p_to, List<String> p_cc, List<String> p_bcc, String p_subject, String p_content, String p_charset)
+      throws MessagingException, UnsupportedEncodingException
+   {
+      return createMessage(EmailDelivery.getInstance(), p_mailHost, p_from, p_to, p_cc, p_bcc, p_subject, p_content, p_charset);
+   }
+
+   /**
+    * Creates the email for the specified message and people using the mail session of a delivery, ready to send
+    *
+    * @param p_delivery The delivery the email will be sent with
+    * @param p_mailHost The name of the email server
+    * @param p_from The from address of the email
+    * @param p_to The list of people to send the email to
+    * @param p_cc The list of people to cc the email to
+    * @param p_bcc The list of people to bcc the email to
+    * @param p_subject The subject of the email
+    * @param p_content The message to send
+    * @param p_charset The charset of the subject and message
+    * @return The email
+    * @throws MessagingException If there is an exception creating the email
+    * @throws UnsupportedEncodingException If there is an exception processing the supplied charset
+    */
+   static MimeMessage createMessage (EmailDelivery p_delivery, String p_mailHost, String p_from, List<String> p_to, List<String> p_cc, List<String> p_bcc, String p_subject, String p_content, String p_charset)
+      throws MessagingException, UnsupportedEncodingException
+   {
+      boolean isLoggingFinest = s_log.isLoggable(Level.FINEST);
+
       // Validate arguments
       if ((p_mailHost == null) || (p_mailHost.trim().length() <= 0))
       {
@@ -148,91 +316,40 @@ public class EmailWorkflowAction implements CustomWorkflowAction
          throw new MessagingException("Error mail FROM not specified");
       }
 
-      // Strip any 'null' entries from TO list
-      if (p_to != null)
+      // Parse the recipients in one pass per list, null entries are skipped
+      EmailAddressCache addresses = EmailAddressCache.getInstance();
+      List<String> invalid = new ArrayList<String>();
+      InternetAddress[] to = addresses.parse(p_to, invalid);
+      InternetAddress[] cc = addresses.parse(p_cc, invalid);
+      InternetAddress[] bcc = addresses.parse(p_bcc, invalid);
+      if (!invalid.isEmpty())
       {
-         Iterator<String> toIterator = p_to.iterator();
-         while (toIterator.hasNext())
-         {
-            if (toIterator.next() == null)
-            {
-               toIterator.remove();
-            }
-         }
+         throw new AddressException("Invalid email addresses " + invalid);
       }
-      
-      if ((p_to == null) || (p_to.isEmpty()))
+      if (to.length == 0)
       {
          throw new MessagingException("Error mail TO not specified");
       }
 
-      // Strip any 'null' entries from CC list
-      if (p_cc != null)
-      {
-         Iterator<String> ccIterator = p_cc.iterator();
-         while (ccIterator.hasNext())
-         {
-            if (ccIterator.next() == null)
-            {
-               ccIterator.remove();
-            }
-         }
-      }
-
-      Properties props = new Properties();
-      // Set the default transport type for this connection
-      props.put("mail.smtp.host", p_mailHost);
-      // Set sendpartial to continue sending the email where the address has some valid
-      // and some invalid email addresses
-      props.put("mail.smtp.sendpartial", "true");
-
-      // Get connection to mail server
-      javax.mail.Session mailConnection = javax.mail.Session.getInstance(props);
+      // Get the mail session shared by all emails sent to the mail server
+      javax.mail.Session mailConnection = p_delivery.getSession(p_mailHost);
 
       // Create new MimeMessage
       MimeMessage msg = new MimeMessage(mailConnection);
 
       // Set From
-      msg.setFrom(new InternetAddress(p_from));
-      msg.setReplyTo(new Address[]{new InternetAddress(p_from)});
-      // Set To
-      Iterator<String> toIterator = p_to.iterator();
-      while (toIterator.hasNext())
-      {
-         String emailAddress = toIterator.next();
-         if (emailAddress != null)
-         {
-            msg.addRecipient(javax.mail.Message.RecipientType.TO,
-               new InternetAddress(emailAddress));
-         }
-      }
-      // Set CC
-      if ((p_cc != null) && (p_cc.size() > 0))
+      InternetAddress from = addresses.get(p_from);
+      msg.setFrom(from);
+      msg.setReplyTo(new Address[]{from});
+      // Set the recipients, one header each
+      msg.setRecipients(javax.mail.Message.RecipientType.TO, to);
+      if (cc.length > 0)
       {
-         Iterator<String> ccIterator = p_cc.iterator();
-         while (ccIterator.hasNext())
-         {
-            String emailAddress = ccIterator.next();
-            if (emailAddress != null)
-            {
-               msg.addRecipient(javax.mail.Message.RecipientType.CC,
-                  new InternetAddress(emailAddress));
-            }
-         }
+         msg.setRecipients(javax.mail.Message.RecipientType.CC, cc);
       }
-      // Set BCC
-      if ((p_bcc != null) && (p_bcc.size() > 0))
+      if (bcc.length > 0)
       {
-         Iterator<String> bccIterator = p_bcc.iterator();
-         while (bccIterator.hasNext())
-         {
-            String emailAddress = bccIterator.next();
-            if (emailAddress != null)
-            {
-               msg.addRecipient(javax.mail.Message.RecipientType.BCC,
-                  new InternetAddress(emailAddress));
-            }
-         }
+         msg.setRecipients(javax.mail.Message.RecipientType.BCC, bcc);
       }
 
       // Set Subject
@@ -259,16 +376,6 @@ public class EmailWorkflowAction implements CustomWorkflowAction
       }
       msg.saveChanges();
 
-      // Send Email
-      if (isLoggingFinest)
-      {
-         s_log.log(Level.FINEST, "Send Email: Actually send email");
-      }
-      Transport.send(msg);
-
-      if (isLoggingFiner)
-      {
-         s_log.exiting(s_CLASSNAME, "sendEmail");
-      }
+      return msg;
    }
 }
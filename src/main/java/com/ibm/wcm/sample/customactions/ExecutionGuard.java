@@ -0,0 +1,251 @@
+/*
+ * Copyright 2014  IBM Corp.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.ibm.wcm.sample.customactions;
+
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ibm.workplace.wcm.api.Document;
+import com.ibm.workplace.wcm.api.DocumentId;
+
+/**
+ * Remembers which actions have run on which version of a document, so that an action run again
+ * on the same document within a short time can be skipped. <br />
+ * Workflow retries, syndication and re-approvals can run the same action on an unchanged document
+ * several times within seconds. An execution is keyed by the document id, the action name and the
+ * last modified date of the document, so a changed document runs the action again.
+ * <ul>
+ * <li>an execution is claimed before the action runs, so only one of several concurrent
+ * executions with the same key runs the action; the claim is held until the action completes
+ * or fails, however long it runs</li>
+ * <li>a completed execution is remembered for the time to live</li>
+ * <li>a failed execution releases its claim so that the action can be retried at once</li>
+ * </ul>
+ * The guard is bounded to the maximum number of entries. When it is full the expired executions
+ * are removed, then if it is still full every completed execution. Executions in flight are never
+ * removed; if they alone fill the guard a new execution runs without a claim and is not guarded
+ * against duplicates.
+ */
+public class ExecutionGuard
+{
+   /** Remembered executions keyed by document id, action name and last modified date */
+   private final ConcurrentMap<String, Claim> m_claims = new ConcurrentHashMap<String, Claim>();
+
+   /** Maximum number of remembered executions */
+   private final int m_maxEntries;
+
+   /** Time to live in nanoseconds */
+   private final long m_timeToLiveNanos;
+
+   /** Number of executions skipped as duplicates */
+   private final AtomicLong m_duplicates = new AtomicLong();
+
+   /** Number of executions run unguarded because the guard was full of executions in flight */
+   private final AtomicLong m_unguarded = new AtomicLong();
+
+   /**
+    * Constructor
+    * @param maxEntries maximum number of remembered executions
+    * @param timeToLiveMillis time a completed execution is remembered for
+    */
+   public ExecutionGuard(int maxEntries, long timeToLiveMillis)
+   {
+      m_maxEntries = maxEntries;
+      m_timeToLiveNanos = TimeUnit.MILLISECONDS.toNanos(timeToLiveMillis);
+   }
+
+   /**
+    * Returns the key identifying an execution of an action on the current version of a document
+    *
+    * @param actionName the action name
+    * @param document the document
+    *
+    * @return the key, or null if the document has no id
+    */
+   public static String getKey(String actionName, Document document)
+   {
+      DocumentId id = (document != null) ? document.getId() : null;
+      if (id == null || id.getId() == null)
+      {
+         return null;
+      }
+      Date lastModified = document.getLastModified();
+      return id.getId() + '|' + actionName + '|' + ((lastModified != null) ? lastModified.getTime() : 0);
+   }
+
+   /**
+    * Claim an execution before running the action
+    *
+    * @param key the execution key
+    *
+    * @return the claim, or null if the execution is a duplicate and the action must not run
+    */
+   public Claim claim(String key)
+   {
+      long now = System.nanoTime();
+      Claim claim = new Claim(true, 0);
+      while (true)
+      {
+         Claim existing = m_claims.get(key);
+         if (existing == null)
+         {
+            if (m_claims.size() >= m_maxEntries && !evict(now))
+            {
+               // Completing or releasing a claim that was never remembered does nothing
+               m_unguarded.incrementAndGet();
+               return claim;
+            }
+            if (m_claims.putIfAbsent(key, claim) == null)
+            {
+               return claim;
+            }
+         }
+         else if (existing.isExpired(now))
+         {
+            if (m_claims.replace(key, existing, claim))
+            {
+               return claim;
+            }
+         }
+         else
+         {
+            m_duplicates.incrementAndGet();
+            return null;
+         }
+      }
+   }
+
+   /**
+    * Remember a claimed execution as completed, for the time to live from now
+    *
+    * @param key the execution key
+    * @param claim the claim returned for the key
+    */
+   public void complete(String key, Claim claim)
+   {
+      m_claims.replace(key, claim, new Claim(false, System.nanoTime() + m_timeToLiveNanos));
+   }
+
+   /**
+    * Forget a claimed execution that failed so that the action can run again
+    *
+    * @param key the execution key
+    * @param claim the claim returned for the key
+    */
+   public void release(String key, Claim claim)
+   {
+      m_claims.remove(key, claim);
+   }
+
+   /**
+    * Forget every remembered execution
+    */
+   public void clear()
+   {
+      m_claims.clear();
+   }
+
+   /**
+    * @return the number of remembered executions
+    */
+   public int size()
+   {
+      return m_claims.size();
+   }
+
+   /**
+    * @return the number of executions skipped as duplicates
+    */
+   public long getDuplicateCount()
+   {
+      return m_duplicates.get();
+   }
+
+   /**
+    * @return the number of executions run unguarded because the guard was full of executions in flight
+    */
+   public long getUnguardedCount()
+   {
+      return m_unguarded.get();
+   }
+
+   /**
+    * Remove the expired executions, then every completed execution if the guard is still full.
+    * Executions in flight are kept.
+    *
+    * @param now the current System.nanoTime
+    *
+    * @return true if there is room for a new execution
+    */
+   private boolean evict(long now)
+   {
+      Iterator<Map.Entry<String, Claim>> claims = m_claims.entrySet().iterator();
+      while (claims.hasNext())
+      {
+         if (claims.next().getValue().isExpired(now))
+         {
+            claims.remove();
+         }
+      }
+      if (m_claims.size() >= m_maxEntries)
+      {
+         // Forget every completed execution rather than track usage on every claim
+         claims = m_claims.entrySet().iterator();
+         while (claims.hasNext())
+         {
+            if (!claims.next().getValue().m_inFlight)
+            {
+               claims.remove();
+            }
+         }
+      }
+      return m_claims.size() < m_maxEntries;
+   }
+
+   /**
+    * An execution in flight or completed. Claims are compared by identity, so that an execution
+    * forgotten and claimed again by another caller is not completed or released by its first owner.
+    */
+   public static final class Claim
+   {
+      /** True while the action runs, the claim does not expire until it completes or is released */
+      final boolean m_inFlight;
+
+      /** System.nanoTime after which a completed execution is expired */
+      final long m_expires;
+
+      /**
+       * Constructor
+       * @param inFlight true for an execution in flight
+       * @param expires System.nanoTime after which a completed execution is expired
+       */
+      Claim(boolean inFlight, long expires)
+      {
+         m_inFlight = inFlight;
+         m_expires = expires;
+      }
+
+      /**
+       * @param now the current System.nanoTime
+       * @return true if the execution has completed and expired
+       */
+      boolean isExpired(long now)
+      {
+         return !m_inFlight && now - m_expires > 0;
+      }
+   }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright 2014  IBM Corp.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.ibm.wcm.sample.customactions;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Watches a factory properties file on the file system and hands changed properties to the
+ * factory, so that the registered actions can be changed without restarting the portal. <br />
+ * The file is checked on a background thread at a fixed interval by comparing its modification
+ * time and size. A change is only applied once the file has stayed the same for a whole
+ * interval, so a file that is still being written is not read half way through.
+ */
+public class FactoryConfigWatcher
+{
+   /** class name for the logger */
+   private static final String LOG_CLASS = FactoryConfigWatcher.class.getName();
+
+   /** class logger */
+   private static final Logger LOGGER = Logger.getLogger(LOG_CLASS);
+
+   /** The thread checking every watched file, created on first use */
+   private static ScheduledExecutorService s_scheduler;
+
+   /** The factory to reload */
+   private final CustomWorkflowActionFactoryImpl m_factory;
+
+   /** The watched file */
+   private final File m_file;
+
+   /** Milliseconds between checks */
+   private final long m_interval;
+
+   /** Modification time and size of the file when it was last read */
+   private long[] m_loaded = new long[] {-1, -1};
+
+   /** Modification time and size of a change that has not been applied yet, null if none */
+   private long[] m_pending;
+
+   /** The scheduled check, null until started */
+   private ScheduledFuture<?> m_task;
+
+   /**
+    * Constructor
+    * @param factory the factory to reload
+    * @param file the watched file
+    * @param interval milliseconds between checks
+    */
+   public FactoryConfigWatcher(CustomWorkflowActionFactoryImpl factory, File file, long interval)
+   {
+      m_factory = factory;
+      m_file = file;
+      m_interval = interval;
+   }
+
+   /**
+    * @return the watched file
+    */
+   public File getFile()
+   {
+      return m_file;
+   }
+
+   /**
+    * Read the watched file
+    *
+    * @return the properties, or null if the file does not exist or cannot be read
+    */
+   public synchronized Properties load()
+   {
+      long[] stamp = stamp();
+      if (stamp == null)
+      {
+         return null;
+      }
+
+      Properties properties = new Properties();
+      InputStream stream = null;
+      try
+      {
+         stream = new FileInputStream(m_file);
+         properties.load(stream);
+      }
+      catch (IOException e)
+      {
+         String msg = CustomActionResources.getFormattedString(CustomActionResources.UNABLE_TO_LOAD_PROPERTIES_1, Locale.getDefault(), new Object[]{e.getMessage()});
+         LOGGER.log(Level.WARNING, msg, e);
+         return null;
+      }
+      finally
+      {
+         if (stream != null)
+         {
+            try
+            {
+               stream.close();
+            }
+            catch (IOException e)
+            {
+               LOGGER.log(Level.FINE, "Error closing " + m_file, e);
+            }
+         }
+      }
+      m_loaded = stamp;
+      m_pending = null;
+      return properties;
+   }
+
+   /**
+    * Start checking the file for changes
+    */
+   public synchronized void start()
+   {
+      if (m_task == null)
+      {
+         m_task = getScheduler().scheduleWithFixedDelay(new Runnable()
+         {
+            public void run()
+            {
+               check();
+            }
+         }, m_interval, m_interval, TimeUnit.MILLISECONDS);
+      }
+   }
+
+   /**
+    * Stop checking the file for changes
+    */
+   public synchronized void stop()
+   {
+      if (m_task != null)
+      {
+         m_task.cancel(false);
+         m_task = null;
+      }
+   }
+
+   /**
+    * Stop checking every watched file
+    */
+   public static synchronized void shutdown()
+   {
+      if (s_scheduler != null)
+      {
+         s_scheduler.shutdownNow();
+         s_scheduler = null;
+      }
+   }
+
+   /**
+    * Returns the thread checking the watched files, creating it on first use
+    *
+    * @return the scheduler
+    */
+   private static synchronized ScheduledExecutorService getScheduler()
+   {
+      if (s_scheduler == null)
+      {
+         s_scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+         {
+            public Thread newThread(Runnable runnable)
+            {
+               Thread thread = new Thread(runnable, "WCM Custom Action Config Watcher");
+               thread.setDaemon(true);
+               return thread;
+            }
+         });
+      }
+      return s_scheduler;
+   }
+
+   /**
+    * Check the file for changes and reload the factory once a change has settled
+    */
+   private void check()
+   {
+      try
+      {
+         Properties properties = null;
+         synchronized (this)
+         {
+            long[] stamp = stamp();
+            if (stamp == null || isSame(stamp, m_loaded))
+            {
+               // Unchanged, or removed in which case the current actions are kept
+               m_pending = null;
+            }
+            else if (m_pending == null || !isSame(stamp, m_pending))
+            {
+               // Wait for the next check in case the file is still being written
+               m_pending = stamp;
+            }
+            else
+            {
+               properties = load();
+            }
+         }
+         if (properties != null)
+         {
+            m_factory.reload(properties, m_file.getPath());
+         }
+      }
+      catch (RuntimeException e)
+      {
+         // Keep checking, a failed reload leaves the current actions in place
+         LOGGER.log(Level.WARNING, "Unable to reload " + m_file + ", " + e.getMessage(), e);
+      }
+   }
+
+   /**
+    * Returns the modification time and size of the file
+    *
+    * @return the modification time and size, or null if the file does not exist
+    */
+   private long[] stamp()
+   {
+      return m_file.isFile() ? new long[] {m_file.lastModified(), m_file.length()} : null;
+   }
+
+   /**
+    * @param stamp1 a modification time and size
+    * @param stamp2 a modification time and size
+    * @return true if both are the same
+    */
+   private static boolean isSame(long[] stamp1, long[] stamp2)
+   {
+      return stamp1[0] == stamp2[0] && stamp1[1] == stamp2[1];
+   }
+}
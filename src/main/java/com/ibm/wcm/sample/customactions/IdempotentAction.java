@@ -0,0 +1,220 @@
+/*
+ * Copyright 2014  IBM Corp.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.ibm.wcm.sample.customactions;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import com.ibm.workplace.wcm.api.Document;
+import com.ibm.workplace.wcm.api.custom.CustomWorkflowAction;
+import com.ibm.workplace.wcm.api.custom.CustomWorkflowActionResult;
+import com.ibm.workplace.wcm.api.custom.Directives;
+
+/**
+ * Decorator that skips an action run again on a document it has just run on, see
+ * {@link ExecutionGuard}. A skipped execution returns a CONTINUE result, and is recorded in the
+ * action's {@link ActionMetrics} and in the {@link AuditLog} when executions are audited. <br />
+ * An execution that throws or rolls the document back is not remembered, so it can be retried.
+ * The decorator holds no state of its own, so wrapping a shared action produces a shared action.
+ */
+public class IdempotentAction implements BatchCustomWorkflowAction
+{
+   /** Message of the result returned for a skipped execution */
+   static final String DUPLICATE_MESSAGE = "Action already run on this version of the document";
+
+   /** The decorated action */
+   private final CustomWorkflowAction m_action;
+
+   /** The action name, part of the execution key */
+   private final String m_actionName;
+
+   /** Remembers the executions */
+   private final ExecutionGuard m_guard;
+
+   /** The metrics the skipped executions are recorded in */
+   private final ActionMetrics m_metrics;
+
+   /**
+    * Constructor
+    * @param action the action to decorate
+    * @param actionName the action name
+    * @param guard remembers the executions
+    * @param metrics the metrics to record skipped executions in
+    */
+   public IdempotentAction(CustomWorkflowAction action, String actionName, ExecutionGuard guard, ActionMetrics metrics)
+   {
+      m_action = action;
+      m_actionName = actionName;
+      m_guard = guard;
+      m_metrics = metrics;
+   }
+
+   /**
+    * @return the decorated action
+    */
+   public CustomWorkflowAction getAction()
+   {
+      return m_action;
+   }
+
+   /**
+    * @see com.ibm.workplace.wcm.api.custom.CustomWorkflowAction#execute(com.ibm.workplace.wcm.api.Document)
+    */
+   public CustomWorkflowActionResult execute(Document p_document)
+   {
+      String key = ExecutionGuard.getKey(m_actionName, p_document);
+      if (key == null)
+      {
+         return m_action.execute(p_document);
+      }
+      long start = System.nanoTime();
+      ExecutionGuard.Claim claim = m_guard.claim(key);
+      if (claim == null)
+      {
+         return skip(p_document, System.nanoTime() - start);
+      }
+
+      CustomWorkflowActionResult result = null;
+      try
+      {
+         result = m_action.execute(p_document);
+         return result;
+      }
+      finally
+      {
+         settle(key, claim, result);
+      }
+   }
+
+   /**
+    * @see com.ibm.wcm.sample.customactions.BatchCustomWorkflowAction#executeAll(java.util.List)
+    */
+   public List<CustomWorkflowActionResult> executeAll(List<Document> p_documents)
+   {
+      if (!(m_action instanceof BatchCustomWorkflowAction))
+      {
+         List<CustomWorkflowActionResult> results = new ArrayList<CustomWorkflowActionResult>(p_documents.size());
+         for (Document document : p_documents)
+         {
+            results.add(execute(document));
+         }
+         return results;
+      }
+
+      // Claim every document first and pass the ones claimed on as one batch
+      long start = System.nanoTime();
+      int count = p_documents.size();
+      List<CustomWorkflowActionResult> results = new ArrayList<CustomWorkflowActionResult>(count);
+      String[] keys = new String[count];
+      ExecutionGuard.Claim[] claims = new ExecutionGuard.Claim[count];
+      List<Document> claimed = new ArrayList<Document>(count);
+      for (int i = 0; i < count; i++)
+      {
+         Document document = p_documents.get(i);
+         keys[i] = ExecutionGuard.getKey(m_actionName, document);
+         claims[i] = (keys[i] != null) ? m_guard.claim(keys[i]) : null;
+         if (keys[i] == null || claims[i] != null)
+         {
+            claimed.add(document);
+         }
+         results.add(null);
+      }
+
+      // Each skipped document is recorded with an equal share of the time spent claiming
+      int skipped = count - claimed.size();
+      long elapsed = (skipped > 0) ? (System.nanoTime() - start) / count : 0;
+      for (int i = 0; i < count && skipped > 0; i++)
+      {
+         if (keys[i] != null && claims[i] == null)
+         {
+            results.set(i, skip(p_documents.get(i), elapsed));
+            skipped--;
+         }
+      }
+      if (claimed.isEmpty())
+      {
+         return results;
+      }
+
+      List<CustomWorkflowActionResult> claimedResults = null;
+      try
+      {
+         claimedResults = ((BatchCustomWorkflowAction) m_action).executeAll(claimed);
+      }
+      finally
+      {
+         int next = 0;
+         for (int i = 0; i < count; i++)
+         {
+            if (keys[i] == null || claims[i] != null)
+            {
+               CustomWorkflowActionResult result = (claimedResults != null && next < claimedResults.size()) ? claimedResults.get(next) : null;
+               next++;
+               if (claims[i] != null)
+               {
+                  settle(keys[i], claims[i], result);
+               }
+               results.set(i, result);
+            }
+         }
+      }
+      return results;
+   }
+
+   /**
+    * @see com.ibm.workplace.wcm.api.custom.CustomWorkflowAction#getExecuteDate(com.ibm.workplace.wcm.api.Document)
+    */
+   public Date getExecuteDate(Document p_document)
+   {
+      return m_action.getExecuteDate(p_document);
+   }
+
+   /**
+    * Record a skipped execution
+    *
+    * @param p_document the document the action was not run on again
+    * @param elapsedNanos the time spent finding the execution was a duplicate
+    *
+    * @return the result of the skipped execution
+    */
+   private CustomWorkflowActionResult skip(Document p_document, long elapsedNanos)
+   {
+      CustomWorkflowActionResult result = ActionResultBuilder.result(Directives.CONTINUE, DUPLICATE_MESSAGE);
+      m_metrics.record(result, elapsedNanos);
+      AuditLog audit = AuditLog.getInstance();
+      if (audit != null)
+      {
+         audit.record(p_document, m_metrics.getActionName(), result, elapsedNanos);
+      }
+      return result;
+   }
+
+   /**
+    * Remember a successful execution, release the claim of a failed one
+    *
+    * @param key the execution key
+    * @param claim the claim
+    * @param result the result of the execution, null if the action threw
+    */
+   private void settle(String key, ExecutionGuard.Claim claim, CustomWorkflowActionResult result)
+   {
+      if (result != null && !Directives.ROLLBACK_DOCUMENT.equals(result.getDirective()))
+      {
+         m_guard.complete(key, claim);
+      }
+      else
+      {
+         m_guard.release(key, claim);
+      }
+   }
+}
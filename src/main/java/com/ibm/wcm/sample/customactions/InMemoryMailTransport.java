@@ -0,0 +1,140 @@
+/*
+ * Copyright 2014  IBM Corp.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.ibm.wcm.sample.customactions;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.mail.Address;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+
+/**
+ * Mail transport that keeps the emails in memory instead of sending them, for load testing
+ * the workflow without a mail server and for checking the emails an action builds. <br />
+ * Each email is finished the way it would be for sending, with its headers updated and its
+ * recipients checked, and the most recent emails are kept up to the configured capacity.
+ * Use {@link EmailDelivery#getTransport(String)} to read them.
+ */
+public class InMemoryMailTransport implements MailTransport
+{
+   /** The mail session the emails are created in */
+   private final Session m_session;
+
+   /** The most recent emails, oldest first */
+   private final LinkedBlockingDeque<MimeMessage> m_messages;
+
+   /** Number of emails sent */
+   private final AtomicLong m_sent = new AtomicLong();
+
+   /**
+    * Construct the transport
+    * @param mailHost the mail host, only used to configure the mail session
+    * @param settings the email settings
+    */
+   public InMemoryMailTransport(String mailHost, EmailSettings settings)
+   {
+      Properties props = settings.getSessionProperties();
+      props.put("mail.smtp.host", mailHost);
+      m_session = Session.getInstance(props);
+      m_messages = new LinkedBlockingDeque<MimeMessage>(settings.getMailMemoryCapacity());
+   }
+
+   /**
+    * @see com.ibm.wcm.sample.customactions.MailTransport#getSession()
+    */
+   public Session getSession()
+   {
+      return m_session;
+   }
+
+   /**
+    * @see com.ibm.wcm.sample.customactions.MailTransport#send(javax.mail.internet.MimeMessage)
+    */
+   public void send(MimeMessage message) throws MessagingException
+   {
+      message.saveChanges();
+      Address[] recipients = message.getAllRecipients();
+      if (recipients == null || recipients.length == 0)
+      {
+         throw new SendFailedException("No recipient addresses");
+      }
+      m_sent.incrementAndGet();
+      while (!m_messages.offerLast(message))
+      {
+         // Make room by forgetting the oldest email
+         m_messages.pollFirst();
+      }
+   }
+
+   /**
+    * @see com.ibm.wcm.sample.customactions.MailTransport#sendAll(java.util.List)
+    */
+   public MessagingException[] sendAll(List<MimeMessage> messages)
+   {
+      MessagingException[] failures = new MessagingException[messages.size()];
+      for (int i = 0; i < failures.length; i++)
+      {
+         try
+         {
+            send(messages.get(i));
+         }
+         catch (MessagingException e)
+         {
+            failures[i] = e;
+         }
+      }
+      return failures;
+   }
+
+   /**
+    * @see com.ibm.wcm.sample.customactions.MailTransport#close()
+    */
+   public void close()
+   {
+      m_messages.clear();
+   }
+
+   /**
+    * Returns the most recent emails
+    *
+    * @return a copy of the emails kept, oldest first
+    */
+   public List<MimeMessage> getMessages()
+   {
+      return new ArrayList<MimeMessage>(m_messages);
+   }
+
+   /**
+    * Returns the number of emails sent, including the ones no longer kept
+    *
+    * @return the number of emails sent
+    */
+   public long getSentCount()
+   {
+      return m_sent.get();
+   }
+
+   /**
+    * Forget the emails kept and reset the count of emails sent
+    */
+   public void clear()
+   {
+      m_messages.clear();
+      m_sent.set(0);
+   }
+}
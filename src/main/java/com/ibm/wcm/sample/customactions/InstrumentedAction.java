@@ -0,0 +1,150 @@
+/*
+ * Copyright 2014  IBM Corp.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.ibm.wcm.sample.customactions;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import com.ibm.workplace.wcm.api.Document;
+import com.ibm.workplace.wcm.api.custom.CustomWorkflowAction;
+import com.ibm.workplace.wcm.api.custom.CustomWorkflowActionResult;
+
+/**
+ * Decorator that records the execution metrics of a custom workflow action, and each execution
+ * in the {@link AuditLog} when executions are audited. <br />
+ * The decorator holds no state of its own, so wrapping a shared action produces a shared action.
+ * Batches are passed on to actions that implement {@link BatchCustomWorkflowAction} and run one
+ * document at a time otherwise; each document of a batch is recorded with an equal share of the
+ * batch execution time.
+ */
+public class InstrumentedAction implements BatchCustomWorkflowAction
+{
+   /** The decorated action */
+   private final CustomWorkflowAction m_action;
+
+   /** The metrics recorded for the action */
+   private final ActionMetrics m_metrics;
+
+   /**
+    * Constructor
+    * @param action the action to decorate
+    * @param metrics the metrics to record executions in
+    */
+   public InstrumentedAction(CustomWorkflowAction action, ActionMetrics metrics)
+   {
+      m_action = action;
+      m_metrics = metrics;
+   }
+
+   /**
+    * @return the decorated action
+    */
+   public CustomWorkflowAction getAction()
+   {
+      return m_action;
+   }
+
+   /**
+    * @see com.ibm.workplace.wcm.api.custom.CustomWorkflowAction#execute(com.ibm.workplace.wcm.api.Document)
+    */
+   public CustomWorkflowActionResult execute(Document p_document)
+   {
+      long start = System.nanoTime();
+      CustomWorkflowActionResult result = null;
+      boolean completed = false;
+      try
+      {
+         result = m_action.execute(p_document);
+         completed = true;
+         return result;
+      }
+      finally
+      {
+         long elapsed = System.nanoTime() - start;
+         AuditLog audit = AuditLog.getInstance();
+         if (completed)
+         {
+            m_metrics.record(result, elapsed);
+            if (audit != null)
+            {
+               audit.record(p_document, m_metrics.getActionName(), result, elapsed);
+            }
+         }
+         else
+         {
+            m_metrics.recordFailure(elapsed);
+            if (audit != null)
+            {
+               audit.recordFailure(p_document, m_metrics.getActionName(), elapsed);
+            }
+         }
+      }
+   }
+
+   /**
+    * @see com.ibm.wcm.sample.customactions.BatchCustomWorkflowAction#executeAll(java.util.List)
+    */
+   public List<CustomWorkflowActionResult> executeAll(List<Document> p_documents)
+   {
+      if (!(m_action instanceof BatchCustomWorkflowAction))
+      {
+         List<CustomWorkflowActionResult> results = new ArrayList<CustomWorkflowActionResult>(p_documents.size());
+         for (Document document : p_documents)
+         {
+            results.add(execute(document));
+         }
+         return results;
+      }
+
+      long start = System.nanoTime();
+      List<CustomWorkflowActionResult> results = null;
+      try
+      {
+         results = ((BatchCustomWorkflowAction) m_action).executeAll(p_documents);
+         return results;
+      }
+      finally
+      {
+         int count = p_documents.size();
+         long elapsed = (count > 0) ? (System.nanoTime() - start) / count : 0;
+         AuditLog audit = AuditLog.getInstance();
+         for (int i = 0; i < count; i++)
+         {
+            if (results != null && i < results.size())
+            {
+               m_metrics.record(results.get(i), elapsed);
+               if (audit != null)
+               {
+                  audit.record(p_documents.get(i), m_metrics.getActionName(), results.get(i), elapsed);
+               }
+            }
+            else
+            {
+               m_metrics.recordFailure(elapsed);
+               if (audit != null)
+               {
+                  audit.recordFailure(p_documents.get(i), m_metrics.getActionName(), elapsed);
+               }
+            }
+         }
+      }
+   }
+
+   /**
+    * @see com.ibm.workplace.wcm.api.custom.CustomWorkflowAction#getExecuteDate(com.ibm.workplace.wcm.api.Document)
+    */
+   public Date getExecuteDate(Document p_document)
+   {
+      return m_action.getExecuteDate(p_document);
+   }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2014  IBM Corp.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.ibm.wcm.sample.customactions;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with log-linear buckets. <br />
+ * Every power of two is split into {@link #SUB_BUCKETS} linear sub-buckets, so a recorded value
+ * is reported within 12.5% of its true value whatever its magnitude. Recording a value is a few
+ * atomic increments and never blocks; reads walk the buckets without stopping writers, so a
+ * snapshot taken while values are being recorded can be off by the values recorded meanwhile.
+ */
+public class LatencyHistogram
+{
+   /** Number of bits used for the linear sub-buckets */
+   private static final int SUB_BUCKET_BITS = 3;
+
+   /** Number of linear sub-buckets in each power of two */
+   private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+   /** Number of buckets needed to cover every positive long */
+   private static final int BUCKET_COUNT = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+   /** Bucket counts */
+   private final AtomicLongArray m_buckets = new AtomicLongArray(BUCKET_COUNT);
+
+   /** Number of recorded values */
+   private final AtomicLong m_count = new AtomicLong();
+
+   /** Sum of recorded values */
+   private final AtomicLong m_sum = new AtomicLong();
+
+   /** Largest recorded value */
+   private final AtomicLong m_max = new AtomicLong();
+
+   /**
+    * Record a value
+    * @param value the value, negative values are recorded as zero
+    */
+   public void record(long value)
+   {
+      long v = (value > 0) ? value : 0;
+      m_buckets.incrementAndGet(bucketIndex(v));
+      m_count.incrementAndGet();
+      m_sum.addAndGet(v);
+      long max = m_max.get();
+      while (v > max && !m_max.compareAndSet(max, v))
+      {
+         max = m_max.get();
+      }
+   }
+
+   /**
+    * @return the number of recorded values
+    */
+   public long getCount()
+   {
+      return m_count.get();
+   }
+
+   /**
+    * @return the sum of the recorded values
+    */
+   public long getSum()
+   {
+      return m_sum.get();
+   }
+
+   /**
+    * @return the largest recorded value
+    */
+   public long getMax()
+   {
+      return m_max.get();
+   }
+
+   /**
+    * @return the mean of the recorded values, 0 if there are none
+    */
+   public double getMean()
+   {
+      long count = m_count.get();
+      return (count > 0) ? (double) m_sum.get() / count : 0;
+   }
+
+   /**
+    * Returns the value at a percentile
+    * @param percentile the percentile, between 0 and 100
+    * @return the upper bound of the bucket holding the percentile, 0 if no values have been recorded
+    */
+   public long getPercentile(double percentile)
+   {
+      long[] counts = new long[BUCKET_COUNT];
+      long total = 0;
+      for (int i = 0; i < BUCKET_COUNT; i++)
+      {
+         counts[i] = m_buckets.get(i);
+         total += counts[i];
+      }
+      if (total == 0)
+      {
+         return 0;
+      }
+
+      double fraction = Math.min(Math.max(percentile, 0), 100) / 100;
+      long rank = Math.max(1, (long) Math.ceil(fraction * total));
+      long seen = 0;
+      for (int i = 0; i < BUCKET_COUNT; i++)
+      {
+         seen += counts[i];
+         if (seen >= rank)
+         {
+            // The bucket bound can exceed the largest value actually recorded
+            return Math.min(bucketUpperBound(i), m_max.get());
+         }
+      }
+      return m_max.get();
+   }
+
+   /**
+    * Returns the bucket for a value
+    * @param value a non-negative value
+    * @return the bucket index
+    */
+   static int bucketIndex(long value)
+   {
+      if (value < SUB_BUCKETS)
+      {
+         return (int) value;
+      }
+      int shift = (Long.SIZE - 1 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+      return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+   }
+
+   /**
+    * Returns the largest value held by a bucket
+    * @param index the bucket index
+    * @return the upper bound of the bucket
+    */
+   static long bucketUpperBound(int index)
+   {
+      if (index < SUB_BUCKETS)
+      {
+         return index;
+      }
+      int shift = index / SUB_BUCKETS - 1;
+      long subBucket = (index % SUB_BUCKETS) + SUB_BUCKETS;
+      long upper = ((subBucket + 1) << shift) - 1;
+      return (upper > 0) ? upper : Long.MAX_VALUE;
+   }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2014  IBM Corp.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.ibm.wcm.sample.customactions;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Map holding at most a fixed number of entries. When an entry is added to a full map the
+ * least recently used entry is dropped. <br />
+ * The map is not thread-safe. Reading an entry changes the order of the entries, so callers
+ * must hold a lock around every access, reads included.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+class LruMap<K, V> extends LinkedHashMap<K, V>
+{
+   /** Serial version */
+   private static final long serialVersionUID = 1L;
+
+   /** Maximum number of entries */
+   private final int m_maxEntries;
+
+   /**
+    * Constructor
+    * @param maxEntries maximum number of entries
+    */
+   LruMap(int maxEntries)
+   {
+      super(16, 0.75f, true);
+      m_maxEntries = maxEntries;
+   }
+
+   /**
+    * @see java.util.LinkedHashMap#removeEldestEntry(java.util.Map.Entry)
+    */
+   protected boolean removeEldestEntry(Map.Entry<K, V> eldest)
+   {
+      return size() > m_maxEntries;
+   }
+}
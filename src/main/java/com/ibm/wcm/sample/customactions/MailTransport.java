@@ -0,0 +1,65 @@
+/*
+ * Copyright 2014  IBM Corp.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.ibm.wcm.sample.customactions;
+
+import java.util.List;
+
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+
+/**
+ * Sends the emails built by the email workflow action for one mail host. <br />
+ * The transport is chosen with the mail.transport property of email.properties:
+ * <ul>
+ * <li>smtp - send over pooled connections to the mail host, see {@link SmtpTransportPool}</li>
+ * <li>memory - keep the emails in memory, see {@link InMemoryMailTransport}</li>
+ * <li>spool - write each email to a .eml file, see {@link SpoolMailTransport}</li>
+ * <li>the class name of another implementation with a public constructor taking the mail host
+ * and the {@link EmailSettings}</li>
+ * </ul>
+ * One transport is created per mail host and shared by every workflow thread, so implementations
+ * must be thread-safe.
+ */
+public interface MailTransport
+{
+   /**
+    * Returns the mail session the emails sent through this transport are created in
+    *
+    * @return the mail session
+    */
+   Session getSession();
+
+   /**
+    * Send an email
+    *
+    * @param message the email, ready to send
+    *
+    * @throws MessagingException If there is an exception sending the email
+    */
+   void send(MimeMessage message) throws MessagingException;
+
+   /**
+    * Send several emails. A failure to send one email does not stop the others from being sent.
+    *
+    * @param messages the emails, ready to send
+    *
+    * @return the exception thrown sending each email, in the order of the emails, null for
+    * the emails that were sent
+    */
+   MessagingException[] sendAll(List<MimeMessage> messages);
+
+   /**
+    * Release the resources held by the transport
+    */
+   void close();
+}
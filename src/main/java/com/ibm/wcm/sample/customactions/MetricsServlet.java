@@ -0,0 +1,96 @@
+/*
+ * Copyright 2014  IBM Corp.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.ibm.wcm.sample.customactions;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Writes the custom workflow action metrics as plain text, one sample per line, in the
+ * Prometheus text exposition format so that the metrics can be scraped by a monitoring system.
+ * Latencies are reported in seconds.
+ */
+public class MetricsServlet extends HttpServlet
+{
+   /** Serialization version */
+   private static final long serialVersionUID = 1L;
+
+   /** Content type of the response */
+   private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=UTF-8";
+
+   /** Nanoseconds in a second */
+   private static final double NANOS_PER_SECOND = 1000000000d;
+
+   /** Reported latency quantiles */
+   private static final double[] QUANTILES = {0.5, 0.9, 0.99};
+
+   /**
+    * @see javax.servlet.http.HttpServlet#doGet(javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
+    */
+   protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
+   {
+      response.setContentType(CONTENT_TYPE);
+      PrintWriter writer = response.getWriter();
+      List<ActionMetrics> all = ActionMetrics.getAll();
+
+      writer.println("# HELP wcm_action_executions_total Custom workflow action executions by outcome.");
+      writer.println("# TYPE wcm_action_executions_total counter");
+      for (ActionMetrics metrics : all)
+      {
+         String action = escape(metrics.getActionName());
+         for (ActionMetrics.Outcome outcome : ActionMetrics.Outcome.values())
+         {
+            writer.println("wcm_action_executions_total{action=\"" + action + "\",outcome=\"" + outcome + "\"} " + metrics.getCount(outcome));
+         }
+      }
+
+      writer.println("# HELP wcm_action_duration_seconds Custom workflow action execution time.");
+      writer.println("# TYPE wcm_action_duration_seconds summary");
+      for (ActionMetrics metrics : all)
+      {
+         String action = escape(metrics.getActionName());
+         LatencyHistogram latency = metrics.getLatency();
+         for (double quantile : QUANTILES)
+         {
+            writer.println("wcm_action_duration_seconds{action=\"" + action + "\",quantile=\"" + quantile + "\"} "
+               + latency.getPercentile(quantile * 100) / NANOS_PER_SECOND);
+         }
+         writer.println("wcm_action_duration_seconds_sum{action=\"" + action + "\"} " + latency.getSum() / NANOS_PER_SECOND);
+         writer.println("wcm_action_duration_seconds_count{action=\"" + action + "\"} " + latency.getCount());
+      }
+
+      writer.println("# HELP wcm_action_duration_seconds_max Longest custom workflow action execution time.");
+      writer.println("# TYPE wcm_action_duration_seconds_max gauge");
+      for (ActionMetrics metrics : all)
+      {
+         writer.println("wcm_action_duration_seconds_max{action=\"" + escape(metrics.getActionName()) + "\"} "
+            + metrics.getLatency().getMax() / NANOS_PER_SECOND);
+      }
+      writer.flush();
+   }
+
+   /**
+    * Escape a label value
+    * @param value the label value
+    * @return the escaped value
+    */
+   private static String escape(String value)
+   {
+      return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+   }
+}
@@ -0,0 +1,421 @@
+/*
+ * Copyright 2014  IBM Corp.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.ibm.wcm.sample.customactions;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.ibm.workplace.wcm.api.Document;
+import com.ibm.workplace.wcm.api.custom.CustomWorkflowAction;
+import com.ibm.workplace.wcm.api.custom.CustomWorkflowActionResult;
+import com.ibm.workplace.wcm.api.custom.Directive;
+import com.ibm.workplace.wcm.api.custom.DirectiveParams;
+import com.ibm.workplace.wcm.api.custom.Directives;
+import com.ibm.workplace.wcm.api.exceptions.WCMException;
+
+/**
+ * Runs several registered actions against a document in one invocation and returns one result,
+ * see {@link PipelineDefinition}.
+ * <ul>
+ * <li>the steps run in order and share an {@link ActionContext} holding the workspace and current user</li>
+ * <li>the messages of the steps are joined</li>
+ * <li>the first step that rolls the document back, returns no result or throws stops the pipeline and
+ * its rollback is returned</li>
+ * <li>otherwise the first directive other than CONTINUE is returned</li>
+ * <li>parallel steps run at the same time as each other, once the other steps have run without a
+ * rollback; they share the context, resolved beforehand on the workflow thread, but not the
+ * workflow thread itself</li>
+ * </ul>
+ */
+public class PipelineAction implements BatchCustomWorkflowAction
+{
+   /** class name for the logger */
+   private static final String LOG_CLASS = PipelineAction.class.getName();
+
+   /** logging level */
+   private static final Level LOG_LEVEL = Level.FINER;
+
+   /** class logger */
+   private static final Logger LOGGER = Logger.getLogger(LOG_CLASS);
+
+   /** Number of threads running parallel steps */
+   private static final int PARALLEL_THREADS = 4;
+
+   /** Separator between the messages of the steps */
+   private static final String MESSAGE_SEPARATOR = "; ";
+
+   /** Runs the parallel steps of every pipeline, created on first use */
+   private static ThreadPoolExecutor s_executor;
+
+   /** The pipeline action name */
+   private final String m_name;
+
+   /** The names of the steps run one after the other */
+   private final String[] m_stepNames;
+
+   /** The steps run one after the other */
+   private final CustomWorkflowAction[] m_steps;
+
+   /** The names of the steps run in parallel */
+   private final String[] m_parallelNames;
+
+   /** The steps run in parallel */
+   private final CustomWorkflowAction[] m_parallelSteps;
+
+   /**
+    * Constructor
+    * @param name the pipeline action name
+    * @param stepNames the names of the steps run one after the other
+    * @param steps the steps run one after the other
+    * @param parallelNames the names of the steps run in parallel
+    * @param parallelSteps the steps run in parallel
+    */
+   public PipelineAction(String name, String[] stepNames, CustomWorkflowAction[] steps, String[] parallelNames, CustomWorkflowAction[] parallelSteps)
+   {
+      m_name = name;
+      m_stepNames = stepNames;
+      m_steps = steps;
+      m_parallelNames = parallelNames;
+      m_parallelSteps = parallelSteps;
+   }
+
+   /**
+    * Stop the threads running parallel steps. New threads are started if a pipeline runs afterwards.
+    */
+   public static void shutdown()
+   {
+      ThreadPoolExecutor executor;
+      synchronized (PipelineAction.class)
+      {
+         executor = s_executor;
+         s_executor = null;
+      }
+      if (executor != null)
+      {
+         executor.shutdown();
+      }
+   }
+
+   /**
+    * Pipelines run as soon as their document moves to the stage
+    * @see com.ibm.workplace.wcm.api.custom.CustomWorkflowAction#getExecuteDate(com.ibm.workplace.wcm.api.Document)
+    */
+   public Date getExecuteDate(Document p_document)
+   {
+      return DATE_EXECUTE_NOW;
+   }
+
+   /**
+    * @see com.ibm.workplace.wcm.api.custom.CustomWorkflowAction#execute(com.ibm.workplace.wcm.api.Document)
+    */
+   public CustomWorkflowActionResult execute(Document p_document)
+   {
+      final String LOG_METHOD = "execute(p_document)";
+      boolean isLogging = LOGGER.isLoggable(LOG_LEVEL);
+      if (isLogging)
+      {
+         LOGGER.entering(LOG_CLASS, LOG_METHOD, new Object[] {m_name});
+      }
+
+      final ActionContext context = new ActionContext(p_document);
+      ActionContext previous = ActionContext.attach(context);
+      MergedResult merged = new MergedResult();
+      try
+      {
+         for (int i = 0; i < m_steps.length && !merged.isRolledBack(); i++)
+         {
+            merged.add(m_stepNames[i], runStep(m_stepNames[i], m_steps[i], p_document));
+         }
+         if (!merged.isRolledBack() && m_parallelSteps.length > 0)
+         {
+            runParallelSteps(context, p_document, merged);
+         }
+      }
+      finally
+      {
+         ActionContext.attach(previous);
+      }
+
+      CustomWorkflowActionResult result = merged.toResult();
+      if (isLogging)
+      {
+         LOGGER.exiting(LOG_CLASS, LOG_METHOD, merged);
+      }
+      return result;
+   }
+
+   /**
+    * Runs the pipeline against each document. Each document gets its own context.
+    * @see com.ibm.wcm.sample.customactions.BatchCustomWorkflowAction#executeAll(java.util.List)
+    */
+   public List<CustomWorkflowActionResult> executeAll(List<Document> p_documents)
+   {
+      List<CustomWorkflowActionResult> results = new ArrayList<CustomWorkflowActionResult>(p_documents.size());
+      for (Document document : p_documents)
+      {
+         results.add(execute(document));
+      }
+      return results;
+   }
+
+   /**
+    * Run the parallel steps and wait for them, adding their results in configuration order. The
+    * context is resolved on the calling thread first; if it cannot be, every parallel step fails
+    * without running.
+    *
+    * @param context the context of the invocation
+    * @param document the document
+    * @param merged the merged result
+    */
+   private void runParallelSteps(final ActionContext context, final Document document, MergedResult merged)
+   {
+      // The executor threads are not managed by the portal and do not run as the current user
+      try
+      {
+         context.resolve();
+      }
+      catch (WCMException e)
+      {
+         for (int i = 0; i < m_parallelSteps.length; i++)
+         {
+            merged.add(m_parallelNames[i], failure(m_parallelNames[i], e));
+         }
+         return;
+      }
+
+      ThreadPoolExecutor executor = getExecutor();
+      List<Future<CustomWorkflowActionResult>> futures = new ArrayList<Future<CustomWorkflowActionResult>>(m_parallelSteps.length);
+      for (int i = 0; i < m_parallelSteps.length; i++)
+      {
+         final String stepName = m_parallelNames[i];
+         final CustomWorkflowAction step = m_parallelSteps[i];
+         futures.add(executor.submit(new Callable<CustomWorkflowActionResult>()
+         {
+            public CustomWorkflowActionResult call()
+            {
+               ActionContext previous = ActionContext.attach(context);
+               try
+               {
+                  return runStep(stepName, step, document);
+               }
+               finally
+               {
+                  ActionContext.attach(previous);
+               }
+            }
+         }));
+      }
+
+      for (int i = 0; i < futures.size(); i++)
+      {
+         CustomWorkflowActionResult result;
+         try
+         {
+            result = futures.get(i).get();
+         }
+         catch (InterruptedException e)
+         {
+            Thread.currentThread().interrupt();
+            result = failure(m_parallelNames[i], e);
+         }
+         catch (ExecutionException e)
+         {
+            result = failure(m_parallelNames[i], e.getCause());
+         }
+         merged.add(m_parallelNames[i], result);
+      }
+   }
+
+   /**
+    * Run one step, turning an exception into a rollback
+    *
+    * @param stepName the step name
+    * @param step the step
+    * @param document the document
+    *
+    * @return the result of the step
+    */
+   private CustomWorkflowActionResult runStep(String stepName, CustomWorkflowAction step, Document document)
+   {
+      try
+      {
+         return step.execute(document);
+      }
+      catch (RuntimeException e)
+      {
+         return failure(stepName, e);
+      }
+   }
+
+   /**
+    * Returns the rollback result of a step that threw an exception
+    *
+    * @param stepName the step name
+    * @param e the exception
+    *
+    * @return the rollback result
+    */
+   private CustomWorkflowActionResult failure(String stepName, Throwable e)
+   {
+      LOGGER.log(Level.WARNING, "Pipeline " + m_name + " step " + stepName + " failed, " + e, e);
+      String message = stepName + " failed, " + e;
+      return ActionResultBuilder.with(Directives.CONTINUE).rollback(message).message(message).toResult();
+   }
+
+   /**
+    * Returns the executor running the parallel steps, creating it on first use
+    *
+    * @return the executor
+    */
+   private static synchronized ThreadPoolExecutor getExecutor()
+   {
+      if (s_executor == null)
+      {
+         ThreadFactory threadFactory = new ThreadFactory()
+         {
+            public Thread newThread(Runnable runnable)
+            {
+               Thread thread = new Thread(runnable, "WCM Custom Action Pipeline Step");
+               thread.setDaemon(true);
+               return thread;
+            }
+         };
+         RejectedExecutionHandler runOnCaller = new RejectedExecutionHandler()
+         {
+            public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor)
+            {
+               // A full queue, or an executor shut down under a running pipeline, runs the step on
+               // the workflow thread so that the pipeline never waits for a step that will not run
+               runnable.run();
+            }
+         };
+         s_executor = new ThreadPoolExecutor(PARALLEL_THREADS, PARALLEL_THREADS, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<Runnable>(PARALLEL_THREADS * 4), threadFactory, runOnCaller);
+      }
+      return s_executor;
+   }
+
+   /**
+    * The result of the steps run so far
+    */
+   private static final class MergedResult
+   {
+      /** The directive to return */
+      private Directive m_directive = Directives.CONTINUE;
+
+      /** The params of the directive to return */
+      private DirectiveParams m_params;
+
+      /** True once a step has rolled the document back */
+      private boolean m_rolledBack;
+
+      /** The joined messages */
+      private final StringBuilder m_messages = new StringBuilder();
+
+      /**
+       * Add the result of a step
+       * @param stepName the step name
+       * @param result the result, null if the step returned none
+       */
+      void add(String stepName, CustomWorkflowActionResult result)
+      {
+         if (result == null)
+         {
+            // WCM treats a missing result as a failure
+            appendMessage(stepName + " returned no result");
+            if (!m_rolledBack)
+            {
+               m_directive = Directives.ROLLBACK_DOCUMENT;
+               m_params = null;
+               m_rolledBack = true;
+            }
+            return;
+         }
+
+         appendMessage(result.getMessage());
+         Directive directive = result.getDirective();
+         if (Directives.ROLLBACK_DOCUMENT.equals(directive))
+         {
+            if (!m_rolledBack)
+            {
+               m_directive = directive;
+               m_params = result.getDirectiveParams();
+               m_rolledBack = true;
+            }
+         }
+         else if (directive != null && !Directives.CONTINUE.equals(directive) && Directives.CONTINUE.equals(m_directive))
+         {
+            m_directive = directive;
+            m_params = result.getDirectiveParams();
+         }
+      }
+
+      /**
+       * @return true once a step has rolled the document back
+       */
+      boolean isRolledBack()
+      {
+         return m_rolledBack;
+      }
+
+      /**
+       * @return the merged result
+       */
+      CustomWorkflowActionResult toResult()
+      {
+         if (m_messages.length() == 0 && m_params == null)
+         {
+            return ActionResultBuilder.result(m_directive);
+         }
+         ActionResultBuilder builder = ActionResultBuilder.with(m_directive).message(m_messages.toString());
+         if (m_params != null)
+         {
+            builder.params(m_params);
+         }
+         return builder.toResult();
+      }
+
+      /**
+       * @param message a step message, ignored if empty
+       */
+      private void appendMessage(String message)
+      {
+         if (message != null && message.length() > 0)
+         {
+            if (m_messages.length() > 0)
+            {
+               m_messages.append(MESSAGE_SEPARATOR);
+            }
+            m_messages.append(message);
+         }
+      }
+
+      /**
+       * @see java.lang.Object#toString()
+       */
+      public String toString()
+      {
+         return m_directive + " " + m_messages;
+      }
+   }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2014  IBM Corp.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.ibm.wcm.sample.customactions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.StringTokenizer;
+
+/**
+ * The steps of a pipeline action, from the pipeline properties in factory.properties:
+ * <ul>
+ * <li>pipelines - comma-separated names of the pipeline actions</li>
+ * <li>pipeline.&lt;name&gt; - the registered action class names run by the pipeline, in order</li>
+ * <li>pipeline.&lt;name&gt;.parallel - steps that only have side effects, such as sending email,
+ * and run at the same time as each other once the other steps have run</li>
+ * </ul>
+ */
+public class PipelineDefinition
+{
+   /** Pipelines property.  Holds a comma-separated list of pipeline action names. */
+   public static final String PROPERTY_PIPELINES = "pipelines";
+
+   /** Prefix of the steps property of a pipeline */
+   public static final String PROPERTY_PREFIX = "pipeline.";
+
+   /** Suffix of the parallel steps property of a pipeline */
+   public static final String PARALLEL_SUFFIX = ".parallel";
+
+   /** Delimiter used to separate names */
+   private static final String DELIMITER = ",";
+
+   /** The pipeline action name */
+   private final String m_name;
+
+   /** The steps run one after the other, in order */
+   private final List<String> m_steps;
+
+   /** The steps run at the same time as each other after the other steps */
+   private final List<String> m_parallelSteps;
+
+   /**
+    * Constructor
+    * @param name the pipeline action name
+    * @param steps the steps run one after the other, in order
+    * @param parallelSteps the steps run at the same time as each other after the other steps
+    */
+   public PipelineDefinition(String name, List<String> steps, List<String> parallelSteps)
+   {
+      m_name = name;
+      m_steps = Collections.unmodifiableList(new ArrayList<String>(steps));
+      m_parallelSteps = Collections.unmodifiableList(new ArrayList<String>(parallelSteps));
+   }
+
+   /**
+    * Read the pipelines from the factory properties
+    *
+    * @param properties the factory properties
+    *
+    * @return the pipelines in configuration order
+    */
+   public static List<PipelineDefinition> parse(Properties properties)
+   {
+      List<PipelineDefinition> pipelines = new ArrayList<PipelineDefinition>();
+      for (String name : split(properties.getProperty(PROPERTY_PIPELINES, "")))
+      {
+         Set<String> parallel = split(properties.getProperty(PROPERTY_PREFIX + name + PARALLEL_SUFFIX, ""));
+         List<String> steps = new ArrayList<String>();
+         List<String> parallelSteps = new ArrayList<String>();
+         for (String step : split(properties.getProperty(PROPERTY_PREFIX + name, "")))
+         {
+            if (parallel.contains(step))
+            {
+               parallelSteps.add(step);
+            }
+            else
+            {
+               steps.add(step);
+            }
+         }
+         pipelines.add(new PipelineDefinition(name, steps, parallelSteps));
+      }
+      return pipelines;
+   }
+
+   /**
+    * @return the pipeline action name
+    */
+   public String getName()
+   {
+      return m_name;
+   }
+
+   /**
+    * @return the steps run one after the other, in order
+    */
+   public List<String> getSteps()
+   {
+      return m_steps;
+   }
+
+   /**
+    * @return the steps run at the same time as each other after the other steps, in order
+    */
+   public List<String> getParallelSteps()
+   {
+      return m_parallelSteps;
+   }
+
+   /**
+    * @return every step, the ones run one after the other first
+    */
+   public List<String> getAllSteps()
+   {
+      List<String> all = new ArrayList<String>(m_steps);
+      all.addAll(m_parallelSteps);
+      return all;
+   }
+
+   /**
+    * @see java.lang.Object#toString()
+    */
+   public String toString()
+   {
+      return m_name + m_steps + (m_parallelSteps.isEmpty() ? "" : " then in parallel " + m_parallelSteps);
+   }
+
+   /**
+    * Split a comma-separated property value
+    *
+    * @param value the property value
+    *
+    * @return the trimmed, distinct names in order
+    */
+   private static Set<String> split(String value)
+   {
+      Set<String> names = new LinkedHashSet<String>();
+      StringTokenizer tokenizer = new StringTokenizer(value, DELIMITER);
+      while (tokenizer.hasMoreTokens())
+      {
+         String name = tokenizer.nextToken().trim();
+         if (name.length() > 0)
+         {
+            names.add(name);
+         }
+      }
+      return names;
+   }
+}
@@ -14,14 +14,23 @@ package com.ibm.wcm.sample.customactions;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Locale;
+import java.util.Map;
 import java.util.MissingResourceException;
 import java.util.ResourceBundle;
 
 /**
- * Utility to retrieve messages from a resource bundle.
+ * Utility to retrieve messages from a resource bundle. <br />
+ * Message patterns are looked up and parsed once per bundle, key and locale and kept in a bounded
+ * cache. Use {@link #clearCache()} to pick up changed resource bundles.
  */
 public class ResourceBundleUtility
 {
+   /** Maximum number of cached messages. The least recently used message is dropped when the cache is full. */
+   public static final int MAX_CACHED_MESSAGES = 2000;
+
+   /** Cached messages keyed by bundle name, key and locale. Guarded by s_messages. */
+   private static final Map<MessageKey, CachedMessage> s_messages = new LruMap<MessageKey, CachedMessage>(MAX_CACHED_MESSAGES);
+
    /**
     * Retrieves a resource bundle string with substituted argument values using the
     * default locale in the JVM
@@ -41,24 +50,15 @@ public class ResourceBundleUtility
                                                  Object[] p_arguments)
    {
       Locale locale = p_locale;
-      if (p_locale == null)
+      if (locale == null)
       {
-         p_locale = Locale.getDefault();
+         locale = Locale.getDefault();
       }
 
-      String messagePattern = null;
-      try
-      {
-         ResourceBundle bundle = ResourceBundle.getBundle(p_bundleName, locale);
-         messagePattern = bundle.getString(p_key);
-      }
-      catch (MissingResourceException e)
-      {
-         // Ignore missing resource bundle or message
-      }
+      CachedMessage cached = getMessage(p_bundleName, p_key, locale);
 
       String message = null;
-      if (messagePattern == null)
+      if (cached.m_format == null)
       {
          // No message pattern found - return a string in the format !p_key!p_arguments
          ArrayList argsList = new ArrayList();
@@ -73,11 +73,15 @@ public class ResourceBundleUtility
 
          message = "!" + p_key + "! " + argsList;
       }
+      else if (p_arguments == null || p_arguments.length == 0)
+      {
+         // Messages without arguments are formatted once
+         message = cached.m_noArguments;
+      }
       else
       {
-         // Format the message pattern to get the message
-         MessageFormat formatter = new MessageFormat(messagePattern);
-         formatter.setLocale(locale);
+         // Format the message using a copy of the parsed pattern, MessageFormat is not thread-safe
+         MessageFormat formatter = (MessageFormat) cached.m_format.clone();
          message = formatter.format(p_arguments);
       }
 
@@ -98,4 +102,167 @@ public class ResourceBundleUtility
    {
       return getFormattedString(p_bundleName, p_key, p_locale, new Object[]{});
    }
+
+   /**
+    * Discards every cached message and the cached resource bundles so that changed
+    * resource bundles are read again on next use.
+    */
+   public static void clearCache()
+   {
+      synchronized (s_messages)
+      {
+         s_messages.clear();
+      }
+      ResourceBundle.clearCache(ResourceBundleUtility.class.getClassLoader());
+   }
+
+   /**
+    * @return the number of cached messages
+    */
+   static int getCachedMessageCount()
+   {
+      synchronized (s_messages)
+      {
+         return s_messages.size();
+      }
+   }
+
+   /**
+    * @param p_bundleName the name of the resource bundle
+    * @param p_key the key of the string
+    * @param p_locale Display locale
+    * @return true if the message is cached
+    */
+   static boolean isCached(String p_bundleName, String p_key, Locale p_locale)
+   {
+      synchronized (s_messages)
+      {
+         return s_messages.containsKey(new MessageKey(p_bundleName, p_key, p_locale));
+      }
+   }
+
+   /**
+    * Returns the cached message, looking up and parsing the pattern on first use
+    *
+    * @param p_bundleName the name of the resource bundle
+    * @param p_key the key of the string
+    * @param p_locale Display locale, not null
+    *
+    * @return the cached message
+    */
+   private static CachedMessage getMessage(String p_bundleName, String p_key, Locale p_locale)
+   {
+      MessageKey key = new MessageKey(p_bundleName, p_key, p_locale);
+      CachedMessage cached;
+      synchronized (s_messages)
+      {
+         cached = s_messages.get(key);
+      }
+      if (cached == null)
+      {
+         String messagePattern = null;
+         try
+         {
+            ResourceBundle bundle = ResourceBundle.getBundle(p_bundleName, p_locale);
+            messagePattern = bundle.getString(p_key);
+         }
+         catch (MissingResourceException e)
+         {
+            // Ignore missing resource bundle or message
+         }
+
+         // Looked up and parsed outside the lock, a message added meanwhile by another thread is equivalent
+         cached = new CachedMessage(messagePattern, p_locale);
+         synchronized (s_messages)
+         {
+            s_messages.put(key, cached);
+         }
+      }
+      return cached;
+   }
+
+   /**
+    * A parsed message pattern. Instances are never modified after construction.
+    */
+   private static final class CachedMessage
+   {
+      /** The parsed pattern, null if the message was not found. Only used as a prototype for copies. */
+      final MessageFormat m_format;
+
+      /** The message formatted without arguments */
+      final String m_noArguments;
+
+      /**
+       * Constructor
+       * @param pattern the message pattern, null if the message was not found
+       * @param locale the locale used to format arguments
+       */
+      CachedMessage(String pattern, Locale locale)
+      {
+         if (pattern != null)
+         {
+            m_format = new MessageFormat(pattern, locale);
+            m_noArguments = m_format.format(new Object[]{});
+         }
+         else
+         {
+            m_format = null;
+            m_noArguments = null;
+         }
+      }
+   }
+
+   /**
+    * Cache key made of the bundle name, message key and locale
+    */
+   private static final class MessageKey
+   {
+      /** The bundle name */
+      final String m_bundleName;
+
+      /** The message key */
+      final String m_key;
+
+      /** The locale */
+      final Locale m_locale;
+
+      /** Precomputed hash code */
+      private final int m_hash;
+
+      /**
+       * Constructor
+       * @param bundleName the bundle name
+       * @param key the message key
+       * @param locale the locale
+       */
+      MessageKey(String bundleName, String key, Locale locale)
+      {
+         m_bundleName = bundleName;
+         m_key = key;
+         m_locale = locale;
+         m_hash = (31 * bundleName.hashCode() + key.hashCode()) * 31 + locale.hashCode();
+      }
+
+      /**
+       * @see java.lang.Object#hashCode()
+       */
+      public int hashCode()
+      {
+         return m_hash;
+      }
+
+      /**
+       * @see java.lang.Object#equals(java.lang.Object)
+       */
+      public boolean equals(Object obj)
+      {
+         if (!(obj instanceof MessageKey))
+         {
+            return false;
+         }
+         MessageKey other = (MessageKey) obj;
+         return m_hash == other.m_hash && m_key.equals(other.m_key) && m_bundleName.equals(other.m_bundleName)
+            && m_locale.equals(other.m_locale);
+      }
+   }
 }
@@ -0,0 +1,453 @@
+/*
+ * Copyright 2014  IBM Corp.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.ibm.wcm.sample.customactions;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.internet.MimeMessage;
+
+/**
+ * Mail transport keeping a bounded pool of connected SMTP transports that share a single mail
+ * session for one mail host. <br />
+ * Connections are reused between emails instead of opening, authenticating and closing a new
+ * connection per email.
+ * <ul>
+ * <li>at most the configured number of connections are open at any time; callers wait for a free one</li>
+ * <li>connections idle for longer than the idle timeout are closed</li>
+ * <li>connections idle for longer than the validation interval are checked before they are reused</li>
+ * <li>if sending fails on a reused connection the connection is discarded and the email is sent once
+ * more on a new connection</li>
+ * <li>each email waits for its turn from the rate limiter, which is told about temporary failures
+ * so that it can slow down</li>
+ * </ul>
+ */
+public class SmtpTransportPool implements MailTransport
+{
+   /** class name for the logger */
+   private static final String LOG_CLASS = SmtpTransportPool.class.getName();
+
+   /** class logger */
+   private static final Logger LOGGER = Logger.getLogger(LOG_CLASS);
+
+   /** The mail host */
+   private final String m_mailHost;
+
+   /** The shared mail session */
+   private final Session m_session;
+
+   /** Idle connections, most recently used first */
+   private final LinkedBlockingDeque<PooledTransport> m_idle = new LinkedBlockingDeque<PooledTransport>();
+
+   /** Permits limiting the number of connections in use */
+   private final Semaphore m_permits;
+
+   /** Time in milliseconds after which an idle connection is closed */
+   private final long m_idleTimeout;
+
+   /** Time in milliseconds after which an idle connection is checked before it is reused */
+   private final long m_validateAfter;
+
+   /** Maximum time in milliseconds to wait for a free connection */
+   private final long m_borrowTimeout;
+
+   /** Limits the rate emails are sent at, shared by every mail host */
+   private final EmailRateLimiter m_rateLimiter;
+
+   /** Number of connections opened */
+   private final AtomicLong m_opened = new AtomicLong();
+
+   /** Number of emails sent on a reused connection */
+   private final AtomicLong m_reused = new AtomicLong();
+
+   /** False once the pool has been closed */
+   private volatile boolean m_open = true;
+
+   /**
+    * Construct the pool
+    * @param mailHost the mail host
+    * @param settings the email settings
+    * @param rateLimiter limits the rate emails are sent at
+    */
+   public SmtpTransportPool(String mailHost, EmailSettings settings, EmailRateLimiter rateLimiter)
+   {
+      m_mailHost = mailHost;
+      m_rateLimiter = rateLimiter;
+
+      // Start from the mail.smtp properties configured in email.properties
+      Properties props = settings.getSessionProperties();
+      // Set the default transport type for this connection
+      props.put("mail.smtp.host", mailHost);
+      // Set sendpartial to continue sending the email where the address has some valid
+      // and some invalid email addresses
+      props.put("mail.smtp.sendpartial", "true");
+      m_session = Session.getInstance(props);
+
+      m_permits = new Semaphore(settings.getSmtpPoolSize(), true);
+      m_idleTimeout = settings.getSmtpPoolIdleTimeout();
+      m_validateAfter = settings.getSmtpPoolValidateAfter();
+      m_borrowTimeout = settings.getSmtpPoolBorrowTimeout();
+   }
+
+   /**
+    * Returns the mail session shared by every email sent through this pool
+    *
+    * @return the mail session
+    */
+   public Session getSession()
+   {
+      return m_session;
+   }
+
+   /**
+    * Send an email on a pooled connection
+    *
+    * @param message the email, ready to send
+    *
+    * @throws MessagingException If there is an exception sending the email
+    */
+   public void send(MimeMessage message) throws MessagingException
+   {
+      MessagingException failure = sendAll(Collections.singletonList(message))[0];
+      if (failure != null)
+      {
+         throw failure;
+      }
+   }
+
+   /**
+    * Send several emails one after the other on a single pooled connection. A failure to send
+    * one email does not stop the others from being sent. An email that has to wait for its turn
+    * under the rate limits waits without holding a connection or a pool permit.
+    *
+    * @param messages the emails, ready to send
+    *
+    * @return the exception thrown sending each email, in the order of the emails, null for
+    * the emails that were sent
+    */
+   public MessagingException[] sendAll(List<MimeMessage> messages)
+   {
+      MessagingException[] failures = new MessagingException[messages.size()];
+      if (failures.length == 0)
+      {
+         return failures;
+      }
+      PooledTransport pooled = null;
+      boolean permitted = false;
+      try
+      {
+         for (int i = 0; i < failures.length; i++)
+         {
+            MimeMessage message = messages.get(i);
+            Set<String> domains = null;
+            try
+            {
+               domains = EmailRateLimiter.getDomains(message);
+               long wait = m_rateLimiter.reserve(domains);
+               if (wait > 0)
+               {
+                  // Wait for the turn without holding a connection or a pool permit another sender could use
+                  if (pooled != null)
+                  {
+                     release(pooled);
+                     pooled = null;
+                  }
+                  if (permitted)
+                  {
+                     m_permits.release();
+                     permitted = false;
+                  }
+                  m_rateLimiter.await(wait);
+               }
+            }
+            catch (MessagingException e)
+            {
+               failures[i] = e;
+               continue;
+            }
+
+            if (!permitted)
+            {
+               try
+               {
+                  acquirePermit();
+               }
+               catch (MessagingException e)
+               {
+                  // The pool is busy, the remaining emails would wait as long again
+                  Arrays.fill(failures, i, failures.length, e);
+                  break;
+               }
+               permitted = true;
+            }
+
+            try
+            {
+               if (pooled == null)
+               {
+                  pooled = borrow();
+               }
+               boolean reused = pooled.m_lastUsed != 0;
+               try
+               {
+                  pooled.m_transport.sendMessage(message, message.getAllRecipients());
+               }
+               catch (SendFailedException e)
+               {
+                  // The connection is still usable, some or all of the addresses were refused
+                  throw e;
+               }
+               catch (MessagingException e)
+               {
+                  discard(pooled);
+                  pooled = null;
+                  if (!reused)
+                  {
+                     throw e;
+                  }
+
+                  // The server may have dropped the reused connection, try once more on a new one
+                  LOGGER.log(Level.FINE, "Resending email on a new connection to " + m_mailHost, e);
+                  pooled = connect();
+                  try
+                  {
+                     pooled.m_transport.sendMessage(message, message.getAllRecipients());
+                  }
+                  catch (SendFailedException e2)
+                  {
+                     throw e2;
+                  }
+                  catch (MessagingException e2)
+                  {
+                     discard(pooled);
+                     pooled = null;
+                     throw e2;
+                  }
+               }
+               if (reused)
+               {
+                  m_reused.incrementAndGet();
+               }
+               pooled.m_lastUsed = System.currentTimeMillis();
+               m_rateLimiter.sent(domains);
+            }
+            catch (MessagingException e)
+            {
+               failures[i] = e;
+               m_rateLimiter.failed(e);
+            }
+         }
+      }
+      finally
+      {
+         if (pooled != null)
+         {
+            release(pooled);
+         }
+         if (permitted)
+         {
+            m_permits.release();
+         }
+      }
+      return failures;
+   }
+
+   /**
+    * Close every idle connection and stop pooling. Connections in use are closed when they
+    * are returned.
+    */
+   public void close()
+   {
+      m_open = false;
+      PooledTransport pooled;
+      while ((pooled = m_idle.pollFirst()) != null)
+      {
+         discard(pooled);
+      }
+   }
+
+   /**
+    * Returns the number of connections opened by this pool
+    *
+    * @return the number of connections opened
+    */
+   public long getOpenedCount()
+   {
+      return m_opened.get();
+   }
+
+   /**
+    * Returns the number of emails sent on a reused connection
+    *
+    * @return the number of emails sent on a reused connection
+    */
+   public long getReusedCount()
+   {
+      return m_reused.get();
+   }
+
+   /**
+    * Wait for permission to use a connection
+    *
+    * @throws MessagingException If no connection became free within the borrow timeout
+    */
+   private void acquirePermit() throws MessagingException
+   {
+      boolean acquired = false;
+      try
+      {
+         acquired = m_permits.tryAcquire(m_borrowTimeout, TimeUnit.MILLISECONDS);
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+      }
+      if (!acquired)
+      {
+         throw new MessagingException("Timed out waiting for a connection to mail host " + m_mailHost);
+      }
+   }
+
+   /**
+    * Take a healthy idle connection or open a new one
+    *
+    * @return the connection
+    *
+    * @throws MessagingException If a new connection could not be opened
+    */
+   private PooledTransport borrow() throws MessagingException
+   {
+      long now = System.currentTimeMillis();
+      PooledTransport pooled;
+      while ((pooled = m_idle.pollFirst()) != null)
+      {
+         long idle = now - pooled.m_lastUsed;
+         if (idle > m_idleTimeout)
+         {
+            discard(pooled);
+         }
+         else if (idle > m_validateAfter && !pooled.m_transport.isConnected())
+         {
+            // isConnected checks the connection with the server
+            discard(pooled);
+         }
+         else
+         {
+            return pooled;
+         }
+      }
+      return connect();
+   }
+
+   /**
+    * Open a new connection
+    *
+    * @return the connection
+    *
+    * @throws MessagingException If the connection could not be opened
+    */
+   private PooledTransport connect() throws MessagingException
+   {
+      Transport transport = m_session.getTransport("smtp");
+      transport.connect();
+      m_opened.incrementAndGet();
+      return new PooledTransport(transport);
+   }
+
+   /**
+    * Return a connection to the pool and close connections that have been idle too long.
+    * Connections that failed are discarded by the sender, so the connection is not checked
+    * here; isConnected makes a round trip to the server and is left to borrow.
+    *
+    * @param pooled the connection
+    */
+   private void release(PooledTransport pooled)
+   {
+      long now = System.currentTimeMillis();
+      if (m_open)
+      {
+         pooled.m_lastUsed = now;
+         m_idle.offerFirst(pooled);
+      }
+      else
+      {
+         discard(pooled);
+      }
+
+      // The least recently used connections are at the end of the deque
+      Iterator<PooledTransport> oldest = m_idle.descendingIterator();
+      while (oldest.hasNext())
+      {
+         PooledTransport candidate = oldest.next();
+         if (now - candidate.m_lastUsed <= m_idleTimeout)
+         {
+            break;
+         }
+         if (m_idle.removeLastOccurrence(candidate))
+         {
+            discard(candidate);
+         }
+      }
+   }
+
+   /**
+    * Close a connection without returning it to the pool
+    *
+    * @param pooled the connection
+    */
+   private void discard(PooledTransport pooled)
+   {
+      try
+      {
+         pooled.m_transport.close();
+      }
+      catch (MessagingException e)
+      {
+         LOGGER.log(Level.FINE, "Error closing connection to " + m_mailHost, e);
+      }
+   }
+
+   /**
+    * A connection and the time it was last returned to the pool
+    */
+   private static final class PooledTransport
+   {
+      /** The connected transport */
+      final Transport m_transport;
+
+      /** System.currentTimeMillis when the connection was last used, 0 if never used */
+      long m_lastUsed;
+
+      /**
+       * Constructor
+       * @param transport the connected transport
+       */
+      PooledTransport(Transport transport)
+      {
+         m_transport = transport;
+      }
+   }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2014  IBM Corp.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.ibm.wcm.sample.customactions;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.mail.Address;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+
+/**
+ * Mail transport that writes each email to a .eml file in a spool directory instead of sending
+ * it, for running the workflow on a machine without a mail server or handing the emails to
+ * another process. <br />
+ * An email is written to a temporary file through a file channel and then renamed, so a process
+ * reading the directory only sees complete .eml files. The files are named
+ * mail-&lt;time&gt;-&lt;unique number&gt;.eml and sort by the time the emails were written.
+ */
+public class SpoolMailTransport implements MailTransport
+{
+   /** class name for the logger */
+   private static final String LOG_CLASS = SpoolMailTransport.class.getName();
+
+   /** class logger */
+   private static final Logger LOGGER = Logger.getLogger(LOG_CLASS);
+
+   /** Spool file name prefix */
+   private static final String FILE_PREFIX = "mail-";
+
+   /** Suffix of a spool file being written */
+   private static final String TEMP_SUFFIX = ".tmp";
+
+   /** Spool file name suffix */
+   public static final String FILE_SUFFIX = ".eml";
+
+   /** The mail session the emails are created in */
+   private final Session m_session;
+
+   /** The spool directory */
+   private final File m_directory;
+
+   /** Number of emails written */
+   private final AtomicLong m_written = new AtomicLong();
+
+   /**
+    * Construct the transport
+    * @param mailHost the mail host, only used to configure the mail session
+    * @param settings the email settings
+    */
+   public SpoolMailTransport(String mailHost, EmailSettings settings)
+   {
+      Properties props = settings.getSessionProperties();
+      props.put("mail.smtp.host", mailHost);
+      m_session = Session.getInstance(props);
+      m_directory = new File(settings.getMailSpoolDirectory());
+      if (!m_directory.isDirectory() && !m_directory.mkdirs())
+      {
+         LOGGER.log(Level.WARNING, "Unable to create mail spool directory " + m_directory);
+      }
+   }
+
+   /**
+    * @see com.ibm.wcm.sample.customactions.MailTransport#getSession()
+    */
+   public Session getSession()
+   {
+      return m_session;
+   }
+
+   /**
+    * @see com.ibm.wcm.sample.customactions.MailTransport#send(javax.mail.internet.MimeMessage)
+    */
+   public void send(MimeMessage message) throws MessagingException
+   {
+      message.saveChanges();
+      Address[] recipients = message.getAllRecipients();
+      if (recipients == null || recipients.length == 0)
+      {
+         throw new SendFailedException("No recipient addresses");
+      }
+
+      File temp = null;
+      try
+      {
+         ByteArrayOutputStream content = new ByteArrayOutputStream(4096);
+         message.writeTo(content);
+
+         temp = File.createTempFile(FILE_PREFIX + System.currentTimeMillis() + "-", TEMP_SUFFIX, m_directory);
+         FileChannel channel = new FileOutputStream(temp).getChannel();
+         try
+         {
+            ByteBuffer buffer = ByteBuffer.wrap(content.toByteArray());
+            while (buffer.hasRemaining())
+            {
+               channel.write(buffer);
+            }
+         }
+         finally
+         {
+            channel.close();
+         }
+
+         String name = temp.getName();
+         File file = new File(m_directory, name.substring(0, name.length() - TEMP_SUFFIX.length()) + FILE_SUFFIX);
+         if (!temp.renameTo(file))
+         {
+            throw new IOException("Unable to rename " + temp + " to " + file);
+         }
+         temp = null;
+         m_written.incrementAndGet();
+      }
+      catch (IOException e)
+      {
+         throw new MessagingException("Unable to write email to the mail spool directory " + m_directory, e);
+      }
+      finally
+      {
+         if (temp != null && !temp.delete())
+         {
+            LOGGER.log(Level.FINE, "Unable to delete " + temp);
+         }
+      }
+   }
+
+   /**
+    * @see com.ibm.wcm.sample.customactions.MailTransport#sendAll(java.util.List)
+    */
+   public MessagingException[] sendAll(List<MimeMessage> messages)
+   {
+      MessagingException[] failures = new MessagingException[messages.size()];
+      for (int i = 0; i < failures.length; i++)
+      {
+         try
+         {
+            send(messages.get(i));
+         }
+         catch (MessagingException e)
+         {
+            failures[i] = e;
+         }
+      }
+      return failures;
+   }
+
+   /**
+    * @see com.ibm.wcm.sample.customactions.MailTransport#close()
+    */
+   public void close()
+   {
+      // Every email is closed once it is written
+   }
+
+   /**
+    * Returns the spool directory
+    *
+    * @return the directory the emails are written to
+    */
+   public File getDirectory()
+   {
+      return m_directory;
+   }
+
+   /**
+    * Returns the number of emails written
+    *
+    * @return the number of emails written
+    */
+   public long getWrittenCount()
+   {
+      return m_written.get();
+   }
+}
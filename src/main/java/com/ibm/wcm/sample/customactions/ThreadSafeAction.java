@@ -0,0 +1,23 @@
+/*
+ * Copyright 2014  IBM Corp.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.ibm.wcm.sample.customactions;
+
+/**
+ * Marker interface for custom workflow actions that keep no per-document state and can be
+ * executed concurrently by several workflow threads. <br />
+ * The factory creates a single instance of an action class that implements this interface
+ * and hands out that shared instance from getAction instead of constructing a new one for
+ * every document.
+ */
+public interface ThreadSafeAction
+{
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2014  IBM Corp.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.ibm.wcm.sample.customactions;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache of the common names of users, keyed by user name. <br />
+ * Resolving a common name reads the user profile from the user registry, which is slow when
+ * the same approver moves hundreds of items through a workflow. Entries expire after
+ * {@link #DEFAULT_TIME_TO_LIVE_MILLIS} so that renamed users are picked up, and the cache is
+ * bounded to {@link #DEFAULT_MAX_ENTRIES} users, dropping the least recently used user when full.
+ */
+public class UserNameCache
+{
+   /** Time a cached common name is used for */
+   public static final long DEFAULT_TIME_TO_LIVE_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+   /** Maximum number of cached users */
+   public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+   /** The shared instance */
+   private static final UserNameCache INSTANCE = new UserNameCache(DEFAULT_MAX_ENTRIES, DEFAULT_TIME_TO_LIVE_MILLIS);
+
+   /** Cached common names keyed by user name. Guarded by this. */
+   private final Map<String, Entry> m_entries;
+
+   /** Time to live in nanoseconds */
+   private final long m_timeToLiveNanos;
+
+   /**
+    * Constructor
+    * @param maxEntries maximum number of cached users
+    * @param timeToLiveMillis time a cached common name is used for
+    */
+   public UserNameCache(int maxEntries, long timeToLiveMillis)
+   {
+      m_entries = new LruMap<String, Entry>(maxEntries);
+      m_timeToLiveNanos = TimeUnit.MILLISECONDS.toNanos(timeToLiveMillis);
+   }
+
+   /**
+    * @return the shared instance
+    */
+   public static UserNameCache getInstance()
+   {
+      return INSTANCE;
+   }
+
+   /**
+    * Returns the cached common name of a user
+    *
+    * @param userName the user name
+    *
+    * @return the common name, or null if it is not cached or has expired
+    */
+   public synchronized String get(String userName)
+   {
+      Entry entry = m_entries.get(userName);
+      if (entry != null)
+      {
+         if (!entry.isExpired(System.nanoTime()))
+         {
+            return entry.m_commonName;
+         }
+         m_entries.remove(userName);
+      }
+      return null;
+   }
+
+   /**
+    * Cache the common name of a user
+    *
+    * @param userName the user name
+    * @param commonName the common name
+    */
+   public synchronized void put(String userName, String commonName)
+   {
+      m_entries.put(userName, new Entry(commonName, System.nanoTime() + m_timeToLiveNanos));
+   }
+
+   /**
+    * Drop the cached common name of a user, for example after the user has been renamed
+    *
+    * @param userName the user name
+    */
+   public synchronized void invalidate(String userName)
+   {
+      m_entries.remove(userName);
+   }
+
+   /**
+    * Drop every cached common name
+    */
+   public synchronized void clear()
+   {
+      m_entries.clear();
+   }
+
+   /**
+    * A cached common name
+    */
+   private static final class Entry
+   {
+      /** The common name */
+      final String m_commonName;
+
+      /** System.nanoTime after which the entry is expired */
+      final long m_expires;
+
+      /**
+       * Constructor
+       * @param commonName the common name
+       * @param expires System.nanoTime after which the entry is expired
+       */
+      Entry(String commonName, long expires)
+      {
+         m_commonName = commonName;
+         m_expires = expires;
+      }
+
+      /**
+       * @param now the current System.nanoTime
+       * @return true if the entry has expired
+       */
+      boolean isExpired(long now)
+      {
+         return now - m_expires > 0;
+      }
+   }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2014  IBM Corp.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.ibm.wcm.sample.customactions;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+
+import com.ibm.workplace.wcm.api.WebContentCustomWorkflowService;
+
+/**
+ * Lazily locates and caches the WCM custom workflow service. <br />
+ * The service is looked up on first use rather than when the classes are loaded, so an
+ * action deployed while the portal is still starting does not fail for good. A failed lookup
+ * is retried after a delay that doubles with each failure, from {@link #MIN_RETRY_DELAY_MILLIS}
+ * up to {@link #MAX_RETRY_DELAY_MILLIS}; until then callers fail without a lookup. Only one caller
+ * looks up the service at a time and the others wait for its result. Once found the service is
+ * returned without locking.
+ */
+public final class WorkflowServiceLocator
+{
+   /** Class name for the logger */
+   private static final String LOG_CLASS = WorkflowServiceLocator.class.getName();
+
+   /** Class logger */
+   private static final Logger LOGGER = Logger.getLogger(LOG_CLASS);
+
+   /** Custom Workflow Service JNDI name */
+   public static final String WCM_CUSTOM_WORKFLOW_SERVICE = "portal:service/wcm/WebContentCustomWorkflowService";
+
+   /** Delay before the first retry of a failed lookup */
+   public static final long MIN_RETRY_DELAY_MILLIS = 100;
+
+   /** Longest delay between retries of a failed lookup */
+   public static final long MAX_RETRY_DELAY_MILLIS = 30000;
+
+   /** The cached service, null until a lookup succeeds */
+   private static final AtomicReference<WebContentCustomWorkflowService> s_service = new AtomicReference<WebContentCustomWorkflowService>();
+
+   /** Held while looking up the service */
+   private static final Object s_lock = new Object();
+
+   /** The provider used to look up the service. Guarded by s_lock. */
+   private static WorkflowServiceProvider s_provider = new JndiServiceProvider();
+
+   /** Time in System.nanoTime units before which no new lookup is attempted after a failure. Guarded by s_lock. */
+   private static long s_nextAttempt;
+
+   /** Number of consecutive failed lookups. Guarded by s_lock. */
+   private static int s_failures;
+
+   /**
+    * Not instantiable
+    */
+   private WorkflowServiceLocator()
+   {
+   }
+
+   /**
+    * Returns the custom workflow service, looking it up if it has not been found yet
+    *
+    * @return the service
+    *
+    * @throws IllegalStateException if the service is not available yet
+    */
+   public static WebContentCustomWorkflowService getService()
+   {
+      WebContentCustomWorkflowService service = s_service.get();
+      if (service == null)
+      {
+         service = lookup();
+      }
+      return service;
+   }
+
+   /**
+    * Replace the provider used to look up the service and drop the cached service
+    *
+    * @param provider the provider, null to restore the JNDI lookup
+    */
+   public static void setProvider(WorkflowServiceProvider provider)
+   {
+      synchronized (s_lock)
+      {
+         s_provider = (provider != null) ? provider : new JndiServiceProvider();
+         s_service.set(null);
+         s_failures = 0;
+      }
+   }
+
+   /**
+    * Look up the service unless a retry after a failed lookup is not due yet. Callers arriving while
+    * another caller is looking up the service wait for its result.
+    *
+    * @return the service
+    *
+    * @throws IllegalStateException if the service could not be looked up
+    */
+   private static WebContentCustomWorkflowService lookup()
+   {
+      synchronized (s_lock)
+      {
+         WebContentCustomWorkflowService service = s_service.get();
+         if (service != null)
+         {
+            // Found by the caller this one waited for
+            return service;
+         }
+         if (s_failures > 0 && System.nanoTime() - s_nextAttempt < 0)
+         {
+            throw new IllegalStateException("The custom workflow service " + WCM_CUSTOM_WORKFLOW_SERVICE + " is not available yet");
+         }
+
+         try
+         {
+            service = s_provider.getService();
+            if (service == null)
+            {
+               throw new NamingException(WCM_CUSTOM_WORKFLOW_SERVICE + " was not found");
+            }
+            s_service.set(service);
+            s_failures = 0;
+            return service;
+         }
+         catch (NamingException ne)
+         {
+            s_failures++;
+            s_nextAttempt = System.nanoTime() + retryDelayNanos(s_failures);
+            LOGGER.log((s_failures == 1) ? Level.SEVERE : Level.FINE, "Unable to look up " + WCM_CUSTOM_WORKFLOW_SERVICE
+               + " (attempt " + s_failures + "), " + ne.getMessage(), ne);
+            IllegalStateException e = new IllegalStateException("The custom workflow service " + WCM_CUSTOM_WORKFLOW_SERVICE + " is not available");
+            e.initCause(ne);
+            throw e;
+         }
+      }
+   }
+
+   /**
+    * Returns the delay before the next lookup after a number of failed lookups
+    *
+    * @param failures the number of consecutive failed lookups
+    *
+    * @return the delay in nanoseconds
+    */
+   private static long retryDelayNanos(int failures)
+   {
+      if (failures == 0)
+      {
+         return 0;
+      }
+      long delay = MIN_RETRY_DELAY_MILLIS << Math.min(failures - 1, 20);
+      return TimeUnit.MILLISECONDS.toNanos(Math.min(delay, MAX_RETRY_DELAY_MILLIS));
+   }
+
+   /**
+    * Provider that looks up the portal service through JNDI
+    */
+   private static final class JndiServiceProvider implements WorkflowServiceProvider
+   {
+      /**
+       * @see com.ibm.wcm.sample.customactions.WorkflowServiceProvider#getService()
+       */
+      public WebContentCustomWorkflowService getService() throws NamingException
+      {
+         // Construct an initial Context and retrieve the Custom Workflow Service
+         InitialContext ctx = new InitialContext();
+         return (WebContentCustomWorkflowService) ctx.lookup(WCM_CUSTOM_WORKFLOW_SERVICE);
+      }
+   }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2014  IBM Corp.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.ibm.wcm.sample.customactions;
+
+import javax.naming.NamingException;
+
+import com.ibm.workplace.wcm.api.WebContentCustomWorkflowService;
+
+/**
+ * Supplies the WCM custom workflow service used to create action results. The portal
+ * service is looked up through JNDI; other providers let tests and benchmarks supply
+ * a local stand-in.
+ */
+public interface WorkflowServiceProvider
+{
+   /**
+    * Returns the custom workflow service
+    *
+    * @return the service, never null
+    *
+    * @throws NamingException if the service is not available
+    */
+   WebContentCustomWorkflowService getService() throws NamingException;
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2014  IBM Corp.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.ibm.wcm.sample.customactions;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.TestCase;
+
+import com.ibm.workplace.wcm.api.Document;
+import com.ibm.workplace.wcm.api.custom.CustomWorkflowAction;
+import com.ibm.workplace.wcm.api.custom.CustomWorkflowActionResult;
+import com.ibm.workplace.wcm.api.custom.Directives;
+
+/**
+ * Runs many concurrent getAction and execute calls against stand-in documents, checking that
+ * thread-safe actions are shared, other actions are created per call, and every execution is
+ * counted once in the action metrics.
+ */
+public class CustomWorkflowActionFactoryStressTest extends TestCase
+{
+   /** Name of the shared action */
+   private static final String SHARED_ACTION = SharedCountingAction.class.getName();
+
+   /** Name of the action created per call */
+   private static final String ACTION = CountingAction.class.getName();
+
+   /** Number of concurrent callers */
+   private static final int THREADS = 16;
+
+   /** Number of documents each caller runs both actions against */
+   private static final int ITERATIONS = 2000;
+
+   /**
+    * @see junit.framework.TestCase#setUp()
+    */
+   protected void setUp()
+   {
+      WorkflowServiceLocator.setProvider(StandIns.workflowServiceProvider());
+      SharedCountingAction.s_executions.set(0);
+      CountingAction.s_executions.set(0);
+      CountingAction.s_instances.set(0);
+   }
+
+   /**
+    * @see junit.framework.TestCase#tearDown()
+    */
+   protected void tearDown()
+   {
+      ActionMetrics.shutdown();
+      WorkflowServiceLocator.setProvider(null);
+   }
+
+   /**
+    * Run both actions from many threads at once
+    * @throws Exception If the callers do not finish
+    */
+   public void testConcurrentGetActionAndExecute() throws Exception
+   {
+      final CustomWorkflowActionFactoryImpl factory = new CustomWorkflowActionFactoryImpl("stress-factory.properties");
+      assertEquals(2, factory.getActionNames().length);
+
+      final CountDownLatch start = new CountDownLatch(1);
+      final CountDownLatch done = new CountDownLatch(THREADS);
+      final Queue<Throwable> failures = new ConcurrentLinkedQueue<Throwable>();
+      final Map<CustomWorkflowAction, Boolean> shared = Collections.synchronizedMap(new IdentityHashMap<CustomWorkflowAction, Boolean>());
+      final Map<CustomWorkflowAction, Boolean> created = Collections.synchronizedMap(new IdentityHashMap<CustomWorkflowAction, Boolean>());
+      for (int t = 0; t < THREADS; t++)
+      {
+         final int thread = t;
+         new Thread("stress-" + t)
+         {
+            public void run()
+            {
+               try
+               {
+                  start.await();
+                  for (int i = 0; i < ITERATIONS; i++)
+                  {
+                     Document document = StandIns.document(thread + "-" + i, "Document " + i, new Date(i));
+
+                     CustomWorkflowAction sharedAction = factory.getAction(SHARED_ACTION, document);
+                     shared.put(sharedAction, Boolean.TRUE);
+                     assertContinue(sharedAction.execute(document));
+
+                     CustomWorkflowAction action = factory.getAction(ACTION, document);
+                     created.put(action, Boolean.TRUE);
+                     assertContinue(action.execute(document));
+                  }
+               }
+               catch (Throwable e)
+               {
+                  failures.add(e);
+               }
+               finally
+               {
+                  done.countDown();
+               }
+            }
+         }.start();
+      }
+      start.countDown();
+      assertTrue("Callers did not finish", done.await(60, TimeUnit.SECONDS));
+      assertTrue("Failures " + failures, failures.isEmpty());
+
+      long executions = (long) THREADS * ITERATIONS;
+      assertEquals("One shared instance", 1, shared.size());
+      assertTrue(shared.keySet().iterator().next() instanceof InstrumentedAction);
+      assertEquals("One instance per call", executions, created.size());
+      assertEquals(executions, CountingAction.s_instances.get());
+
+      assertEquals(executions, SharedCountingAction.s_executions.get());
+      assertEquals(executions, CountingAction.s_executions.get());
+      for (String name : new String[] {SHARED_ACTION, ACTION})
+      {
+         ActionMetrics metrics = ActionMetrics.forAction(name);
+         assertEquals(name, executions, metrics.getInvocationCount());
+         assertEquals(name, executions, metrics.getContinueCount());
+         assertEquals(name, 0, metrics.getFailedCount());
+         assertEquals(name, executions, metrics.getLatency().getCount());
+      }
+   }
+
+   /**
+    * Check that a result continues the workflow
+    * @param result the action result
+    */
+   static void assertContinue(CustomWorkflowActionResult result)
+   {
+      assertNotNull(result);
+      assertEquals(Directives.CONTINUE, result.getDirective());
+   }
+
+   /**
+    * Thread-safe action counting its executions
+    */
+   public static class SharedCountingAction implements CustomWorkflowAction, ThreadSafeAction
+   {
+      /** Number of executions */
+      static final AtomicLong s_executions = new AtomicLong();
+
+      /**
+       * @see com.ibm.workplace.wcm.api.custom.CustomWorkflowAction#execute(com.ibm.workplace.wcm.api.Document)
+       */
+      public CustomWorkflowActionResult execute(Document document)
+      {
+         s_executions.incrementAndGet();
+         return ActionResultBuilder.result(Directives.CONTINUE, "Counted " + document.getId().getId());
+      }
+
+      /**
+       * @see com.ibm.workplace.wcm.api.custom.CustomWorkflowAction#getExecuteDate(com.ibm.workplace.wcm.api.Document)
+       */
+      public Date getExecuteDate(Document document)
+      {
+         return DATE_EXECUTE_NOW;
+      }
+   }
+
+   /**
+    * Action that is not marked thread-safe, counting its instances and executions
+    */
+   public static class CountingAction implements CustomWorkflowAction
+   {
+      /** Number of instances created */
+      static final AtomicLong s_instances = new AtomicLong();
+
+      /** Number of executions */
+      static final AtomicLong s_executions = new AtomicLong();
+
+      /** True once this instance has run, an instance must only run once */
+      private boolean m_executed;
+
+      /**
+       * Constructor
+       */
+      public CountingAction()
+      {
+         s_instances.incrementAndGet();
+      }
+
+      /**
+       * @see com.ibm.workplace.wcm.api.custom.CustomWorkflowAction#execute(com.ibm.workplace.wcm.api.Document)
+       */
+      public CustomWorkflowActionResult execute(Document document)
+      {
+         if (m_executed)
+         {
+            throw new IllegalStateException("Instance shared between executions");
+         }
+         m_executed = true;
+         s_executions.incrementAndGet();
+         return ActionResultBuilder.result(Directives.CONTINUE, "Counted " + document.getId().getId());
+      }
+
+      /**
+       * @see com.ibm.workplace.wcm.api.custom.CustomWorkflowAction#getExecuteDate(com.ibm.workplace.wcm.api.Document)
+       */
+      public Date getExecuteDate(Document document)
+      {
+         return DATE_EXECUTE_NOW;
+      }
+   }
+}
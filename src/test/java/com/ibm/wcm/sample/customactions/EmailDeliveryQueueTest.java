@@ -0,0 +1,288 @@
+/*
+ * Copyright 2014  IBM Corp.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.ibm.wcm.sample.customactions;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+
+import junit.framework.TestCase;
+
+/**
+ * Runs the asynchronous delivery queue against the in-memory mail transport, checking each
+ * overflow policy, that shutdown sends what is left on the queue and that a worker survives
+ * an error sending an email.
+ */
+public class EmailDeliveryQueueTest extends TestCase
+{
+   /** Email properties for a single worker and a queue holding one email */
+   private static final String PROPERTIES = "email-queue.properties";
+
+   /** The mail host */
+   private static final String MAIL_HOST = "localhost";
+
+   /** How long a test waits for the worker */
+   private static final long WAIT_SECONDS = 10;
+
+   /** Released each time the worker starts sending an email */
+   private final Semaphore m_sending = new Semaphore(0);
+
+   /** Holds the worker before it sends an email until counted down */
+   private volatile CountDownLatch m_release = new CountDownLatch(0);
+
+   /** Thrown by the next email sent, if set */
+   private volatile Error m_error;
+
+   /** The delivery under test */
+   private EmailDelivery m_delivery;
+
+   /**
+    * @see junit.framework.TestCase#tearDown()
+    */
+   protected void tearDown()
+   {
+      m_release.countDown();
+      if (m_delivery != null)
+      {
+         m_delivery.close();
+      }
+   }
+
+   /**
+    * Shutdown sends every email still on the queue
+    * @throws Exception If the emails cannot be created
+    */
+   public void testShutdownDrainsQueue() throws Exception
+   {
+      final int emails = 20;
+      m_release = new CountDownLatch(1);
+      createDelivery(EmailSettings.OverflowPolicy.FAIL, emails, 0);
+      for (int i = 0; i < emails; i++)
+      {
+         assertEquals(EmailDelivery.Status.QUEUED, m_delivery.deliver(MAIL_HOST, createMessage(i)));
+      }
+      InMemoryMailTransport transport = getTransport();
+      assertEquals("Nothing sent while the worker is held", 0, transport.getSentCount());
+
+      m_release.countDown();
+      m_delivery.close();
+      assertEquals("Every queued email sent", emails, transport.getSentCount());
+   }
+
+   /**
+    * The drop policy drops the email when the queue is full
+    * @throws Exception If the worker does not start sending
+    */
+   public void testDropPolicy() throws Exception
+   {
+      createDelivery(EmailSettings.OverflowPolicy.DROP, 1, 0);
+      fillQueue();
+
+      assertEquals(EmailDelivery.Status.DROPPED, m_delivery.deliver(MAIL_HOST, createMessage(3)));
+
+      m_release.countDown();
+      m_delivery.close();
+      assertEquals("Dropped email not sent", 2, getTransport().getSentCount());
+   }
+
+   /**
+    * The fail policy rejects the email when the queue is full
+    * @throws Exception If the worker does not start sending
+    */
+   public void testFailPolicy() throws Exception
+   {
+      createDelivery(EmailSettings.OverflowPolicy.FAIL, 1, 0);
+      fillQueue();
+
+      assertEquals(EmailDelivery.Status.REJECTED, m_delivery.deliver(MAIL_HOST, createMessage(3)));
+
+      m_release.countDown();
+      m_delivery.close();
+      assertEquals("Rejected email not sent", 2, getTransport().getSentCount());
+   }
+
+   /**
+    * The block policy rejects the email when no space frees up within the timeout
+    * @throws Exception If the worker does not start sending
+    */
+   public void testBlockPolicyTimesOut() throws Exception
+   {
+      final long timeout = 100;
+      createDelivery(EmailSettings.OverflowPolicy.BLOCK, 1, timeout);
+      fillQueue();
+
+      long start = System.nanoTime();
+      assertEquals(EmailDelivery.Status.REJECTED, m_delivery.deliver(MAIL_HOST, createMessage(3)));
+      assertTrue("Waited for space", System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(timeout));
+
+      m_release.countDown();
+      m_delivery.close();
+      assertEquals("Rejected email not sent", 2, getTransport().getSentCount());
+   }
+
+   /**
+    * The block policy queues the email once the worker frees up space
+    * @throws Exception If the worker does not start sending
+    */
+   public void testBlockPolicyWaitsForSpace() throws Exception
+   {
+      createDelivery(EmailSettings.OverflowPolicy.BLOCK, 1, TimeUnit.SECONDS.toMillis(WAIT_SECONDS));
+      fillQueue();
+
+      final EmailDelivery.Status[] status = new EmailDelivery.Status[1];
+      final MimeMessage message = createMessage(3);
+      Thread caller = new Thread(new Runnable()
+      {
+         public void run()
+         {
+            try
+            {
+               status[0] = m_delivery.deliver(MAIL_HOST, message);
+            }
+            catch (MessagingException e)
+            {
+               // Leaves the status unset, failing the test
+            }
+         }
+      });
+      caller.start();
+
+      m_release.countDown();
+      caller.join(TimeUnit.SECONDS.toMillis(WAIT_SECONDS));
+      assertEquals(EmailDelivery.Status.QUEUED, status[0]);
+      m_delivery.close();
+      assertEquals("Every email sent", 3, getTransport().getSentCount());
+   }
+
+   /**
+    * An error sending one email fails that email only, the worker goes on to send the next
+    * @throws Exception If the emails cannot be created
+    */
+   public void testWorkerSurvivesError() throws Exception
+   {
+      Logger logger = Logger.getLogger(EmailDeliveryQueue.class.getName());
+      Level level = logger.getLevel();
+      logger.setLevel(Level.OFF);
+      try
+      {
+         m_error = new LinkageError("Simulated error sending an email");
+         createDelivery(EmailSettings.OverflowPolicy.FAIL, 10, 0);
+         assertEquals(EmailDelivery.Status.QUEUED, m_delivery.deliver(MAIL_HOST, createMessage(1)));
+         assertEquals(EmailDelivery.Status.QUEUED, m_delivery.deliver(MAIL_HOST, createMessage(2)));
+
+         m_delivery.close();
+         assertEquals("Email after the error sent", 1, getTransport().getSentCount());
+      }
+      finally
+      {
+         logger.setLevel(level);
+      }
+   }
+
+   /**
+    * Create the delivery under test. The worker waits on m_release before sending each email.
+    *
+    * @param policy the overflow policy
+    * @param capacity the queue capacity
+    * @param blockTimeout how long the block policy waits for space
+    */
+   private void createDelivery(final EmailSettings.OverflowPolicy policy, final int capacity, final long blockTimeout)
+   {
+      EmailSettings settings = new EmailSettings(PROPERTIES)
+      {
+         public EmailSettings.OverflowPolicy getOverflowPolicy()
+         {
+            return policy;
+         }
+
+         public int getAsyncQueueCapacity()
+         {
+            return capacity;
+         }
+
+         public long getAsyncBlockTimeout()
+         {
+            return blockTimeout;
+         }
+      };
+      m_delivery = new EmailDelivery(settings)
+      {
+         void send(String mailHost, MimeMessage message) throws MessagingException
+         {
+            m_sending.release();
+            try
+            {
+               m_release.await();
+            }
+            catch (InterruptedException e)
+            {
+               Thread.currentThread().interrupt();
+            }
+            Error error = m_error;
+            if (error != null)
+            {
+               m_error = null;
+               throw error;
+            }
+            super.send(mailHost, message);
+         }
+      };
+   }
+
+   /**
+    * Hold the worker on one email and fill the single place on the queue with another
+    * @throws Exception If the worker does not start sending
+    */
+   private void fillQueue() throws Exception
+   {
+      m_release = new CountDownLatch(1);
+      assertEquals(EmailDelivery.Status.QUEUED, m_delivery.deliver(MAIL_HOST, createMessage(1)));
+      assertTrue("Worker sending", m_sending.tryAcquire(WAIT_SECONDS, TimeUnit.SECONDS));
+      assertEquals(EmailDelivery.Status.QUEUED, m_delivery.deliver(MAIL_HOST, createMessage(2)));
+   }
+
+   /**
+    * Returns the in-memory transport the delivery sends through
+    *
+    * @return the transport
+    */
+   private InMemoryMailTransport getTransport()
+   {
+      return (InMemoryMailTransport) m_delivery.getTransport(MAIL_HOST);
+   }
+
+   /**
+    * Create an email whose subject is its number
+    *
+    * @param number the email number
+    *
+    * @return the email
+    *
+    * @throws MessagingException If the email cannot be created
+    */
+   private MimeMessage createMessage(int number) throws MessagingException
+   {
+      MimeMessage message = new MimeMessage(m_delivery.getSession(MAIL_HOST));
+      message.setFrom(new InternetAddress("workflow@example.com"));
+      message.setRecipient(Message.RecipientType.TO, new InternetAddress("author@example.com"));
+      message.setSubject(String.valueOf(number));
+      message.setText("Email " + number);
+      return message;
+   }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2014  IBM Corp.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.ibm.wcm.sample.customactions;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.internet.MimeBodyPart;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMultipart;
+
+import junit.framework.TestCase;
+
+/**
+ * Adds the emails for several documents with different subjects to the digest collector and checks
+ * that the documents for the same recipients are sent as one multipart email, when the digest is
+ * full and when the digest window has passed.
+ */
+public class EmailDigestTest extends TestCase
+{
+   /** Email properties for a sync delivery through the in-memory transport */
+   private static final String PROPERTIES = "email-digest.properties";
+
+   /** The mail host */
+   private static final String MAIL_HOST = "localhost";
+
+   /** The sender */
+   private static final String FROM = "workflow@example.com";
+
+   /** Charset of the emails */
+   private static final String CHARSET = "UTF-8";
+
+   /** How long a test waits for a digest to be sent */
+   private static final long WAIT_SECONDS = 10;
+
+   /** The delivery the digests are sent with */
+   private EmailDelivery m_delivery;
+
+   /** The collector under test */
+   private EmailDigest m_digest;
+
+   /**
+    * @see junit.framework.TestCase#setUp()
+    */
+   protected void setUp()
+   {
+      m_delivery = new EmailDelivery(new EmailSettings(PROPERTIES));
+   }
+
+   /**
+    * @see junit.framework.TestCase#tearDown()
+    */
+   protected void tearDown()
+   {
+      if (m_digest != null)
+      {
+         m_digest.close();
+      }
+      m_delivery.close();
+   }
+
+   /**
+    * A digest is sent as one email once it holds the maximum number of documents
+    * @throws Exception If the digest cannot be read
+    */
+   public void testFullDigestSent() throws Exception
+   {
+      create(TimeUnit.MINUTES.toMillis(10), 3);
+      add("author@example.com", "Document 1", "Document 2", "Document 3");
+
+      waitForSent(1);
+      MimeMessage message = getTransport().getMessages().get(0);
+      assertEquals("3 documents", message.getSubject());
+      assertDocuments(message, "Document 1", "Document 2", "Document 3");
+   }
+
+   /**
+    * A digest that is not full is sent as one email once the window has passed
+    * @throws Exception If the digest cannot be read
+    */
+   public void testDigestSentAfterWindow() throws Exception
+   {
+      create(100, 100);
+      add("author@example.com", "Document 1", "Document 2");
+
+      waitForSent(1);
+      MimeMessage message = getTransport().getMessages().get(0);
+      assertEquals("2 documents", message.getSubject());
+      assertDocuments(message, "Document 1", "Document 2");
+   }
+
+   /**
+    * Documents with the same subject keep it in the digest subject
+    * @throws Exception If the digest cannot be read
+    */
+   public void testSameSubjectKept() throws Exception
+   {
+      create(TimeUnit.MINUTES.toMillis(10), 2);
+      List<String> to = Collections.singletonList("author@example.com");
+      m_digest.add(MAIL_HOST, FROM, to, null, null, "Review", "Message 1", CHARSET, "Document 1");
+      m_digest.add(MAIL_HOST, FROM, to, null, null, "Review", "Message 2", CHARSET, "Document 2");
+
+      waitForSent(1);
+      assertEquals("Review (2 documents)", getTransport().getMessages().get(0).getSubject());
+   }
+
+   /**
+    * Documents for different recipients are collected into different digests
+    * @throws Exception If the digests cannot be read
+    */
+   public void testRecipientsCollectedSeparately() throws Exception
+   {
+      create(TimeUnit.MINUTES.toMillis(10), 100);
+      add("author@example.com", "Document 1", "Document 2");
+      add("approver@example.com", "Document 3");
+      assertEquals("Nothing sent before the window has passed", 0, getTransport().getSentCount());
+
+      m_digest.close();
+      m_digest = null;
+      assertEquals("One email per recipient set", 2, getTransport().getSentCount());
+   }
+
+   /**
+    * Create the collector under test
+    *
+    * @param window time in milliseconds a digest collects documents
+    * @param maxDocuments number of documents after which a digest is sent
+    */
+   private void create(final long window, final int maxDocuments)
+   {
+      EmailSettings settings = new EmailSettings(PROPERTIES)
+      {
+         public long getDigestWindow()
+         {
+            return window;
+         }
+
+         public int getDigestMaxDocuments()
+         {
+            return maxDocuments;
+         }
+      };
+      m_digest = new EmailDigest(settings, m_delivery);
+   }
+
+   /**
+    * Add the emails for documents to a recipient, each with the document title as its subject
+    *
+    * @param recipient the recipient
+    * @param titles the document titles
+    */
+   private void add(String recipient, String... titles)
+   {
+      for (String title : titles)
+      {
+         m_digest.add(MAIL_HOST, FROM, Collections.singletonList(recipient), null, null, title, "Message for " + title, CHARSET, title);
+      }
+   }
+
+   /**
+    * Wait for emails to be sent
+    *
+    * @param count the number of emails
+    *
+    * @throws InterruptedException If interrupted while waiting
+    */
+   private void waitForSent(int count) throws InterruptedException
+   {
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(WAIT_SECONDS);
+      while (getTransport().getSentCount() < count && System.nanoTime() < deadline)
+      {
+         Thread.sleep(10);
+      }
+      assertEquals(count, getTransport().getSentCount());
+   }
+
+   /**
+    * Check that a digest lists the documents and has a part holding the message for each one
+    *
+    * @param message the digest
+    * @param titles the document titles, in order
+    *
+    * @throws Exception If the digest cannot be read
+    */
+   private static void assertDocuments(MimeMessage message, String... titles) throws Exception
+   {
+      MimeMultipart multipart = (MimeMultipart) message.getContent();
+      assertEquals("A list and a part per document", titles.length + 1, multipart.getCount());
+      String list = (String) multipart.getBodyPart(0).getContent();
+      for (int i = 0; i < titles.length; i++)
+      {
+         assertTrue(list, list.contains((i + 1) + ". " + titles[i]));
+         MimeBodyPart part = (MimeBodyPart) multipart.getBodyPart(i + 1);
+         assertEquals(titles[i], part.getDescription());
+         assertEquals("Message for " + titles[i], part.getContent());
+      }
+   }
+
+   /**
+    * Returns the in-memory transport the digests are sent through
+    *
+    * @return the transport
+    */
+   private InMemoryMailTransport getTransport()
+   {
+      return (InMemoryMailTransport) m_delivery.getTransport(MAIL_HOST);
+   }
+}
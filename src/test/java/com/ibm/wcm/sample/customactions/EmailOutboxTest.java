@@ -0,0 +1,418 @@
+/*
+ * Copyright 2014  IBM Corp.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.ibm.wcm.sample.customactions;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.mail.Address;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+
+import junit.framework.TestCase;
+
+import com.sun.mail.smtp.SMTPSendFailedException;
+
+/**
+ * Writes emails to an outbox journal in a temporary directory and reopens it without the emails
+ * having been acknowledged, as after a crash, checking that they are recovered and sent, that a
+ * damaged record at the end of the journal is cut off, that sent segments are deleted and that
+ * only permanent refusals are given up on.
+ */
+public class EmailOutboxTest extends TestCase
+{
+   /** Email properties for a sync delivery through the in-memory transport */
+   private static final String PROPERTIES = "email-outbox.properties";
+
+   /** The mail host */
+   private static final String MAIL_HOST = "localhost";
+
+   /** Segment size large enough for every email of a test */
+   private static final long LARGE_SEGMENTS = 1024 * 1024;
+
+   /** Retry delay short enough for a test to wait for the retry */
+   private static final long SHORT_RETRY = 50;
+
+   /** How long a test waits for the outbox sender */
+   private static final long WAIT_SECONDS = 10;
+
+   /** Subjects of the emails sent, in the order they were sent */
+   private final Queue<String> m_sent = new ConcurrentLinkedQueue<String>();
+
+   /** Released each time an email is sent */
+   private final Semaphore m_sending = new Semaphore(0);
+
+   /** Failures thrown by the next emails sent, in order */
+   private final Queue<MessagingException> m_failures = new ConcurrentLinkedQueue<MessagingException>();
+
+   /** True while every email fails as if the mail server was down */
+   private volatile boolean m_outage;
+
+   /** The outbox directory */
+   private File m_directory;
+
+   /** The delivery the outbox sends through */
+   private EmailDelivery m_delivery;
+
+   /** The outbox under test */
+   private EmailOutbox m_outbox;
+
+   /** Level of the outbox logger before the test */
+   private Level m_level;
+
+   /**
+    * @see junit.framework.TestCase#setUp()
+    */
+   protected void setUp() throws IOException
+   {
+      m_directory = File.createTempFile("outbox", "");
+      if (!m_directory.delete() || !m_directory.mkdir())
+      {
+         throw new IOException("Unable to create outbox directory " + m_directory);
+      }
+      m_delivery = new EmailDelivery(new EmailSettings(PROPERTIES))
+      {
+         void send(String mailHost, MimeMessage message) throws MessagingException
+         {
+            MessagingException failure = m_failures.poll();
+            if (failure != null)
+            {
+               throw failure;
+            }
+            if (m_outage)
+            {
+               throw new MessagingException("Simulated mail server outage");
+            }
+            m_sent.add(message.getSubject());
+            m_sending.release();
+         }
+      };
+
+      // The failures are expected, keep them out of the test output
+      Logger logger = Logger.getLogger(EmailOutbox.class.getName());
+      m_level = logger.getLevel();
+      logger.setLevel(Level.SEVERE);
+   }
+
+   /**
+    * @see junit.framework.TestCase#tearDown()
+    */
+   protected void tearDown()
+   {
+      if (m_outbox != null)
+      {
+         m_outbox.shutdown();
+      }
+      m_delivery.close();
+      File[] files = m_directory.listFiles();
+      if (files != null)
+      {
+         for (File file : files)
+         {
+            file.delete();
+         }
+      }
+      m_directory.delete();
+      Logger.getLogger(EmailOutbox.class.getName()).setLevel(m_level);
+   }
+
+   /**
+    * Emails that were never sent are sent once the outbox is reopened, and only once
+    * @throws Exception If the journal cannot be written or read
+    */
+   public void testRecoverUnsentEmails() throws Exception
+   {
+      m_outage = true;
+      open(LARGE_SEGMENTS, SHORT_RETRY);
+      append(1, 2, 3);
+      crash();
+
+      m_outage = false;
+      open(LARGE_SEGMENTS, SHORT_RETRY);
+      waitForSent(3);
+      m_outbox.shutdown();
+      assertEquals(Arrays.asList("1", "2", "3"), new ArrayList<String>(m_sent));
+
+      m_outage = true;
+      open(LARGE_SEGMENTS, SHORT_RETRY);
+      assertEquals("Nothing left to send", 0, m_outbox.getPendingCount());
+   }
+
+   /**
+    * A record cut short at the end of the journal is discarded and the records before it are sent
+    * @throws Exception If the journal cannot be written or read
+    */
+   public void testRecoverTruncatedTail() throws Exception
+   {
+      m_outage = true;
+      open(LARGE_SEGMENTS, SHORT_RETRY);
+      append(1, 2);
+      crash();
+
+      File segment = lastSegment();
+      long valid = segment.length();
+      FileOutputStream out = new FileOutputStream(segment, true);
+      try
+      {
+         // The header of a 100 byte record followed by only part of it
+         out.write(new byte[] {0, 0, 0, 100, 1, 2, 3, 4, 1, 0, 0, 0, 0});
+      }
+      finally
+      {
+         out.close();
+      }
+
+      open(LARGE_SEGMENTS, SHORT_RETRY);
+      assertEquals("Damaged record cut off", valid, segment.length());
+      m_outage = false;
+      waitForSent(2);
+      m_outbox.shutdown();
+      assertEquals(Arrays.asList("1", "2"), new ArrayList<String>(m_sent));
+   }
+
+   /**
+    * A record with a bad checksum at the end of the journal is discarded and the records before it are sent
+    * @throws Exception If the journal cannot be written or read
+    */
+   public void testRecoverCorruptTail() throws Exception
+   {
+      m_outage = true;
+      open(LARGE_SEGMENTS, SHORT_RETRY);
+      append(1, 2);
+      crash();
+
+      File segment = lastSegment();
+      RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+      try
+      {
+         raf.seek(raf.length() - 1);
+         int last = raf.read();
+         raf.seek(raf.length() - 1);
+         raf.write(last ^ 0xff);
+      }
+      finally
+      {
+         raf.close();
+      }
+
+      m_outage = false;
+      open(LARGE_SEGMENTS, SHORT_RETRY);
+      waitForSent(1);
+      m_outbox.shutdown();
+      assertEquals(Arrays.asList("1"), new ArrayList<String>(m_sent));
+   }
+
+   /**
+    * Segments are deleted once every email in them has been sent
+    * @throws Exception If the journal cannot be written or read
+    */
+   public void testCompaction() throws Exception
+   {
+      // Every record starts a new segment
+      open(1, SHORT_RETRY);
+      append(1, 2, 3, 4, 5);
+      waitForSent(5);
+
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(WAIT_SECONDS);
+      while (segments().length > 1 && System.nanoTime() < deadline)
+      {
+         Thread.sleep(10);
+      }
+      assertEquals("Only the segment being written is kept", 1, segments().length);
+      crash();
+
+      m_outage = true;
+      open(1, SHORT_RETRY);
+      assertEquals("Nothing left to send", 0, m_outbox.getPendingCount());
+   }
+
+   /**
+    * An email deferred by the server with a 4xx reply is kept and sent again
+    * @throws Exception If the journal cannot be written
+    */
+   public void testTemporaryRefusalRetried() throws Exception
+   {
+      Address[] recipients = new Address[] {new InternetAddress("author@example.com")};
+      m_failures.add(new SMTPSendFailedException("DATA", 451, "451 Try again later", null, null, recipients, null));
+      m_failures.add(new SMTPSendFailedException("RCPT TO", 452, "452 Too many recipients", null, null, recipients, null));
+      open(LARGE_SEGMENTS, SHORT_RETRY);
+      append(1);
+
+      waitForSent(1);
+      assertEquals(Arrays.asList("1"), new ArrayList<String>(m_sent));
+   }
+
+   /**
+    * An email refused by the server with a 5xx reply is acknowledged and not sent again
+    * @throws Exception If the journal cannot be written or read
+    */
+   public void testPermanentRefusalAcknowledged() throws Exception
+   {
+      Address[] recipients = new Address[] {new InternetAddress("author@example.com")};
+      m_failures.add(new SMTPSendFailedException("DATA", 554, "554 Message rejected", null, null, recipients, null));
+      open(LARGE_SEGMENTS, SHORT_RETRY);
+      append(1, 2);
+      waitForSent(1);
+      crash();
+      assertEquals(Arrays.asList("2"), new ArrayList<String>(m_sent));
+
+      m_outage = true;
+      open(LARGE_SEGMENTS, SHORT_RETRY);
+      assertEquals("Nothing left to send", 0, m_outbox.getPendingCount());
+   }
+
+   /**
+    * A failed email waits for its retry without holding up the emails behind it
+    * @throws Exception If the journal cannot be written
+    */
+   public void testFailedEmailDoesNotHoldUpOthers() throws Exception
+   {
+      m_failures.add(new MessagingException("Simulated connection failure"));
+      open(LARGE_SEGMENTS, TimeUnit.MINUTES.toMillis(10));
+      append(1, 2);
+
+      waitForSent(1);
+      assertEquals(Arrays.asList("2"), new ArrayList<String>(m_sent));
+      assertEquals("Failed email waiting for its retry", 1, m_outbox.getPendingCount());
+   }
+
+   /**
+    * Only 5xx replies and refusals without any valid unsent address are permanent
+    * @throws Exception If the addresses cannot be parsed
+    */
+   public void testIsPermanent() throws Exception
+   {
+      Address[] recipients = new Address[] {new InternetAddress("author@example.com")};
+      assertFalse(EmailOutbox.isPermanent(new SMTPSendFailedException("MAIL FROM", 421, "421 Closing", null, null, recipients, null)));
+      assertFalse(EmailOutbox.isPermanent(new SMTPSendFailedException("DATA", 450, "450 Mailbox busy", null, null, recipients, null)));
+      assertTrue(EmailOutbox.isPermanent(new SMTPSendFailedException("DATA", 550, "550 Mailbox unavailable", null, null, recipients, null)));
+      assertFalse(EmailOutbox.isPermanent(new SendFailedException("Some addresses failed", null, null, recipients, null)));
+      assertTrue(EmailOutbox.isPermanent(new SendFailedException("Invalid addresses", null, null, null, recipients)));
+   }
+
+   /**
+    * Open the outbox on the test directory
+    *
+    * @param segmentSize size in bytes after which a new segment is started
+    * @param retryDelay time in milliseconds to wait before retrying a failed email
+    *
+    * @throws IOException If the journal cannot be read
+    */
+   private void open(final long segmentSize, final long retryDelay) throws IOException
+   {
+      EmailSettings settings = new EmailSettings(PROPERTIES)
+      {
+         public String getOutboxDirectory()
+         {
+            return m_directory.getPath();
+         }
+
+         public long getOutboxSegmentSize()
+         {
+            return segmentSize;
+         }
+
+         public long getOutboxRetryDelay()
+         {
+            return retryDelay;
+         }
+      };
+      m_outbox = new EmailOutbox(m_delivery, settings);
+   }
+
+   /**
+    * Stop the outbox without sending what is left, which leaves the journal as a crash would
+    */
+   private void crash()
+   {
+      m_outbox.shutdown();
+      m_outbox = null;
+   }
+
+   /**
+    * Write emails whose subjects are their numbers to the outbox
+    *
+    * @param numbers the email numbers
+    *
+    * @throws MessagingException If an email cannot be written
+    */
+   private void append(int... numbers) throws MessagingException
+   {
+      for (int number : numbers)
+      {
+         MimeMessage message = new MimeMessage(m_delivery.getSession(MAIL_HOST));
+         message.setFrom(new InternetAddress("workflow@example.com"));
+         message.setRecipient(Message.RecipientType.TO, new InternetAddress("author@example.com"));
+         message.setSubject(String.valueOf(number));
+         message.setText("Email " + number);
+         message.saveChanges();
+         m_outbox.append(MAIL_HOST, message);
+      }
+   }
+
+   /**
+    * Wait for emails to be sent
+    *
+    * @param count the number of emails
+    *
+    * @throws InterruptedException If interrupted while waiting
+    */
+   private void waitForSent(int count) throws InterruptedException
+   {
+      assertTrue(count + " emails sent", m_sending.tryAcquire(count, WAIT_SECONDS, TimeUnit.SECONDS));
+   }
+
+   /**
+    * Returns the journal segments in the test directory
+    *
+    * @return the segment files, oldest first
+    */
+   private File[] segments()
+   {
+      File[] files = m_directory.listFiles(new FilenameFilter()
+      {
+         public boolean accept(File dir, String name)
+         {
+            return name.startsWith("outbox-") && name.endsWith(".log");
+         }
+      });
+      Arrays.sort(files);
+      return files;
+   }
+
+   /**
+    * Returns the newest journal segment
+    *
+    * @return the newest segment file
+    */
+   private File lastSegment()
+   {
+      File[] files = segments();
+      List<File> list = Arrays.asList(files);
+      return list.get(list.size() - 1);
+   }
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright 2014  IBM Corp.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.ibm.wcm.sample.customactions;
+
+import java.util.Date;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.TestCase;
+
+import com.ibm.workplace.wcm.api.Document;
+import com.ibm.workplace.wcm.api.custom.CustomWorkflowAction;
+import com.ibm.workplace.wcm.api.custom.CustomWorkflowActionResult;
+import com.ibm.workplace.wcm.api.custom.Directives;
+
+/**
+ * Runs an action concurrently on the same version of a document through the execution guard,
+ * checking that it runs once, and checks that executions in flight survive a full guard.
+ */
+public class IdempotentActionTest extends TestCase
+{
+   /** Number of concurrent callers */
+   private static final int THREADS = 16;
+
+
+   /**
+    * @see junit.framework.TestCase#setUp()
+    */
+   protected void setUp()
+   {
+      WorkflowServiceLocator.setProvider(StandIns.workflowServiceProvider());
+   }
+
+   /**
+    * @see junit.framework.TestCase#tearDown()
+    */
+   protected void tearDown()
+   {
+      WorkflowServiceLocator.setProvider(null);
+   }
+
+   /**
+    * Many callers with their own copy of the same version of a document run the action once
+    * @throws Exception If the callers do not finish
+    */
+   public void testConcurrentExecutionsRunOnce() throws Exception
+   {
+      ExecutionGuard guard = new ExecutionGuard(100, 60000);
+      CountingAction action = new CountingAction(1);
+      Date lastModified = new Date(1404115200000L);
+      Document[] documents = new Document[THREADS];
+      for (int t = 0; t < THREADS; t++)
+      {
+         documents[t] = StandIns.document("document-1", "Copy " + t, lastModified);
+      }
+
+      ActionMetrics metrics = ActionMetrics.forAction("IdempotentActionTest.testConcurrentExecutionsRunOnce");
+      Queue<CustomWorkflowActionResult> results = runConcurrently(new IdempotentAction(action, "CountingAction", guard, metrics), documents);
+
+      assertEquals("One execution", 1, action.getExecutionCount());
+      assertEquals(THREADS - 1, guard.getDuplicateCount());
+      int duplicates = 0;
+      for (CustomWorkflowActionResult result : results)
+      {
+         assertEquals(Directives.CONTINUE, result.getDirective());
+         if (IdempotentAction.DUPLICATE_MESSAGE.equals(result.getMessage()))
+         {
+            duplicates++;
+         }
+      }
+      assertEquals(THREADS - 1, duplicates);
+      assertEquals("Skipped executions recorded", THREADS - 1, metrics.getContinueCount());
+
+      // A new version of the document runs the action again
+      new IdempotentAction(action, "CountingAction", guard, metrics).execute(StandIns.document("document-1", "Changed", new Date(lastModified.getTime() + 1)));
+      assertEquals(2, action.getExecutionCount());
+   }
+
+   /**
+    * Executions in flight are neither expired nor evicted from a full guard, a new execution
+    * runs unguarded instead
+    * @throws Exception If the test is interrupted
+    */
+   public void testInFlightClaimsSurviveAFullGuard() throws Exception
+   {
+      ExecutionGuard guard = new ExecutionGuard(2, 1);
+      ExecutionGuard.Claim first = guard.claim("first");
+      ExecutionGuard.Claim second = guard.claim("second");
+      assertNotNull(first);
+      assertNotNull(second);
+      Thread.sleep(10);
+
+      // Past the time to live, but still running
+      assertNull(guard.claim("first"));
+      ExecutionGuard.Claim unguarded = guard.claim("third");
+      assertNotNull(unguarded);
+      assertEquals(1, guard.getUnguardedCount());
+      assertEquals(2, guard.size());
+      guard.complete("third", unguarded);
+      assertEquals(2, guard.size());
+      assertNull(guard.claim("second"));
+
+      // Once completed and expired the execution makes room
+      guard.complete("first", first);
+      Thread.sleep(10);
+      assertNotNull(guard.claim("third"));
+      assertEquals(2, guard.size());
+      assertNull(guard.claim("second"));
+      assertNotNull(guard.claim("first"));
+   }
+
+   /**
+    * Completed executions are evicted from a full guard before they expire, executions in flight are kept
+    */
+   public void testCompletedClaimsAreEvictedUnderPressure()
+   {
+      ExecutionGuard guard = new ExecutionGuard(2, 60000);
+      guard.complete("completed", guard.claim("completed"));
+      assertNotNull(guard.claim("running"));
+      assertNull(guard.claim("completed"));
+
+      assertNotNull(guard.claim("new"));
+      assertEquals(0, guard.getUnguardedCount());
+      assertEquals(2, guard.size());
+      assertNull(guard.claim("running"));
+      assertNull(guard.claim("new"));
+      assertNotNull(guard.claim("completed"));
+      assertEquals(1, guard.getUnguardedCount());
+   }
+
+   /**
+    * Many callers run the action on different documents through a guard too small for them all,
+    * every document runs once and the guard never holds more than its maximum
+    * @throws Exception If the callers do not finish
+    */
+   public void testConcurrentExecutionsWithAFullGuard() throws Exception
+   {
+      ExecutionGuard guard = new ExecutionGuard(THREADS / 4, 60000);
+      CountingAction action = new CountingAction(THREADS);
+      Document[] documents = new Document[THREADS];
+      for (int t = 0; t < THREADS; t++)
+      {
+         documents[t] = StandIns.document("document-" + t, "Document " + t, new Date(1404115200000L));
+      }
+
+      runConcurrently(new IdempotentAction(action, "CountingAction", guard,
+         ActionMetrics.forAction("IdempotentActionTest.testConcurrentExecutionsWithAFullGuard")), documents);
+
+      assertEquals(THREADS, action.getExecutionCount());
+      for (int t = 0; t < THREADS; t++)
+      {
+         assertEquals("Document " + t, 1, action.getExecutionCount("document-" + t));
+      }
+      assertEquals(0, guard.getDuplicateCount());
+      assertEquals(THREADS - THREADS / 4, guard.getUnguardedCount());
+      assertEquals(THREADS / 4, guard.size());
+   }
+
+   /**
+    * Run an action on each document, each on its own thread, all started together
+    * @param action the action
+    * @param documents the documents
+    * @return the results
+    * @throws Exception If the callers do not finish
+    */
+   private static Queue<CustomWorkflowActionResult> runConcurrently(final CustomWorkflowAction action, Document[] documents) throws Exception
+   {
+      final CountDownLatch start = new CountDownLatch(1);
+      final CountDownLatch done = new CountDownLatch(documents.length);
+      final Queue<Throwable> failures = new ConcurrentLinkedQueue<Throwable>();
+      final Queue<CustomWorkflowActionResult> results = new ConcurrentLinkedQueue<CustomWorkflowActionResult>();
+      for (int t = 0; t < documents.length; t++)
+      {
+         final Document document = documents[t];
+         new Thread("idempotent-" + t)
+         {
+            public void run()
+            {
+               try
+               {
+                  start.await();
+                  results.add(action.execute(document));
+               }
+               catch (Throwable e)
+               {
+                  failures.add(e);
+               }
+               finally
+               {
+                  done.countDown();
+               }
+            }
+         }.start();
+      }
+      start.countDown();
+      assertTrue("Callers did not finish", done.await(60, TimeUnit.SECONDS));
+      assertTrue("Failures " + failures, failures.isEmpty());
+      return results;
+   }
+
+   /**
+    * Action counting its executions per document. Each execution waits until a number of executions
+    * are running, so that they are all in flight at once.
+    */
+   private static final class CountingAction implements CustomWorkflowAction
+   {
+      /** Number of executions */
+      private final AtomicLong m_executions = new AtomicLong();
+
+      /** Released once the expected number of executions are running */
+      private final CountDownLatch m_running;
+
+      /**
+       * Constructor
+       * @param overlapping number of executions each execution waits to be running
+       */
+      CountingAction(int overlapping)
+      {
+         m_running = new CountDownLatch(overlapping);
+      }
+
+      /** Number of executions keyed by document id */
+      private final ConcurrentMap<String, AtomicInteger> m_documents = new ConcurrentHashMap<String, AtomicInteger>();
+
+      /**
+       * @see com.ibm.workplace.wcm.api.custom.CustomWorkflowAction#execute(com.ibm.workplace.wcm.api.Document)
+       */
+      public CustomWorkflowActionResult execute(Document document)
+      {
+         m_executions.incrementAndGet();
+         String id = document.getId().getId();
+         m_documents.putIfAbsent(id, new AtomicInteger());
+         m_documents.get(id).incrementAndGet();
+         m_running.countDown();
+         try
+         {
+            if (!m_running.await(10, TimeUnit.SECONDS))
+            {
+               throw new IllegalStateException("Executions did not overlap");
+            }
+         }
+         catch (InterruptedException e)
+         {
+            Thread.currentThread().interrupt();
+         }
+         return ActionResultBuilder.result(Directives.CONTINUE, "Counted " + id);
+      }
+
+      /**
+       * @see com.ibm.workplace.wcm.api.custom.CustomWorkflowAction#getExecuteDate(com.ibm.workplace.wcm.api.Document)
+       */
+      public Date getExecuteDate(Document document)
+      {
+         return DATE_EXECUTE_NOW;
+      }
+
+      /**
+       * @return the number of executions
+       */
+      long getExecutionCount()
+      {
+         return m_executions.get();
+      }
+
+      /**
+       * @param id the document id
+       * @return the number of executions on the document
+       */
+      int getExecutionCount(String id)
+      {
+         AtomicInteger count = m_documents.get(id);
+         return (count != null) ? count.get() : 0;
+      }
+   }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2014  IBM Corp.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.ibm.wcm.sample.customactions;
+
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests formatting resource bundle messages through the message cache.
+ */
+public class ResourceBundleUtilityTest extends TestCase
+{
+   /** The test resource bundle */
+   private static final String BUNDLE = "com.ibm.wcm.sample.customactions.test-messages";
+
+   /** Number of concurrent callers */
+   private static final int THREADS = 8;
+
+   /** Number of messages each caller formats */
+   private static final int ITERATIONS = 5000;
+
+   /**
+    * @see junit.framework.TestCase#setUp()
+    */
+   protected void setUp()
+   {
+      ResourceBundleUtility.clearCache();
+   }
+
+   /**
+    * A null locale formats as the default locale
+    */
+   public void testNullLocale()
+   {
+      Locale defaultLocale = Locale.getDefault();
+      try
+      {
+         Locale.setDefault(Locale.GERMANY);
+         assertEquals("Amount 1.234,5", ResourceBundleUtility.getFormattedString(BUNDLE, "AMOUNT_1", null, new Object[] {Double.valueOf(1234.5)}));
+         assertEquals("Amount 1,234.5", ResourceBundleUtility.getFormattedString(BUNDLE, "AMOUNT_1", Locale.US, new Object[] {Double.valueOf(1234.5)}));
+      }
+      finally
+      {
+         Locale.setDefault(defaultLocale);
+      }
+   }
+
+   /**
+    * A missing key returns the key and the arguments
+    */
+   public void testMissingKey()
+   {
+      assertEquals("!MISSING! [a, 1]", ResourceBundleUtility.getFormattedString(BUNDLE, "MISSING", Locale.US, new Object[] {"a", Integer.valueOf(1)}));
+      assertEquals("!MISSING! []", ResourceBundleUtility.getFormattedString(BUNDLE, "MISSING", Locale.US, null));
+      assertEquals("!MISSING! []", ResourceBundleUtility.getString("no.such.Bundle", "MISSING", Locale.US));
+   }
+
+   /**
+    * A message without arguments is returned as formatted once
+    */
+   public void testNoArguments()
+   {
+      String message = ResourceBundleUtility.getString(BUNDLE, "GREETING_0", Locale.US);
+      assertEquals("Hello", message);
+      assertSame(message, ResourceBundleUtility.getFormattedString(BUNDLE, "GREETING_0", Locale.US, null));
+      // Placeholders without an argument are left as they are
+      assertEquals("Document {0} was approved by {1}", ResourceBundleUtility.getString(BUNDLE, "DOCUMENT_2", Locale.US));
+   }
+
+   /**
+    * Many threads format the same cached message with different arguments at once
+    * @throws Exception If the callers do not finish
+    */
+   public void testConcurrentFormatting() throws Exception
+   {
+      final CountDownLatch start = new CountDownLatch(1);
+      final CountDownLatch done = new CountDownLatch(THREADS);
+      final Queue<Throwable> failures = new ConcurrentLinkedQueue<Throwable>();
+      for (int t = 0; t < THREADS; t++)
+      {
+         final int thread = t;
+         new Thread("format-" + t)
+         {
+            public void run()
+            {
+               try
+               {
+                  start.await();
+                  for (int i = 0; i < ITERATIONS; i++)
+                  {
+                     String document = "doc-" + thread + "-" + i;
+                     String approver = "approver-" + i;
+                     assertEquals("Document " + document + " was approved by " + approver,
+                        ResourceBundleUtility.getFormattedString(BUNDLE, "DOCUMENT_2", Locale.US, new Object[] {document, approver}));
+                  }
+               }
+               catch (Throwable e)
+               {
+                  failures.add(e);
+               }
+               finally
+               {
+                  done.countDown();
+               }
+            }
+         }.start();
+      }
+      start.countDown();
+      assertTrue("Callers did not finish", done.await(60, TimeUnit.SECONDS));
+      assertTrue("Failures " + failures, failures.isEmpty());
+      assertEquals(1, ResourceBundleUtility.getCachedMessageCount());
+   }
+
+   /**
+    * A full cache drops the least recently used message and keeps formatting correctly
+    */
+   public void testCacheOverflow()
+   {
+      for (int i = 0; i < ResourceBundleUtility.MAX_CACHED_MESSAGES; i++)
+      {
+         assertEquals("!KEY_" + i + "! []", ResourceBundleUtility.getString(BUNDLE, "KEY_" + i, Locale.US));
+      }
+      assertEquals(ResourceBundleUtility.MAX_CACHED_MESSAGES, ResourceBundleUtility.getCachedMessageCount());
+
+      // Cached messages do not grow the cache, and reading one makes it the most recently used
+      ResourceBundleUtility.getString(BUNDLE, "KEY_0", Locale.US);
+      assertEquals(ResourceBundleUtility.MAX_CACHED_MESSAGES, ResourceBundleUtility.getCachedMessageCount());
+
+      // One more message drops the least recently used message only
+      assertEquals("Document a was approved by b", ResourceBundleUtility.getFormattedString(BUNDLE, "DOCUMENT_2", Locale.US, new Object[] {"a", "b"}));
+      assertEquals(ResourceBundleUtility.MAX_CACHED_MESSAGES, ResourceBundleUtility.getCachedMessageCount());
+      assertFalse("Least recently used dropped", ResourceBundleUtility.isCached(BUNDLE, "KEY_1", Locale.US));
+      assertTrue("Recently used kept", ResourceBundleUtility.isCached(BUNDLE, "KEY_0", Locale.US));
+      assertTrue(ResourceBundleUtility.isCached(BUNDLE, "KEY_2", Locale.US));
+      assertTrue(ResourceBundleUtility.isCached(BUNDLE, "DOCUMENT_2", Locale.US));
+
+      assertEquals("Document c was approved by d", ResourceBundleUtility.getFormattedString(BUNDLE, "DOCUMENT_2", Locale.US, new Object[] {"c", "d"}));
+      assertEquals("Hello", ResourceBundleUtility.getString(BUNDLE, "GREETING_0", Locale.US));
+      assertEquals(ResourceBundleUtility.MAX_CACHED_MESSAGES, ResourceBundleUtility.getCachedMessageCount());
+      assertFalse(ResourceBundleUtility.isCached(BUNDLE, "KEY_2", Locale.US));
+   }
+}
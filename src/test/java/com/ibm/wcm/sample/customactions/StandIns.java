@@ -0,0 +1,243 @@
+/*
+ * Copyright 2014  IBM Corp.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.ibm.wcm.sample.customactions;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Date;
+
+import com.ibm.workplace.wcm.api.Document;
+import com.ibm.workplace.wcm.api.DocumentId;
+import com.ibm.workplace.wcm.api.Editable;
+import com.ibm.workplace.wcm.api.WebContentCustomWorkflowService;
+import com.ibm.workplace.wcm.api.WorkflowedDocument;
+import com.ibm.workplace.wcm.api.custom.CustomWorkflowActionResult;
+
+/**
+ * Local stand-ins for the WCM API objects used by the tests and the benchmarks. The stand-ins are
+ * dynamic proxies so they do not depend on the full set of methods of the WCM interfaces; methods
+ * that are not stubbed return null, false or zero.
+ */
+public final class StandIns
+{
+   /**
+    * Not instantiable
+    */
+   private StandIns()
+   {
+   }
+
+   /**
+    * Create a stand-in document that is both editable and workflowed
+    *
+    * @param id the document id
+    * @param title the document title
+    *
+    * @return the stand-in document
+    */
+   public static Document document(String id, String title)
+   {
+      return document(id, title, null);
+   }
+
+   /**
+    * Create a stand-in document that is both editable and workflowed
+    *
+    * @param id the document id
+    * @param title the document title
+    * @param lastModified the last modified date, may be null
+    *
+    * @return the stand-in document
+    */
+   public static Document document(final String id, final String title, final Date lastModified)
+   {
+      final DocumentId documentId = proxy(DocumentId.class, new Handler()
+      {
+         Object handle(String method, Object[] args)
+         {
+            if ("getId".equals(method))
+            {
+               return id;
+            }
+            if ("getName".equals(method))
+            {
+               return id;
+            }
+            return UNHANDLED;
+         }
+      });
+
+      final String[][] authors = new String[][] {new String[] {"Stand-in Author"}};
+      return (Document) Proxy.newProxyInstance(StandIns.class.getClassLoader(),
+         new Class[] {Editable.class, WorkflowedDocument.class}, new Handler()
+         {
+            Object handle(String method, Object[] args)
+            {
+               if ("getId".equals(method))
+               {
+                  return documentId;
+               }
+               if ("getTitle".equals(method))
+               {
+                  return title;
+               }
+               if ("getName".equals(method))
+               {
+                  return id;
+               }
+               if ("getLastModified".equals(method))
+               {
+                  return lastModified;
+               }
+               if ("getAuthors".equals(method))
+               {
+                  return authors[0];
+               }
+               if ("addAuthors".equals(method))
+               {
+                  authors[0] = (String[]) args[0];
+                  return null;
+               }
+               return UNHANDLED;
+            }
+         });
+   }
+
+   /**
+    * Create a stand-in custom workflow service that returns simple result objects
+    *
+    * @return the stand-in service
+    */
+   public static WebContentCustomWorkflowService workflowService()
+   {
+      return proxy(WebContentCustomWorkflowService.class, new Handler()
+      {
+         Object handle(String method, final Object[] args)
+         {
+            if ("createResult".equals(method))
+            {
+               return proxy(CustomWorkflowActionResult.class, new Handler()
+               {
+                  Object handle(String resultMethod, Object[] resultArgs)
+                  {
+                     if ("getDirective".equals(resultMethod))
+                     {
+                        return args[0];
+                     }
+                     if ("getMessage".equals(resultMethod))
+                     {
+                        return args[1];
+                     }
+                     return UNHANDLED;
+                  }
+               });
+            }
+            return UNHANDLED;
+         }
+      });
+   }
+
+   /**
+    * Create a proxy for an interface
+    *
+    * @param type the interface
+    * @param handler the handler
+    *
+    * @return the proxy
+    */
+   static <T> T proxy(Class<T> type, Handler handler)
+   {
+      return type.cast(Proxy.newProxyInstance(StandIns.class.getClassLoader(), new Class[] {type}, handler));
+   }
+
+   /**
+    * Create a provider that supplies a single stand-in custom workflow service, for use with
+    * {@link WorkflowServiceLocator#setProvider(WorkflowServiceProvider)}
+    *
+    * @return the provider
+    */
+   public static WorkflowServiceProvider workflowServiceProvider()
+   {
+      final WebContentCustomWorkflowService service = workflowService();
+      return new WorkflowServiceProvider()
+      {
+         public WebContentCustomWorkflowService getService()
+         {
+            return service;
+         }
+      };
+   }
+
+   /**
+    * Invocation handler that answers the Object methods and returns default values for
+    * methods the subclass does not handle.
+    */
+   abstract static class Handler implements InvocationHandler
+   {
+      /** Returned by handle for methods that are not stubbed */
+      static final Object UNHANDLED = new Object();
+
+      /**
+       * Handle a method call
+       * @param method the method name
+       * @param args the arguments
+       * @return the result, or UNHANDLED
+       */
+      abstract Object handle(String method, Object[] args);
+
+      /**
+       * @see java.lang.reflect.InvocationHandler#invoke(java.lang.Object, java.lang.reflect.Method, java.lang.Object[])
+       */
+      public Object invoke(Object proxy, Method method, Object[] args)
+      {
+         String name = method.getName();
+         if ("equals".equals(name) && args != null && args.length == 1)
+         {
+            return Boolean.valueOf(proxy == args[0]);
+         }
+         if ("hashCode".equals(name) && args == null)
+         {
+            return Integer.valueOf(System.identityHashCode(proxy));
+         }
+         if ("toString".equals(name) && args == null)
+         {
+            return "StandIn@" + Integer.toHexString(System.identityHashCode(proxy));
+         }
+
+         Object result = handle(name, args);
+         if (result != UNHANDLED)
+         {
+            return result;
+         }
+
+         Class<?> type = method.getReturnType();
+         if (type == boolean.class)
+         {
+            return Boolean.FALSE;
+         }
+         if (type == int.class)
+         {
+            return Integer.valueOf(0);
+         }
+         if (type == long.class)
+         {
+            return Long.valueOf(0);
+         }
+         if (type.isPrimitive() && type != void.class)
+         {
+            throw new UnsupportedOperationException(name);
+         }
+         return null;
+      }
+   }
+}
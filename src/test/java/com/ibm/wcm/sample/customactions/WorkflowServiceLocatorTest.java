@@ -0,0 +1,160 @@
+/*
+ * Copyright 2014  IBM Corp.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.ibm.wcm.sample.customactions;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.naming.NamingException;
+
+import junit.framework.TestCase;
+
+import com.ibm.workplace.wcm.api.WebContentCustomWorkflowService;
+
+/**
+ * Tests looking up the custom workflow service from many threads at once and retrying failed lookups.
+ */
+public class WorkflowServiceLocatorTest extends TestCase
+{
+   /** Number of concurrent callers */
+   private static final int THREADS = 16;
+
+   /**
+    * @see junit.framework.TestCase#tearDown()
+    */
+   protected void tearDown()
+   {
+      WorkflowServiceLocator.setProvider(null);
+   }
+
+   /**
+    * Callers arriving during the first, slow lookup wait for it instead of failing
+    * @throws Exception If the callers do not finish
+    */
+   public void testColdStartCallersWaitForTheLookup() throws Exception
+   {
+      final WebContentCustomWorkflowService service = StandIns.workflowService();
+      final AtomicInteger lookups = new AtomicInteger();
+      WorkflowServiceLocator.setProvider(new WorkflowServiceProvider()
+      {
+         public WebContentCustomWorkflowService getService() throws NamingException
+         {
+            lookups.incrementAndGet();
+            try
+            {
+               Thread.sleep(200);
+            }
+            catch (InterruptedException e)
+            {
+               Thread.currentThread().interrupt();
+            }
+            return service;
+         }
+      });
+
+      final CountDownLatch start = new CountDownLatch(1);
+      final CountDownLatch done = new CountDownLatch(THREADS);
+      final Queue<Throwable> failures = new ConcurrentLinkedQueue<Throwable>();
+      for (int t = 0; t < THREADS; t++)
+      {
+         new Thread("lookup-" + t)
+         {
+            public void run()
+            {
+               try
+               {
+                  start.await();
+                  assertSame(service, WorkflowServiceLocator.getService());
+               }
+               catch (Throwable e)
+               {
+                  failures.add(e);
+               }
+               finally
+               {
+                  done.countDown();
+               }
+            }
+         }.start();
+      }
+      start.countDown();
+      assertTrue("Callers did not finish", done.await(60, TimeUnit.SECONDS));
+      assertTrue("Failures " + failures, failures.isEmpty());
+      assertEquals("One lookup", 1, lookups.get());
+   }
+
+   /**
+    * After a failed lookup callers fail without a lookup until the retry delay has passed
+    * @throws Exception If the test is interrupted
+    */
+   public void testFailedLookupIsRetriedAfterTheDelay() throws Exception
+   {
+      final WebContentCustomWorkflowService service = StandIns.workflowService();
+      final AtomicInteger lookups = new AtomicInteger();
+      WorkflowServiceLocator.setProvider(new WorkflowServiceProvider()
+      {
+         public WebContentCustomWorkflowService getService() throws NamingException
+         {
+            if (lookups.incrementAndGet() == 1)
+            {
+               throw new NamingException("Not bound yet");
+            }
+            return service;
+         }
+      });
+
+      Logger logger = Logger.getLogger(WorkflowServiceLocator.class.getName());
+      Level level = logger.getLevel();
+      logger.setLevel(Level.OFF);
+      try
+      {
+         long start = System.nanoTime();
+         try
+         {
+            WorkflowServiceLocator.getService();
+            fail("The first lookup fails");
+         }
+         catch (IllegalStateException e)
+         {
+            assertTrue(e.getCause() instanceof NamingException);
+         }
+         // The retry is due the delay after the failure, so certainly not before the delay since the start
+         if (System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(WorkflowServiceLocator.MIN_RETRY_DELAY_MILLIS))
+         {
+            try
+            {
+               WorkflowServiceLocator.getService();
+               fail("No retry before the delay");
+            }
+            catch (IllegalStateException e)
+            {
+               assertNull(e.getCause());
+            }
+            assertEquals(1, lookups.get());
+         }
+      }
+      finally
+      {
+         logger.setLevel(level);
+      }
+
+      Thread.sleep(WorkflowServiceLocator.MIN_RETRY_DELAY_MILLIS + 50);
+      assertSame(service, WorkflowServiceLocator.getService());
+      assertSame(service, WorkflowServiceLocator.getService());
+      assertEquals(2, lookups.get());
+   }
+}
@@ -0,0 +1,531 @@
+/*
+ * Copyright 2014  IBM Corp.
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing permissions and limitations under the
+ * License.
+ */
+package com.ibm.wcm.sample.customactions;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Command line tool searching a day's {@link AuditLog} file. <br />
+ * The file is read through a file channel in large blocks and each line is matched against the
+ * filters as bytes, relying on the fixed field order the audit log writes, so only the matching
+ * lines are decoded. Matching lines are printed as they are, or summarized per action and outcome.
+ * <pre>
+ * java -cp CustomWorkflowActions-tools.jar:CustomWorkflowActions.jar com.ibm.wcm.sample.customactions.AuditLogQuery &lt;directory or file&gt; [options]
+ *    -date yyyy-MM-dd     day to search, today if not set
+ *    -from HH:mm          first minute to include
+ *    -to HH:mm            first minute to leave out
+ *    -doc id              document id
+ *    -action name         action name
+ *    -outcome outcome     CONTINUE, PUBLISH_DOCUMENT, ROLLBACK_DOCUMENT, OTHER or FAILED
+ *    -text text           text contained in the line, such as part of the message
+ *    -summary             print the number of executions and times per action and outcome
+ * </pre>
+ */
+public class AuditLogQuery
+{
+   /** Size of the blocks read from the file */
+   private static final int READ_BUFFER_SIZE = 1024 * 1024;
+
+   /** Start of every line written by the audit log */
+   private static final byte[] TIME_FIELD = ascii("{\"ts\":");
+
+   /** Start of the action field */
+   private static final byte[] ACTION_FIELD = ascii(",\"action\":\"");
+
+   /** Start of the outcome field */
+   private static final byte[] OUTCOME_FIELD = ascii(",\"outcome\":\"");
+
+   /** Start of the duration field */
+   private static final byte[] DURATION_FIELD = ascii(",\"us\":");
+
+   /** The file searched */
+   private final File m_file;
+
+   /** Byte sequences a line must contain */
+   private final List<byte[]> m_patterns = new ArrayList<byte[]>();
+
+   /** First time included, in milliseconds since the epoch */
+   private long m_from = Long.MIN_VALUE;
+
+   /** First time left out, in milliseconds since the epoch */
+   private long m_to = Long.MAX_VALUE;
+
+   /** True to summarize the matching lines rather than print them */
+   private boolean m_summary;
+
+   /**
+    * Constructor
+    * @param file the audit log file to search
+    */
+   public AuditLogQuery(File file)
+   {
+      m_file = file;
+   }
+
+   /**
+    * Search an audit log file
+    * @param args the command line arguments, see the class description
+    * @throws Exception If the arguments are invalid or the file cannot be read
+    */
+   public static void main(String[] args) throws Exception
+   {
+      if (args.length == 0)
+      {
+         usage();
+         return;
+      }
+      String date = null;
+      String from = null;
+      String to = null;
+      List<String[]> filters = new ArrayList<String[]>();
+      boolean summary = false;
+      for (int i = 1; i < args.length; i++)
+      {
+         String option = args[i];
+         if ("-summary".equals(option))
+         {
+            summary = true;
+         }
+         else if (i + 1 < args.length && "-date".equals(option))
+         {
+            date = args[++i];
+         }
+         else if (i + 1 < args.length && "-from".equals(option))
+         {
+            from = args[++i];
+         }
+         else if (i + 1 < args.length && "-to".equals(option))
+         {
+            to = args[++i];
+         }
+         else if (i + 1 < args.length && ("-doc".equals(option) || "-action".equals(option)
+            || "-outcome".equals(option) || "-text".equals(option)))
+         {
+            filters.add(new String[] {option, args[++i]});
+         }
+         else
+         {
+            usage();
+            return;
+         }
+      }
+
+      SimpleDateFormat dayFormat = new SimpleDateFormat(AuditLog.FILE_DATE_PATTERN);
+      if (date == null)
+      {
+         date = dayFormat.format(new Date());
+      }
+      File file = new File(args[0]);
+      if (file.isDirectory())
+      {
+         file = new File(file, AuditLog.FILE_PREFIX + date + AuditLog.FILE_SUFFIX);
+      }
+
+      AuditLogQuery query = new AuditLogQuery(file);
+      SimpleDateFormat minuteFormat = new SimpleDateFormat(AuditLog.FILE_DATE_PATTERN + " HH:mm");
+      if (from != null)
+      {
+         query.setFrom(minuteFormat.parse(date + " " + from).getTime());
+      }
+      if (to != null)
+      {
+         query.setTo(minuteFormat.parse(date + " " + to).getTime());
+      }
+      for (String[] filter : filters)
+      {
+         if ("-doc".equals(filter[0]))
+         {
+            query.addField("doc", filter[1]);
+         }
+         else if ("-action".equals(filter[0]))
+         {
+            query.addField("action", filter[1]);
+         }
+         else if ("-outcome".equals(filter[0]))
+         {
+            query.addField("outcome", filter[1]);
+         }
+         else
+         {
+            query.addText(filter[1]);
+         }
+      }
+      query.setSummary(summary);
+
+      OutputStream out = new BufferedOutputStream(System.out, 64 * 1024);
+      query.run(out);
+      out.flush();
+   }
+
+   /**
+    * Print the command line usage
+    */
+   private static void usage()
+   {
+      PrintStream out = System.err;
+      out.println("Usage: " + AuditLogQuery.class.getName() + " <directory or file> [options]");
+      out.println("   -date yyyy-MM-dd     day to search, today if not set");
+      out.println("   -from HH:mm          first minute to include");
+      out.println("   -to HH:mm            first minute to leave out");
+      out.println("   -doc id              document id");
+      out.println("   -action name         action name");
+      out.println("   -outcome outcome     CONTINUE, PUBLISH_DOCUMENT, ROLLBACK_DOCUMENT, OTHER or FAILED");
+      out.println("   -text text           text contained in the line, such as part of the message");
+      out.println("   -summary             print the number of executions and times per action and outcome");
+   }
+
+   /**
+    * Only match lines with a field value
+    * @param field the field name
+    * @param value the field value
+    */
+   public void addField(String field, String value)
+   {
+      m_patterns.add(utf8("\"" + field + "\":" + quote(value)));
+   }
+
+   /**
+    * Only match lines containing text, in the message or any other field
+    * @param text the text
+    */
+   public void addText(String text)
+   {
+      String quoted = quote(text);
+      m_patterns.add(utf8(quoted.substring(1, quoted.length() - 1)));
+   }
+
+   /**
+    * @param from the first time included, in milliseconds since the epoch
+    */
+   public void setFrom(long from)
+   {
+      m_from = from;
+   }
+
+   /**
+    * @param to the first time left out, in milliseconds since the epoch
+    */
+   public void setTo(long to)
+   {
+      m_to = to;
+   }
+
+   /**
+    * @param summary true to summarize the matching lines rather than print them
+    */
+   public void setSummary(boolean summary)
+   {
+      m_summary = summary;
+   }
+
+   /**
+    * Search the file
+    * @param out the stream the matching lines or the summary are written to
+    * @throws IOException If the file cannot be read or the output cannot be written
+    */
+   public void run(OutputStream out) throws IOException
+   {
+      Map<String, Summary> summaries = new TreeMap<String, Summary>();
+      ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+      FileChannel channel = new FileInputStream(m_file).getChannel();
+      try
+      {
+         while (channel.read(buffer) >= 0 || buffer.position() > 0)
+         {
+            byte[] bytes = buffer.array();
+            int end = buffer.position();
+            int start = 0;
+            for (int i = 0; i < end; i++)
+            {
+               if (bytes[i] == '\n')
+               {
+                  match(bytes, start, i + 1, out, summaries);
+                  start = i + 1;
+               }
+            }
+            if (start == 0 && end == buffer.capacity())
+            {
+               // A line longer than the buffer
+               ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+               buffer.flip();
+               larger.put(buffer);
+               buffer = larger;
+            }
+            else if (start == 0 && channel.position() == channel.size())
+            {
+               // The last line is being written
+               break;
+            }
+            else
+            {
+               buffer.flip();
+               buffer.position(start);
+               buffer.compact();
+            }
+         }
+      }
+      finally
+      {
+         channel.close();
+      }
+
+      if (m_summary)
+      {
+         PrintStream print = new PrintStream(out, false, "UTF-8");
+         print.println(String.format("%-60s %-18s %10s %10s %10s", "action", "outcome", "count", "mean ms", "max ms"));
+         for (Summary summary : summaries.values())
+         {
+            print.println(String.format("%-60s %-18s %10d %10.3f %10.3f", summary.m_action, summary.m_outcome,
+               summary.m_count, summary.m_totalMicros / 1000d / summary.m_count, summary.m_maxMicros / 1000d));
+         }
+         print.flush();
+      }
+   }
+
+   /**
+    * Match a line against the filters
+    * @param bytes the buffer holding the line
+    * @param start index of the first byte of the line
+    * @param end index after the end of line
+    * @param out the stream matching lines are written to
+    * @param summaries the summaries of the matching lines
+    * @throws IOException If the line cannot be written
+    */
+   private void match(byte[] bytes, int start, int end, OutputStream out, Map<String, Summary> summaries) throws IOException
+   {
+      if (!startsWith(bytes, start, end, TIME_FIELD))
+      {
+         return;
+      }
+      if (m_from != Long.MIN_VALUE || m_to != Long.MAX_VALUE)
+      {
+         long time = parseLong(bytes, start + TIME_FIELD.length, end);
+         if (time < m_from || time >= m_to)
+         {
+            return;
+         }
+      }
+      for (byte[] pattern : m_patterns)
+      {
+         if (indexOf(bytes, start, end, pattern) < 0)
+         {
+            return;
+         }
+      }
+
+      if (!m_summary)
+      {
+         out.write(bytes, start, end - start);
+         return;
+      }
+      String action = stringField(bytes, start, end, ACTION_FIELD);
+      String outcome = stringField(bytes, start, end, OUTCOME_FIELD);
+      int duration = indexOf(bytes, start, end, DURATION_FIELD);
+      long micros = (duration >= 0) ? parseLong(bytes, duration + DURATION_FIELD.length, end) : 0;
+      String key = action + '\n' + outcome;
+      Summary summary = summaries.get(key);
+      if (summary == null)
+      {
+         summary = new Summary(action, outcome);
+         summaries.put(key, summary);
+      }
+      summary.m_count++;
+      summary.m_totalMicros += micros;
+      summary.m_maxMicros = Math.max(summary.m_maxMicros, micros);
+   }
+
+   /**
+    * Returns whether a line starts with a byte sequence
+    * @param bytes the buffer holding the line
+    * @param start index of the first byte of the line
+    * @param end index after the end of line
+    * @param prefix the byte sequence
+    * @return true if the line starts with the byte sequence
+    */
+   private static boolean startsWith(byte[] bytes, int start, int end, byte[] prefix)
+   {
+      if (end - start < prefix.length)
+      {
+         return false;
+      }
+      for (int i = 0; i < prefix.length; i++)
+      {
+         if (bytes[start + i] != prefix[i])
+         {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Returns the index of a byte sequence in a line
+    * @param bytes the buffer holding the line
+    * @param start index of the first byte of the line
+    * @param end index after the end of line
+    * @param pattern the byte sequence
+    * @return the index of the byte sequence, -1 if the line does not contain it
+    */
+   private static int indexOf(byte[] bytes, int start, int end, byte[] pattern)
+   {
+      byte first = pattern[0];
+      int last = end - pattern.length;
+      for (int i = start; i <= last; i++)
+      {
+         if (bytes[i] == first)
+         {
+            int j = 1;
+            while (j < pattern.length && bytes[i + j] == pattern[j])
+            {
+               j++;
+            }
+            if (j == pattern.length)
+            {
+               return i;
+            }
+         }
+      }
+      return -1;
+   }
+
+   /**
+    * Parse the digits of a number
+    * @param bytes the buffer holding the number
+    * @param start index of the first digit
+    * @param end index after which parsing stops
+    * @return the number
+    */
+   private static long parseLong(byte[] bytes, int start, int end)
+   {
+      long value = 0;
+      for (int i = start; i < end && bytes[i] >= '0' && bytes[i] <= '9'; i++)
+      {
+         value = value * 10 + (bytes[i] - '0');
+      }
+      return value;
+   }
+
+   /**
+    * Returns the value of a string field, as written
+    * @param bytes the buffer holding the line
+    * @param start index of the first byte of the line
+    * @param end index after the end of line
+    * @param field the start of the field, up to its opening quote
+    * @return the field value, empty if the line does not hold the field
+    * @throws UnsupportedEncodingException If UTF-8 is not supported
+    */
+   private static String stringField(byte[] bytes, int start, int end, byte[] field) throws UnsupportedEncodingException
+   {
+      int from = indexOf(bytes, start, end, field);
+      if (from < 0)
+      {
+         return "";
+      }
+      from += field.length;
+      int to = from;
+      while (to < end && (bytes[to] != '"' || bytes[to - 1] == '\\'))
+      {
+         to++;
+      }
+      return new String(bytes, from, to - from, "UTF-8");
+   }
+
+   /**
+    * Quote a value the way the audit log writes it
+    * @param value the value
+    * @return the value as a JSON string
+    */
+   private static String quote(String value)
+   {
+      StringBuilder text = new StringBuilder(value.length() + 2);
+      AuditLog.appendString(text, value);
+      return text.toString();
+   }
+
+   /**
+    * @param text text to encode
+    * @return the text as UTF-8
+    */
+   private static byte[] utf8(String text)
+   {
+      try
+      {
+         return text.getBytes("UTF-8");
+      }
+      catch (UnsupportedEncodingException e)
+      {
+         throw new IllegalStateException(e);
+      }
+   }
+
+   /**
+    * @param text text to encode
+    * @return the text as ASCII
+    */
+   private static byte[] ascii(String text)
+   {
+      try
+      {
+         return text.getBytes("US-ASCII");
+      }
+      catch (UnsupportedEncodingException e)
+      {
+         throw new IllegalStateException(e);
+      }
+   }
+
+   /**
+    * Number of executions and times of an action and outcome
+    */
+   private static final class Summary
+   {
+      /** The action name */
+      final String m_action;
+
+      /** The outcome */
+      final String m_outcome;
+
+      /** Number of executions */
+      long m_count;
+
+      /** Total execution time in microseconds */
+      long m_totalMicros;
+
+      /** Longest execution time in microseconds */
+      long m_maxMicros;
+
+      /**
+       * Constructor
+       * @param action the action name
+       * @param outcome the outcome
+       */
+      Summary(String action, String outcome)
+      {
+         m_action = action;
+         m_outcome = outcome;
+      }
+   }
+}